@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.ma2;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ucar.nc2.bench.BenchmarkData;
+
+/** Section, copy and iterator operations on a 3D float Array. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArrayBenchmark {
+
+  private static final int NT = 20;
+  private static final int NY = 180;
+  private static final int NX = 360;
+
+  private Array array; // canonical order
+  private Array strided; // every other point in y and x
+  private Array transposed; // y and x swapped
+  private Array target;
+
+  @Setup
+  public void setup() throws InvalidRangeException {
+    float[] field = BenchmarkData.makeField(NY, NX, 42);
+    float[] data = new float[NT * NY * NX];
+    for (int t = 0; t < NT; t++) {
+      System.arraycopy(field, 0, data, t * field.length, field.length);
+    }
+    array = Array.factory(DataType.FLOAT, new int[] {NT, NY, NX}, data);
+    strided = array.section(new int[] {0, 0, 0}, new int[] {NT, NY / 2, NX / 2}, new int[] {1, 2, 2});
+    transposed = array.transpose(1, 2);
+    target = Array.factory(DataType.FLOAT, array.getShape());
+  }
+
+  @Benchmark
+  public Array copy() {
+    return array.copy();
+  }
+
+  @Benchmark
+  public Array copyStridedSection() {
+    return strided.copy();
+  }
+
+  @Benchmark
+  public Array copyTransposed() {
+    return transposed.copy();
+  }
+
+  @Benchmark
+  public Array sectionOneTime() throws InvalidRangeException {
+    return array.section(new int[] {NT / 2, 0, 0}, new int[] {1, NY, NX}).copy();
+  }
+
+  @Benchmark
+  public Array mamathCopy() {
+    MAMath.copy(target, array);
+    return target;
+  }
+
+  @Benchmark
+  public double iterateFloat() {
+    double sum = 0;
+    IndexIterator iter = array.getIndexIterator();
+    while (iter.hasNext()) {
+      sum += iter.getFloatNext();
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double iterateStridedDouble() {
+    double sum = 0;
+    IndexIterator iter = strided.getIndexIterator();
+    while (iter.hasNext()) {
+      sum += iter.getDoubleNext();
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double indexGet() {
+    double sum = 0;
+    Index index = array.getIndex();
+    for (int t = 0; t < NT; t++) {
+      for (int y = 0; y < NY; y++) {
+        for (int x = 0; x < NX; x++) {
+          sum += array.getFloat(index.set(t, y, x));
+        }
+      }
+    }
+    return sum;
+  }
+}
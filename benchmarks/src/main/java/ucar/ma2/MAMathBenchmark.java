@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.ma2;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ucar.nc2.bench.BenchmarkData;
+
+/**
+ * MAMath statistics and copies on a 3D float Array of 1.3 million values. When canonical is false the same data is
+ * seen through an index flipped twice, which is in canonical order but goes through an IndexIterator, as all
+ * non-canonical arrays do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MAMathBenchmark {
+
+  private static final int NT = 20;
+  private static final int NY = 180;
+  private static final int NX = 360;
+  private static final double MISSING = -9999;
+
+  @Param({"true", "false"})
+  public boolean canonical;
+
+  @Param({"1", "4"})
+  public int parallelism;
+
+  private Array array;
+  private Array doubles;
+  private Array target;
+  private int saveParallelism;
+
+  @Setup
+  public void setup() {
+    float[] field = BenchmarkData.makeField(NY, NX, 42);
+    float[] data = new float[NT * NY * NX];
+    for (int t = 0; t < NT; t++) {
+      System.arraycopy(field, 0, data, t * field.length, field.length);
+    }
+    data[data.length / 2] = (float) MISSING;
+    array = Array.factory(DataType.FLOAT, new int[] {NT, NY, NX}, data);
+    doubles = Array.factory(DataType.DOUBLE, array.getShape());
+    MAMath.copyDouble(doubles, array);
+    target = Array.factory(DataType.FLOAT, array.getShape());
+    if (!canonical) {
+      array = array.flip(0).flip(0);
+      doubles = doubles.flip(0).flip(0);
+    }
+    saveParallelism = MAMath.getDefaultParallelism();
+    MAMath.setDefaultParallelism(parallelism);
+  }
+
+  @TearDown
+  public void tearDown() {
+    MAMath.setDefaultParallelism(saveParallelism);
+  }
+
+  @Benchmark
+  public MAMath.MinMax minMax() {
+    return MAMath.getMinMax(array);
+  }
+
+  @Benchmark
+  public MAMath.MinMax minMaxSkipMissing() {
+    return MAMath.getMinMaxSkipMissingData(array, MISSING);
+  }
+
+  @Benchmark
+  public double sumDouble() {
+    return MAMath.sumDouble(doubles);
+  }
+
+  @Benchmark
+  public double sumSkipMissing() {
+    return MAMath.sumDoubleSkipMissingData(array, MISSING);
+  }
+
+  @Benchmark
+  public Array copy() {
+    MAMath.copy(target, array);
+    return target;
+  }
+
+  @Benchmark
+  public Array add() {
+    return MAMath.add(doubles, doubles);
+  }
+
+  @Benchmark
+  public Array convert2packed() {
+    return MAMath.convert2packed(array, MISSING, 16, DataType.SHORT);
+  }
+}
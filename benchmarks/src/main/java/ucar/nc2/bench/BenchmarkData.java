@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/** Locate and generate the data used by the benchmarks. */
+public class BenchmarkData {
+
+  /** Set by the jmh task to the root of the repository. */
+  public static final String ROOT_DIR_PROPERTY = "benchmarks.rootDir";
+
+  private BenchmarkData() {}
+
+  /**
+   * Find a file in this repository, for example "grib/src/test/data/ds.snow.grib2".
+   *
+   * @throws IOException if the file does not exist
+   */
+  public static String repoFile(String path) throws IOException {
+    File file = new File(System.getProperty(ROOT_DIR_PROPERTY, "."), path);
+    if (!file.exists()) {
+      throw new IOException("Benchmark data not found: " + file.getAbsolutePath() + "; set -D" + ROOT_DIR_PROPERTY);
+    }
+    return file.getAbsolutePath();
+  }
+
+  /** A new temporary file, deleted when the JVM exits. */
+  public static File tempFile(String prefix, String suffix) throws IOException {
+    File file = File.createTempFile(prefix, suffix);
+    file.deleteOnExit();
+    return file;
+  }
+
+  /** A smooth 2D field with some noise, nx varying fastest. Same seed gives the same field. */
+  public static float[] makeField(int ny, int nx, long seed) {
+    Random random = new Random(seed);
+    float[] field = new float[ny * nx];
+    for (int y = 0; y < ny; y++) {
+      for (int x = 0; x < nx; x++) {
+        field[y * nx + x] =
+            (float) (280.0 + 15.0 * Math.sin(x / 80.0) * Math.cos(y / 60.0) + 0.05 * random.nextGaussian());
+      }
+    }
+    return field;
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.filter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ucar.nc2.bench.BenchmarkData;
+
+/**
+ * Compare the Blosc filter with its inner codecs against the Deflate filter, on a chunk of a smooth float field with
+ * some noise, as typically found in Zarr and netCDF-4 model output.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterBenchmark {
+
+  @Param({"deflate", "blosc-lz4", "blosc-lz4hc", "blosc-zlib", "blosc-zstd"})
+  public String codec;
+
+  @Param({"1048576"})
+  public int chunkSize;
+
+  @Param({"1", "4"})
+  public int nthreads;
+
+  private Filter filter;
+  private byte[] raw;
+  private byte[] encoded;
+
+  @Setup
+  public void setup() throws IOException {
+    Map<String, Object> props = new HashMap<>();
+    if (codec.equals("deflate")) {
+      props.put("level", 5);
+      filter = new Deflate(props);
+    } else {
+      props.put(Blosc.Keys.CNAME_KEY, codec.substring("blosc-".length()));
+      props.put(Blosc.Keys.CLEVEL_KEY, 5);
+      props.put(Blosc.Keys.SHUFFLE_KEY, 1);
+      props.put(Blosc.Keys.TYPESIZE_KEY, Float.BYTES);
+      props.put(Blosc.Keys.NTHREADS_KEY, nthreads);
+      filter = new Blosc(props);
+    }
+    float[] field = BenchmarkData.makeField(chunkSize / Float.BYTES / 1024, 1024, 42);
+    ByteBuffer bb = ByteBuffer.allocate(field.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    bb.asFloatBuffer().put(field);
+    raw = bb.array();
+    encoded = filter.encode(raw);
+  }
+
+  @Benchmark
+  public byte[] encode() throws IOException {
+    return filter.encode(raw);
+  }
+
+  @Benchmark
+  public byte[] decode() throws IOException {
+    return filter.decode(encoded);
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.grib.grib2;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ucar.nc2.bench.BenchmarkData;
+import ucar.unidata.io.RandomAccessFile;
+
+/**
+ * Grib2DataReader for each data representation template, using the GRIB2 test files in the grib module:
+ * 0 = simple packing, 2 = complex packing, 3 = complex packing with spatial differencing, 40 = JPEG 2000, 41 = PNG.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Grib2DataReaderBenchmark {
+
+  @Param({"0", "2", "3", "40", "41"})
+  public int drsTemplate;
+
+  private RandomAccessFile raf;
+  private Grib2Record record;
+
+  private static String fileFor(int template) {
+    switch (template) {
+      case 0:
+        return "grib/src/test/data/berkes.grib2";
+      case 2:
+        return "grib/src/test/data/ds.snow.grib2";
+      case 3:
+        return "grib/src/test/data/GFS_Global_onedeg_20220627_0000.TotalPrecip.Out48hrs.grib2";
+      case 40:
+        return "grib/src/test/data/ofs_atl.grib2";
+      case 41:
+        return "grib/src/test/data/MRMS_LowLevelCompositeReflectivity_00.50_20141207-072038.grib2";
+      default:
+        throw new IllegalArgumentException("No test file for DRS template " + template);
+    }
+  }
+
+  @Setup
+  public void setup() throws IOException {
+    raf = new RandomAccessFile(BenchmarkData.repoFile(fileFor(drsTemplate)), "r");
+    Grib2RecordScanner scanner = new Grib2RecordScanner(raf);
+    while (scanner.hasNext()) {
+      Grib2Record gr = scanner.next();
+      if (gr.getDataRepresentationSection().getDataTemplate() == drsTemplate) {
+        record = gr;
+        break;
+      }
+    }
+    if (record == null) {
+      throw new IllegalStateException("No record with DRS template " + drsTemplate + " in " + raf.getLocation());
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    raf.close();
+  }
+
+  @Benchmark
+  public float[] readData() throws IOException {
+    return record.readData(raf);
+  }
+}
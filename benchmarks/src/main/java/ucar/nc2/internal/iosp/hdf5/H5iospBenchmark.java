@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.internal.iosp.hdf5;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Variable;
+import ucar.nc2.bench.BenchmarkData;
+import ucar.nc2.ffi.netcdf.NetcdfClibrary;
+import ucar.nc2.write.Nc4Chunking;
+import ucar.nc2.write.Nc4ChunkingStrategy;
+import ucar.nc2.write.NetcdfFileFormat;
+import ucar.nc2.write.NetcdfFormatWriter;
+
+/**
+ * Chunked, deflated reads with H5iospNew. If the netCDF C library is loaded, a netCDF-4 file is generated;
+ * otherwise the small netCDF-4 files in the cdm-core test data are used.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class H5iospBenchmark {
+
+  private static final int NTIMES = 24;
+  private static final int NY = 361;
+  private static final int NX = 720;
+
+  private static final String[] LOCAL_FILES =
+      {"cdm/core/src/test/data/testCFGridWriter.nc4", "cdm/core/src/test/data/testSpecialAttributes.nc4"};
+
+  @Param({"1", "4"})
+  public int parallelism;
+
+  private final List<NetcdfFile> ncfiles = new ArrayList<>();
+  private final List<Variable> variables = new ArrayList<>();
+
+  @Setup
+  public void setup() throws IOException, InvalidRangeException {
+    H5tiledLayoutBB.setDefaultParallelism(parallelism);
+    List<String> locations = new ArrayList<>();
+    if (NetcdfClibrary.isLibraryPresent()) {
+      locations.add(generate());
+    } else {
+      for (String path : LOCAL_FILES) {
+        locations.add(BenchmarkData.repoFile(path));
+      }
+    }
+
+    for (String location : locations) {
+      NetcdfFile ncfile = NetcdfFiles.open(location);
+      ncfiles.add(ncfile);
+      for (Variable v : ncfile.getVariables()) {
+        if (v.getDataType().isNumeric()) {
+          variables.add(v);
+        }
+      }
+    }
+  }
+
+  private String generate() throws IOException, InvalidRangeException {
+    File file = BenchmarkData.tempFile("h5iosp", ".nc4");
+    Nc4Chunking chunker = Nc4ChunkingStrategy.factory(Nc4Chunking.Strategy.standard, 5, true);
+    NetcdfFormatWriter.Builder writerb =
+        NetcdfFormatWriter.createNewNetcdf4(NetcdfFileFormat.NETCDF4, file.getPath(), chunker).setFill(false);
+    writerb.addDimension("time", NTIMES);
+    writerb.addDimension("lat", NY);
+    writerb.addDimension("lon", NX);
+    writerb.addVariable("temp", DataType.FLOAT, "time lat lon");
+
+    float[] field = BenchmarkData.makeField(NY, NX, 42);
+    try (NetcdfFormatWriter writer = writerb.build()) {
+      for (int t = 0; t < NTIMES; t++) {
+        writer.write("temp", new int[] {t, 0, 0}, Array.factory(DataType.FLOAT, new int[] {1, NY, NX}, field));
+      }
+    }
+    return file.getPath();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    H5tiledLayoutBB.setDefaultParallelism(1);
+    for (NetcdfFile ncfile : ncfiles) {
+      ncfile.close();
+    }
+  }
+
+  // read through the iosp, so that small variables are not served from the Variable cache
+  @Benchmark
+  public void readAll(Blackhole bh) throws IOException, InvalidRangeException {
+    for (Variable v : variables) {
+      bh.consume(v.getNetcdfFile().getIosp().readData(v, v.getShapeAsSection()));
+    }
+  }
+}
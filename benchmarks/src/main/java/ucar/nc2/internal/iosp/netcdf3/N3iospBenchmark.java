@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.internal.iosp.netcdf3;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Section;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Variable;
+import ucar.nc2.bench.BenchmarkData;
+import ucar.nc2.iosp.IOServiceProvider;
+import ucar.nc2.write.NetcdfFormatWriter;
+
+/**
+ * Record variable reads with N3iospNew, on a generated netCDF-3 file. The record variables are interleaved in the
+ * file, so reading one of them touches every record.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class N3iospBenchmark {
+
+  private static final int NTIMES = 100;
+  private static final int NY = 180;
+  private static final int NX = 360;
+
+  private NetcdfFile ncfile;
+  private IOServiceProvider iosp;
+  private Variable temp;
+  private Variable time;
+  private Section oneRecord;
+  private Section timeSeries;
+
+  @Setup
+  public void setup() throws IOException, InvalidRangeException {
+    File file = BenchmarkData.tempFile("n3iosp", ".nc");
+    NetcdfFormatWriter.Builder writerb = NetcdfFormatWriter.createNewNetcdf3(file.getPath()).setFill(false);
+    writerb.addUnlimitedDimension("time");
+    writerb.addDimension("y", NY);
+    writerb.addDimension("x", NX);
+    writerb.addVariable("time", DataType.DOUBLE, "time");
+    writerb.addVariable("temp", DataType.FLOAT, "time y x");
+    writerb.addVariable("rh", DataType.SHORT, "time y x");
+
+    float[] field = BenchmarkData.makeField(NY, NX, 42);
+    short[] rh = new short[NY * NX];
+    for (int i = 0; i < rh.length; i++) {
+      rh[i] = (short) (field[i] - 250);
+    }
+    try (NetcdfFormatWriter writer = writerb.build()) {
+      for (int t = 0; t < NTIMES; t++) {
+        int[] origin = {t, 0, 0};
+        int[] shape = {1, NY, NX};
+        writer.write("time", new int[] {t}, Array.factory(DataType.DOUBLE, new int[] {1}, new double[] {t}));
+        writer.write("temp", origin, Array.factory(DataType.FLOAT, shape, field));
+        writer.write("rh", origin, Array.factory(DataType.SHORT, shape, rh));
+      }
+    }
+
+    ncfile = NetcdfFiles.open(file.getPath());
+    // read through the iosp, so that the coordinate is not served from the Variable cache
+    iosp = ncfile.getIosp();
+    temp = ncfile.findVariable("temp");
+    time = ncfile.findVariable("time");
+    oneRecord = new Section(new int[] {NTIMES / 2, 0, 0}, new int[] {1, NY, NX});
+    timeSeries = new Section(new int[] {0, NY / 2, NX / 2}, new int[] {NTIMES, 1, 1});
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    ncfile.close();
+  }
+
+  @Benchmark
+  public Array readAllRecords() throws IOException, InvalidRangeException {
+    return iosp.readData(temp, temp.getShapeAsSection());
+  }
+
+  @Benchmark
+  public Array readOneRecord() throws IOException, InvalidRangeException {
+    return iosp.readData(temp, oneRecord);
+  }
+
+  @Benchmark
+  public Array readTimeSeries() throws IOException, InvalidRangeException {
+    return iosp.readData(temp, timeSeries);
+  }
+
+  @Benchmark
+  public Array readCoordinate() throws IOException, InvalidRangeException {
+    return iosp.readData(time, time.getShapeAsSection());
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.iosp.bufr;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ucar.ma2.StructureData;
+import ucar.ma2.StructureDataIterator;
+import ucar.ma2.StructureMembers;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Structure;
+import ucar.nc2.bench.BenchmarkData;
+import ucar.unidata.io.RandomAccessFile;
+
+/** BUFR message scanning and decoding with BufrIosp2, using the BUFR test files in this repository. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BufrIospBenchmark {
+
+  @Param({"bufr/src/test/data/RadiosondeStationData.bufr", "cdm/core/src/test/data/dataset/nestedTable.bufr",
+      "cdm-test/src/test/data/ucar/nc2/bufr/IUPT02_KBBY_281400_522246081.bufr.2018032814"})
+  public String filename;
+
+  private NetcdfFile ncfile;
+  private Structure obs;
+  private RandomAccessFile raf;
+
+  @Setup
+  public void setup() throws IOException {
+    String location = BenchmarkData.repoFile(filename);
+    ncfile = NetcdfFiles.open(location);
+    obs = (Structure) ncfile.findVariable(BufrIosp2.obsRecordName);
+    raf = new RandomAccessFile(location, "r");
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    ncfile.close();
+    raf.close();
+  }
+
+  /** Decode every observation in the file. */
+  @Benchmark
+  public void decodeObs(Blackhole bh) throws IOException {
+    try (StructureDataIterator iter = obs.getStructureIterator()) {
+      while (iter.hasNext()) {
+        StructureData sdata = iter.next();
+        for (StructureMembers.Member m : sdata.getMembers()) {
+          bh.consume(sdata.getArray(m));
+        }
+      }
+    }
+  }
+
+  /** Find the messages in the file and read their headers. */
+  @Benchmark
+  public void scanMessages(Blackhole bh) throws IOException {
+    MessageScanner scanner = new MessageScanner(raf);
+    while (scanner.hasNext()) {
+      bh.consume(scanner.next());
+    }
+  }
+}
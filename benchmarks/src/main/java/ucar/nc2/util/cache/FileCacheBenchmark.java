@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.util.cache;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import ucar.nc2.dataset.DatasetUrl;
+import ucar.nc2.util.CancelTask;
+
+/**
+ * Many threads acquiring and releasing files through each FileCacheIF implementation. The files do no I/O; opening
+ * one parks the thread for openMicros, standing in for the open of a real file. With a few keys most acquires are
+ * hits on the same entries; with many keys the cache is over its soft limit and evicts.
+ * Change the number of threads with, for example, {@code -Pjmh.args="-t 500"}.
+ * FileCacheGuava hands the same file to every thread, so it does less work than the others.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(64)
+@Fork(1)
+public class FileCacheBenchmark {
+
+  private static final int MIN_ELEMENTS = 100;
+  private static final int SOFT_LIMIT = 200;
+
+  @Param({"FileCache", "FileCacheARC", "FileCacheGuava", "FileCacheStriped"})
+  public String impl;
+
+  @Param({"16", "1000"})
+  public int nkeys;
+
+  @Param({"100"})
+  public int openMicros;
+
+  private FileCacheIF cache;
+  private DatasetUrl[] urls;
+  private FileFactory factory;
+
+  private static class FakeFile implements FileCacheable {
+    private final String location;
+    private FileCacheIF cache;
+
+    FakeFile(String location) {
+      this.location = location;
+    }
+
+    @Override
+    public String getLocation() {
+      return location;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      if (cache != null)
+        cache.release(this);
+    }
+
+    @Override
+    public long getLastModified() {
+      return 0;
+    }
+
+    @Override
+    public synchronized void setFileCache(FileCacheIF fileCache) {
+      this.cache = fileCache;
+    }
+
+    @Override
+    public void release() {}
+
+    @Override
+    public void reacquire() {}
+  }
+
+  @Setup
+  public void setup() {
+    switch (impl) {
+      case "FileCache":
+        cache = new FileCache(impl, MIN_ELEMENTS, SOFT_LIMIT, -1, -1);
+        break;
+      case "FileCacheARC":
+        cache = new FileCacheARC(impl, MIN_ELEMENTS, SOFT_LIMIT, -1, -1);
+        break;
+      case "FileCacheGuava":
+        cache = new FileCacheGuava(impl, SOFT_LIMIT);
+        break;
+      case "FileCacheStriped":
+        cache = new FileCacheStriped(impl, MIN_ELEMENTS, SOFT_LIMIT, -1);
+        break;
+      default:
+        throw new IllegalArgumentException(impl);
+    }
+
+    urls = new DatasetUrl[nkeys];
+    for (int i = 0; i < nkeys; i++) {
+      urls[i] = DatasetUrl.create(null, "/data/file" + i + ".nc");
+    }
+    long openNanos = TimeUnit.MICROSECONDS.toNanos(openMicros);
+    factory = (DatasetUrl location, int buffer_size, CancelTask cancelTask, Object iospMessage) -> {
+      LockSupport.parkNanos(openNanos);
+      return new FakeFile(location.trueurl);
+    };
+  }
+
+  @TearDown
+  public void tearDown() {
+    cache.clearCache(true);
+    FileCache.shutdown();
+    FileCacheStriped.shutdown();
+  }
+
+  /** Acquire a random file and release it. */
+  @Benchmark
+  public FileCacheable acquireRelease() throws IOException {
+    FileCacheable file = cache.acquire(factory, urls[ThreadLocalRandom.current().nextInt(nkeys)]);
+    file.close();
+    return file;
+  }
+}
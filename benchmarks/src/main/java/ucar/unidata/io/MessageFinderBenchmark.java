@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.unidata.io;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ucar.nc2.bench.BenchmarkData;
+import ucar.nc2.grib.grib2.Grib2RecordScanner;
+import ucar.nc2.iosp.bufr.MessageScanner;
+
+/**
+ * Finding the messages in a generated feed of concatenated GRIB-2 or BUFR messages, made by repeating the test files
+ * in this repository with WMO headers in between, as they come over the IDD. Compares searching with
+ * RandomAccessFile.searchForward to MessageFinder, and also times the full record scanners that use MessageFinder.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class MessageFinderBenchmark {
+
+  @Param({"grib2", "bufr"})
+  public String format;
+
+  @Param({"1024"})
+  public int feedMbytes;
+
+  private File file;
+  private RandomAccessFile raf;
+  private KMPMatch matcher;
+
+  private static String[] filesFor(String format) {
+    if (format.equals("grib2")) {
+      return new String[] {"grib/src/test/data/ds.sky.grib2", "grib/src/test/data/ds.snow.grib2",
+          "grib/src/test/data/sref_eta.grib2"};
+    }
+    return new String[] {"bufr/src/test/data/RadiosondeStationData.bufr",
+        "cdm/core/src/test/data/dataset/nestedTable.bufr",
+        "cdm-test/src/test/data/ucar/nc2/bufr/IUPT02_KBBY_281400_522246081.bufr.2018032814"};
+  }
+
+  @Setup
+  public void setup() throws IOException {
+    List<byte[]> sources = new ArrayList<>();
+    for (String filename : filesFor(format)) {
+      sources.add(Files.readAllBytes(Paths.get(BenchmarkData.repoFile(filename))));
+    }
+    file = BenchmarkData.tempFile("feed", "." + format);
+    Random random = new Random(17);
+    long size = (long) feedMbytes * 1024 * 1024;
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1024 * 1024)) {
+      for (long n = 0, count = 0; n < size; count++) {
+        byte[] header = String.format("\001\r\r\n%03d \r\r\nIUSN%02d KWBC %06d\r\r\n", count % 1000,
+            random.nextInt(100), random.nextInt(1000000)).getBytes(StandardCharsets.US_ASCII);
+        byte[] source = sources.get(random.nextInt(sources.size()));
+        out.write(header);
+        out.write(source);
+        out.write(new byte[] {'\r', '\r', '\n', 3});
+        n += header.length + source.length + 4;
+      }
+    }
+    raf = new RandomAccessFile(file.getPath(), "r");
+    matcher = new KMPMatch((format.equals("grib2") ? "GRIB" : "BUFR").getBytes(StandardCharsets.US_ASCII));
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    raf.close();
+    file.delete();
+  }
+
+  /** The way the scanners found messages before MessageFinder. */
+  @Benchmark
+  public int searchForward() throws IOException {
+    raf.order(RandomAccessFile.BIG_ENDIAN);
+    int count = 0;
+    long pos = 0;
+    while (true) {
+      raf.seek(pos);
+      if (!raf.searchForward(matcher, -1))
+        return count;
+      long start = raf.getFilePointer();
+      pos = start + (format.equals("grib2") ? grib2Length(raf, start) : bufrLength(raf, start));
+      count++;
+    }
+  }
+
+  @Benchmark
+  public int findMessages() throws IOException {
+    MessageFinder finder = format.equals("grib2") ? new Grib2Finder(raf) : new BufrFinder(raf);
+    int count = 0;
+    long pos = 0;
+    while (finder.find(pos)) {
+      pos = finder.getEnd();
+      count++;
+    }
+    return count;
+  }
+
+  /** Find the messages and read their sections. */
+  @Benchmark
+  public void scanRecords(Blackhole bh) throws IOException {
+    if (format.equals("grib2")) {
+      Grib2RecordScanner scanner = new Grib2RecordScanner(raf);
+      while (scanner.hasNext()) {
+        bh.consume(scanner.next());
+      }
+    } else {
+      MessageScanner scanner = new MessageScanner(raf, 0, false);
+      while (scanner.hasNext()) {
+        bh.consume(scanner.next());
+      }
+    }
+  }
+
+  private static long grib2Length(RandomAccessFile raf, long start) throws IOException {
+    raf.seek(start + 8);
+    return raf.readLong();
+  }
+
+  private static long bufrLength(RandomAccessFile raf, long start) throws IOException {
+    raf.seek(start + 4);
+    return (raf.read() << 16) | (raf.read() << 8) | raf.read();
+  }
+
+  private static class Grib2Finder extends MessageFinder {
+    Grib2Finder(RandomAccessFile raf) {
+      super(raf, "GRIB".getBytes(StandardCharsets.US_ASCII), 16, DEFAULT_BLOCK_SIZE);
+    }
+
+    @Override
+    protected long parseIndicator(byte[] buffer, int offset) {
+      long length = 0;
+      for (int i = 8; i < 16; i++)
+        length = (length << 8) | (buffer[offset + i] & 0xff);
+      return length;
+    }
+  }
+
+  private static class BufrFinder extends MessageFinder {
+    BufrFinder(RandomAccessFile raf) {
+      super(raf, "BUFR".getBytes(StandardCharsets.US_ASCII), 8, DEFAULT_BLOCK_SIZE);
+    }
+
+    @Override
+    protected long parseIndicator(byte[] buffer, int offset) {
+      return ((buffer[offset + 4] & 0xff) << 16) | ((buffer[offset + 5] & 0xff) << 8) | (buffer[offset + 6] & 0xff);
+    }
+  }
+}
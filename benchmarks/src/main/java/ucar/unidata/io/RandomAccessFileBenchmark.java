@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.unidata.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ucar.nc2.bench.BenchmarkData;
+
+/**
+ * Primitive array reads through the RandomAccessFile buffer, or through a memory mapped file, on a generated
+ * big-endian file. The buffer size does not apply to the memory mapped file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RandomAccessFileBenchmark {
+
+  private static final int NVALUES = 4 * 1024 * 1024; // 16 Mb
+
+  @Param({"buffered", "mmap"})
+  public String impl;
+
+  @Param({"8192", "65536"})
+  public int bufferSize;
+
+  @Param({"1024", "262144"})
+  public int readLength;
+
+  private File file;
+  private RandomAccessFile raf;
+  private int[] ints;
+  private float[] floats;
+
+  @Setup
+  public void setup() throws IOException {
+    file = BenchmarkData.tempFile("raf", ".bin");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      for (int i = 0; i < NVALUES; i++) {
+        out.writeInt(i);
+      }
+    }
+    raf = impl.equals("mmap") ? new MMapRandomAccessFile(file.getPath(), "r")
+        : new RandomAccessFile(file.getPath(), "r", bufferSize);
+    ints = new int[readLength];
+    floats = new float[readLength];
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    raf.close();
+  }
+
+  @Benchmark
+  public void readIntArray(Blackhole bh) throws IOException {
+    raf.seek(0);
+    for (int i = 0; i < NVALUES; i += readLength) {
+      raf.readInt(ints, 0, readLength);
+      bh.consume(ints);
+    }
+  }
+
+  @Benchmark
+  public void readFloatArray(Blackhole bh) throws IOException {
+    raf.seek(0);
+    for (int i = 0; i < NVALUES; i += readLength) {
+      raf.readFloat(floats, 0, readLength);
+      bh.consume(floats);
+    }
+  }
+
+  @Benchmark
+  public long readIntOneAtATime() throws IOException {
+    raf.seek(0);
+    long sum = 0;
+    for (int i = 0; i < NVALUES; i++) {
+      sum += raf.readInt();
+    }
+    return sum;
+  }
+}
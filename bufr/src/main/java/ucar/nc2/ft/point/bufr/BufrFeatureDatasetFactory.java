@@ -13,6 +13,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import org.jdom2.Element;
 import thredds.client.catalog.Catalog;
 import ucar.ma2.Array;
@@ -145,6 +146,15 @@ public class BufrFeatureDatasetFactory implements FeatureDatasetFactory {
       index.showIndex(sf);
     }
 
+    // The observations, skipping the messages that the message index shows have none in the date range.
+    // The bounding box is not used, since the observations are selected by station location.
+    private StructureDataIterator getObsIterator(@Nullable CalendarDateRange dateRange) throws IOException {
+      IOServiceProvider iosp = netcdfDataset.getIosp();
+      if (dateRange != null && iosp instanceof BufrIosp2)
+        return obs.getStructureIterator(((BufrIosp2) iosp).getStructureIterator(dateRange, null));
+      return obs.getStructureIterator();
+    }
+
     private class BufrStationCollection extends StationTimeSeriesCollectionImpl {
       StandardFields.StandardFieldsFromStructure extract;
 
@@ -245,6 +255,7 @@ public class BufrFeatureDatasetFactory implements FeatureDatasetFactory {
       private class BufrPointFeatureCollection extends PointCollectionImpl {
         StationHelper stationsWanted;
         PointFeatureIterator.Filter filter;
+        CalendarDateRange dateRange;
 
         BufrPointFeatureCollection(LatLonRect boundingBox, CalendarDateRange dateRange) throws IOException {
           super("BufrPointFeatureCollection", bufrDateUnits, bufrAltUnits);
@@ -257,11 +268,12 @@ public class BufrFeatureDatasetFactory implements FeatureDatasetFactory {
           stationsWanted = getStationHelper().subset(boundingBox);
           if (dateRange != null)
             filter = new PointIteratorFiltered.SpaceAndTimeFilter(null, dateRange);
+          this.dateRange = dateRange;
         }
 
         @Override
         public PointFeatureIterator getPointFeatureIterator() throws IOException {
-          return new BufrRecordIterator(obs.getStructureIterator(), filter);
+          return new BufrRecordIterator(getObsIterator(dateRange), filter);
         }
 
         // iterates once over all the records
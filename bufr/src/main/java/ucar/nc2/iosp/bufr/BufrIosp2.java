@@ -4,11 +4,18 @@
  */
 package ucar.nc2.iosp.bufr;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Formatter;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import javax.annotation.Nullable;
 import org.jdom2.Element;
 import ucar.ma2.Array;
 import ucar.ma2.ArraySequence;
@@ -22,8 +29,13 @@ import ucar.nc2.Sequence;
 import ucar.nc2.Structure;
 import ucar.nc2.Variable;
 import ucar.nc2.constants.DataFormatType;
+import ucar.nc2.ft.point.bufr.BufrCdmIndexProto;
+import ucar.nc2.ft.point.bufr.StandardFields;
 import ucar.nc2.iosp.AbstractIOServiceProvider;
+import ucar.nc2.time.CalendarDateRange;
 import ucar.nc2.util.CancelTask;
+import ucar.nc2.util.Concurrency;
+import ucar.unidata.geoloc.LatLonRect;
 import ucar.unidata.io.RandomAccessFile;
 
 /**
@@ -39,6 +51,49 @@ public class BufrIosp2 extends AbstractIOServiceProvider {
   public static final String fxyAttName = "BUFR:TableB_descriptor";
   public static final String centerId = "BUFR:centerId";
 
+  // System property name for -D flag; number of messages decoded concurrently by one StructureDataIterator
+  static final String DECODEPARALLELISM = "unidata.bufr.decode.parallelism";
+  // System property name for -D flag; read and write a BufrMessageIndex for each file
+  static final String MESSAGEINDEX = "unidata.bufr.messageIndex";
+
+  private static boolean useMessageIndex = Boolean.getBoolean(MESSAGEINDEX);
+
+  private static volatile int defaultDecodeParallelism = Concurrency.getIntProperty(DECODEPARALLELISM, 1, 1);
+
+  /**
+   * Set the number of messages decoded at the same time when iterating over the observations of a file, for files
+   * opened after this is called. Default is 1 (serial).
+   *
+   * @param parallelism number of threads, must be > 0
+   */
+  public static void setDefaultDecodeParallelism(int parallelism) {
+    if (parallelism <= 0)
+      throw new IllegalArgumentException("parallelism must be > 0");
+    defaultDecodeParallelism = parallelism;
+  }
+
+  public static int getDefaultDecodeParallelism() {
+    return defaultDecodeParallelism;
+  }
+
+  /**
+   * Use a BufrMessageIndex for files opened after this is called. The index is read when the file is opened, if it is
+   * up to date, and is otherwise made and written the first time the observations are read. Default is false.
+   *
+   * @param use if true, use message indexes for local files.
+   */
+  public static void setUseMessageIndex(boolean use) {
+    useMessageIndex = use;
+  }
+
+  public static boolean getUseMessageIndex() {
+    return useMessageIndex;
+  }
+
+  private static ExecutorService getDecodePool() {
+    return Concurrency.getSharedPool("BufrIosp2-decode", Runtime.getRuntime().availableProcessors());
+  }
+
   // debugging
   private static boolean debugIter;
 
@@ -53,6 +108,9 @@ public class BufrIosp2 extends AbstractIOServiceProvider {
   private boolean isSingle;
   private BufrConfig config;
   private Element iospParam;
+  private int decodeParallelism = defaultDecodeParallelism;
+  private boolean useIndex;
+  private BufrMessageIndex messageIndex; // read when opened, or made when first needed
 
   @Override
   public boolean isValidFile(ucar.unidata.io.RandomAccessFile raf) throws IOException {
@@ -69,7 +127,7 @@ public class BufrIosp2 extends AbstractIOServiceProvider {
     super.open(raf, rootGroup.getNcfile(), cancelTask);
 
     scanner = new MessageScanner(raf);
-    protoMessage = scanner.getFirstDataMessage();
+    protoMessage = findProtoMessage();
     if (protoMessage == null)
       throw new IOException("No data messages in the file= " + raf.getLocation());
     if (!protoMessage.isTablesComplete())
@@ -116,7 +174,7 @@ public class BufrIosp2 extends AbstractIOServiceProvider {
     super.open(raf, ncfile, cancelTask);
 
     scanner = new MessageScanner(raf);
-    protoMessage = scanner.getFirstDataMessage();
+    protoMessage = findProtoMessage();
     if (protoMessage == null)
       throw new IOException("No data messages in the file= " + ncfile.getLocation());
     if (!protoMessage.isTablesComplete())
@@ -132,6 +190,25 @@ public class BufrIosp2 extends AbstractIOServiceProvider {
     isSingle = false;
   }
 
+  // the first data message, from the message index if there is one, else by scanning the file
+  private Message findProtoMessage() throws IOException {
+    useIndex = useMessageIndex && new File(raf.getLocation()).exists();
+    if (useIndex) {
+      messageIndex = BufrMessageIndex.readIndex(raf.getLocation());
+      if (messageIndex != null && !messageIndex.mustScan()) {
+        for (BufrMessageIndex.Entry entry : messageIndex.getEntries()) {
+          if (entry.getNobs() > 0) {
+            Message m = scanner.readMessage(entry.getPos());
+            if (m != null)
+              return m;
+            break;
+          }
+        }
+      }
+    }
+    return scanner.getFirstDataMessage();
+  }
+
   // for BufrMessageViewer
   public void open(RandomAccessFile raf, NetcdfFile ncfile, Message single) throws IOException {
     this.raf = raf;
@@ -171,18 +248,57 @@ public class BufrIosp2 extends AbstractIOServiceProvider {
     return iospParam;
   }
 
+  /**
+   * Set the number of messages decoded at the same time by the iterators over the observations of this file, including
+   * those used by the point feature datasets. With more than one, messages are decoded on a shared pool of threads,
+   * and the observations are still returned in file order.
+   *
+   * @param parallelism number of threads, must be > 0; 1 decodes on the calling thread.
+   */
+  public void setDecodeParallelism(int parallelism) {
+    if (parallelism <= 0)
+      throw new IllegalArgumentException("parallelism must be > 0");
+    this.decodeParallelism = parallelism;
+  }
+
+  public int getDecodeParallelism() {
+    return decodeParallelism;
+  }
+
   private int nelems = -1;
 
   @Override
-  public Array readData(Variable v2, Section section) {
+  public Array readData(Variable v2, Section section) throws IOException {
     findRootSequence();
-    return new ArraySequence(obsStructure.makeStructureMembers(), new SeqIter(), nelems);
+    MessageSource messages = getMessageSource(null, null);
+    if (messages.getNobs() >= 0)
+      nelems = messages.getNobs();
+    return new ArraySequence(obsStructure.makeStructureMembers(), makeSeqIter(messages), nelems);
   }
 
   @Override
-  public StructureDataIterator getStructureIterator(Structure s, int bufferSize) {
+  public StructureDataIterator getStructureIterator(Structure s, int bufferSize) throws IOException {
     findRootSequence();
-    return isSingle ? new SeqIterSingle() : new SeqIter();
+    return isSingle ? new SeqIterSingle() : makeSeqIter(getMessageSource(null, null));
+  }
+
+  /**
+   * Iterate over the observations in the messages that may have some in the date range and bounding box. Messages are
+   * skipped only when the message index shows that none of their observations are wanted; the observations that are
+   * returned are not checked, so callers must still filter them.
+   *
+   * @param dateRange wanted times, or null for all
+   * @param bbox wanted area, or null for all
+   * @return iterator over the observations of the root sequence.
+   */
+  public StructureDataIterator getStructureIterator(@Nullable CalendarDateRange dateRange, @Nullable LatLonRect bbox)
+      throws IOException {
+    findRootSequence();
+    return isSingle ? new SeqIterSingle() : makeSeqIter(getMessageSource(dateRange, bbox));
+  }
+
+  private StructureDataIterator makeSeqIter(MessageSource messages) {
+    return (decodeParallelism > 1) ? new ParallelSeqIter(messages, decodeParallelism) : new SeqIter(messages);
   }
 
   private void findRootSequence() {
@@ -190,10 +306,12 @@ public class BufrIosp2 extends AbstractIOServiceProvider {
   }
 
   private class SeqIter implements StructureDataIterator {
+    private final MessageSource messages;
     StructureDataIterator currIter;
     int recnum;
 
-    SeqIter() {
+    SeqIter(MessageSource messages) {
+      this.messages = messages;
       reset();
     }
 
@@ -201,7 +319,7 @@ public class BufrIosp2 extends AbstractIOServiceProvider {
     public StructureDataIterator reset() {
       recnum = 0;
       currIter = null;
-      scanner.reset();
+      messages.reset();
       return this;
     }
 
@@ -230,15 +348,174 @@ public class BufrIosp2 extends AbstractIOServiceProvider {
     }
 
     private StructureDataIterator readNextMessage() throws IOException {
-      if (!scanner.hasNext())
+      Message m = messages.next();
+      if (m == null)
         return null;
+      return readMessage(m, raf).getStructureDataIterator();
+    }
+
+    @Override
+    public int getCurrentRecno() {
+      return recnum - 1;
+    }
+
+    @Override
+    public void close() {
+      if (currIter != null)
+        currIter.close();
+      currIter = null;
+      if (debugIter)
+        System.out.printf("BUFR read recnum %d%n", recnum);
+    }
+  }
+
+  // The data messages with the same descriptors as the proto message, in file order
+  private interface MessageSource {
+    // the next message, or null if there are no more
+    @Nullable
+    Message next() throws IOException;
+
+    // start again from the first message
+    void reset();
+
+    // the number of observations in the messages, or -1 if not known
+    int getNobs();
+  }
+
+  private MessageSource getMessageSource(@Nullable CalendarDateRange dateRange, @Nullable LatLonRect bbox)
+      throws IOException {
+    BufrMessageIndex index = getMessageIndex();
+    if (index == null)
+      return new ScannedMessages();
+
+    List<BufrMessageIndex.Entry> wanted = new ArrayList<>();
+    for (BufrMessageIndex.Entry entry : index.getEntries()) {
+      if (entry.getHash() == protoMessage.hashCode() && entry.mayIntersect(dateRange) && entry.mayIntersect(bbox))
+        wanted.add(entry);
+    }
+    return new IndexedMessages(wanted);
+  }
+
+  // all the messages found by the scanner
+  private class ScannedMessages implements MessageSource {
+    @Override
+    public Message next() throws IOException {
+      return nextDataMessage();
+    }
+
+    @Override
+    public void reset() {
+      scanner.reset();
+    }
+
+    @Override
+    public int getNobs() {
+      return -1;
+    }
+  }
+
+  // the messages in the message index, read without scanning the bytes between them
+  private class IndexedMessages implements MessageSource {
+    private final List<BufrMessageIndex.Entry> entries;
+    private int next;
+
+    IndexedMessages(List<BufrMessageIndex.Entry> entries) {
+      this.entries = entries;
+    }
+
+    @Override
+    public Message next() throws IOException {
+      while (next < entries.size()) {
+        BufrMessageIndex.Entry entry = entries.get(next++);
+        Message m = scanner.readMessage(entry.getPos());
+        if (m == null) {
+          log.warn("File {} has no BUFR message at {} from its message index", raf.getLocation(), entry.getPos());
+          continue;
+        }
+        if (protoMessage.equals(m))
+          return m;
+      }
+      return null;
+    }
+
+    @Override
+    public void reset() {
+      next = 0;
+    }
+
+    @Override
+    public int getNobs() {
+      int nobs = 0;
+      for (BufrMessageIndex.Entry entry : entries)
+        nobs += entry.getNobs();
+      return nobs;
+    }
+  }
+
+  // the message index, if it is used and the messages can be read from it; made by reading the whole file if need be
+  @Nullable
+  private BufrMessageIndex getMessageIndex() throws IOException {
+    if (!useIndex)
+      return null;
+    if (messageIndex == null) {
+      messageIndex = makeMessageIndex();
+      messageIndex.writeIndex();
+    }
+    return messageIndex.mustScan() ? null : messageIndex;
+  }
+
+  private BufrMessageIndex makeMessageIndex() throws IOException {
+    long lastModified = new File(raf.getLocation()).lastModified();
+    BufrMessageIndex.Builder builder = new BufrMessageIndex.Builder(raf.getLocation(), raf.length(), lastModified);
+    StandardFields.StandardFieldsFromStructure extract =
+        new StandardFields.StandardFieldsFromStructure(protoMessage.ids.getCenterId(), obsStructure);
+
+    scanner.reset();
+    while (scanner.hasNext()) {
+      Message m = scanner.next();
+      if (m == null) { // the rest of the file cant be read
+        builder.setMustScan();
+        break;
+      }
+      if (m.containsBufrTable()) { // the messages after it need its tables
+        builder.setMustScan();
+        continue;
+      }
+      builder.addMessage(m, protoMessage.equals(m) ? readExtent(m, extract) : null);
+    }
+    scanner.reset();
+    return builder.build();
+  }
+
+  // the times and locations of the observations in a message, or null if it cant be read
+  @Nullable
+  private BufrMessageIndex.Extent readExtent(Message m, StandardFields.StandardFieldsFromStructure extract) {
+    BufrMessageIndex.Extent extent = new BufrMessageIndex.Extent();
+    try {
+      StructureDataIterator iter = readMessage(m, raf).getStructureDataIterator();
+      while (iter.hasNext()) {
+        extract.extract(iter.next());
+        extent.addTime(extract.makeCalendarDate());
+        extent.addLocation(extract.getFieldValueD(BufrCdmIndexProto.FldType.lat),
+            extract.getFieldValueD(BufrCdmIndexProto.FldType.lon));
+      }
+    } catch (IOException | RuntimeException e) {
+      log.debug("File {}: cant read times and locations of message at {}", raf.getLocation(), m.getStartPos(), e);
+      return null;
+    }
+    return extent;
+  }
+
+  // the next data message with the same descriptors as the proto message, or null if there are no more
+  private Message nextDataMessage() throws IOException {
+    while (scanner.hasNext()) {
       Message m = scanner.next();
       if (m == null) {
         log.warn("BUFR scanner hasNext() true but next() null!");
         return null;
       }
       if (m.containsBufrTable()) // data messages only
-        return readNextMessage();
+        continue;
 
       // mixed messages
       if (!protoMessage.equals(m)) {
@@ -249,23 +526,111 @@ public class BufrIosp2 extends AbstractIOServiceProvider {
               + "; skipping");
           messHash.add(m.hashCode());
         }
-        return readNextMessage();
+        continue;
       }
+      return m;
+    }
+    return null;
+  }
 
-      ArrayStructure as = readMessage(m);
-      return as.getStructureDataIterator();
+  private ArrayStructure readMessage(Message m, RandomAccessFile raf) throws IOException {
+    ArrayStructure as;
+    if (m.dds.isCompressed()) {
+      MessageCompressedDataReader reader = new MessageCompressedDataReader();
+      as = reader.readEntireMessage(obsStructure, protoMessage, m, raf, null);
+    } else {
+      MessageUncompressedDataReader reader = new MessageUncompressedDataReader();
+      as = reader.readEntireMessage(obsStructure, protoMessage, m, raf, null);
+    }
+    return as;
+  }
+
+  /*
+   * The messages are found by the scanner on the calling thread, and up to 2 * parallelism of them are decoded ahead
+   * of the caller on the decode pool. Each is decoded from its own copy of the message bytes, read with positional
+   * reads that leave the file pointer to the scanner. The futures are kept in file order, so the observations come out
+   * in the same order as from SeqIter.
+   */
+  private class ParallelSeqIter implements StructureDataIterator {
+    private final MessageSource messages;
+    private final int parallelism;
+    private final Deque<Future<ArrayStructure>> pending = new ArrayDeque<>();
+    private boolean scanned; // all messages have been submitted
+    StructureDataIterator currIter;
+    int recnum;
+
+    ParallelSeqIter(MessageSource messages, int parallelism) {
+      this.messages = messages;
+      this.parallelism = parallelism;
+      reset();
+    }
+
+    @Override
+    public StructureDataIterator reset() {
+      cancelPending();
+      recnum = 0;
+      currIter = null;
+      scanned = false;
+      messages.reset();
+      return this;
     }
 
-    private ArrayStructure readMessage(Message m) throws IOException {
-      ArrayStructure as;
-      if (m.dds.isCompressed()) {
-        MessageCompressedDataReader reader = new MessageCompressedDataReader();
-        as = reader.readEntireMessage(obsStructure, protoMessage, m, raf, null);
-      } else {
-        MessageUncompressedDataReader reader = new MessageUncompressedDataReader();
-        as = reader.readEntireMessage(obsStructure, protoMessage, m, raf, null);
+    @Override
+    public boolean hasNext() throws IOException {
+      while (currIter == null || !currIter.hasNext()) {
+        currIter = readNextMessage();
+        if (currIter == null) {
+          nelems = recnum;
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public StructureData next() throws IOException {
+      recnum++;
+      return currIter.next();
+    }
+
+    private StructureDataIterator readNextMessage() throws IOException {
+      submit();
+      Future<ArrayStructure> future = pending.pollFirst();
+      if (future == null)
+        return null;
+      submit(); // replace it while we wait
+      return getResult(future).getStructureDataIterator();
+    }
+
+    private void submit() throws IOException {
+      ExecutorService pool = getDecodePool();
+      long fileLength = raf.length();
+      while (!scanned && pending.size() < 2 * parallelism) {
+        Message m = messages.next();
+        if (m == null) {
+          scanned = true;
+          break;
+        }
+        m.getRootDataDescriptor(); // constructed here, so the tables are only used by this thread
+        long start = m.getStartPos();
+        int length = (int) Math.min(m.getMessageSize(), fileLength - start);
+        pending.addLast(pool.submit(() -> readMessage(m, new MessageRandomAccessFile(raf, start, length, fileLength))));
       }
-      return as;
+    }
+
+    private ArrayStructure getResult(Future<ArrayStructure> future) throws IOException {
+      try {
+        return Concurrency.getResult(future);
+      } catch (IOException | RuntimeException | Error e) {
+        cancelPending();
+        throw e;
+      }
+    }
+
+    private void cancelPending() {
+      Concurrency.cancelAll(pending);
+      pending.clear();
+      scanned = true;
     }
 
     @Override
@@ -275,6 +640,7 @@ public class BufrIosp2 extends AbstractIOServiceProvider {
 
     @Override
     public void close() {
+      cancelPending();
       if (currIter != null)
         currIter.close();
       currIter = null;
@@ -283,6 +649,44 @@ public class BufrIosp2 extends AbstractIOServiceProvider {
     }
   }
 
+  // The bytes of one message, so that it can be decoded on another thread. Reads outside of the message go to the
+  // file, as they would when decoding from the file itself.
+  private static class MessageRandomAccessFile extends RandomAccessFile {
+    private final RandomAccessFile source;
+    private final long start;
+    private final byte[] bytes;
+    private final long fileLength;
+
+    MessageRandomAccessFile(RandomAccessFile source, long start, int length, long fileLength) throws IOException {
+      super(8 * 1024);
+      this.location = source.getLocation();
+      this.source = source;
+      this.start = start;
+      this.bytes = new byte[length];
+      this.fileLength = fileLength;
+      source.readFully(start, bytes);
+    }
+
+    @Override
+    public long length() {
+      return fileLength;
+    }
+
+    @Override
+    protected int read_(long pos, byte[] b, int offset, int len) throws IOException {
+      if (pos >= start && pos < start + bytes.length) {
+        int n = (int) Math.min(len, start + bytes.length - pos);
+        System.arraycopy(bytes, (int) (pos - start), b, offset, n);
+        return n;
+      }
+      int n = (int) Math.min(len, fileLength - pos);
+      if (n <= 0)
+        return -1;
+      source.readFully(pos, b, offset, n);
+      return n;
+    }
+  }
+
   private class SeqIterSingle implements StructureDataIterator {
     StructureDataIterator currIter;
     int recnum;
@@ -318,17 +722,7 @@ public class BufrIosp2 extends AbstractIOServiceProvider {
     }
 
     private StructureDataIterator readProtoMessage() throws IOException {
-      Message m = protoMessage;
-      ArrayStructure as;
-      if (m.dds.isCompressed()) {
-        MessageCompressedDataReader reader = new MessageCompressedDataReader();
-        as = reader.readEntireMessage(obsStructure, protoMessage, m, raf, null);
-      } else {
-        MessageUncompressedDataReader reader = new MessageUncompressedDataReader();
-        as = reader.readEntireMessage(obsStructure, protoMessage, m, raf, null);
-      }
-
-      return as.getStructureDataIterator();
+      return readMessage(protoMessage, raf).getStructureDataIterator();
     }
 
     @Override
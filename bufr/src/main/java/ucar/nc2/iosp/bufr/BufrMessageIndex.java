@@ -0,0 +1,401 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.iosp.bufr;
+
+import com.google.common.collect.ImmutableList;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import ucar.nc2.ft.point.bufr.BufrCdmIndexProto;
+import ucar.nc2.stream.NcStream;
+import ucar.nc2.time.CalendarDate;
+import ucar.nc2.time.CalendarDateRange;
+import ucar.nc2.util.DiskCache2;
+import ucar.unidata.geoloc.LatLonPoint;
+import ucar.unidata.geoloc.LatLonPoints;
+import ucar.unidata.geoloc.LatLonRect;
+import ucar.unidata.io.RandomAccessFile;
+
+/**
+ * Sidecar index (.bfx) of the data messages in a BUFR file: their positions and lengths, number of observations,
+ * descriptor hashes, and the range of observation times and locations in each. Covers BufrCdmIndexProto.MessageIndex.
+ * <p>
+ * The index is kept next to the BUFR file, or in the DiskCache2 if that directory cant be written, and is only used
+ * while the length and last modified time of the BUFR file are the same as when it was indexed.
+ */
+@Immutable
+public class BufrMessageIndex {
+  private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(BufrMessageIndex.class);
+
+  public static final String MAGIC_START = "BufrMessageIndex";
+  public static final String SUFFIX = ".bfx";
+  private static final int version = 1;
+
+  private static DiskCache2 diskCache;
+
+  public static synchronized void setDiskCache2(DiskCache2 dc) {
+    diskCache = dc;
+  }
+
+  public static synchronized DiskCache2 getDiskCache2() {
+    if (diskCache == null)
+      diskCache = DiskCache2.getDefault();
+    return diskCache;
+  }
+
+  /** One data message in the file. */
+  @Immutable
+  public static class Entry {
+    private final long pos;
+    private final int length;
+    private final int nobs;
+    private final int hash;
+    private final boolean hasTime;
+    private final long timeMin, timeMax;
+    private final boolean hasLocation;
+    private final double latMin, latMax, lonMin, lonMax;
+
+    private Entry(BufrCdmIndexProto.MessagePos proto) {
+      this.pos = proto.getPos();
+      this.length = proto.getLength();
+      this.nobs = proto.getNobs();
+      this.hash = proto.getHash();
+      this.hasTime = proto.getHasTime();
+      this.timeMin = proto.getTimeMin();
+      this.timeMax = proto.getTimeMax();
+      this.hasLocation = proto.getHasLocation();
+      this.latMin = proto.getLatMin();
+      this.latMax = proto.getLatMax();
+      this.lonMin = proto.getLonMin();
+      this.lonMax = proto.getLonMax();
+    }
+
+    public long getPos() {
+      return pos;
+    }
+
+    public int getLength() {
+      return length;
+    }
+
+    public int getNobs() {
+      return nobs;
+    }
+
+    /** Message.hashCode() of the message. */
+    public int getHash() {
+      return hash;
+    }
+
+    /** Range of the observation times, or null if some are not known. */
+    @Nullable
+    public CalendarDateRange getDateRange() {
+      return hasTime ? CalendarDateRange.of(CalendarDate.of(timeMin), CalendarDate.of(timeMax)) : null;
+    }
+
+    /** Bounding box of the observation locations, or null if some are not known. */
+    @Nullable
+    public LatLonRect getBoundingBox() {
+      return hasLocation ? new LatLonRect(LatLonPoint.create(latMin, lonMin), latMax - latMin, lonMax - lonMin) : null;
+    }
+
+    /**
+     * Could the message have observations in the date range?
+     *
+     * @param dateRange wanted times, or null for all
+     * @return false only if the times of all the observations are known, and none are in the date range.
+     */
+    public boolean mayIntersect(@Nullable CalendarDateRange dateRange) {
+      if (dateRange == null || !hasTime)
+        return true;
+      return timeMin <= dateRange.getEnd().getMillis() && timeMax >= dateRange.getStart().getMillis();
+    }
+
+    /**
+     * Could the message have observations in the bounding box?
+     *
+     * @param bbox wanted area, or null for all
+     * @return false only if the locations of all the observations are known, and none are in the bounding box.
+     */
+    public boolean mayIntersect(@Nullable LatLonRect bbox) {
+      if (bbox == null || !hasLocation)
+        return true;
+      if (latMin > bbox.getLatMax() || latMax < bbox.getLatMin())
+        return false;
+      if (bbox.containsAllLongitude())
+        return true;
+      // the longitude ranges are arcs going east, from lonMin and from the bbox lonMin: one must start inside the other
+      double start = LatLonPoints.lonNormal360(lonMin - bbox.getLonMin());
+      return start <= bbox.getWidth() || start + (lonMax - lonMin) >= 360.0;
+    }
+  }
+
+  private final String filename;
+  private final long fileLength;
+  private final long lastModified;
+  private final boolean mustScan;
+  private final ImmutableList<Entry> entries;
+
+  private BufrMessageIndex(BufrCdmIndexProto.MessageIndex proto) {
+    this.filename = proto.getFilename();
+    this.fileLength = proto.getFileLength();
+    this.lastModified = proto.getLastModified();
+    this.mustScan = proto.getMustScan();
+    ImmutableList.Builder<Entry> builder = ImmutableList.builder();
+    for (BufrCdmIndexProto.MessagePos pos : proto.getMessagesList())
+      builder.add(new Entry(pos));
+    this.entries = builder.build();
+  }
+
+  public String getFilename() {
+    return filename;
+  }
+
+  public long getFileLength() {
+    return fileLength;
+  }
+
+  public long getLastModified() {
+    return lastModified;
+  }
+
+  /**
+   * If true, the messages cant be read from the index alone, since some of them have embedded tables, or the file
+   * could not all be read when it was indexed.
+   */
+  public boolean mustScan() {
+    return mustScan;
+  }
+
+  /** The data messages, in file order. */
+  public List<Entry> getEntries() {
+    return entries;
+  }
+
+  /** Total number of observations in the data messages. */
+  public long getNobs() {
+    long nobs = 0;
+    for (Entry e : entries)
+      nobs += e.nobs;
+    return nobs;
+  }
+
+  /**
+   * Get the index file for a BUFR file; it may be in the cache directory, and may not exist.
+   *
+   * @param bufrFilename location of the BUFR file
+   * @return File, possibly in cache, may or may not exist
+   */
+  public static File getIndexFile(String bufrFilename) {
+    String indexLocation = bufrFilename + SUFFIX;
+    File result = getDiskCache2().getExistingFileOrCache(indexLocation);
+    return (result != null) ? result : getDiskCache2().getFile(indexLocation);
+  }
+
+  /**
+   * Read the index of a BUFR file, if it has one that is up to date.
+   *
+   * @param bufrFilename location of the BUFR file
+   * @return the index, or null if there is none, or the BUFR file has changed since it was indexed.
+   */
+  @Nullable
+  public static BufrMessageIndex readIndex(String bufrFilename) {
+    File bufrFile = new File(bufrFilename);
+    if (!bufrFile.exists())
+      return null;
+    File indexFile = getDiskCache2().getExistingFileOrCache(bufrFilename + SUFFIX);
+    if (indexFile == null)
+      return null;
+
+    BufrMessageIndex index;
+    try (RandomAccessFile raf = new RandomAccessFile(indexFile.getPath(), "r")) {
+      index = readIndex(raf);
+    } catch (IOException e) {
+      log.warn("BufrMessageIndex {}: cant read index", indexFile.getPath(), e);
+      return null;
+    }
+    if (index == null)
+      return null;
+    if (index.fileLength != bufrFile.length() || index.lastModified != bufrFile.lastModified()) {
+      log.debug("BufrMessageIndex {}: out of date", indexFile.getPath());
+      return null;
+    }
+    return index;
+  }
+
+  /*
+   * MAGIC_START
+   * version
+   * sizeIndex
+   * BufrCdmIndexProto.MessageIndex (sizeIndex bytes)
+   */
+  @Nullable
+  private static BufrMessageIndex readIndex(RandomAccessFile raf) throws IOException {
+    raf.order(RandomAccessFile.BIG_ENDIAN);
+    raf.seek(0);
+
+    if (!NcStream.readAndTest(raf, MAGIC_START.getBytes(StandardCharsets.UTF_8))) {
+      log.warn("BufrMessageIndex {}: invalid index", raf.getLocation());
+      return null;
+    }
+
+    int indexVersion = raf.readInt();
+    if (indexVersion != version) {
+      log.warn("BufrMessageIndex {}: index found version={}, want version= {}", raf.getLocation(), indexVersion,
+          version);
+      return null;
+    }
+
+    int size = NcStream.readVInt(raf);
+    if ((size < 0) || (size > raf.length() - raf.getFilePointer())) {
+      log.warn("BufrMessageIndex {}: invalid or empty index ", raf.getLocation());
+      return null;
+    }
+
+    byte[] m = new byte[size];
+    raf.readFully(m);
+    return new BufrMessageIndex(BufrCdmIndexProto.MessageIndex.parseFrom(m));
+  }
+
+  /**
+   * Write the index next to the BUFR file, or in the cache directory.
+   *
+   * @return true if it was written
+   */
+  boolean writeIndex() {
+    File indexFile = getIndexFile(filename);
+    if (indexFile.exists() && !indexFile.delete()) {
+      log.warn("BufrMessageIndex {}: cant delete old index", indexFile.getPath());
+      return false;
+    }
+    try (RandomAccessFile raf = new RandomAccessFile(indexFile.getPath(), "rw")) {
+      raf.order(RandomAccessFile.BIG_ENDIAN);
+      raf.write(MAGIC_START.getBytes(StandardCharsets.UTF_8));
+      raf.writeInt(version);
+
+      byte[] b = toProto().toByteArray();
+      NcStream.writeVInt(raf, b.length); // message size
+      raf.write(b); // message - all in one gulp
+      log.debug("BufrMessageIndex {}: wrote {} messages", indexFile.getPath(), entries.size());
+      return true;
+
+    } catch (IOException e) {
+      log.warn("BufrMessageIndex {}: cant write index", indexFile.getPath(), e);
+      return false;
+    }
+  }
+
+  private BufrCdmIndexProto.MessageIndex toProto() {
+    BufrCdmIndexProto.MessageIndex.Builder builder = BufrCdmIndexProto.MessageIndex.newBuilder();
+    builder.setFilename(filename);
+    builder.setFileLength(fileLength);
+    builder.setLastModified(lastModified);
+    builder.setMustScan(mustScan);
+    for (Entry e : entries) {
+      BufrCdmIndexProto.MessagePos.Builder pos = BufrCdmIndexProto.MessagePos.newBuilder();
+      pos.setPos(e.pos);
+      pos.setLength(e.length);
+      pos.setNobs(e.nobs);
+      pos.setHash(e.hash);
+      pos.setHasTime(e.hasTime);
+      pos.setTimeMin(e.timeMin);
+      pos.setTimeMax(e.timeMax);
+      pos.setHasLocation(e.hasLocation);
+      pos.setLatMin(e.latMin);
+      pos.setLatMax(e.latMax);
+      pos.setLonMin(e.lonMin);
+      pos.setLonMax(e.lonMax);
+      builder.addMessages(pos);
+    }
+    return builder.build();
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////////
+
+  /** The times and locations of the observations in one message. */
+  static class Extent {
+    private boolean hasTime = true, hasLocation = true;
+    private long timeMin = Long.MAX_VALUE, timeMax = Long.MIN_VALUE;
+    private double latMin = Double.MAX_VALUE, latMax = -Double.MAX_VALUE;
+    private double lonMin = Double.MAX_VALUE, lonMax = -Double.MAX_VALUE;
+
+    void addTime(@Nullable CalendarDate date) {
+      if (date == null) {
+        hasTime = false;
+        return;
+      }
+      timeMin = Math.min(timeMin, date.getMillis());
+      timeMax = Math.max(timeMax, date.getMillis());
+    }
+
+    void addLocation(double lat, double lon) {
+      if (Double.isNaN(lat) || Double.isNaN(lon) || Math.abs(lat) > 90.0 || Math.abs(lon) > 360.0) {
+        hasLocation = false;
+        return;
+      }
+      lon = LatLonPoints.lonNormal(lon);
+      latMin = Math.min(latMin, lat);
+      latMax = Math.max(latMax, lat);
+      lonMin = Math.min(lonMin, lon);
+      lonMax = Math.max(lonMax, lon);
+    }
+  }
+
+  static class Builder {
+    private final BufrCdmIndexProto.MessageIndex.Builder proto = BufrCdmIndexProto.MessageIndex.newBuilder();
+
+    Builder(String filename, long fileLength, long lastModified) {
+      proto.setFilename(filename);
+      proto.setFileLength(fileLength);
+      proto.setLastModified(lastModified);
+    }
+
+    Builder setMustScan() {
+      proto.setMustScan(true);
+      return this;
+    }
+
+    /**
+     * Add a data message.
+     *
+     * @param m the message
+     * @param extent times and locations of its observations, or null if not known.
+     */
+    Builder addMessage(Message m, @Nullable Extent extent) {
+      BufrCdmIndexProto.MessagePos.Builder pos = BufrCdmIndexProto.MessagePos.newBuilder();
+      pos.setPos(m.getStartPos());
+      pos.setLength((int) m.getMessageSize());
+      pos.setNobs(m.getNumberDatasets());
+      pos.setHash(m.hashCode());
+      // an empty message has no ranges, and is never skipped
+      if (extent != null && m.getNumberDatasets() > 0) {
+        // no ranges either if no observations could be read
+        boolean hasTime = extent.hasTime && extent.timeMin <= extent.timeMax;
+        boolean hasLocation = extent.hasLocation && extent.latMin <= extent.latMax;
+        pos.setHasTime(hasTime);
+        if (hasTime) {
+          pos.setTimeMin(extent.timeMin);
+          pos.setTimeMax(extent.timeMax);
+        }
+        pos.setHasLocation(hasLocation);
+        if (hasLocation) {
+          pos.setLatMin(extent.latMin);
+          pos.setLatMax(extent.latMax);
+          pos.setLonMin(extent.lonMin);
+          pos.setLonMax(extent.lonMax);
+        }
+      }
+      proto.addMessages(pos);
+      return this;
+    }
+
+    BufrMessageIndex build() {
+      return new BufrMessageIndex(proto.build());
+    }
+  }
+}
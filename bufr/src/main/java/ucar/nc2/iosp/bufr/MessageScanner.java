@@ -7,6 +7,7 @@ package ucar.nc2.iosp.bufr;
 import java.nio.charset.StandardCharsets;
 import ucar.unidata.io.RandomAccessFile;
 import ucar.unidata.io.KMPMatch;
+import ucar.unidata.io.MessageFinder;
 import java.io.*;
 import java.nio.channels.WritableByteChannel;
 
@@ -20,7 +21,8 @@ public class MessageScanner {
   // static public final int MAX_MESSAGE_SIZE = 500 * 1000; // GTS allows up to 500 Kb messages (ref?)
   private static org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(MessageScanner.class);
 
-  private static final KMPMatch matcher = new KMPMatch("BUFR".getBytes(StandardCharsets.UTF_8));
+  private static final byte[] magic = "BUFR".getBytes(StandardCharsets.UTF_8);
+  private static final KMPMatch matcher = new KMPMatch(magic);
 
   /**
    * is this a valid BUFR file.
@@ -44,6 +46,7 @@ public class MessageScanner {
   /////////////////////////////////
 
   private ucar.unidata.io.RandomAccessFile raf;
+  private final Finder finder;
   private boolean useEmbeddedTables;
 
   private int countMsgs;
@@ -62,6 +65,7 @@ public class MessageScanner {
   public MessageScanner(RandomAccessFile raf, long startPos, boolean useEmbeddedTables) throws IOException {
     startPos = (startPos < 30) ? 0 : startPos - 30; // look for the header
     this.raf = raf;
+    this.finder = new Finder(raf);
     lastPos = startPos;
     this.useEmbeddedTables = useEmbeddedTables;
     raf.seek(startPos);
@@ -86,24 +90,33 @@ public class MessageScanner {
     lastPos = 0;
   }
 
+  /**
+   * Read the message that starts at pos, for example from a BufrMessageIndex. Following calls to hasNext() and next()
+   * continue from there.
+   *
+   * @param pos start of the message in the file
+   * @return the message, or null if there is not a valid message at pos.
+   */
+  public Message readMessage(long pos) throws IOException {
+    lastPos = pos;
+    if (!hasNext() || raf.getFilePointer() != pos)
+      return null;
+    return next();
+  }
+
   public boolean hasNext() throws IOException {
     if (lastPos >= raf.length())
       return false;
-    raf.seek(lastPos);
-    boolean more = raf.searchForward(matcher, -1); // will scan to end for another BUFR header
+    boolean more = finder.find(lastPos); // will scan to end for another BUFR header
     if (more) {
-      long stop = raf.getFilePointer();
+      long stop = finder.getStart();
       int sizeHeader = (int) (stop - lastPos);
       if (sizeHeader > 30)
         sizeHeader = 30;
       header = new byte[sizeHeader];
       startPos = stop - sizeHeader;
-      raf.seek(startPos);
-      int nRead = raf.read(header);
-      if (nRead != header.length) {
-        log.warn("Unable to read full BUFR header. Got " + nRead + " but expected " + header.length);
-        return false;
-      }
+      finder.copy(startPos, header, 0, sizeHeader);
+      raf.seek(stop);
     }
     if (debug && countMsgs % 100 == 0)
       System.out.printf("%d ", countMsgs);
@@ -148,18 +161,16 @@ public class MessageScanner {
 
       // check that end section is correct
       long ending = dataPos + dataLength;
-      raf.seek(dataPos + dataLength);
       for (int i = 0; i < 3; i++) {
-        if (raf.read() != 55) {
+        if (finder.getByte(ending + i) != 55) {
           log.warn("Missing End of BUFR message at pos= {} header= {} file= {}", ending, cleanup(header),
               raf.getLocation());
           return null;
         }
       }
       // allow off by one : may happen when dataLength rounded to even bytes
-      if (raf.read() != 55) {
-        raf.seek(dataPos + dataLength - 1); // see if byte before is a '7'
-        if (raf.read() != 55) {
+      if (finder.getByte(ending + 3) != 55) {
+        if (finder.getByte(ending - 1) != 55) { // see if byte before is a '7'
           log.warn("Missing End of BUFR message at pos= {} header= {} edition={} file= {}", ending, cleanup(header),
               is.getBufrEdition(), raf.getLocation());
           return null;
@@ -245,4 +256,17 @@ public class MessageScanner {
     return raf.readToByteChannel(out, startPos, nbytes);
   }
 
+  // finds the start of each message, parsing the indicator section in the raf buffer
+  private static class Finder extends MessageFinder {
+    Finder(RandomAccessFile raf) {
+      super(raf, magic, 8, DEFAULT_BLOCK_SIZE);
+    }
+
+    @Override
+    protected long parseIndicator(byte[] buffer, int offset) {
+      // octets 5-7 are the length of the message, except in editions 0 and 1, where they are the length of section 1
+      return ((buffer[offset + 4] & 0xff) << 16) | ((buffer[offset + 5] & 0xff) << 8) | (buffer[offset + 6] & 0xff);
+    }
+  }
+
 }
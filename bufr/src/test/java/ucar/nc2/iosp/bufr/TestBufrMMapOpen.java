@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.iosp.bufr;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import org.junit.Test;
+import ucar.ma2.StructureDataIterator;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Sequence;
+import ucar.unidata.io.MMapRandomAccessFile;
+
+/** Open a BUFR file through MMapRandomAccessFile, whose isValidFile searches the mapping, not a buffer. */
+public class TestBufrMMapOpen {
+  private static final String filename = "../bufr/src/test/data/RadiosondeStationData.bufr";
+
+  @Test
+  public void shouldReadLikeRandomAccessFile() throws IOException {
+    try (NetcdfFile buffered = NetcdfFiles.open(filename);
+        NetcdfFile mmap = NetcdfFiles.open(MMapRandomAccessFile.PREFIX + filename)) {
+      assertThat(mmap.getIosp().getClass()).isEqualTo(buffered.getIosp().getClass());
+      int count = readAll(buffered);
+      assertThat(count).isGreaterThan(0);
+      assertThat(readAll(mmap)).isEqualTo(count);
+    }
+  }
+
+  private static int readAll(NetcdfFile ncfile) throws IOException {
+    Sequence obs = (Sequence) ncfile.findVariable(BufrIosp2.obsRecordName);
+    assertThat(obs).isNotNull();
+    int count = 0;
+    StructureDataIterator iter = obs.getStructureIterator();
+    try {
+      while (iter.hasNext()) {
+        iter.next();
+        count++;
+      }
+    } finally {
+      iter.close();
+    }
+    return count;
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.iosp.bufr;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ucar.ma2.StructureDataIterator;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Sequence;
+import ucar.nc2.time.CalendarDate;
+import ucar.nc2.time.CalendarDateRange;
+import ucar.unidata.geoloc.LatLonPoint;
+import ucar.unidata.geoloc.LatLonRect;
+import ucar.unidata.io.RandomAccessFile;
+
+/** Write, read and use the sidecar index of the messages in a BUFR file. */
+public class TestBufrMessageIndex {
+
+  @ClassRule
+  public static final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static final int nmessages = 5;
+  private static File testFile;
+
+  // copies of a message, with WMO headers between them
+  @BeforeClass
+  public static void makeFile() throws IOException {
+    byte[] message = Files.readAllBytes(Paths.get("../bufr/src/test/data/RadiosondeStationData.bufr"));
+    testFile = tempFolder.newFile("indexed.bufr");
+    try (OutputStream out = new FileOutputStream(testFile)) {
+      for (int i = 0; i < nmessages; i++) {
+        out.write(String.format("\001\r\r\n%03d \r\r\nIUSN%02d KWBC\r\r\n", i, i).getBytes(StandardCharsets.US_ASCII));
+        out.write(message);
+      }
+    }
+    BufrIosp2.setUseMessageIndex(true);
+  }
+
+  @AfterClass
+  public static void restore() {
+    BufrIosp2.setUseMessageIndex(false);
+  }
+
+  @Test
+  public void shouldWriteIndexAndReopenFromIt() throws IOException {
+    int count = readAll();
+    assertThat(count).isEqualTo(nmessages);
+
+    BufrMessageIndex index = BufrMessageIndex.readIndex(testFile.getPath());
+    assertThat(index).isNotNull();
+    assertThat(index.mustScan()).isFalse();
+    assertThat(index.getEntries()).hasSize(nmessages);
+    assertThat(index.getNobs()).isEqualTo(count);
+    assertThat(index.getFileLength()).isEqualTo(testFile.length());
+
+    // reopened from the index
+    assertThat(readAll()).isEqualTo(count);
+  }
+
+  @Test
+  public void shouldNotUseIndexOfChangedFile() throws IOException {
+    readAll();
+    BufrMessageIndex index = BufrMessageIndex.readIndex(testFile.getPath());
+    assertThat(index).isNotNull();
+    assertThat(testFile.setLastModified(index.getLastModified() - 10000)).isTrue();
+    assertThat(BufrMessageIndex.readIndex(testFile.getPath())).isNull();
+  }
+
+  @Test
+  public void shouldSkipMessagesOutsideTheRanges() throws IOException {
+    Message m;
+    try (RandomAccessFile raf = new RandomAccessFile(testFile.getPath(), "r")) {
+      m = new MessageScanner(raf).getFirstDataMessage();
+    }
+    BufrMessageIndex.Extent extent = new BufrMessageIndex.Extent();
+    extent.addTime(CalendarDate.parseISOformat(null, "2020-06-01T00:00:00Z"));
+    extent.addTime(CalendarDate.parseISOformat(null, "2020-06-01T12:00:00Z"));
+    extent.addLocation(10.0, 100.0);
+    extent.addLocation(20.0, 110.0);
+    BufrMessageIndex.Entry entry =
+        new BufrMessageIndex.Builder(testFile.getPath(), 0, 0).addMessage(m, extent).build().getEntries().get(0);
+
+    assertThat(entry.mayIntersect(CalendarDateRange.of(CalendarDate.parseISOformat(null, "2020-06-01T06:00:00Z"),
+        CalendarDate.parseISOformat(null, "2020-06-02T00:00:00Z")))).isTrue();
+    assertThat(entry.mayIntersect(CalendarDateRange.of(CalendarDate.parseISOformat(null, "2020-06-02T00:00:00Z"),
+        CalendarDate.parseISOformat(null, "2020-06-03T00:00:00Z")))).isFalse();
+
+    assertThat(entry.mayIntersect(new LatLonRect(LatLonPoint.create(0.0, 105.0), 30.0, 10.0))).isTrue();
+    assertThat(entry.mayIntersect(new LatLonRect(LatLonPoint.create(0.0, 50.0), 30.0, 100.0))).isTrue();
+    assertThat(entry.mayIntersect(new LatLonRect(LatLonPoint.create(0.0, 178.0), 30.0, 4.0))).isFalse();
+    assertThat(entry.mayIntersect(new LatLonRect(LatLonPoint.create(0.0, 170.0), 30.0, 100.0))).isFalse();
+    assertThat(entry.mayIntersect(new LatLonRect(LatLonPoint.create(40.0, 100.0), 10.0, 10.0))).isFalse();
+    assertThat(entry.mayIntersect((LatLonRect) null)).isTrue();
+
+    // a message whose times are not known is never skipped
+    BufrMessageIndex.Entry unknown = new BufrMessageIndex.Builder(testFile.getPath(), 0, 0)
+        .addMessage(m, new BufrMessageIndex.Extent()).build().getEntries().get(0);
+    assertThat(unknown.mayIntersect(CalendarDateRange.of(CalendarDate.parseISOformat(null, "2020-06-02T00:00:00Z"),
+        CalendarDate.parseISOformat(null, "2020-06-03T00:00:00Z")))).isTrue();
+  }
+
+  private int readAll() throws IOException {
+    int count = 0;
+    try (NetcdfFile ncfile = NetcdfFiles.open(testFile.getPath())) {
+      Sequence obs = (Sequence) ncfile.findVariable(BufrIosp2.obsRecordName);
+      StructureDataIterator iter = obs.getStructureIterator();
+      try {
+        while (iter.hasNext()) {
+          iter.next();
+          count++;
+        }
+      } finally {
+        iter.close();
+      }
+    }
+    return count;
+  }
+}
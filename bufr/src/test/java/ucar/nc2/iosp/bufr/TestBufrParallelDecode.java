@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.iosp.bufr;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ucar.ma2.Array;
+import ucar.ma2.ArrayStructure;
+import ucar.ma2.StructureData;
+import ucar.ma2.StructureDataIterator;
+import ucar.ma2.StructureMembers;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Sequence;
+
+/** Compare the observations read with the messages decoded serially and in parallel. */
+public class TestBufrParallelDecode {
+
+  @ClassRule
+  public static final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static final int nmessages = 12;
+  private static File testFile;
+
+  // copies of a message, with WMO headers between them
+  @BeforeClass
+  public static void makeFile() throws IOException {
+    byte[] message = Files.readAllBytes(Paths.get("../bufr/src/test/data/RadiosondeStationData.bufr"));
+    testFile = tempFolder.newFile("feed.bufr");
+    try (OutputStream out = new FileOutputStream(testFile)) {
+      for (int i = 0; i < nmessages; i++) {
+        out.write(String.format("\001\r\r\n%03d \r\r\nIUSN%02d KWBC\r\r\n", i, i).getBytes(StandardCharsets.US_ASCII));
+        out.write(message);
+      }
+    }
+  }
+
+  @Test
+  public void shouldReadSameObservations() throws IOException {
+    List<String> serial = readAll(1);
+    List<String> parallel = readAll(4);
+    assertThat(serial).hasSize(nmessages);
+    assertThat(parallel).isEqualTo(serial);
+  }
+
+  @Test
+  public void shouldResetAfterClose() throws IOException {
+    try (NetcdfFile ncfile = NetcdfFiles.open(testFile.getPath())) {
+      ((BufrIosp2) ncfile.getIosp()).setDecodeParallelism(3);
+      Sequence obs = (Sequence) ncfile.findVariable(BufrIosp2.obsRecordName);
+      StructureDataIterator iter = obs.getStructureIterator();
+      assertThat(iter.hasNext()).isTrue();
+      iter.next();
+      iter.close(); // with messages still being decoded
+
+      iter = obs.getStructureIterator();
+      int count = 0;
+      while (iter.hasNext()) {
+        iter.next();
+        count++;
+      }
+      iter.close();
+      assertThat(count).isEqualTo(nmessages);
+    }
+  }
+
+  @Test
+  public void shouldConfigureParallelism() throws IOException {
+    assertThrows(IllegalArgumentException.class, () -> BufrIosp2.setDefaultDecodeParallelism(0));
+    try (NetcdfFile ncfile = NetcdfFiles.open(testFile.getPath())) {
+      BufrIosp2 iosp = (BufrIosp2) ncfile.getIosp();
+      assertThat(iosp.getDecodeParallelism()).isEqualTo(BufrIosp2.getDefaultDecodeParallelism());
+      assertThrows(IllegalArgumentException.class, () -> iosp.setDecodeParallelism(-1));
+    }
+  }
+
+  private List<String> readAll(int parallelism) throws IOException {
+    List<String> result = new ArrayList<>();
+    try (NetcdfFile ncfile = NetcdfFiles.open(testFile.getPath())) {
+      ((BufrIosp2) ncfile.getIosp()).setDecodeParallelism(parallelism);
+      Sequence obs = (Sequence) ncfile.findVariable(BufrIosp2.obsRecordName);
+      StructureDataIterator iter = obs.getStructureIterator();
+      try {
+        while (iter.hasNext()) {
+          StringBuilder sb = new StringBuilder();
+          show(iter.next(), sb);
+          result.add(sb.toString());
+        }
+      } finally {
+        iter.close();
+      }
+    }
+    return result;
+  }
+
+  private void show(StructureData sdata, StringBuilder sb) throws IOException {
+    for (StructureMembers.Member m : sdata.getMembers()) {
+      Array data = sdata.getArray(m);
+      sb.append(m.getName()).append('=');
+      if (data instanceof ArrayStructure) { // nested structures and sequences
+        StructureDataIterator iter = ((ArrayStructure) data).getStructureDataIterator();
+        while (iter.hasNext()) {
+          show(iter.next(), sb);
+        }
+      } else {
+        sb.append(data);
+      }
+      sb.append(';');
+    }
+  }
+}
@@ -477,6 +477,7 @@ public class FeatureCollectionConfig {
     public boolean intvMerge = intvMergeDef;
     public boolean useCenter = useCenterDef;
     public boolean unionRuntimeCoord;
+    public int indexParallelism; // number of threads used to index the collection; 0 means use the default
 
     public GribIntvFilter intvFilter;
     public TimeUnitConverterHash tuc;
@@ -599,6 +600,18 @@ public class FeatureCollectionConfig {
         unionRuntimeCoord = true;
         return true;
       }
+      if (name.equalsIgnoreCase("indexParallelism")) {
+        try {
+          int parallelism = Integer.parseInt(value.trim());
+          if (parallelism < 0)
+            throw new NumberFormatException();
+          indexParallelism = parallelism;
+          return true;
+        } catch (NumberFormatException e) {
+          log.warn("Illegal indexParallelism option = {}", value);
+          return false;
+        }
+      }
       return false;
     }
 
@@ -717,6 +730,8 @@ public class FeatureCollectionConfig {
         f.format(" useCenter=%s", useCenter);
       if (userTimeUnit != null)
         f.format(" userTimeUnit= %s", userTimeUnit);
+      if (indexParallelism != 0)
+        f.format(" indexParallelism=%d", indexParallelism);
       f.format("%n");
       if (gdsHash != null)
         f.format("  gdsHash=%s%n", gdsHash);
@@ -754,6 +769,8 @@ public class FeatureCollectionConfig {
         sb.append(", intvFilter=").append(intvFilter);
       if (userTimeUnit != null)
         sb.append(", userTimeUnit='").append(userTimeUnit).append('\'');
+      if (indexParallelism != 0)
+        sb.append(", indexParallelism=").append(indexParallelism);
       sb.append('}');
       return sb.toString();
     }
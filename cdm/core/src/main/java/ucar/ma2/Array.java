@@ -294,8 +294,11 @@ public abstract class Array {
       return;
     }
 
-    Object src = arraySrc.get1DJavaArray(arraySrc.getDataType()); // ensure canonical order
     Object dst = arrayDst.getStorage();
+    if (srcPos == 0 && len == arraySrc.getSize() && StridedCopy.copy(arraySrc, dst, dstPos))
+      return; // copied from its storage, in canonical order
+
+    Object src = arraySrc.get1DJavaArray(arraySrc.getDataType()); // ensure canonical order
     System.arraycopy(src, srcPos, dst, dstPos, len);
   }
 
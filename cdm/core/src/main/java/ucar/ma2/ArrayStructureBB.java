@@ -4,6 +4,7 @@
  */
 package ucar.ma2;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import ucar.nc2.util.Indent;
 import java.nio.ByteBuffer;
@@ -130,6 +131,76 @@ public class ArrayStructureBB extends ArrayStructure {
     return bbuffer;
   }
 
+  /**
+   * Extract data for one member, over all structures.
+   * Numeric members are gathered from the ByteBuffer straight into the storage of the result.
+   *
+   * @param m get data from this StructureMembers.Member.
+   * @return Array values.
+   * @throws java.io.IOException on read error (only happens for Sequences, otherwise data is already read)
+   */
+  @Override
+  public Array extractMemberArray(StructureMembers.Member m) throws IOException {
+    DataType dataType = m.getDataType();
+    if (m.getDataArray() != null || m.isVariableLength() || !dataType.isNumeric())
+      return super.extractMemberArray(m);
+
+    int[] mshape = m.getShape();
+    int[] rshape = new int[rank + mshape.length];
+    System.arraycopy(getShape(), 0, rshape, 0, rank);
+    System.arraycopy(mshape, 0, rshape, rank, mshape.length);
+    Array result = Array.factory(dataType, rshape);
+
+    // member i of record r is at calcOffsetSetOrder(r, m) + i * elemSize, which also sets the byte order
+    int nrecs = (int) getSize();
+    int count = m.getSize();
+    Class<?> elemType = dataType.getPrimitiveClassType();
+
+    if (elemType == byte.class) {
+      byte[] pa = (byte[]) result.getStorage();
+      if (getClass() == ArrayStructureBB.class && bbuffer.hasArray()) { // records are evenly spaced
+        int start = bbuffer.arrayOffset() + calcOffsetSetOrder(0, m);
+        StridedCopy.copy(bbuffer.array(), start, new int[] {getStructureSize(), 1}, pa, 0, new int[] {count, 1},
+            new int[] {nrecs, count});
+      } else {
+        for (int r = 0, k = 0; r < nrecs; r++)
+          for (int i = 0, pos = calcOffsetSetOrder(r, m); i < count; i++)
+            pa[k++] = bbuffer.get(pos + i);
+      }
+
+    } else if (elemType == short.class) {
+      short[] pa = (short[]) result.getStorage();
+      for (int r = 0, k = 0; r < nrecs; r++)
+        for (int i = 0, pos = calcOffsetSetOrder(r, m); i < count; i++)
+          pa[k++] = bbuffer.getShort(pos + i * 2);
+
+    } else if (elemType == int.class) {
+      int[] pa = (int[]) result.getStorage();
+      for (int r = 0, k = 0; r < nrecs; r++)
+        for (int i = 0, pos = calcOffsetSetOrder(r, m); i < count; i++)
+          pa[k++] = bbuffer.getInt(pos + i * 4);
+
+    } else if (elemType == long.class) {
+      long[] pa = (long[]) result.getStorage();
+      for (int r = 0, k = 0; r < nrecs; r++)
+        for (int i = 0, pos = calcOffsetSetOrder(r, m); i < count; i++)
+          pa[k++] = bbuffer.getLong(pos + i * 8);
+
+    } else if (elemType == float.class) {
+      float[] pa = (float[]) result.getStorage();
+      for (int r = 0, k = 0; r < nrecs; r++)
+        for (int i = 0, pos = calcOffsetSetOrder(r, m); i < count; i++)
+          pa[k++] = bbuffer.getFloat(pos + i * 4);
+
+    } else {
+      double[] pa = (double[]) result.getStorage();
+      for (int r = 0, k = 0; r < nrecs; r++)
+        for (int i = 0, pos = calcOffsetSetOrder(r, m); i < count; i++)
+          pa[k++] = bbuffer.getDouble(pos + i * 8);
+    }
+    return result;
+  }
+
   @Override
   public double getScalarDouble(int recnum, StructureMembers.Member m) {
     if (m.getDataType() != DataType.DOUBLE)
@@ -4,18 +4,50 @@
  */
 package ucar.ma2;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BinaryOperator;
+import ucar.nc2.util.Concurrency;
 import ucar.nc2.util.Misc;
 
 /**
  * Element by element algebra on Arrays
+ * <p>
+ * Double and float arrays whose storage is all in canonical order are processed by loops over the storage, rather
+ * than through an IndexIterator. Reductions (min/max and sums) over large arrays may also be split across the
+ * common ForkJoinPool, see {@link #setDefaultParallelism}.
  *
  * @author caron
  * @see Index
  */
 public class MAMath {
 
+  // System property name for -D flag; number of parts a reduction over a large array is split into
+  static final String PARALLELISM = "unidata.mamath.parallelism";
+  // reductions over fewer elements than this are always done on the calling thread
+  static final int PARALLEL_THRESHOLD = 1 << 20;
+
+  private static volatile int defaultParallelism = Concurrency.getIntProperty(PARALLELISM, 1, 1);
+
+  /**
+   * Set the number of parts that min/max and sum reductions over large arrays are split into, each part computed
+   * on the common ForkJoinPool. Default is 1. Sums computed in parts may differ in the last bits from serial sums.
+   *
+   * @param parallelism number of parts, must be > 0; 1 means reduce serially on the calling thread
+   */
+  public static void setDefaultParallelism(int parallelism) {
+    if (parallelism <= 0)
+      throw new IllegalArgumentException("parallelism must be > 0");
+    defaultParallelism = parallelism;
+  }
+
+  public static int getDefaultParallelism() {
+    return defaultParallelism;
+  }
+
   /**
    * Add elements of two arrays together, allocating the result array.
    * The result type and the operation type are taken from the type of a.
@@ -53,6 +85,18 @@ public class MAMath {
     if (!conformable(result, a) || !conformable(a, b))
       throw new IllegalArgumentException();
 
+    Object storageR = canonicalStorage(result);
+    Object storageA = canonicalStorage(a);
+    Object storageB = canonicalStorage(b);
+    if (storageR instanceof double[] && storageA instanceof double[] && storageB instanceof double[]) {
+      double[] r = (double[]) storageR;
+      double[] da = (double[]) storageA;
+      double[] db = (double[]) storageB;
+      for (int i = 0; i < r.length; i++)
+        r[i] = da[i] + db[i];
+      return;
+    }
+
     IndexIterator iterR = result.getIndexIterator();
     IndexIterator iterA = a.getIndexIterator();
     IndexIterator iterB = b.getIndexIterator();
@@ -177,6 +221,9 @@ public class MAMath {
    */
   public static void copy(Array result, Array a) throws IllegalArgumentException {
     Class classType = a.getElementType();
+    if (classType.isPrimitive() && classType == result.getElementType() && StridedCopy.copy(a, result))
+      return;
+
     if (classType == double.class) {
       copyDouble(result, a);
     } else if (classType == float.class) {
@@ -394,6 +441,9 @@ public class MAMath {
   }
 
   public static double getMinimum(Array a) {
+    if (isCanonicalFloatingPoint(a))
+      return getMinMax(a).min;
+
     IndexIterator iter = a.getIndexIterator();
     double min = Double.MAX_VALUE;
     while (iter.hasNext()) {
@@ -407,6 +457,9 @@ public class MAMath {
   }
 
   public static double getMaximum(Array a) {
+    if (isCanonicalFloatingPoint(a))
+      return getMinMax(a).max;
+
     IndexIterator iter = a.getIndexIterator();
     double max = -Double.MAX_VALUE;
     while (iter.hasNext()) {
@@ -426,6 +479,9 @@ public class MAMath {
    * @return MinMax
    */
   public static MAMath.MinMax getMinMax(Array a) {
+    if (isCanonicalFloatingPoint(a))
+      return minMaxCanonical(a, Double.NaN); // NaN compares false, so NaNs are skipped
+
     IndexIterator iter = a.getIndexIterator();
     double max = -Double.MAX_VALUE;
     double min = Double.MAX_VALUE;
@@ -445,6 +501,13 @@ public class MAMath {
     if (eval == null || !eval.hasMissing())
       return MAMath.getMinMax(a);
 
+    Object storage = canonicalStorage(a);
+    if (storage instanceof double[]) {
+      return minMax((double[]) storage, eval);
+    } else if (storage instanceof float[]) {
+      return minMax((float[]) storage, eval);
+    }
+
     IndexIterator iter = a.getIndexIterator();
     double max = -Double.MAX_VALUE;
     double min = Double.MAX_VALUE;
@@ -462,6 +525,9 @@ public class MAMath {
 
 
   public static double getMinimumSkipMissingData(Array a, double missingValue) {
+    if (isCanonicalFloatingPoint(a))
+      return minMaxCanonical(a, missingValue).min;
+
     IndexIterator iter = a.getIndexIterator();
     double min = Double.MAX_VALUE;
     while (iter.hasNext()) {
@@ -473,6 +539,9 @@ public class MAMath {
   }
 
   public static double getMaximumSkipMissingData(Array a, double missingValue) {
+    if (isCanonicalFloatingPoint(a))
+      return minMaxCanonical(a, missingValue).max;
+
     IndexIterator iter = a.getIndexIterator();
     double max = -Double.MAX_VALUE;
     while (iter.hasNext()) {
@@ -484,6 +553,9 @@ public class MAMath {
   }
 
   public static MAMath.MinMax getMinMaxSkipMissingData(Array a, double missingValue) {
+    if (isCanonicalFloatingPoint(a))
+      return minMaxCanonical(a, missingValue);
+
     IndexIterator iter = a.getIndexIterator();
     double max = -Double.MAX_VALUE;
     double min = Double.MAX_VALUE;
@@ -522,6 +594,15 @@ public class MAMath {
    * @return sum of elements
    */
   public static double sumDouble(Array a) {
+    Object storage = canonicalStorage(a);
+    if (storage instanceof double[]) {
+      double[] data = (double[]) storage;
+      return reduce(data.length, (start, end) -> sum(data, start, end), Double::sum);
+    } else if (storage instanceof float[]) {
+      float[] data = (float[]) storage;
+      return reduce(data.length, (start, end) -> sum(data, start, end), Double::sum);
+    }
+
     double sum = 0;
     IndexIterator iterA = a.getIndexIterator();
     while (iterA.hasNext()) {
@@ -539,6 +620,15 @@ public class MAMath {
    * @return sum of elements
    */
   public static double sumDoubleSkipMissingData(Array a, double missingValue) {
+    Object storage = canonicalStorage(a);
+    if (storage instanceof double[]) {
+      double[] data = (double[]) storage;
+      return reduce(data.length, (start, end) -> sumSkipMissing(data, start, end, missingValue), Double::sum);
+    } else if (storage instanceof float[]) {
+      float[] data = (float[]) storage;
+      return reduce(data.length, (start, end) -> sumSkipMissing(data, start, end, missingValue), Double::sum);
+    }
+
     double sum = 0;
     IndexIterator iterA = a.getIndexIterator();
     while (iterA.hasNext()) {
@@ -550,6 +640,160 @@ public class MAMath {
     return sum;
   }
 
+  ///////////////////////////////////////////////////////////////////////////////////
+  // loops over the storage of arrays in canonical order, which the JIT can unroll and vectorize
+
+  // the storage of a, if it holds exactly the elements of a in canonical order, else null
+  private static Object canonicalStorage(Array a) {
+    if (a.isConstant() || !a.indexCalc.isFastIterator())
+      return null;
+    Object storage = a.getStorage();
+    if (storage == null || !storage.getClass().isArray() || java.lang.reflect.Array.getLength(storage) != a.getSize())
+      return null;
+    return storage;
+  }
+
+  private static boolean isCanonicalFloatingPoint(Array a) {
+    Object storage = canonicalStorage(a);
+    return storage instanceof double[] || storage instanceof float[];
+  }
+
+  // a must be a canonical double or float array
+  private static MinMax minMaxCanonical(Array a, double missingValue) {
+    Object storage = canonicalStorage(a);
+    if (storage instanceof double[]) {
+      double[] data = (double[]) storage;
+      return reduce(data.length, (start, end) -> minMax(data, start, end, missingValue), MAMath::combine);
+    }
+    float[] data = (float[]) storage;
+    return reduce(data.length, (start, end) -> minMax(data, start, end, missingValue), MAMath::combine);
+  }
+
+  // skips missingValue; NaNs are skipped because they compare false
+  private static MinMax minMax(double[] data, int start, int end, double missingValue) {
+    double max = -Double.MAX_VALUE;
+    double min = Double.MAX_VALUE;
+    for (int i = start; i < end; i++) {
+      double val = data[i];
+      if (val == missingValue)
+        continue;
+      if (val > max)
+        max = val;
+      if (val < min)
+        min = val;
+    }
+    return new MinMax(min, max);
+  }
+
+  private static MinMax minMax(float[] data, int start, int end, double missingValue) {
+    double max = -Double.MAX_VALUE;
+    double min = Double.MAX_VALUE;
+    for (int i = start; i < end; i++) {
+      double val = data[i];
+      if (val == missingValue)
+        continue;
+      if (val > max)
+        max = val;
+      if (val < min)
+        min = val;
+    }
+    return new MinMax(min, max);
+  }
+
+  private static MinMax minMax(double[] data, IsMissingEvaluator eval) {
+    double max = -Double.MAX_VALUE;
+    double min = Double.MAX_VALUE;
+    for (double val : data) {
+      if (eval.isMissing(val))
+        continue;
+      if (val > max)
+        max = val;
+      if (val < min)
+        min = val;
+    }
+    return new MinMax(min, max);
+  }
+
+  private static MinMax minMax(float[] data, IsMissingEvaluator eval) {
+    double max = -Double.MAX_VALUE;
+    double min = Double.MAX_VALUE;
+    for (float fval : data) {
+      double val = fval;
+      if (eval.isMissing(val))
+        continue;
+      if (val > max)
+        max = val;
+      if (val < min)
+        min = val;
+    }
+    return new MinMax(min, max);
+  }
+
+  private static MinMax combine(MinMax a, MinMax b) {
+    return new MinMax(Math.min(a.min, b.min), Math.max(a.max, b.max));
+  }
+
+  private static double sum(double[] data, int start, int end) {
+    double sum = 0;
+    for (int i = start; i < end; i++)
+      sum += data[i];
+    return sum;
+  }
+
+  private static double sum(float[] data, int start, int end) {
+    double sum = 0;
+    for (int i = start; i < end; i++)
+      sum += data[i];
+    return sum;
+  }
+
+  private static double sumSkipMissing(double[] data, int start, int end, double missingValue) {
+    double sum = 0;
+    for (int i = start; i < end; i++) {
+      double val = data[i];
+      if ((val == missingValue) || Double.isNaN(val))
+        continue;
+      sum += val;
+    }
+    return sum;
+  }
+
+  private static double sumSkipMissing(float[] data, int start, int end, double missingValue) {
+    double sum = 0;
+    for (int i = start; i < end; i++) {
+      double val = data[i];
+      if ((val == missingValue) || Double.isNaN(val))
+        continue;
+      sum += val;
+    }
+    return sum;
+  }
+
+  // reduces the elements [start, end) of some array
+  private interface PartReducer<T> {
+    T reduce(int start, int end);
+  }
+
+  // reduce the n elements of an array on the calling thread, or in defaultParallelism parts if n is large.
+  // The parts are combined in order, so the result only depends on the parallelism.
+  private static <T> T reduce(int n, PartReducer<T> reducer, BinaryOperator<T> combiner) {
+    int nparts = (n < PARALLEL_THRESHOLD) ? 1 : defaultParallelism;
+    if (nparts == 1)
+      return reducer.reduce(0, n);
+
+    int partSize = (n + nparts - 1) / nparts;
+    List<CompletableFuture<T>> parts = new ArrayList<>();
+    for (int start = partSize; start < n; start += partSize) {
+      int partStart = start;
+      int partEnd = Math.min(n, start + partSize);
+      parts.add(CompletableFuture.supplyAsync(() -> reducer.reduce(partStart, partEnd)));
+    }
+    T result = reducer.reduce(0, partSize); // the first part on the calling thread
+    for (CompletableFuture<T> part : parts)
+      result = combiner.apply(result, part.join());
+    return result;
+  }
+
   /**
    * Holds a minimum and maximum value.
    */
@@ -613,9 +857,24 @@ public class MAMath {
   public static Array convert2packed(Array unpacked, double missingValue, int nbits, DataType packedType) {
     MAMath.ScaleOffset scaleOffset = calcScaleOffsetSkipMissingData(unpacked, missingValue, nbits);
     Array result = Array.factory(packedType, unpacked.getShape());
+
+    Object storage = canonicalStorage(unpacked);
+    if (storage instanceof double[]) {
+      double[] data = (double[]) storage;
+      for (int i = 0; i < data.length; i++)
+        result.setDouble(i, (data[i] - scaleOffset.offset) / scaleOffset.scale);
+      return result;
+    } else if (storage instanceof float[]) {
+      float[] data = (float[]) storage;
+      for (int i = 0; i < data.length; i++)
+        result.setDouble(i, (data[i] - scaleOffset.offset) / scaleOffset.scale);
+      return result;
+    }
+
+    IndexIterator iter = unpacked.getIndexIterator();
     IndexIterator riter = result.getIndexIterator();
-    while (unpacked.hasNext()) {
-      double uv = unpacked.nextDouble();
+    while (iter.hasNext()) {
+      double uv = iter.getDoubleNext();
       double pv = (uv - scaleOffset.offset) / scaleOffset.scale;
       riter.setDoubleNext(pv);
     }
@@ -624,9 +883,10 @@ public class MAMath {
 
   public static Array convert2Unpacked(Array packed, ScaleOffset scaleOffset) {
     Array result = Array.factory(DataType.DOUBLE, packed.getShape());
+    IndexIterator iter = packed.getIndexIterator();
     IndexIterator riter = result.getIndexIterator();
-    while (packed.hasNext()) {
-      riter.setDoubleNext(packed.nextDouble() * scaleOffset.scale + scaleOffset.offset);
+    while (iter.hasNext()) {
+      riter.setDoubleNext(iter.getDoubleNext() * scaleOffset.scale + scaleOffset.offset);
     }
     return result;
   }
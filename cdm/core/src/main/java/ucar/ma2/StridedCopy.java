@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.ma2;
+
+import java.util.Arrays;
+
+/**
+ * Copies a section of elements between Java arrays, described by a starting offset and a stride per dimension,
+ * the way an Index describes the storage of an Array.
+ * <p>
+ * Dimensions of length 1 are dropped, and dimensions that are contiguous in both source and destination are
+ * merged, so that the innermost dimension is as long as possible. When it has stride 1 in both, each run is copied
+ * with System.arraycopy; otherwise by a loop over the run. No objects are created per element or per run.
+ *
+ * @see Index
+ */
+public final class StridedCopy {
+
+  private StridedCopy() {}
+
+  /**
+   * Copy the elements of a section from src to dst. The element at index (i0, i1, ...) of the section is at
+   * srcOffset + i0 * srcStride[0] + i1 * srcStride[1] + ... in src, and is copied to
+   * dstOffset + i0 * dstStride[0] + i1 * dstStride[1] + ... in dst. Strides may be negative.
+   *
+   * @param src copy from this Java array, of primitives or Objects.
+   * @param srcOffset position in src of the first element.
+   * @param srcStride stride of each dimension in src.
+   * @param dst copy to this Java array, of the same type as src.
+   * @param dstOffset position in dst of the first element.
+   * @param dstStride stride of each dimension in dst.
+   * @param shape the shape of the section, with the same rank as the strides.
+   * @throws IllegalArgumentException if src and dst are not arrays of the same type, or the ranks differ.
+   * @throws ArrayIndexOutOfBoundsException if the section goes outside of src or dst.
+   */
+  public static void copy(Object src, int srcOffset, int[] srcStride, Object dst, int dstOffset, int[] dstStride,
+      int[] shape) {
+    if (!src.getClass().isArray() || (src.getClass() != dst.getClass() && !(src instanceof Object[]
+        && dst instanceof Object[])))
+      throw new IllegalArgumentException("must copy between arrays of the same type: " + src.getClass().getName()
+          + " != " + dst.getClass().getName());
+    if (srcStride.length != shape.length || dstStride.length != shape.length)
+      throw new IllegalArgumentException("strides must have the same rank as shape");
+
+    // collapse the dimensions, innermost first
+    int rank = shape.length;
+    int[] len = new int[rank];
+    int[] srcInc = new int[rank];
+    int[] dstInc = new int[rank];
+    int n = 0;
+    for (int i = rank - 1; i >= 0; i--) {
+      if (shape[i] == 0)
+        return;
+      if (shape[i] == 1)
+        continue;
+      if (n > 0 && srcStride[i] == srcInc[n - 1] * len[n - 1] && dstStride[i] == dstInc[n - 1] * len[n - 1]) {
+        len[n - 1] *= shape[i]; // contiguous with the inner dimension in both
+      } else {
+        len[n] = shape[i];
+        srcInc[n] = srcStride[i];
+        dstInc[n] = dstStride[i];
+        n++;
+      }
+    }
+    if (n == 0) { // a single element
+      copyRun(src, srcOffset, 1, dst, dstOffset, 1, 1);
+      return;
+    }
+
+    // odometer over the outer dimensions, one run of the innermost dimension each
+    int[] counter = new int[n];
+    int srcPos = srcOffset;
+    int dstPos = dstOffset;
+    while (true) {
+      copyRun(src, srcPos, srcInc[0], dst, dstPos, dstInc[0], len[0]);
+      int dim = 1;
+      for (; dim < n; dim++) {
+        srcPos += srcInc[dim];
+        dstPos += dstInc[dim];
+        if (++counter[dim] < len[dim])
+          break;
+        srcPos -= srcInc[dim] * len[dim];
+        dstPos -= dstInc[dim] * len[dim];
+        counter[dim] = 0;
+      }
+      if (dim == n)
+        return;
+    }
+  }
+
+  /**
+   * Copy all elements of src to dst, in logical order. The Arrays must have the same element type and the same
+   * shape, ignoring dimensions of length 1. Either may be a view with any strides, eg a section, a transpose or
+   * a flip.
+   *
+   * @param src copy from here
+   * @param dst copy to here
+   * @return false if this kind of Array is not handled, and nothing was copied. Arrays of Objects, Structures,
+   *         variable length and constant Arrays are not handled.
+   */
+  static boolean copy(Array src, Array dst) {
+    Object srcStorage = primitiveStorage(src);
+    Object dstStorage = primitiveStorage(dst);
+    if (srcStorage == null || dstStorage == null || srcStorage.getClass() != dstStorage.getClass())
+      return false;
+
+    Index srcIndex = src.indexCalc;
+    Index dstIndex = dst.indexCalc;
+    int[] shape = reduce(srcIndex.shape, srcIndex.shape);
+    if (!Arrays.equals(shape, reduce(dstIndex.shape, dstIndex.shape)))
+      return false;
+    copy(srcStorage, srcIndex.offset, reduce(srcIndex.shape, srcIndex.stride), dstStorage, dstIndex.offset,
+        reduce(dstIndex.shape, dstIndex.stride), shape);
+    return true;
+  }
+
+  /**
+   * Copy all elements of src, in logical order, to a Java array.
+   *
+   * @param src copy from here
+   * @param dst copy to this Java array, of the element type of src
+   * @param dstPos starting at this element of dst
+   * @return false if this kind of Array is not handled, and nothing was copied; see {@link #copy(Array, Array)}.
+   */
+  static boolean copy(Array src, Object dst, int dstPos) {
+    Object srcStorage = primitiveStorage(src);
+    if (srcStorage == null || srcStorage.getClass() != dst.getClass())
+      return false;
+
+    Index srcIndex = src.indexCalc;
+    int[] dstStride = new int[srcIndex.rank];
+    int product = 1;
+    for (int i = srcIndex.rank - 1; i >= 0; i--) {
+      dstStride[i] = product;
+      product *= srcIndex.shape[i];
+    }
+    copy(srcStorage, srcIndex.offset, srcIndex.stride, dst, dstPos, dstStride, srcIndex.shape);
+    return true;
+  }
+
+  // the primitive Java array that holds the elements of a, or null
+  private static Object primitiveStorage(Array a) {
+    if (a.isConstant() || a.isVlen() || !a.getElementType().isPrimitive())
+      return null;
+    Object storage = a.getStorage();
+    if (storage == null || !storage.getClass().isArray() || !storage.getClass().getComponentType().isPrimitive())
+      return null;
+    return storage;
+  }
+
+  // the values of the dimensions whose length is not 1
+  private static int[] reduce(int[] shape, int[] values) {
+    int n = 0;
+    for (int len : shape) {
+      if (len != 1)
+        n++;
+    }
+    int[] result = new int[n];
+    n = 0;
+    for (int i = 0; i < shape.length; i++) {
+      if (shape[i] != 1)
+        result[n++] = values[i];
+    }
+    return result;
+  }
+
+  private static void copyRun(Object src, int srcPos, int srcInc, Object dst, int dstPos, int dstInc, int n) {
+    if (srcInc == 1 && dstInc == 1) {
+      System.arraycopy(src, srcPos, dst, dstPos, n);
+
+    } else if (src instanceof float[]) {
+      float[] s = (float[]) src;
+      float[] d = (float[]) dst;
+      for (int i = 0; i < n; i++, srcPos += srcInc, dstPos += dstInc)
+        d[dstPos] = s[srcPos];
+
+    } else if (src instanceof double[]) {
+      double[] s = (double[]) src;
+      double[] d = (double[]) dst;
+      for (int i = 0; i < n; i++, srcPos += srcInc, dstPos += dstInc)
+        d[dstPos] = s[srcPos];
+
+    } else if (src instanceof int[]) {
+      int[] s = (int[]) src;
+      int[] d = (int[]) dst;
+      for (int i = 0; i < n; i++, srcPos += srcInc, dstPos += dstInc)
+        d[dstPos] = s[srcPos];
+
+    } else if (src instanceof short[]) {
+      short[] s = (short[]) src;
+      short[] d = (short[]) dst;
+      for (int i = 0; i < n; i++, srcPos += srcInc, dstPos += dstInc)
+        d[dstPos] = s[srcPos];
+
+    } else if (src instanceof byte[]) {
+      byte[] s = (byte[]) src;
+      byte[] d = (byte[]) dst;
+      for (int i = 0; i < n; i++, srcPos += srcInc, dstPos += dstInc)
+        d[dstPos] = s[srcPos];
+
+    } else if (src instanceof long[]) {
+      long[] s = (long[]) src;
+      long[] d = (long[]) dst;
+      for (int i = 0; i < n; i++, srcPos += srcInc, dstPos += dstInc)
+        d[dstPos] = s[srcPos];
+
+    } else if (src instanceof char[]) {
+      char[] s = (char[]) src;
+      char[] d = (char[]) dst;
+      for (int i = 0; i < n; i++, srcPos += srcInc, dstPos += dstInc)
+        d[dstPos] = s[srcPos];
+
+    } else if (src instanceof boolean[]) {
+      boolean[] s = (boolean[]) src;
+      boolean[] d = (boolean[]) dst;
+      for (int i = 0; i < n; i++, srcPos += srcInc, dstPos += dstInc)
+        d[dstPos] = s[srcPos];
+
+    } else {
+      Object[] s = (Object[]) src;
+      Object[] d = (Object[]) dst;
+      for (int i = 0; i < n; i++, srcPos += srcInc, dstPos += dstInc)
+        d[dstPos] = s[srcPos];
+    }
+  }
+}
@@ -100,6 +100,13 @@ public class NetcdfFiles {
         log.info("Cant load class InMemoryRandomAccessFileProvider", e);
     }
 
+    try {
+      registerRandomAccessFileProvider("ucar.unidata.io.MMapRandomAccessFile$Provider");
+    } catch (Throwable e) {
+      if (loadWarnings)
+        log.info("Cant load class MMapRandomAccessFileProvider", e);
+    }
+
     // if a user explicitly registers an IOSP or RandomAccessFile implementation via
     // registerIOProvider or registerRandomAccessFileProvider, this ensures they are tried first,
     // even before the core implementations.
@@ -254,6 +261,8 @@ public class NetcdfFiles {
    *        <li>local netcdf-4 filename (with a file: prefix or no prefix)
    *        <li>local hdf-5 filename (with a file: prefix or no prefix)
    *        <li>local iosp filename (with a file: prefix or no prefix)
+   *        <li>any of the above local files with an mmap: prefix, to read it through a memory mapped
+   *        {@link ucar.unidata.io.MMapRandomAccessFile}
    *        </ol>
    *        If file ends with ".Z", ".zip", ".gzip", ".gz", or ".bz2", it will uncompress/unzip and write to new file
    *        without the suffix,
@@ -35,6 +35,17 @@ public class SequenceDS extends StructureDS {
     return new StructureDataConverter(this, orgSeq.getStructureIterator(bufferSize));
   }
 
+  /**
+   * Enhance the data from an iterator over the original Sequence, as getStructureIterator() does. Used when the
+   * iterator comes from the IOSP, for example to select the records wanted.
+   *
+   * @param orgIter iterator over the original Sequence
+   * @return iterator over the enhanced data
+   */
+  public StructureDataIterator getStructureIterator(StructureDataIterator orgIter) {
+    return new StructureDataConverter(this, orgIter);
+  }
+
   private static class StructureDataConverter implements StructureDataIterator {
     private StructureDataIterator orgIter;
     private SequenceDS newStruct;
@@ -5,17 +5,187 @@
 
 package ucar.nc2.filter;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import ucar.nc2.util.Concurrency;
 
-
-// TODO: Still to be implemented
+/**
+ * Filter implementation of Blosc, as described by the <a href="https://www.blosc.org/">Blosc</a> project.
+ * Reads and writes the Blosc 1 frame format, with byte and bit shuffle, and the LZ4, LZ4HC, Zlib and Zstd
+ * inner codecs. The BloscLZ and Snappy codecs are not supported.
+ * <p>
+ * A frame is split into blocks that are compressed independently. When a frame has more than one block, and the
+ * number of threads is greater than 1, the blocks are decoded in parallel on a shared pool.
+ */
 public class Blosc extends Filter {
+  private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(Blosc.class);
 
   private static final String name = "blosc";
 
   private static final int id = 32001;
 
-  public Blosc(Map<String, Object> properties) {}
+  public static class Keys {
+    public static final String CNAME_KEY = "cname";
+    public static final String CLEVEL_KEY = "clevel";
+    public static final String SHUFFLE_KEY = "shuffle";
+    public static final String BLOCKSIZE_KEY = "blocksize";
+    public static final String TYPESIZE_KEY = "typesize";
+    public static final String NTHREADS_KEY = "nthreads";
+  }
+
+  // System property name for -D flag
+  static final String NTHREADS = "unidata.blosc.nthreads";
+
+  /** The inner codecs, with their Blosc format codes. */
+  public enum Compressor {
+    BLOSCLZ("blosclz", 0), LZ4("lz4", 1), LZ4HC("lz4hc", 1), SNAPPY("snappy", 2), ZLIB("zlib", 3), ZSTD("zstd", 4);
+
+    private final String cname;
+    private final int code;
+
+    Compressor(String cname, int code) {
+      this.cname = cname;
+      this.code = code;
+    }
+
+    public String getName() {
+      return cname;
+    }
+
+    static Compressor fromName(String cname) {
+      for (Compressor c : values()) {
+        if (c.cname.equalsIgnoreCase(cname))
+          return c;
+      }
+      throw new IllegalArgumentException("Unknown Blosc compressor: " + cname);
+    }
+
+    static Compressor fromCode(int code) {
+      for (Compressor c : values()) {
+        if (c.code == code)
+          return c;
+      }
+      throw new IllegalArgumentException("Unknown Blosc compressor code: " + code);
+    }
+  }
+
+  public enum Shuffle {
+    AUTOSHUFFLE(-1), NOSHUFFLE(0), SHUFFLE(1), BITSHUFFLE(2);
+
+    private final int code;
+
+    Shuffle(int code) {
+      this.code = code;
+    }
+
+    static Shuffle fromCode(int code) {
+      for (Shuffle s : values()) {
+        if (s.code == code)
+          return s;
+      }
+      throw new IllegalArgumentException("Unknown Blosc shuffle: " + code);
+    }
+  }
+
+  // header layout and flags
+  private static final int HEADER_SIZE = 16;
+  private static final int VERSION_FORMAT = 2;
+  private static final int VERSION_LZ = 1;
+  private static final int DOSHUFFLE = 0x1;
+  private static final int MEMCPYED = 0x2;
+  private static final int DOBITSHUFFLE = 0x4;
+  private static final int DONT_SPLIT = 0x10;
+  private static final int MAX_SPLITS = 16;
+  private static final int MIN_BUFFERSIZE = 128;
+  private static final int L1 = 32 * 1024;
+
+  private static final Compressor DEFAULT_COMPRESSOR = Compressor.LZ4;
+  private static final int DEFAULT_CLEVEL = 5;
+  private static final Shuffle DEFAULT_SHUFFLE = Shuffle.SHUFFLE;
+  private static final int DEFAULT_TYPESIZE = 1;
+
+  private static volatile int defaultNumThreads = Concurrency.getIntProperty(NTHREADS, 1, 1);
+
+  /**
+   * Set the number of threads used to decode the blocks of one frame, when not set by the filter properties.
+   * Default is 1.
+   *
+   * @param nthreads number of threads, must be > 0
+   */
+  public static void setDefaultNumThreads(int nthreads) {
+    if (nthreads <= 0)
+      throw new IllegalArgumentException("nthreads must be > 0");
+    defaultNumThreads = nthreads;
+  }
+
+  private static ExecutorService getBlockPool() {
+    return Concurrency.getSharedPool("Blosc-block", Runtime.getRuntime().availableProcessors());
+  }
+
+  private final Compressor compressor;
+  private final int clevel;
+  private final Shuffle shuffle;
+  private final int blocksize; // 0 means automatic
+  private final int typesize;
+  private final int nthreads;
+
+  public Blosc(Map<String, Object> properties) {
+    Object data = properties.get(Filters.Keys.DATA);
+    if (data instanceof int[] && ((int[]) data).length >= 7) {
+      // hdf5 filter client data: version, blosc version, typesize, chunk size, clevel, shuffle, compressor code
+      int[] cd = (int[]) data;
+      this.typesize = cd[2] > 0 ? cd[2] : elemSize(properties);
+      this.clevel = cd[4];
+      this.shuffle = Shuffle.fromCode(cd[5]);
+      this.compressor = Compressor.fromCode(cd[6]);
+      this.blocksize = 0;
+    } else {
+      Object cname = properties.get(Keys.CNAME_KEY);
+      this.compressor = cname == null ? DEFAULT_COMPRESSOR : Compressor.fromName(cname.toString());
+      this.clevel = intProperty(properties, Keys.CLEVEL_KEY, DEFAULT_CLEVEL);
+      this.shuffle = Shuffle.fromCode(intProperty(properties, Keys.SHUFFLE_KEY, DEFAULT_SHUFFLE.code));
+      this.blocksize = intProperty(properties, Keys.BLOCKSIZE_KEY, 0);
+      this.typesize = intProperty(properties, Keys.TYPESIZE_KEY, elemSize(properties));
+    }
+    this.nthreads = intProperty(properties, Keys.NTHREADS_KEY, defaultNumThreads);
+    validate();
+  }
+
+  private void validate() {
+    if (clevel < 0 || clevel > 9) {
+      throw new IllegalArgumentException("Invalid compression level: " + clevel);
+    }
+    if (typesize <= 0 || typesize > 255) {
+      throw new IllegalArgumentException("Invalid typesize: " + typesize);
+    }
+    if (blocksize < 0) {
+      throw new IllegalArgumentException("Invalid blocksize: " + blocksize);
+    }
+    if (nthreads <= 0) {
+      throw new IllegalArgumentException("Invalid nthreads: " + nthreads);
+    }
+  }
+
+  private static int elemSize(Map<String, Object> properties) {
+    return intProperty(properties, Filters.Keys.ELEM_SIZE, DEFAULT_TYPESIZE);
+  }
+
+  private static int intProperty(Map<String, Object> properties, String key, int defaultValue) {
+    Object value = properties.get(key);
+    if (value == null) {
+      return defaultValue;
+    } else if (value instanceof String) {
+      return Integer.parseInt((String) value);
+    }
+    return ((Number) value).intValue();
+  }
 
   @Override
   public String getName() {
@@ -27,14 +197,501 @@ public class Blosc extends Filter {
     return id;
   }
 
+  //////////////////////////////////////////////////////////////////////////////////////////
+  // decoding
+
   @Override
-  public byte[] encode(byte[] dataIn) {
-    return new byte[0];
+  public byte[] decode(byte[] dataIn) throws IOException {
+    if (dataIn.length < HEADER_SIZE) {
+      throw new IOException("Blosc: buffer too small for a header");
+    }
+    int version = dataIn[0] & 0xff;
+    int flags = dataIn[2] & 0xff;
+    int ts = dataIn[3] & 0xff;
+    int nbytes = readInt(dataIn, 4);
+    int bsize = readInt(dataIn, 8);
+    int cbytes = readInt(dataIn, 12);
+
+    if (version > VERSION_FORMAT && (flags & (DOSHUFFLE | DOBITSHUFFLE)) == (DOSHUFFLE | DOBITSHUFFLE)) {
+      throw new IOException("Blosc: extended (Blosc2) headers are not supported");
+    }
+    if (nbytes < 0 || cbytes < HEADER_SIZE || cbytes > dataIn.length) {
+      throw new IOException("Blosc: corrupt header");
+    }
+
+    byte[] dataOut = new byte[nbytes];
+    if ((flags & MEMCPYED) != 0) {
+      if (cbytes < HEADER_SIZE + nbytes) {
+        throw new IOException("Blosc: truncated uncompressed frame");
+      }
+      System.arraycopy(dataIn, HEADER_SIZE, dataOut, 0, nbytes);
+      return dataOut;
+    }
+    if (nbytes == 0) {
+      return dataOut;
+    }
+    if (bsize <= 0 || ts == 0) {
+      throw new IOException("Blosc: corrupt header");
+    }
+
+    Compressor comp;
+    try {
+      comp = Compressor.fromCode((flags & 0xe0) >>> 5);
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Blosc: " + e.getMessage());
+    }
+    if (comp == Compressor.BLOSCLZ || comp == Compressor.SNAPPY) {
+      throw new IOException("Blosc: compressor " + comp.getName() + " is not supported");
+    }
+
+    int nblocks = nbytes / bsize + (nbytes % bsize > 0 ? 1 : 0);
+    if (HEADER_SIZE + 4L * nblocks > cbytes) {
+      throw new IOException("Blosc: truncated block offsets");
+    }
+    Frame frame = new Frame(dataIn, cbytes, version, flags, ts, nbytes, bsize, comp);
+
+    if (nthreads <= 1 || nblocks == 1) {
+      BlockBuffers buffers = new BlockBuffers(bsize);
+      for (int j = 0; j < nblocks; j++) {
+        frame.decodeBlock(j, dataOut, buffers);
+      }
+      return dataOut;
+    }
+
+    // decode blocks in parallel; each writes its own part of dataOut
+    int ntasks = Math.min(nthreads, nblocks);
+    List<Future<Void>> futures = new ArrayList<>(ntasks);
+    ExecutorService pool = getBlockPool();
+    for (int t = 0; t < ntasks; t++) {
+      final int first = t;
+      futures.add(pool.submit(() -> {
+        BlockBuffers buffers = new BlockBuffers(bsize);
+        for (int j = first; j < nblocks; j += ntasks) {
+          frame.decodeBlock(j, dataOut, buffers);
+        }
+        return null;
+      }));
+    }
+    for (Future<Void> f : futures) {
+      Concurrency.getResult(f);
+    }
+    return dataOut;
+  }
+
+  // scratch space for decoding one block
+  private static class BlockBuffers {
+    final byte[] tmp;
+    final byte[] tmp2;
+
+    BlockBuffers(int bsize) {
+      tmp = new byte[bsize];
+      tmp2 = new byte[bsize];
+    }
+  }
+
+  private static class Frame {
+    final byte[] src;
+    final int cbytes;
+    final int version;
+    final int ts;
+    final int nbytes;
+    final int bsize;
+    final Compressor comp;
+    final boolean doShuffle;
+    final boolean doBitShuffle;
+    final boolean dontSplit;
+
+    Frame(byte[] src, int cbytes, int version, int flags, int ts, int nbytes, int bsize, Compressor comp) {
+      this.src = src;
+      this.cbytes = cbytes;
+      this.version = version;
+      this.ts = ts;
+      this.nbytes = nbytes;
+      this.bsize = bsize;
+      this.comp = comp;
+      this.doShuffle = (flags & DOSHUFFLE) != 0 && ts > 1;
+      this.doBitShuffle = (flags & DOBITSHUFFLE) != 0 && bsize >= ts;
+      this.dontSplit = (flags & DONT_SPLIT) != 0;
+    }
+
+    void decodeBlock(int j, byte[] dest, BlockBuffers buffers) throws IOException {
+      int destOff = j * bsize;
+      int blockLen = Math.min(bsize, nbytes - destOff);
+      boolean leftover = blockLen < bsize;
+      int nsplits = splits(dontSplit, leftover, ts, blockLen);
+      int neblock = blockLen / nsplits;
+
+      boolean filtered = doShuffle || doBitShuffle;
+      byte[] out = filtered ? buffers.tmp : dest;
+      int outOff = filtered ? 0 : destOff;
+
+      int sp = readInt(src, HEADER_SIZE + 4 * j);
+      for (int s = 0; s < nsplits; s++) {
+        if (sp < HEADER_SIZE || sp + 4 > cbytes) {
+          throw new IOException("Blosc: corrupt block offset");
+        }
+        int csize = readInt(src, sp);
+        sp += 4;
+        if (csize < 0 || csize > cbytes - sp) {
+          throw new IOException("Blosc: corrupt split size");
+        }
+        if (csize == neblock) { // stored
+          System.arraycopy(src, sp, out, outOff, neblock);
+        } else {
+          int n = decompress(comp, src, sp, csize, out, outOff, neblock);
+          if (n != neblock) {
+            throw new IOException("Blosc: block decompressed to the wrong size");
+          }
+        }
+        sp += csize;
+        outOff += neblock;
+      }
+
+      if (doShuffle) {
+        unshuffle(ts, blockLen, buffers.tmp, dest, destOff);
+      } else if (doBitShuffle) {
+        bitunshuffle(ts, blockLen, buffers.tmp, dest, destOff, buffers.tmp2, version);
+      }
+    }
+  }
+
+  private static int splits(boolean dontSplit, boolean leftover, int ts, int blockLen) {
+    if (!dontSplit && !leftover && ts <= MAX_SPLITS && blockLen / ts >= MIN_BUFFERSIZE && blockLen % ts == 0)
+      return ts;
+    return 1;
+  }
+
+  private static int decompress(Compressor comp, byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff,
+      int dstLen) throws IOException {
+    switch (comp) {
+      case LZ4:
+      case LZ4HC:
+        return Lz4.decompress(src, srcOff, srcLen, dst, dstOff, dstLen);
+      case ZSTD:
+        return Zstd.decompress(src, srcOff, srcLen, dst, dstOff, dstLen);
+      case ZLIB: {
+        Inflater inflater = new Inflater();
+        try {
+          inflater.setInput(src, srcOff, srcLen);
+          int n = 0;
+          while (n < dstLen && !inflater.finished()) {
+            int k = inflater.inflate(dst, dstOff + n, dstLen - n);
+            if (k == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+              break;
+            n += k;
+          }
+          return n;
+        } catch (DataFormatException e) {
+          throw new IOException("Blosc: " + e.getMessage(), e);
+        } finally {
+          inflater.end();
+        }
+      }
+      default:
+        throw new IOException("Blosc: compressor " + comp.getName() + " is not supported");
+    }
   }
 
+  //////////////////////////////////////////////////////////////////////////////////////////
+  // encoding
+
   @Override
-  public byte[] decode(byte[] dataIn) {
-    return new byte[0];
+  public byte[] encode(byte[] dataIn) throws IOException {
+    if (compressor == Compressor.BLOSCLZ || compressor == Compressor.SNAPPY) {
+      throw new IOException("Blosc: compressor " + compressor.getName() + " is not supported");
+    }
+    int nbytes = dataIn.length;
+    int ts = typesize;
+    boolean byteShuffle, bitShuffle;
+    switch (shuffle) {
+      case AUTOSHUFFLE:
+        byteShuffle = ts > 1;
+        bitShuffle = ts == 1;
+        break;
+      case SHUFFLE:
+        byteShuffle = ts > 1;
+        bitShuffle = false;
+        break;
+      case BITSHUFFLE:
+        byteShuffle = false;
+        bitShuffle = true;
+        break;
+      default:
+        byteShuffle = false;
+        bitShuffle = false;
+    }
+
+    int bsize = computeBlocksize(nbytes, ts);
+    int flags = compressor.code << 5;
+    if (byteShuffle)
+      flags |= DOSHUFFLE;
+    if (bitShuffle)
+      flags |= DOBITSHUFFLE;
+    boolean split = splitBlock(ts, bsize);
+    if (!split)
+      flags |= DONT_SPLIT;
+
+    // the frame may grow to at most nbytes + HEADER_SIZE; otherwise it is stored uncompressed
+    int maxbytes = nbytes + HEADER_SIZE;
+    byte[] dest = new byte[maxbytes];
+    int ntbytes = -1;
+    if (clevel > 0 && nbytes > 0) {
+      ntbytes = compressBlocks(dataIn, dest, maxbytes, ts, bsize, split, byteShuffle, bitShuffle);
+    }
+
+    if (ntbytes < 0) { // not compressible
+      flags = (flags | MEMCPYED) & ~(DOSHUFFLE | DOBITSHUFFLE);
+      System.arraycopy(dataIn, 0, dest, HEADER_SIZE, nbytes);
+      ntbytes = maxbytes;
+    }
+
+    dest[0] = (byte) VERSION_FORMAT;
+    dest[1] = (byte) VERSION_LZ;
+    dest[2] = (byte) flags;
+    dest[3] = (byte) ts;
+    writeInt(dest, 4, nbytes);
+    writeInt(dest, 8, bsize);
+    writeInt(dest, 12, ntbytes);
+    if (ntbytes == dest.length)
+      return dest;
+    byte[] result = new byte[ntbytes];
+    System.arraycopy(dest, 0, result, 0, ntbytes);
+    return result;
+  }
+
+  // returns total frame size, or -1 if the compressed frame would not fit in maxbytes
+  private int compressBlocks(byte[] src, byte[] dest, int maxbytes, int ts, int bsize, boolean split,
+      boolean byteShuffle, boolean bitShuffle) throws IOException {
+    int nbytes = src.length;
+    int nblocks = nbytes / bsize + (nbytes % bsize > 0 ? 1 : 0);
+    int ntbytes = HEADER_SIZE + 4 * nblocks;
+    if (ntbytes > maxbytes)
+      return -1;
+
+    byte[] tmp = new byte[bsize];
+    byte[] tmp2 = new byte[bsize];
+    byte[] cbuf = new byte[maxCompressedLength(bsize)];
+    for (int j = 0; j < nblocks; j++) {
+      writeInt(dest, HEADER_SIZE + 4 * j, ntbytes);
+      int srcOff = j * bsize;
+      int blockLen = Math.min(bsize, nbytes - srcOff);
+      boolean leftover = blockLen < bsize;
+
+      byte[] in = src;
+      int inOff = srcOff;
+      if (byteShuffle) {
+        shuffle(ts, blockLen, src, srcOff, tmp);
+        in = tmp;
+        inOff = 0;
+      } else if (bitShuffle) {
+        bitshuffle(ts, blockLen, src, srcOff, tmp, tmp2, VERSION_FORMAT);
+        in = tmp;
+        inOff = 0;
+      }
+
+      int nsplits = splits(!split, leftover, ts, blockLen);
+      int neblock = blockLen / nsplits;
+      for (int s = 0; s < nsplits; s++) {
+        if (ntbytes + 4 > maxbytes)
+          return -1;
+        int csize = compress(in, inOff + s * neblock, neblock, cbuf);
+        if (csize <= 0 || csize >= neblock) { // store it
+          if (ntbytes + 4 + neblock > maxbytes)
+            return -1;
+          writeInt(dest, ntbytes, neblock);
+          System.arraycopy(in, inOff + s * neblock, dest, ntbytes + 4, neblock);
+          ntbytes += 4 + neblock;
+        } else {
+          if (ntbytes + 4 + csize > maxbytes)
+            return -1;
+          writeInt(dest, ntbytes, csize);
+          System.arraycopy(cbuf, 0, dest, ntbytes + 4, csize);
+          ntbytes += 4 + csize;
+        }
+      }
+    }
+    return ntbytes;
+  }
+
+  private int maxCompressedLength(int len) {
+    return Math.max(Lz4.maxCompressedLength(len), Zstd.maxCompressedLength(len)) + 64;
+  }
+
+  private int compress(byte[] src, int off, int len, byte[] cbuf) {
+    switch (compressor) {
+      case LZ4:
+        return Lz4.compress(src, off, len, cbuf, 0, cbuf.length, 0);
+      case LZ4HC:
+        return Lz4.compress(src, off, len, cbuf, 0, cbuf.length, clevel);
+      case ZSTD:
+        return Zstd.compress(src, off, len, cbuf, 0, cbuf.length, clevel);
+      case ZLIB: {
+        Deflater deflater = new Deflater(clevel);
+        try {
+          deflater.setInput(src, off, len);
+          deflater.finish();
+          int n = 0;
+          while (!deflater.finished() && n < cbuf.length)
+            n += deflater.deflate(cbuf, n, cbuf.length - n);
+          return deflater.finished() ? n : -1;
+        } finally {
+          deflater.end();
+        }
+      }
+      default:
+        return -1;
+    }
+  }
+
+  private boolean splitBlock(int ts, int bsize) {
+    // same as the Blosc "forward compatible" split mode
+    return compressor != Compressor.ZSTD && ts <= MAX_SPLITS && bsize / ts >= MIN_BUFFERSIZE;
+  }
+
+  // follows the Blosc heuristics; any blocksize is valid for the decoder
+  private int computeBlocksize(int nbytes, int ts) {
+    int bsize = nbytes;
+    if (blocksize > 0) {
+      bsize = Math.max(blocksize, MIN_BUFFERSIZE);
+    } else if (nbytes >= L1) {
+      bsize = L1;
+      boolean highRatio = compressor == Compressor.LZ4HC || compressor == Compressor.ZLIB
+          || compressor == Compressor.ZSTD;
+      if (highRatio)
+        bsize *= 8;
+      if (clevel == 0)
+        bsize /= 4;
+      else if (clevel <= 3)
+        bsize /= 2;
+      else if (clevel == 6)
+        bsize *= 2;
+      else if (clevel > 6 && clevel < 9)
+        bsize *= 4;
+      else if (clevel == 9)
+        bsize *= 8;
+      if (clevel > 0 && splitBlock(ts, bsize)) {
+        bsize = Math.min(bsize, 1 << 18) * ts;
+        bsize = Math.max(Math.min(bsize, 1 << 20), 1 << 16);
+      }
+    }
+    if (bsize > nbytes)
+      bsize = nbytes;
+    if (bsize > ts)
+      bsize = bsize / ts * ts;
+    return Math.max(bsize, 1);
+  }
+
+  //////////////////////////////////////////////////////////////////////////////////////////
+  // shuffles
+
+  /** Byte shuffle: byte j of element i goes to j * nelems + i. Leftover bytes are copied. */
+  static void shuffle(int ts, int blockLen, byte[] src, int srcOff, byte[] dest) {
+    int nelems = blockLen / ts;
+    for (int j = 0; j < ts; j++) {
+      int d = j * nelems;
+      for (int i = 0; i < nelems; i++) {
+        dest[d + i] = src[srcOff + i * ts + j];
+      }
+    }
+    int rem = blockLen - nelems * ts;
+    System.arraycopy(src, srcOff + blockLen - rem, dest, blockLen - rem, rem);
+  }
+
+  static void unshuffle(int ts, int blockLen, byte[] src, byte[] dest, int destOff) {
+    int nelems = blockLen / ts;
+    for (int j = 0; j < ts; j++) {
+      int s = j * nelems;
+      for (int i = 0; i < nelems; i++) {
+        dest[destOff + i * ts + j] = src[s + i];
+      }
+    }
+    int rem = blockLen - nelems * ts;
+    System.arraycopy(src, blockLen - rem, dest, destOff + blockLen - rem, rem);
+  }
+
+  /**
+   * Bit shuffle: bit k of byte j of element i goes to bit position (j * 8 + k) * nelems + i of the output, least
+   * significant bit first. It is done on a multiple of 8 elements. In format version 2, if the number of elements is
+   * not a multiple of 8, the block is copied; in later versions, the elements past the last multiple of 8 are copied.
+   */
+  static void bitshuffle(int ts, int blockLen, byte[] src, int srcOff, byte[] dest, byte[] tmp, int version) {
+    int nelems = shuffledElements(ts, blockLen, version);
+    if (nelems < 0) {
+      System.arraycopy(src, srcOff, dest, 0, blockLen);
+      return;
+    }
+    shuffle(ts, nelems * ts, src, srcOff, tmp); // byte rows
+    int rowBytes = nelems / 8;
+    for (int j = 0; j < ts; j++) {
+      for (int g = 0; g < rowBytes; g++) {
+        // transpose the 8x8 bit matrix formed by 8 consecutive bytes of row j
+        long x = 0;
+        for (int b = 0; b < 8; b++) {
+          x |= (tmp[j * nelems + g * 8 + b] & 0xffL) << (8 * b);
+        }
+        x = transpose8(x);
+        for (int k = 0; k < 8; k++) {
+          dest[(j * 8 + k) * rowBytes + g] = (byte) (x >>> (8 * k));
+        }
+      }
+    }
+    int rem = blockLen - nelems * ts;
+    System.arraycopy(src, srcOff + blockLen - rem, dest, blockLen - rem, rem);
+  }
+
+  static void bitunshuffle(int ts, int blockLen, byte[] src, byte[] dest, int destOff, byte[] tmp, int version) {
+    int nelems = shuffledElements(ts, blockLen, version);
+    if (nelems < 0) {
+      System.arraycopy(src, 0, dest, destOff, blockLen);
+      return;
+    }
+    int rowBytes = nelems / 8;
+    for (int j = 0; j < ts; j++) {
+      for (int g = 0; g < rowBytes; g++) {
+        long x = 0;
+        for (int k = 0; k < 8; k++) {
+          x |= (src[(j * 8 + k) * rowBytes + g] & 0xffL) << (8 * k);
+        }
+        x = transpose8(x);
+        for (int b = 0; b < 8; b++) {
+          tmp[j * nelems + g * 8 + b] = (byte) (x >>> (8 * b));
+        }
+      }
+    }
+    unshuffle(ts, nelems * ts, tmp, dest, destOff);
+    int rem = blockLen - nelems * ts;
+    System.arraycopy(src, blockLen - rem, dest, destOff + blockLen - rem, rem);
+  }
+
+  // number of elements of the block that are bit shuffled, or -1 if the block is copied
+  private static int shuffledElements(int ts, int blockLen, int version) {
+    int nelems = blockLen / ts;
+    if (nelems % 8 == 0)
+      return nelems;
+    return version <= VERSION_FORMAT ? -1 : nelems - nelems % 8;
+  }
+
+  /** Transpose an 8x8 bit matrix, where byte b holds row b and bit k of it holds column k. */
+  static long transpose8(long x) {
+    long t;
+    t = (x ^ (x >>> 7)) & 0x00AA00AA00AA00AAL;
+    x = x ^ t ^ (t << 7);
+    t = (x ^ (x >>> 14)) & 0x0000CCCC0000CCCCL;
+    x = x ^ t ^ (t << 14);
+    t = (x ^ (x >>> 28)) & 0x00000000F0F0F0F0L;
+    x = x ^ t ^ (t << 28);
+    return x;
+  }
+
+  private static int readInt(byte[] b, int i) {
+    return (b[i] & 0xff) | ((b[i + 1] & 0xff) << 8) | ((b[i + 2] & 0xff) << 16) | ((b[i + 3] & 0xff) << 24);
+  }
+
+  private static void writeInt(byte[] b, int i, int v) {
+    b[i] = (byte) v;
+    b[i + 1] = (byte) (v >>> 8);
+    b[i + 2] = (byte) (v >>> 16);
+    b[i + 3] = (byte) (v >>> 24);
   }
 
   public static class Provider implements FilterProvider {
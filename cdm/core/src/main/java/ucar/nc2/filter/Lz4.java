@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.filter;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Pure java implementation of the LZ4 block format, as used by Blosc.
+ * See <a href="https://github.com/lz4/lz4/blob/dev/doc/lz4_Block_format.md">LZ4 Block Format</a>.
+ * The fast compressor uses a single hash table; the high compression (HC) variant searches a hash chain,
+ * with a search depth that depends on the compression level. Both produce the same format.
+ */
+class Lz4 {
+  private static final int MIN_MATCH = 4;
+  private static final int LAST_LITERALS = 5; // the last 5 bytes are always literals
+  private static final int MF_LIMIT = 12; // a match must start at least 12 bytes before the end of the block
+  private static final int MAX_DISTANCE = 65535;
+  private static final int HASH_LOG = 16;
+  private static final int HC_HASH_LOG = 15;
+
+  private Lz4() {}
+
+  /** Worst case size of the compressed output for a block of the given size. */
+  static int maxCompressedLength(int srcLen) {
+    return srcLen + srcLen / 255 + 16;
+  }
+
+  /**
+   * Decompress one LZ4 block.
+   *
+   * @param src compressed data
+   * @param srcOff start of the block in src
+   * @param srcLen length of the compressed block
+   * @param dst destination
+   * @param dstOff where to start writing in dst
+   * @param dstLen maximum number of bytes to write
+   * @return the number of decompressed bytes
+   * @throws IOException if the block is malformed or doesn't fit in dst
+   */
+  static int decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen) throws IOException {
+    int ip = srcOff;
+    int srcEnd = srcOff + srcLen;
+    int op = dstOff;
+    int dstEnd = dstOff + dstLen;
+
+    while (ip < srcEnd) {
+      int token = src[ip++] & 0xff;
+
+      // literals
+      int litLen = token >>> 4;
+      if (litLen == 15) {
+        int b;
+        do {
+          if (ip >= srcEnd)
+            throw new IOException("LZ4: truncated literal length");
+          b = src[ip++] & 0xff;
+          litLen += b;
+        } while (b == 255);
+      }
+      if (litLen > srcEnd - ip || litLen > dstEnd - op)
+        throw new IOException("LZ4: literal run overflows block");
+      System.arraycopy(src, ip, dst, op, litLen);
+      ip += litLen;
+      op += litLen;
+
+      if (ip == srcEnd) // last sequence has no match
+        break;
+
+      // match
+      if (ip + 2 > srcEnd)
+        throw new IOException("LZ4: truncated match offset");
+      int offset = (src[ip] & 0xff) | ((src[ip + 1] & 0xff) << 8);
+      ip += 2;
+      if (offset == 0 || offset > op - dstOff)
+        throw new IOException("LZ4: invalid match offset " + offset);
+
+      int matchLen = token & 0x0f;
+      if (matchLen == 15) {
+        int b;
+        do {
+          if (ip >= srcEnd)
+            throw new IOException("LZ4: truncated match length");
+          b = src[ip++] & 0xff;
+          matchLen += b;
+        } while (b == 255);
+      }
+      matchLen += MIN_MATCH;
+      if (matchLen > dstEnd - op)
+        throw new IOException("LZ4: match overflows block");
+
+      copyMatch(dst, op, offset, matchLen);
+      op += matchLen;
+    }
+    return op - dstOff;
+  }
+
+  // copy a match that may overlap its destination
+  static void copyMatch(byte[] buf, int op, int offset, int len) {
+    int ref = op - offset;
+    if (offset >= len) {
+      System.arraycopy(buf, ref, buf, op, len);
+    } else if (offset == 1) {
+      Arrays.fill(buf, op, op + len, buf[ref]);
+    } else {
+      for (int i = 0; i < len; i++)
+        buf[op + i] = buf[ref + i];
+    }
+  }
+
+  /**
+   * Compress one LZ4 block.
+   *
+   * @param src data to compress
+   * @param srcOff start of the data
+   * @param srcLen number of bytes to compress
+   * @param dst destination, must have at least maxCompressedLength(srcLen) bytes available, or the result is -1
+   * @param dstOff where to start writing in dst
+   * @param dstLen maximum number of bytes to write
+   * @param hcLevel 0 for the fast compressor, otherwise the LZ4HC level (1-12)
+   * @return the compressed length, or -1 if it did not fit in dstLen
+   */
+  static int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen, int hcLevel) {
+    Writer w = new Writer(src, dst, dstOff, dstOff + dstLen);
+    int srcEnd = srcOff + srcLen;
+    int anchor = srcOff;
+
+    if (srcLen >= MF_LIMIT + 1) {
+      int matchLimit = srcEnd - LAST_LITERALS;
+      int mfLimit = srcEnd - MF_LIMIT;
+      Matcher matcher = hcLevel > 0 ? new HcMatcher(src, srcOff, hcLevel) : new FastMatcher(src, srcOff);
+
+      int ip = srcOff;
+      while (ip < mfLimit) {
+        long match = matcher.find(ip, matchLimit);
+        if (match < 0) {
+          ip++;
+          continue;
+        }
+        int ref = (int) (match >>> 32);
+        int len = (int) match;
+
+        // extend backwards
+        while (ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+          ip--;
+          ref--;
+          len++;
+        }
+
+        if (!w.sequence(anchor, ip - anchor, ip - ref, len))
+          return -1;
+        ip += len;
+        anchor = ip;
+        matcher.skip(ip);
+      }
+    }
+
+    if (!w.lastLiterals(anchor, srcEnd - anchor))
+      return -1;
+    return w.op - dstOff;
+  }
+
+  private interface Matcher {
+    // return (ref << 32 | len) of the best match starting at ip, or -1 if none
+    long find(int ip, int matchLimit);
+
+    // the compressor jumped to ip over a match; update the tables for the positions skipped
+    void skip(int ip);
+  }
+
+  private static int readInt(byte[] b, int i) {
+    return (b[i] & 0xff) | ((b[i + 1] & 0xff) << 8) | ((b[i + 2] & 0xff) << 16) | ((b[i + 3] & 0xff) << 24);
+  }
+
+  private static int hash(int v, int log) {
+    return (v * -1640531535) >>> (32 - log); // 2654435761
+  }
+
+  private static int matchLength(byte[] src, int ip, int ref, int limit) {
+    int start = ip;
+    while (ip < limit && src[ip] == src[ref]) {
+      ip++;
+      ref++;
+    }
+    return ip - start;
+  }
+
+  private static class FastMatcher implements Matcher {
+    private final byte[] src;
+    private final int base;
+    private final int[] table = new int[1 << HASH_LOG];
+
+    FastMatcher(byte[] src, int base) {
+      this.src = src;
+      this.base = base;
+      Arrays.fill(table, -1);
+    }
+
+    public long find(int ip, int matchLimit) {
+      int h = hash(readInt(src, ip), HASH_LOG);
+      int ref = table[h];
+      table[h] = ip;
+      if (ref < base || ip - ref > MAX_DISTANCE || readInt(src, ref) != readInt(src, ip))
+        return -1;
+      int len = MIN_MATCH + matchLength(src, ip + MIN_MATCH, ref + MIN_MATCH, matchLimit);
+      return ((long) ref << 32) | len;
+    }
+
+    public void skip(int ip) {
+      // index the position two before the new anchor, as the reference implementation does
+      if (ip - 2 >= base && ip + 2 < src.length)
+        table[hash(readInt(src, ip - 2), HASH_LOG)] = ip - 2;
+    }
+  }
+
+  private static class HcMatcher implements Matcher {
+    private final byte[] src;
+    private final int base;
+    private final int[] head = new int[1 << HC_HASH_LOG];
+    private final int[] chain = new int[MAX_DISTANCE + 1];
+    private final int maxAttempts;
+    private int nextToUpdate;
+
+    HcMatcher(byte[] src, int base, int level) {
+      this.src = src;
+      this.base = base;
+      this.nextToUpdate = base;
+      this.maxAttempts = 1 << Math.min(Math.max(level, 1), 12) - 1;
+      Arrays.fill(head, -1);
+    }
+
+    private void insert(int upto) {
+      while (nextToUpdate < upto) {
+        int p = nextToUpdate++;
+        int h = hash(readInt(src, p), HC_HASH_LOG);
+        int prev = head[h];
+        chain[p & MAX_DISTANCE] = (prev < 0) ? MAX_DISTANCE + 1 : Math.min(p - prev, MAX_DISTANCE + 1);
+        head[h] = p;
+      }
+    }
+
+    public long find(int ip, int matchLimit) {
+      insert(ip);
+      int h = hash(readInt(src, ip), HC_HASH_LOG);
+      int ref = head[h];
+      int bestLen = 0;
+      int bestRef = -1;
+      int attempts = maxAttempts;
+      int first = readInt(src, ip);
+      while (ref >= base && ip - ref <= MAX_DISTANCE && attempts-- > 0) {
+        if (src[ref + bestLen] == src[ip + bestLen] && readInt(src, ref) == first) {
+          int len = MIN_MATCH + matchLength(src, ip + MIN_MATCH, ref + MIN_MATCH, matchLimit);
+          if (len > bestLen) {
+            bestLen = len;
+            bestRef = ref;
+            if (ip + len >= matchLimit)
+              break;
+          }
+        }
+        int delta = chain[ref & MAX_DISTANCE];
+        if (delta > MAX_DISTANCE)
+          break;
+        ref -= delta;
+      }
+      return bestRef < 0 ? -1 : ((long) bestRef << 32) | bestLen;
+    }
+
+    public void skip(int ip) {
+      // the chain is updated lazily in find()
+    }
+  }
+
+  private static class Writer {
+    private final byte[] src;
+    private final byte[] dst;
+    private final int dstEnd;
+    int op;
+
+    Writer(byte[] src, byte[] dst, int dstOff, int dstEnd) {
+      this.src = src;
+      this.dst = dst;
+      this.op = dstOff;
+      this.dstEnd = dstEnd;
+    }
+
+    boolean sequence(int litStart, int litLen, int offset, int matchLen) {
+      if (op + 1 + litLen + litLen / 255 + 1 + 2 + (matchLen - MIN_MATCH) / 255 + 1 > dstEnd)
+        return false;
+      int tokenPos = op++;
+      int ml = matchLen - MIN_MATCH;
+      int token = (Math.min(litLen, 15) << 4) | Math.min(ml, 15);
+      dst[tokenPos] = (byte) token;
+      if (litLen >= 15)
+        writeLength(litLen - 15);
+      System.arraycopy(src, litStart, dst, op, litLen);
+      op += litLen;
+      dst[op++] = (byte) offset;
+      dst[op++] = (byte) (offset >>> 8);
+      if (ml >= 15)
+        writeLength(ml - 15);
+      return true;
+    }
+
+    boolean lastLiterals(int litStart, int litLen) {
+      if (op + 1 + litLen + litLen / 255 + 1 > dstEnd)
+        return false;
+      dst[op++] = (byte) (Math.min(litLen, 15) << 4);
+      if (litLen >= 15)
+        writeLength(litLen - 15);
+      System.arraycopy(src, litStart, dst, op, litLen);
+      op += litLen;
+      return true;
+    }
+
+    private void writeLength(int len) {
+      while (len >= 255) {
+        dst[op++] = (byte) 255;
+        len -= 255;
+      }
+      dst[op++] = (byte) len;
+    }
+  }
+}
@@ -0,0 +1,1162 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.filter;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Pure java implementation of the Zstandard format, as used by Blosc.
+ * See <a href="https://www.rfc-editor.org/rfc/rfc8878">RFC 8878</a>.
+ * <p>
+ * The decoder handles the full format, except for dictionaries.
+ * The encoder is a simple greedy LZ77 matcher that writes raw literals and uses the predefined FSE tables for the
+ * sequences. It is not as tight as the reference library, but its output can be read by any Zstandard decoder.
+ */
+class Zstd {
+  private static final int MAGIC = 0xFD2FB528;
+  private static final int SKIPPABLE_MAGIC = 0x184D2A50; // low 4 bits are user defined
+  private static final int MAX_BLOCK_SIZE = 1 << 17;
+
+  private static final int LL_MAX_LOG = 9, ML_MAX_LOG = 9, OF_MAX_LOG = 8, HUF_WEIGHT_MAX_LOG = 6;
+  private static final int LL_MAX_SYMBOL = 35, ML_MAX_SYMBOL = 52, OF_MAX_SYMBOL = 31;
+  private static final int HUF_MAX_BITS = 11;
+
+  private static final int[] LL_BASE = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 18, 20, 22, 24, 28,
+      32, 40, 48, 64, 128, 256, 512, 1024, 2048, 4096, 8192, 16384, 32768, 65536};
+  private static final int[] LL_BITS = {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 3, 3, 4, 6, 7,
+      8, 9, 10, 11, 12, 13, 14, 15, 16};
+  private static final int[] ML_BASE = {3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22, 23,
+      24, 25, 26, 27, 28, 29, 30, 31, 32, 33, 34, 35, 37, 39, 41, 43, 47, 51, 59, 67, 83, 99, 131, 259, 515, 1027, 2051,
+      4099, 8195, 16387, 32771, 65539};
+  private static final int[] ML_BITS = {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+      0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 3, 3, 4, 4, 5, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16};
+
+  private static final short[] LL_DEFAULT_NORM = {4, 3, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 1, 1, 1, 2, 2, 2, 2, 2, 2, 2,
+      2, 2, 3, 2, 1, 1, 1, 1, 1, -1, -1, -1, -1};
+  private static final short[] ML_DEFAULT_NORM = {1, 4, 3, 2, 2, 2, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+      1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, -1, -1, -1, -1, -1, -1, -1};
+  private static final short[] OF_DEFAULT_NORM =
+      {1, 1, 1, 1, 1, 1, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, -1, -1, -1, -1, -1};
+  private static final int LL_DEFAULT_LOG = 6, ML_DEFAULT_LOG = 6, OF_DEFAULT_LOG = 5;
+
+  private static final FseTable LL_DEFAULT =
+      FseTable.build(LL_DEFAULT_NORM, LL_DEFAULT_NORM.length - 1, LL_DEFAULT_LOG);
+  private static final FseTable ML_DEFAULT =
+      FseTable.build(ML_DEFAULT_NORM, ML_DEFAULT_NORM.length - 1, ML_DEFAULT_LOG);
+  private static final FseTable OF_DEFAULT =
+      FseTable.build(OF_DEFAULT_NORM, OF_DEFAULT_NORM.length - 1, OF_DEFAULT_LOG);
+
+  private Zstd() {}
+
+  //////////////////////////////////////////////////////////////////////////////////////////
+  // decoding
+
+  /**
+   * Decompress one or more Zstandard frames.
+   *
+   * @param src compressed data
+   * @param srcOff start of the frames in src
+   * @param srcLen length of the compressed data
+   * @param dst destination
+   * @param dstOff where to start writing in dst
+   * @param dstLen maximum number of bytes to write
+   * @return the number of decompressed bytes
+   * @throws IOException if the data is malformed or doesn't fit in dst
+   */
+  static int decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen) throws IOException {
+    int ip = srcOff;
+    int srcEnd = srcOff + srcLen;
+    int op = dstOff;
+    while (ip < srcEnd) {
+      if (srcEnd - ip < 4)
+        throw new IOException("Zstd: truncated frame");
+      int magic = readIntLE(src, ip);
+      if ((magic & 0xFFFFFFF0) == SKIPPABLE_MAGIC) {
+        if (srcEnd - ip < 8)
+          throw new IOException("Zstd: truncated skippable frame");
+        long size = readIntLE(src, ip + 4) & 0xFFFFFFFFL;
+        if (size > srcEnd - ip - 8)
+          throw new IOException("Zstd: truncated skippable frame");
+        ip += 8 + (int) size;
+        continue;
+      }
+      if (magic != MAGIC)
+        throw new IOException(String.format("Zstd: bad magic number %x", magic));
+      FrameDecoder frame = new FrameDecoder(src, ip + 4, srcEnd, dst, dstOff, op, dstOff + dstLen);
+      frame.decode();
+      ip = frame.ip;
+      op = frame.op;
+    }
+    return op - dstOff;
+  }
+
+  private static class FrameDecoder {
+    final byte[] src;
+    final int srcEnd;
+    final byte[] dst;
+    final int dstStart; // output before this belongs to previous frames, and may not be referenced
+    final int dstEnd;
+    int ip, op;
+
+    // state carried from block to block
+    final int[] rep = {1, 4, 8};
+    FseTable llTable, ofTable, mlTable;
+    Huffman huffman;
+    byte[] literals = new byte[MAX_BLOCK_SIZE];
+
+    FrameDecoder(byte[] src, int ip, int srcEnd, byte[] dst, int dstOff, int op, int dstEnd) {
+      this.src = src;
+      this.ip = ip;
+      this.srcEnd = srcEnd;
+      this.dst = dst;
+      this.dstStart = op;
+      this.op = op;
+      this.dstEnd = dstEnd;
+    }
+
+    void decode() throws IOException {
+      need(1);
+      int fhd = src[ip++] & 0xff;
+      int fcsFlag = fhd >>> 6;
+      boolean singleSegment = (fhd & 0x20) != 0;
+      boolean checksum = (fhd & 0x04) != 0;
+      int dictFlag = fhd & 0x03;
+      if ((fhd & 0x08) != 0)
+        throw new IOException("Zstd: reserved bit set in frame header");
+
+      if (!singleSegment) {
+        need(1);
+        ip++; // window descriptor; we decode straight into the destination, so the window size doesn't matter
+      }
+      int dictIdSize = dictFlag == 3 ? 4 : dictFlag;
+      need(dictIdSize);
+      long dictId = readLE(src, ip, dictIdSize);
+      ip += dictIdSize;
+      if (dictId != 0)
+        throw new IOException("Zstd: dictionaries are not supported");
+
+      int fcsSize = fcsFlag == 0 ? (singleSegment ? 1 : 0) : 1 << fcsFlag;
+      need(fcsSize);
+      long contentSize = readLE(src, ip, fcsSize);
+      if (fcsSize == 2)
+        contentSize += 256;
+      ip += fcsSize;
+
+      boolean last = false;
+      while (!last) {
+        need(3);
+        int header = (src[ip] & 0xff) | ((src[ip + 1] & 0xff) << 8) | ((src[ip + 2] & 0xff) << 16);
+        ip += 3;
+        last = (header & 1) != 0;
+        int type = (header >>> 1) & 3;
+        int size = header >>> 3;
+        switch (type) {
+          case 0: // raw
+            need(size);
+            room(size);
+            System.arraycopy(src, ip, dst, op, size);
+            ip += size;
+            op += size;
+            break;
+          case 1: // RLE
+            need(1);
+            room(size);
+            Arrays.fill(dst, op, op + size, src[ip++]);
+            op += size;
+            break;
+          case 2: // compressed
+            need(size);
+            decodeCompressedBlock(ip, ip + size);
+            ip += size;
+            break;
+          default:
+            throw new IOException("Zstd: reserved block type");
+        }
+      }
+      if (fcsSize > 0 && op - dstStart != contentSize)
+        throw new IOException("Zstd: frame content size mismatch");
+      if (checksum) {
+        need(4);
+        ip += 4; // xxhash64 of the content; not verified
+      }
+    }
+
+    private void need(int n) throws IOException {
+      if (n > srcEnd - ip)
+        throw new IOException("Zstd: truncated frame");
+    }
+
+    private void room(int n) throws IOException {
+      if (n > dstEnd - op)
+        throw new IOException("Zstd: decompressed data is larger than the destination");
+    }
+
+    private void decodeCompressedBlock(int bp, int blockEnd) throws IOException {
+      // literals section
+      if (bp >= blockEnd)
+        throw new IOException("Zstd: empty compressed block");
+      int b0 = src[bp] & 0xff;
+      int litType = b0 & 3;
+      int sizeFormat = (b0 >>> 2) & 3;
+      int litSize;
+      byte[] lit;
+      int litStart;
+
+      if (litType == 0 || litType == 1) { // raw or RLE
+        int headerSize;
+        if ((sizeFormat & 1) == 0) {
+          headerSize = 1;
+          litSize = b0 >>> 3;
+        } else if (sizeFormat == 1) {
+          headerSize = 2;
+          checkBlock(bp, 2, blockEnd);
+          litSize = (b0 >>> 4) | ((src[bp + 1] & 0xff) << 4);
+        } else {
+          headerSize = 3;
+          checkBlock(bp, 3, blockEnd);
+          litSize = (b0 >>> 4) | ((src[bp + 1] & 0xff) << 4) | ((src[bp + 2] & 0xff) << 12);
+        }
+        bp += headerSize;
+        if (litSize > MAX_BLOCK_SIZE)
+          throw new IOException("Zstd: literals section too large");
+        if (litType == 0) {
+          checkBlock(bp, litSize, blockEnd);
+          lit = src;
+          litStart = bp;
+          bp += litSize;
+        } else {
+          checkBlock(bp, 1, blockEnd);
+          Arrays.fill(literals, 0, litSize, src[bp]);
+          lit = literals;
+          litStart = 0;
+          bp += 1;
+        }
+
+      } else { // compressed or treeless
+        int headerSize, compSize;
+        boolean fourStreams = sizeFormat != 0;
+        if (sizeFormat <= 1) {
+          headerSize = 3;
+          checkBlock(bp, 3, blockEnd);
+          int v = b0 | ((src[bp + 1] & 0xff) << 8) | ((src[bp + 2] & 0xff) << 16);
+          litSize = (v >>> 4) & 0x3FF;
+          compSize = (v >>> 14) & 0x3FF;
+        } else if (sizeFormat == 2) {
+          headerSize = 4;
+          checkBlock(bp, 4, blockEnd);
+          int v = readIntLE(src, bp);
+          litSize = (v >>> 4) & 0x3FFF;
+          compSize = v >>> 18;
+        } else {
+          headerSize = 5;
+          checkBlock(bp, 5, blockEnd);
+          long v = (readIntLE(src, bp) & 0xFFFFFFFFL) | ((long) (src[bp + 4] & 0xff) << 32);
+          litSize = (int) ((v >>> 4) & 0x3FFFF);
+          compSize = (int) ((v >>> 22) & 0x3FFFF);
+        }
+        bp += headerSize;
+        checkBlock(bp, compSize, blockEnd);
+        if (litSize > MAX_BLOCK_SIZE)
+          throw new IOException("Zstd: literals section too large");
+
+        int streamStart = bp;
+        if (litType == 2) {
+          huffman = new Huffman();
+          streamStart = huffman.readTable(src, bp, bp + compSize);
+        } else if (huffman == null) {
+          throw new IOException("Zstd: treeless literals without a previous Huffman table");
+        }
+        if (fourStreams)
+          huffman.decode4(src, streamStart, bp + compSize, literals, litSize);
+        else
+          huffman.decode1(src, streamStart, bp + compSize, literals, 0, litSize);
+        lit = literals;
+        litStart = 0;
+        bp += compSize;
+      }
+
+      // sequences section
+      checkBlock(bp, 1, blockEnd);
+      int nbSeq = src[bp++] & 0xff;
+      if (nbSeq >= 128) {
+        if (nbSeq == 255) {
+          checkBlock(bp, 2, blockEnd);
+          nbSeq = (src[bp] & 0xff) + ((src[bp + 1] & 0xff) << 8) + 0x7F00;
+          bp += 2;
+        } else {
+          checkBlock(bp, 1, blockEnd);
+          nbSeq = ((nbSeq - 128) << 8) + (src[bp++] & 0xff);
+        }
+      }
+
+      if (nbSeq == 0) {
+        room(litSize);
+        System.arraycopy(lit, litStart, dst, op, litSize);
+        op += litSize;
+        return;
+      }
+
+      checkBlock(bp, 1, blockEnd);
+      int modes = src[bp++] & 0xff;
+      if ((modes & 3) != 0)
+        throw new IOException("Zstd: reserved bits set in sequence modes");
+      int[] pos = {bp};
+      llTable = readFseTable(modes >>> 6, pos, blockEnd, llTable, LL_DEFAULT, LL_MAX_SYMBOL, LL_MAX_LOG);
+      ofTable = readFseTable((modes >>> 4) & 3, pos, blockEnd, ofTable, OF_DEFAULT, OF_MAX_SYMBOL, OF_MAX_LOG);
+      mlTable = readFseTable((modes >>> 2) & 3, pos, blockEnd, mlTable, ML_DEFAULT, ML_MAX_SYMBOL, ML_MAX_LOG);
+      bp = pos[0];
+
+      BackwardBitReader br = new BackwardBitReader(src, bp, blockEnd);
+      int llState = (int) br.read(llTable.log);
+      int ofState = (int) br.read(ofTable.log);
+      int mlState = (int) br.read(mlTable.log);
+
+      int litPos = litStart;
+      int litEnd = litStart + litSize;
+      for (int n = 0; n < nbSeq; n++) {
+        int ofCode = ofTable.symbol[ofState];
+        int mlCode = mlTable.symbol[mlState];
+        int llCode = llTable.symbol[llState];
+        if (ofCode > OF_MAX_SYMBOL || mlCode > ML_MAX_SYMBOL || llCode > LL_MAX_SYMBOL)
+          throw new IOException("Zstd: invalid sequence code");
+
+        long offsetValue = (1L << ofCode) + br.read(ofCode);
+        int matchLen = ML_BASE[mlCode] + (int) br.read(ML_BITS[mlCode]);
+        int litLen = LL_BASE[llCode] + (int) br.read(LL_BITS[llCode]);
+
+        int offset;
+        if (offsetValue > 3) {
+          offset = (int) (offsetValue - 3);
+          rep[2] = rep[1];
+          rep[1] = rep[0];
+          rep[0] = offset;
+        } else {
+          int idx = (int) offsetValue - 1 + (litLen == 0 ? 1 : 0);
+          if (idx == 0) {
+            offset = rep[0];
+          } else {
+            offset = (idx == 3) ? rep[0] - 1 : rep[idx];
+            if (idx != 1)
+              rep[2] = rep[1];
+            rep[1] = rep[0];
+            rep[0] = offset;
+          }
+        }
+
+        if (n < nbSeq - 1) {
+          llState = llTable.newState[llState] + (int) br.read(llTable.nbBits[llState]);
+          mlState = mlTable.newState[mlState] + (int) br.read(mlTable.nbBits[mlState]);
+          ofState = ofTable.newState[ofState] + (int) br.read(ofTable.nbBits[ofState]);
+        }
+
+        // execute the sequence
+        if (litLen > litEnd - litPos)
+          throw new IOException("Zstd: sequence uses more literals than available");
+        room(litLen + matchLen);
+        System.arraycopy(lit, litPos, dst, op, litLen);
+        litPos += litLen;
+        op += litLen;
+        if (offset <= 0 || offset > op - dstStart)
+          throw new IOException("Zstd: invalid match offset " + offset);
+        Lz4.copyMatch(dst, op, offset, matchLen);
+        op += matchLen;
+      }
+      if (!br.isFinished())
+        throw new IOException("Zstd: sequence bitstream not fully consumed");
+
+      int rest = litEnd - litPos;
+      room(rest);
+      System.arraycopy(lit, litPos, dst, op, rest);
+      op += rest;
+    }
+
+    private FseTable readFseTable(int mode, int[] pos, int blockEnd, FseTable previous, FseTable predefined,
+        int maxSymbol, int maxLog) throws IOException {
+      switch (mode) {
+        case 0:
+          return predefined;
+        case 1: {
+          checkBlock(pos[0], 1, blockEnd);
+          int symbol = src[pos[0]++] & 0xff;
+          if (symbol > maxSymbol)
+            throw new IOException("Zstd: invalid RLE symbol");
+          return FseTable.rle(symbol);
+        }
+        case 2: {
+          short[] norm = new short[maxSymbol + 1];
+          int[] result = readNormalizedCounts(src, pos[0], blockEnd, norm, maxSymbol, maxLog);
+          pos[0] = result[0];
+          return FseTable.build(norm, result[1], result[2]);
+        }
+        default:
+          if (previous == null)
+            throw new IOException("Zstd: repeat mode without a previous table");
+          return previous;
+      }
+    }
+  }
+
+  private static void checkBlock(int p, int n, int end) throws IOException {
+    if (n > end - p)
+      throw new IOException("Zstd: truncated block");
+  }
+
+  /**
+   * Read an FSE table description.
+   *
+   * @return {position after the description, max symbol, accuracy log}
+   */
+  static int[] readNormalizedCounts(byte[] src, int start, int end, short[] norm, int maxSymbol, int maxLog)
+      throws IOException {
+    ForwardBitReader br = new ForwardBitReader(src, start, end);
+    int log = (int) br.read(4) + 5;
+    if (log > maxLog)
+      throw new IOException("Zstd: FSE accuracy log too large");
+    int remaining = (1 << log) + 1;
+    int threshold = 1 << log;
+    int nbBits = log + 1;
+    int symbol = 0;
+    boolean previous0 = false;
+
+    while (remaining > 1 && symbol <= maxSymbol) {
+      if (previous0) {
+        int n0 = symbol;
+        int repeat;
+        while ((repeat = (int) br.read(2)) == 3)
+          n0 += 3;
+        n0 += repeat;
+        if (n0 > maxSymbol)
+          throw new IOException("Zstd: FSE table description has too many symbols");
+        while (symbol < n0)
+          norm[symbol++] = 0;
+        if (symbol > maxSymbol)
+          break;
+      }
+      int max = (2 * threshold - 1) - remaining;
+      int count;
+      int low = (int) br.peek(nbBits - 1);
+      if (low < max) {
+        count = low;
+        br.skip(nbBits - 1);
+      } else {
+        count = (int) br.peek(nbBits);
+        if (count >= threshold)
+          count -= max;
+        br.skip(nbBits);
+      }
+      count--; // extra accuracy; -1 means a probability "less than 1"
+      remaining -= Math.abs(count);
+      norm[symbol++] = (short) count;
+      previous0 = count == 0;
+      while (remaining < threshold) {
+        nbBits--;
+        threshold >>= 1;
+      }
+    }
+    if (remaining != 1 || br.isOverflowed())
+      throw new IOException("Zstd: corrupt FSE table description");
+    return new int[] {br.bytePosition(), symbol - 1, log};
+  }
+
+  /** An FSE decoding table. */
+  static class FseTable {
+    final int log;
+    final int[] symbol;
+    final int[] nbBits;
+    final int[] newState;
+
+    private FseTable(int log) {
+      this.log = log;
+      int size = 1 << log;
+      this.symbol = new int[size];
+      this.nbBits = new int[size];
+      this.newState = new int[size];
+    }
+
+    static FseTable rle(int symbol) {
+      FseTable t = new FseTable(0);
+      t.symbol[0] = symbol;
+      return t;
+    }
+
+    static FseTable build(short[] norm, int maxSymbol, int log) {
+      FseTable t = new FseTable(log);
+      int size = 1 << log;
+      int highThreshold = size - 1;
+      int[] symbolNext = new int[maxSymbol + 1];
+      for (int s = 0; s <= maxSymbol; s++) {
+        if (norm[s] == -1) {
+          t.symbol[highThreshold--] = s;
+          symbolNext[s] = 1;
+        } else {
+          symbolNext[s] = norm[s];
+        }
+      }
+      spread(norm, maxSymbol, log, highThreshold, t.symbol);
+      for (int u = 0; u < size; u++) {
+        int s = t.symbol[u];
+        int next = symbolNext[s]++;
+        int bits = log - highBit(next);
+        t.nbBits[u] = bits;
+        t.newState[u] = (next << bits) - size;
+      }
+      return t;
+    }
+  }
+
+  // spread the symbols over the table, the same way for the encoder and the decoder
+  private static void spread(short[] norm, int maxSymbol, int log, int highThreshold, int[] table) {
+    int size = 1 << log;
+    int mask = size - 1;
+    int step = (size >>> 1) + (size >>> 3) + 3;
+    int pos = 0;
+    for (int s = 0; s <= maxSymbol; s++) {
+      for (int i = 0; i < norm[s]; i++) {
+        table[pos] = s;
+        do {
+          pos = (pos + step) & mask;
+        } while (pos > highThreshold);
+      }
+    }
+  }
+
+  /** Huffman decoding of the literals. */
+  static class Huffman {
+    private int maxBits;
+    private byte[] symbols; // indexed by the next maxBits bits of the stream
+    private byte[] lengths;
+
+    /**
+     * Read the Huffman tree description and build the decoding table.
+     *
+     * @return position of the first byte after the description
+     */
+    int readTable(byte[] src, int start, int end) throws IOException {
+      if (start >= end)
+        throw new IOException("Zstd: missing Huffman tree description");
+      int header = src[start] & 0xff;
+      int[] weights = new int[257];
+      int nweights;
+      int next;
+      if (header < 128) { // FSE compressed weights
+        int compSize = header;
+        int wstart = start + 1;
+        checkBlock(wstart, compSize, end);
+        short[] norm = new short[256];
+        int[] desc = readNormalizedCounts(src, wstart, wstart + compSize, norm, 255, HUF_WEIGHT_MAX_LOG);
+        FseTable table = FseTable.build(norm, desc[1], desc[2]);
+        BackwardBitReader br = new BackwardBitReader(src, desc[0], wstart + compSize);
+        int s1 = (int) br.read(table.log);
+        int s2 = (int) br.read(table.log);
+        nweights = 0;
+        while (nweights < 255) {
+          weights[nweights++] = table.symbol[s1];
+          s1 = table.newState[s1] + (int) br.read(table.nbBits[s1]);
+          if (br.isOverflowed()) {
+            weights[nweights++] = table.symbol[s2];
+            break;
+          }
+          weights[nweights++] = table.symbol[s2];
+          s2 = table.newState[s2] + (int) br.read(table.nbBits[s2]);
+          if (br.isOverflowed()) {
+            weights[nweights++] = table.symbol[s1];
+            break;
+          }
+        }
+        if (nweights > 255)
+          throw new IOException("Zstd: too many Huffman weights");
+        next = wstart + compSize;
+      } else { // direct representation, 4 bits per weight
+        nweights = header - 127;
+        int nbytes = (nweights + 1) / 2;
+        checkBlock(start + 1, nbytes, end);
+        for (int i = 0; i < nweights; i++) {
+          int b = src[start + 1 + i / 2] & 0xff;
+          weights[i] = (i % 2 == 0) ? b >>> 4 : b & 0xf;
+        }
+        next = start + 1 + nbytes;
+      }
+
+      // the last weight is implied
+      int total = 0;
+      for (int i = 0; i < nweights; i++) {
+        if (weights[i] > HUF_MAX_BITS)
+          throw new IOException("Zstd: invalid Huffman weight");
+        if (weights[i] > 0)
+          total += 1 << (weights[i] - 1);
+      }
+      if (total == 0)
+        throw new IOException("Zstd: invalid Huffman weights");
+      maxBits = highBit(total) + 1;
+      if (maxBits > HUF_MAX_BITS)
+        throw new IOException("Zstd: Huffman table too deep");
+      int rest = (1 << maxBits) - total;
+      if (Integer.bitCount(rest) != 1)
+        throw new IOException("Zstd: invalid Huffman weights");
+      weights[nweights++] = highBit(rest) + 1;
+
+      // assign codes: lower weights first, then by symbol value
+      int size = 1 << maxBits;
+      symbols = new byte[size];
+      lengths = new byte[size];
+      int pos = 0;
+      for (int w = 1; w <= maxBits; w++) {
+        int span = 1 << (w - 1);
+        for (int s = 0; s < nweights; s++) {
+          if (weights[s] != w)
+            continue;
+          Arrays.fill(symbols, pos, pos + span, (byte) s);
+          Arrays.fill(lengths, pos, pos + span, (byte) (maxBits + 1 - w));
+          pos += span;
+        }
+      }
+      if (pos != size)
+        throw new IOException("Zstd: invalid Huffman weights");
+      return next;
+    }
+
+    void decode4(byte[] src, int start, int end, byte[] out, int n) throws IOException {
+      checkBlock(start, 6, end);
+      int size1 = (src[start] & 0xff) | ((src[start + 1] & 0xff) << 8);
+      int size2 = (src[start + 2] & 0xff) | ((src[start + 3] & 0xff) << 8);
+      int size3 = (src[start + 4] & 0xff) | ((src[start + 5] & 0xff) << 8);
+      int p1 = start + 6;
+      int p2 = p1 + size1;
+      int p3 = p2 + size2;
+      int p4 = p3 + size3;
+      if (p4 > end)
+        throw new IOException("Zstd: corrupt Huffman jump table");
+      int seg = (n + 3) / 4;
+      if (3 * seg > n)
+        throw new IOException("Zstd: corrupt Huffman literals size");
+      decode1(src, p1, p2, out, 0, seg);
+      decode1(src, p2, p3, out, seg, seg);
+      decode1(src, p3, p4, out, 2 * seg, seg);
+      decode1(src, p4, end, out, 3 * seg, n - 3 * seg);
+    }
+
+    void decode1(byte[] src, int start, int end, byte[] out, int outOff, int n) throws IOException {
+      BackwardBitReader br = new BackwardBitReader(src, start, end);
+      for (int i = 0; i < n; i++) {
+        int idx = (int) br.peek(maxBits);
+        out[outOff + i] = symbols[idx];
+        br.skip(lengths[idx]);
+      }
+      if (!br.isFinished())
+        throw new IOException("Zstd: Huffman stream not fully consumed");
+    }
+  }
+
+  /**
+   * Reads a bitstream backwards, starting from the last byte. The highest set bit of the last byte marks the start.
+   * Bits past the beginning of the stream read as zero; isOverflowed() tells if that has happened.
+   */
+  static class BackwardBitReader {
+    private final byte[] buf;
+    private final int start, end;
+    private long bitPos; // number of bits still to be read
+
+    BackwardBitReader(byte[] buf, int start, int end) throws IOException {
+      if (end <= start)
+        throw new IOException("Zstd: empty bitstream");
+      int last = buf[end - 1] & 0xff;
+      if (last == 0)
+        throw new IOException("Zstd: bitstream is missing its end mark");
+      this.buf = buf;
+      this.start = start;
+      this.end = end;
+      this.bitPos = (long) (end - start - 1) * 8 + highBit(last);
+    }
+
+    long read(int n) {
+      long v = peek(n);
+      bitPos -= n;
+      return v;
+    }
+
+    // the next n bits, first bit read is the most significant
+    long peek(int n) {
+      if (n == 0)
+        return 0;
+      long pos = bitPos - n;
+      if (pos >= 0)
+        return bitsAt(pos, n);
+      int avail = (int) (n + pos);
+      return avail <= 0 ? 0 : bitsAt(0, avail) << (-pos);
+    }
+
+    void skip(int n) {
+      bitPos -= n;
+    }
+
+    boolean isFinished() {
+      return bitPos == 0;
+    }
+
+    boolean isOverflowed() {
+      return bitPos < 0;
+    }
+
+    private long bitsAt(long pos, int n) {
+      int i = start + (int) (pos >>> 3);
+      int shift = (int) (pos & 7);
+      long v = 0;
+      int nbytes = Math.min(8, end - i);
+      for (int k = 0; k < nbytes; k++)
+        v |= (buf[i + k] & 0xffL) << (8 * k);
+      return (v >>> shift) & ((1L << n) - 1);
+    }
+  }
+
+  /** Reads a bitstream forwards, least significant bit first. */
+  static class ForwardBitReader {
+    private final byte[] buf;
+    private final int start, end;
+    private long bitPos;
+
+    ForwardBitReader(byte[] buf, int start, int end) {
+      this.buf = buf;
+      this.start = start;
+      this.end = end;
+    }
+
+    long peek(int n) {
+      long v = 0;
+      for (int k = 0; k < n; k++) {
+        long p = bitPos + k;
+        int i = start + (int) (p >>> 3);
+        if (i < end && ((buf[i] >>> (p & 7)) & 1) != 0)
+          v |= 1L << k;
+      }
+      return v;
+    }
+
+    long read(int n) {
+      long v = peek(n);
+      bitPos += n;
+      return v;
+    }
+
+    void skip(int n) {
+      bitPos += n;
+    }
+
+    boolean isOverflowed() {
+      return bitPos > (long) (end - start) * 8;
+    }
+
+    int bytePosition() {
+      return start + (int) ((bitPos + 7) >>> 3);
+    }
+  }
+
+  //////////////////////////////////////////////////////////////////////////////////////////
+  // encoding
+
+  /** Worst case size of the compressed output for the given input size. */
+  static int maxCompressedLength(int srcLen) {
+    return srcLen + (srcLen >>> 8) + 32 + 3 * (srcLen / MAX_BLOCK_SIZE + 1);
+  }
+
+  /**
+   * Compress data into a single Zstandard frame.
+   *
+   * @param src data to compress
+   * @param srcOff start of the data
+   * @param srcLen number of bytes to compress
+   * @param dst destination
+   * @param dstOff where to start writing in dst
+   * @param dstLen maximum number of bytes to write
+   * @param level compression level; higher levels search longer for matches
+   * @return the compressed length, or -1 if it did not fit in dstLen
+   */
+  static int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen, int level) {
+    Output out = new Output(dst, dstOff, dstOff + dstLen);
+    // frame header: single segment, content size, no checksum, no dictionary
+    int fcsFlag = srcLen < 256 ? 0 : srcLen < 65536 + 256 ? 1 : 2;
+    if (!out.room(4 + 1 + (fcsFlag == 0 ? 1 : 1 << fcsFlag)))
+      return -1;
+    out.writeLE(MAGIC, 4);
+    out.write((fcsFlag << 6) | 0x20);
+    if (fcsFlag == 0)
+      out.write(srcLen);
+    else if (fcsFlag == 1)
+      out.writeLE(srcLen - 256, 2);
+    else
+      out.writeLE(srcLen, 4);
+
+    SequenceEncoder encoder = new SequenceEncoder(src, srcOff, srcLen, level);
+    int pos = srcOff;
+    int srcEnd = srcOff + srcLen;
+    do {
+      int blockLen = Math.min(MAX_BLOCK_SIZE, srcEnd - pos);
+      boolean last = pos + blockLen == srcEnd;
+      if (!encoder.writeBlock(out, pos, blockLen, last))
+        return -1;
+      pos += blockLen;
+    } while (pos < srcEnd);
+    return out.op - dstOff;
+  }
+
+  private static class Output {
+    final byte[] buf;
+    final int end;
+    int op;
+
+    Output(byte[] buf, int op, int end) {
+      this.buf = buf;
+      this.op = op;
+      this.end = end;
+    }
+
+    boolean room(int n) {
+      return n <= end - op;
+    }
+
+    void write(int b) {
+      buf[op++] = (byte) b;
+    }
+
+    void writeLE(long v, int n) {
+      for (int i = 0; i < n; i++)
+        buf[op++] = (byte) (v >>> (8 * i));
+    }
+  }
+
+  /** FSE encoding table, built from the same normalized counts as the decoding table. */
+  static class FseEncoder {
+    final int log;
+    final int[] stateTable;
+    final int[] deltaNbBits;
+    final int[] deltaFindState;
+
+    FseEncoder(short[] norm, int maxSymbol, int log) {
+      this.log = log;
+      int size = 1 << log;
+      int highThreshold = size - 1;
+      int[] tableSymbol = new int[size];
+      int[] cumul = new int[maxSymbol + 2];
+      for (int u = 1; u <= maxSymbol + 1; u++) {
+        if (norm[u - 1] == -1) {
+          cumul[u] = cumul[u - 1] + 1;
+          tableSymbol[highThreshold--] = u - 1;
+        } else {
+          cumul[u] = cumul[u - 1] + norm[u - 1];
+        }
+      }
+      spread(norm, maxSymbol, log, highThreshold, tableSymbol);
+
+      stateTable = new int[size];
+      for (int u = 0; u < size; u++)
+        stateTable[cumul[tableSymbol[u]]++] = size + u;
+
+      deltaNbBits = new int[maxSymbol + 1];
+      deltaFindState = new int[maxSymbol + 1];
+      int total = 0;
+      for (int s = 0; s <= maxSymbol; s++) {
+        int n = norm[s];
+        if (n == 0) {
+          deltaNbBits[s] = ((log + 1) << 16) - size;
+        } else if (n == -1 || n == 1) {
+          deltaNbBits[s] = (log << 16) - size;
+          deltaFindState[s] = total - 1;
+          total++;
+        } else {
+          int maxBitsOut = log - highBit(n - 1);
+          int minStatePlus = n << maxBitsOut;
+          deltaNbBits[s] = (maxBitsOut << 16) - minStatePlus;
+          deltaFindState[s] = total - n;
+          total += n;
+        }
+      }
+    }
+
+    int init(int symbol) {
+      int nbBitsOut = (deltaNbBits[symbol] + (1 << 15)) >>> 16;
+      int value = (nbBitsOut << 16) - deltaNbBits[symbol];
+      return stateTable[(value >>> nbBitsOut) + deltaFindState[symbol]];
+    }
+
+    int encode(BitWriter bw, int state, int symbol) {
+      int nbBitsOut = (state + deltaNbBits[symbol]) >>> 16;
+      bw.add(state, nbBitsOut);
+      return stateTable[(state >>> nbBitsOut) + deltaFindState[symbol]];
+    }
+  }
+
+  private static final FseEncoder LL_ENCODER = new FseEncoder(LL_DEFAULT_NORM, LL_MAX_SYMBOL, LL_DEFAULT_LOG);
+  private static final FseEncoder ML_ENCODER = new FseEncoder(ML_DEFAULT_NORM, ML_MAX_SYMBOL, ML_DEFAULT_LOG);
+  private static final FseEncoder OF_ENCODER =
+      new FseEncoder(OF_DEFAULT_NORM, OF_DEFAULT_NORM.length - 1, OF_DEFAULT_LOG);
+  private static final int OF_DEFAULT_MAX_CODE = OF_DEFAULT_NORM.length - 1;
+
+  /** Forward bit writer; the decoder reads it backwards, so the end mark goes last. */
+  static class BitWriter {
+    private byte[] buf = new byte[256];
+    private int n;
+    private long container;
+    private int nbits;
+
+    void add(long value, int bits) {
+      if (bits == 0)
+        return;
+      container |= (value & ((1L << bits) - 1)) << nbits;
+      nbits += bits;
+      while (nbits >= 8) {
+        if (n == buf.length)
+          buf = Arrays.copyOf(buf, 2 * n);
+        buf[n++] = (byte) container;
+        container >>>= 8;
+        nbits -= 8;
+      }
+    }
+
+    void close() {
+      add(1, 1);
+      if (nbits > 0)
+        add(0, 8 - nbits);
+    }
+
+    int size() {
+      return n;
+    }
+
+    void copyTo(byte[] dst, int off) {
+      System.arraycopy(buf, 0, dst, off, n);
+    }
+  }
+
+  private static class SequenceEncoder {
+    private static final int HASH_LOG = 17;
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = (1 << OF_DEFAULT_MAX_CODE) - 4; // largest offset the default table can code
+
+    private final byte[] src;
+    private final int srcOff;
+    private final int srcEnd;
+    private final int[] head = new int[1 << HASH_LOG];
+    private final int[] chain;
+    private final int maxAttempts;
+
+    // one block of sequences
+    private int[] litLens = new int[1024], matchLens = new int[1024], offsets = new int[1024];
+    private int nseq;
+    private byte[] lits = new byte[MAX_BLOCK_SIZE];
+    private int nlits;
+
+    SequenceEncoder(byte[] src, int srcOff, int srcLen, int level) {
+      this.src = src;
+      this.srcOff = srcOff;
+      this.srcEnd = srcOff + srcLen;
+      this.chain = new int[srcLen];
+      this.maxAttempts = 1 << Math.min(Math.max(level, 1), 10) - 1;
+      Arrays.fill(head, -1);
+    }
+
+    boolean writeBlock(Output out, int start, int len, boolean last) {
+      int lastFlag = last ? 1 : 0;
+
+      if (len > 0 && isRun(start, len)) {
+        if (!out.room(4))
+          return false;
+        out.writeLE(lastFlag | (1 << 1) | (len << 3), 3);
+        out.write(src[start]);
+        return true;
+      }
+
+      byte[] block = compressBlock(start, len);
+      if (block != null && block.length < len) {
+        if (!out.room(3 + block.length))
+          return false;
+        out.writeLE(lastFlag | (2 << 1) | (block.length << 3), 3);
+        System.arraycopy(block, 0, out.buf, out.op, block.length);
+        out.op += block.length;
+      } else {
+        if (!out.room(3 + len))
+          return false;
+        out.writeLE(lastFlag | (len << 3), 3);
+        System.arraycopy(src, start, out.buf, out.op, len);
+        out.op += len;
+      }
+      return true;
+    }
+
+    private boolean isRun(int start, int len) {
+      byte b = src[start];
+      for (int i = start + 1; i < start + len; i++)
+        if (src[i] != b)
+          return false;
+      return true;
+    }
+
+    private byte[] compressBlock(int start, int len) {
+      nseq = 0;
+      nlits = 0;
+      int end = start + len;
+      int anchor = start;
+      int ip = start;
+      int matchLimit = end;
+      while (ip + MIN_MATCH <= end - 1) {
+        int h = hash(ip);
+        int best = 0, bestRef = -1;
+        int ref = head[h];
+        int attempts = maxAttempts;
+        while (ref >= srcOff && ip - ref <= MAX_OFFSET && attempts-- > 0) {
+          int l = matchLength(ip, ref, matchLimit);
+          if (l > best) {
+            best = l;
+            bestRef = ref;
+          }
+          ref = chain[ref - srcOff];
+        }
+        chain[ip - srcOff] = head[h];
+        head[h] = ip;
+
+        if (best < MIN_MATCH) {
+          ip++;
+          continue;
+        }
+        addSequence(anchor, ip - anchor, best, ip - bestRef);
+        // index the positions covered by the match
+        int stop = Math.min(ip + best, end - MIN_MATCH);
+        for (int p = ip + 1; p < stop; p++) {
+          int hp = hash(p);
+          chain[p - srcOff] = head[hp];
+          head[hp] = p;
+        }
+        ip += best;
+        anchor = ip;
+      }
+      // trailing literals
+      System.arraycopy(src, anchor, lits, nlits, end - anchor);
+      nlits += end - anchor;
+
+      return encodeBlock();
+    }
+
+    private int hash(int p) {
+      int v = (src[p] & 0xff) | ((src[p + 1] & 0xff) << 8) | ((src[p + 2] & 0xff) << 16) | ((src[p + 3] & 0xff) << 24);
+      return (v * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private int matchLength(int ip, int ref, int limit) {
+      int start = ip;
+      while (ip < limit && src[ip] == src[ref]) {
+        ip++;
+        ref++;
+      }
+      return ip - start;
+    }
+
+    private void addSequence(int litStart, int litLen, int matchLen, int offset) {
+      if (nseq == litLens.length) {
+        litLens = Arrays.copyOf(litLens, 2 * nseq);
+        matchLens = Arrays.copyOf(matchLens, 2 * nseq);
+        offsets = Arrays.copyOf(offsets, 2 * nseq);
+      }
+      litLens[nseq] = litLen;
+      matchLens[nseq] = matchLen;
+      offsets[nseq] = offset;
+      nseq++;
+      System.arraycopy(src, litStart, lits, nlits, litLen);
+      nlits += litLen;
+    }
+
+    private byte[] encodeBlock() {
+      BitWriter bw = new BitWriter();
+      if (nseq > 0) {
+        int[] llCode = new int[nseq], mlCode = new int[nseq], ofCode = new int[nseq];
+        for (int i = 0; i < nseq; i++) {
+          llCode[i] = code(LL_BASE, litLens[i]);
+          mlCode[i] = code(ML_BASE, matchLens[i]);
+          ofCode[i] = highBit(offsets[i] + 3);
+        }
+        int last = nseq - 1;
+        int llState = LL_ENCODER.init(llCode[last]);
+        int mlState = ML_ENCODER.init(mlCode[last]);
+        int ofState = OF_ENCODER.init(ofCode[last]);
+        addExtraBits(bw, last, llCode[last], mlCode[last], ofCode[last]);
+        for (int i = nseq - 2; i >= 0; i--) {
+          ofState = OF_ENCODER.encode(bw, ofState, ofCode[i]);
+          mlState = ML_ENCODER.encode(bw, mlState, mlCode[i]);
+          llState = LL_ENCODER.encode(bw, llState, llCode[i]);
+          addExtraBits(bw, i, llCode[i], mlCode[i], ofCode[i]);
+        }
+        bw.add(mlState, ML_DEFAULT_LOG);
+        bw.add(ofState, OF_DEFAULT_LOG);
+        bw.add(llState, LL_DEFAULT_LOG);
+        bw.close();
+      }
+
+      // literals header, raw literals
+      int litHeader = nlits < 32 ? 1 : nlits < 4096 ? 2 : 3;
+      int seqHeader = nseq == 0 ? 1 : nseq < 128 ? 2 : nseq < 0x7F00 ? 3 : 4;
+      int size = litHeader + nlits + seqHeader + bw.size();
+      if (size > MAX_BLOCK_SIZE)
+        return null;
+      byte[] block = new byte[size];
+      int p = 0;
+      if (litHeader == 1) {
+        block[p++] = (byte) (nlits << 3);
+      } else if (litHeader == 2) {
+        block[p++] = (byte) ((nlits << 4) | 0x04);
+        block[p++] = (byte) (nlits >>> 4);
+      } else {
+        block[p++] = (byte) ((nlits << 4) | 0x0C);
+        block[p++] = (byte) (nlits >>> 4);
+        block[p++] = (byte) (nlits >>> 12);
+      }
+      System.arraycopy(lits, 0, block, p, nlits);
+      p += nlits;
+
+      if (nseq < 128) {
+        block[p++] = (byte) nseq;
+      } else if (nseq < 0x7F00) {
+        block[p++] = (byte) ((nseq >>> 8) + 128);
+        block[p++] = (byte) nseq;
+      } else {
+        block[p++] = (byte) 255;
+        block[p++] = (byte) (nseq - 0x7F00);
+        block[p++] = (byte) ((nseq - 0x7F00) >>> 8);
+      }
+      if (nseq > 0) {
+        block[p++] = 0; // predefined tables for all three
+        bw.copyTo(block, p);
+      }
+      return block;
+    }
+
+    private void addExtraBits(BitWriter bw, int i, int llCode, int mlCode, int ofCode) {
+      bw.add(litLens[i] - LL_BASE[llCode], LL_BITS[llCode]);
+      bw.add(matchLens[i] - ML_BASE[mlCode], ML_BITS[mlCode]);
+      bw.add(offsets[i] + 3, ofCode);
+    }
+
+    // largest code whose baseline is <= value
+    private static int code(int[] base, int value) {
+      int i = Arrays.binarySearch(base, value);
+      return i >= 0 ? i : -i - 2;
+    }
+  }
+
+  //////////////////////////////////////////////////////////////////////////////////////////
+
+  static int highBit(int v) {
+    return 31 - Integer.numberOfLeadingZeros(v);
+  }
+
+  private static int readIntLE(byte[] b, int i) {
+    return (b[i] & 0xff) | ((b[i + 1] & 0xff) << 8) | ((b[i + 2] & 0xff) << 16) | ((b[i + 3] & 0xff) << 24);
+  }
+
+  private static long readLE(byte[] b, int i, int n) {
+    long v = 0;
+    for (int k = 0; k < n; k++)
+      v |= (b[i + k] & 0xffL) << (8 * k);
+    return v;
+  }
+}
@@ -144,13 +144,15 @@ public class HorizCoordSys2D extends HorizCoordSys {
       if (edges == null)
         edges = new Edges();
     }
-    return edges.computeBoundsExhaustive(llbb, horizStride);
+    return edges.computeBoundsFromIndex(llbb, horizStride);
   }
 
   // assume this class is instantiated when these edges are needed
   private class Edges {
     private ArrayDouble.D2 latEdge, lonEdge;
     private MAMath.MinMax latMinMax, lonMinMax;
+    private LatLonIndex2D index; // of the edge points
+    private double[] maxCellExtent; // in lat and lon, of any cell
 
     Edges() {
       latEdge = (ArrayDouble.D2) latAxis2D.getCoordBoundsAsArray();
@@ -166,6 +168,8 @@ public class HorizCoordSys2D extends HorizCoordSys {
         double nonVal = lonEdge.getDouble(i);
         lonEdge.setDouble(i, LatLonPoints.lonNormalFrom(nonVal, lonMinMax.min));
       }
+      index = new LatLonIndex2D(latEdge, lonEdge);
+      maxCellExtent = index.getMaxCellExtent();
 
       if (debug)
         System.out.printf("Bounds (%d %d): lat= (%f,%f) lon = (%f,%f) %n", nrows, ncols, latMinMax.min, latMinMax.max,
@@ -181,47 +185,81 @@ public class HorizCoordSys2D extends HorizCoordSys {
      * @return false if not in the grid.
      */
     public boolean findCoordElement(double wantLat, double wantLon, int[] rectIndex) {
-      double wantLonNormal = LatLonPoints.lonNormalFrom(wantLon, lonMinMax.min);
-      return findCoordElementNoForce(wantLat, wantLonNormal, rectIndex);
-    }
-
-    private boolean findCoordElementNoForce(double wantLat, double wantLon, int[] rectIndex) {
-      if (wantLat < latMinMax.min)
-        return false;
-      if (wantLat > latMinMax.max)
-        return false;
-      if (wantLon < lonMinMax.min)
-        return false;
-      if (wantLon > lonMinMax.max)
+      int nearest = index.findNearest(wantLat, wantLon);
+      if (nearest < 0)
         return false;
+      int edgeRow = nearest / (ncols + 1);
+      int edgeCol = nearest % (ncols + 1);
 
-      double gradientLat = (latMinMax.max - latMinMax.min) / nrows;
-      double gradientLon = (lonMinMax.max - lonMinMax.min) / ncols;
+      // usually the nearest edge point is a corner of the cell that contains the point, or of one next to it
+      for (int row = Math.max(edgeRow - 2, 0); row <= Math.min(edgeRow + 1, nrows - 1); row++) {
+        for (int col = Math.max(edgeCol - 2, 0); col <= Math.min(edgeCol + 1, ncols - 1); col++) {
+          rectIndex[0] = row;
+          rectIndex[1] = col;
+          if (contains(wantLat, wantLon, rectIndex))
+            return true;
+        }
+      }
 
-      double diffLat = wantLat - latMinMax.min;
-      double diffLon = wantLon - lonMinMax.min;
+      // but not when the cells are long or sheared, or next to missing values
+      if (findCoordElementNear(wantLat, wantLon, rectIndex))
+        return true;
 
-      // initial guess
-      rectIndex[0] = (int) Math.round(diffLat / gradientLat); // row
-      rectIndex[1] = (int) Math.round(diffLon / gradientLon); // col
+      // a point within the bounds of the valid cells all around an interior edge point is in the grid, in a cell that
+      // is not convex in lat/lon, as next to a pole. Use the one of the four cells at the edge point with the nearest
+      // center.
+      if (edgeRow == 0 || edgeRow == nrows || edgeCol == 0 || edgeCol == ncols
+          || !isNearCellsAround(edgeRow, edgeCol, wantLat, wantLon))
+        return false;
+      double bestDist = Double.MAX_VALUE;
+      for (int row = edgeRow - 1; row <= edgeRow; row++) {
+        for (int col = edgeCol - 1; col <= edgeCol; col++) {
+          double dist = LatLonIndex2D.getChordDistance(latAxis2D.getCoord(row, col), lonAxis2D.getCoord(row, col),
+              wantLat, wantLon);
+          if (dist < bestDist) {
+            bestDist = dist;
+            rectIndex[0] = row;
+            rectIndex[1] = col;
+          }
+        }
+      }
+      return true;
+    }
 
-      int count = 0;
-      while (true) {
-        count++;
-        if (debug)
-          System.out.printf("%nIteration %d %n", count);
-        if (contains(wantLat, wantLon, rectIndex))
+    // check the cells whose corners are all close enough to the point for it to be inside them
+    private boolean findCoordElementNear(double wantLat, double wantLon, int[] rectIndex) {
+      List<Integer> corners = new ArrayList<>();
+      index.findInBox(wantLat - maxCellExtent[0], wantLat + maxCellExtent[0], wantLon - maxCellExtent[1],
+          2 * maxCellExtent[1], corners::add);
+      for (int corner : corners) {
+        rectIndex[0] = corner / (ncols + 1);
+        rectIndex[1] = corner % (ncols + 1);
+        if (rectIndex[0] < nrows && rectIndex[1] < ncols && contains(wantLat, wantLon, rectIndex))
           return true;
+      }
+      return false;
+    }
 
-        if (!jump2(wantLat, wantLon, rectIndex))
-          return false;
-
-        // bouncing around
-        if (count > 10) {
-          // last ditch attempt
-          return incr(wantLat, wantLon, rectIndex);
+    // is the point within the lat/lon bounds of the four cells at an interior edge point; false if any is missing
+    private boolean isNearCellsAround(int edgeRow, int edgeCol, double wantLat, double wantLon) {
+      double latMin = Double.MAX_VALUE, latMax = -Double.MAX_VALUE;
+      double lonMin = Double.MAX_VALUE, lonMax = -Double.MAX_VALUE;
+      for (int row = edgeRow - 1; row <= edgeRow + 1; row++) {
+        for (int col = edgeCol - 1; col <= edgeCol + 1; col++) {
+          double lon = LatLonPoints.lonNormal(lonEdge.get(row, col), wantLon);
+          latMin = Math.min(latMin, latEdge.get(row, col)); // NaN if missing
+          latMax = Math.max(latMax, latEdge.get(row, col));
+          lonMin = Math.min(lonMin, lon);
+          lonMax = Math.max(lonMax, lon);
         }
       }
+      if (lonMax - lonMin > 180.0) { // the cells go around a pole
+        if (latMax > 0)
+          latMax = 90.0;
+        else
+          latMin = -90.0;
+      }
+      return latMin <= wantLat && wantLat <= latMax && lonMin <= wantLon && wantLon <= lonMax;
     }
 
     /**
@@ -297,18 +335,22 @@ public class HorizCoordSys2D extends HorizCoordSys {
       int row = rectIndex[0];
       int col = rectIndex[1];
 
-      double x1 = lonEdge.get(row, col);
+      // longitudes next to the wanted one, so cells across the seam of the grid or the dateline are not split
+      double x1 = LatLonPoints.lonNormal(lonEdge.get(row, col), wantLon);
       double y1 = latEdge.get(row, col);
 
-      double x2 = lonEdge.get(row, col + 1);
+      double x2 = LatLonPoints.lonNormal(lonEdge.get(row, col + 1), wantLon);
       double y2 = latEdge.get(row, col + 1);
 
-      double x3 = lonEdge.get(row + 1, col + 1);
+      double x3 = LatLonPoints.lonNormal(lonEdge.get(row + 1, col + 1), wantLon);
       double y3 = latEdge.get(row + 1, col + 1);
 
-      double x4 = lonEdge.get(row + 1, col);
+      double x4 = LatLonPoints.lonNormal(lonEdge.get(row + 1, col), wantLon);
       double y4 = latEdge.get(row + 1, col);
 
+      if (Double.isNaN(x1 + y1 + x2 + y2 + x3 + y3 + x4 + y4))
+        return false; // missing corner
+
       // must all have same determinate sign
       boolean sign = detIsPositive(x1, y1, x2, y2, wantLon, wantLat);
       if (sign != detIsPositive(x2, y2, x3, y3, wantLon, wantLat))
@@ -356,68 +398,6 @@ public class HorizCoordSys2D extends HorizCoordSys {
 
     }
 
-    /**
-     * jump to a new row,col
-     *
-     * @param wantLat want this lat
-     * @param wantLon want this lon
-     * @param rectIndex starting row, col and replaced by new guess
-     * @return true if new guess, false if failure
-     */
-    /*
-     * choose x, y such that (matrix multiply) :
-     * 
-     * (wantx) = (fxx fxy) (x)
-     * (wanty) (fyx fyy) (y)
-     * 
-     * where fxx = d(fx)/dx ~= delta lon in lon direction
-     * where fxy = d(fx)/dy ~= delta lon in lat direction
-     * where fyx = d(fy)/dx ~= delta lat in lon direction
-     * where fyy = d(fy)/dy ~= delta lat in lat direction
-     * 
-     * 2 linear equations in 2 unknowns, solve in usual way
-     */
-    private boolean jump2(double wantLat, double wantLon, int[] rectIndex) {
-      int row = Math.max(Math.min(rectIndex[0], nrows - 1), 0);
-      int col = Math.max(Math.min(rectIndex[1], ncols - 1), 0);
-      double lat = latEdge.get(row, col);
-      double lon = lonEdge.get(row, col);
-      double diffLat = wantLat - lat;
-      double diffLon = wantLon - lon;
-
-      double dlatdy = latEdge.get(row + 1, col) - lat;
-      double dlatdx = latEdge.get(row, col + 1) - lat;
-      double dlondx = lonEdge.get(row, col + 1) - lon;
-      double dlondy = lonEdge.get(row + 1, col) - lon;
-
-      // solve for dlon
-
-      double dx = (diffLon - dlondy * diffLat / dlatdy) / (dlondx - dlatdx * dlondy / dlatdy);
-      // double dy = (diffLat - dlatdx * diffLon / dlondx) / (dlatdy - dlatdx * dlondy / dlondx);
-      double dy = (diffLat - dlatdx * dx) / dlatdy;
-
-      if (debug)
-        System.out.printf(
-            "   jump from %d %d (dlondx=%f dlondy=%f dlatdx=%f dlatdy=%f) (diffLat,Lon=%f %f) (deltalat,Lon=%f %f)",
-            row, col, dlondx, dlondy, dlatdx, dlatdy, diffLat, diffLon, dy, dx);
-
-      int drow = (int) Math.round(dy);
-      int dcol = (int) Math.round(dx);
-
-      if ((drow == 0) && (dcol == 0)) {
-        if (debug)
-          System.out.printf("%n   incr:");
-        return incr(wantLat, wantLon, rectIndex);
-      } else {
-        rectIndex[0] = Math.max(Math.min(row + drow, nrows - 1), 0);
-        rectIndex[1] = Math.max(Math.min(col + dcol, ncols - 1), 0);
-        if (debug)
-          System.out.printf(" to (%d %d)%n", rectIndex[0], rectIndex[1]);
-        return (row != rectIndex[0]) || (col != rectIndex[1]); // nothing has changed
-      }
-
-    }
-
     private boolean incr(double wantLat, double wantLon, int[] rectIndex) {
       int row = rectIndex[0];
       int col = rectIndex[1];
@@ -470,7 +450,7 @@ public class HorizCoordSys2D extends HorizCoordSys {
     }
 
     // return y, x ranges
-    Optional<List<RangeIterator>> computeBoundsExhaustive(LatLonRect rect, int horizStride) {
+    Optional<List<RangeIterator>> computeBoundsFromIndex(LatLonRect rect, int horizStride) {
       LatLonPoint llpt = rect.getLowerLeftPoint();
       LatLonPoint urpt = rect.getUpperRightPoint();
 
@@ -480,6 +460,10 @@ public class HorizCoordSys2D extends HorizCoordSys {
       // normalize to [minLon,minLon+360], edge already normalized to this
       double minx = LatLonPoints.lonNormalFrom(llpt.getLongitude(), lonMinMax.min);
       double maxx = LatLonPoints.lonNormalFrom(urpt.getLongitude(), lonMinMax.min);
+      if (rect.containsAllLongitude()) { // the two normalize to the same longitude
+        minx = lonMinMax.min;
+        maxx = lonMinMax.min + 360.0;
+      }
 
       int[] shape = lonAxis2D.getShape();
       int ny = shape[0];
@@ -514,22 +498,14 @@ public class HorizCoordSys2D extends HorizCoordSys {
         maxRow = ny;
       }
 
-      // brute force, examine every point LOOK BAD
-      for (int row = 0; row <= ny; row++) {
-        for (int col = 0; col <= nx; col++) {
-          double lat = latEdge.get(row, col);
-          double lon = lonEdge.get(row, col);
-
-          if ((lat >= miny) && (lat <= maxy) && (lon >= minx) && (lon <= maxx)) {
-            if (col > maxCol)
-              maxCol = col;
-            if (col < minCol)
-              minCol = col;
-            if (row > maxRow)
-              maxRow = row;
-            if (row < minRow)
-              minRow = row;
-          }
+      // the edge points in the box, from the spatial index rather than examining every point
+      if (minx <= maxx) {
+        int[] bounds = index.findBoundsInBox(miny, maxy, minx, maxx - minx);
+        if (bounds != null) {
+          minRow = Math.min(minRow, bounds[0]);
+          maxRow = Math.max(maxRow, bounds[1]);
+          minCol = Math.min(minCol, bounds[2]);
+          maxCol = Math.max(maxCol, bounds[3]);
         }
       }
 
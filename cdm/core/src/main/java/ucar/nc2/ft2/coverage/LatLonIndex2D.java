@@ -0,0 +1,397 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.ft2.coverage;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import javax.annotation.concurrent.Immutable;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.unidata.geoloc.LatLonPoints;
+
+/**
+ * Spatial index over the points of a 2D lat/lon coordinate field, such as the centers or edges of the cells of a
+ * curvilinear grid. Finds the nearest point, and the points inside a lat/lon box, without examining every point.
+ * <p>
+ * The points are placed on the unit sphere and kept in an implicit kd-tree, so there are no special cases at the
+ * dateline or the poles. Building is O(n log n); a nearest point query is O(log n), and a box query is O(log n) plus
+ * the number of points found. Points with a missing (NaN) lat or lon are not indexed.
+ * <p>
+ * Expensive to make, so callers should keep one for each coordinate system, made when it is first needed.
+ */
+@Immutable
+public class LatLonIndex2D {
+  private static final double EPS = 1.0e-6; // larger than the float rounding of the unit vectors
+
+  private final int nrows, ncols;
+  private final double[] lats, lons; // the field, row major
+  private final int n; // number of indexed points
+  private final int[] points; // index into the field of each tree node
+  private final float[] xyz; // unit vector of each tree node
+  private final byte[] splitDim; // splitting dimension of each tree node
+  private final double[] rootMin = {1, 1, 1}, rootMax = {-1, -1, -1}; // bounds of all the unit vectors
+
+  /**
+   * Index a lat/lon coordinate field.
+   *
+   * @param lat latitudes, shape (nrows, ncols)
+   * @param lon longitudes, same shape as lat, any normalization
+   */
+  public LatLonIndex2D(Array lat, Array lon) {
+    int[] shape = lat.getShape();
+    if (shape.length != 2 || !Arrays.equals(shape, lon.getShape()))
+      throw new IllegalArgumentException("lat and lon must both have shape (nrows, ncols)");
+    this.nrows = shape[0];
+    this.ncols = shape[1];
+    this.lats = (double[]) lat.get1DJavaArray(DataType.DOUBLE);
+    this.lons = (double[]) lon.get1DJavaArray(DataType.DOUBLE);
+
+    int count = 0;
+    for (int i = 0; i < lats.length; i++) {
+      if (!Double.isNaN(lats[i]) && !Double.isNaN(lons[i]))
+        count++;
+    }
+    this.n = count;
+    this.points = new int[n];
+    this.xyz = new float[3 * n];
+    this.splitDim = new byte[n];
+
+    int pos = 0;
+    for (int i = 0; i < lats.length; i++) {
+      if (Double.isNaN(lats[i]) || Double.isNaN(lons[i]))
+        continue;
+      double latr = Math.toRadians(lats[i]);
+      double lonr = Math.toRadians(lons[i]);
+      points[pos] = i;
+      xyz[3 * pos] = (float) (Math.cos(latr) * Math.cos(lonr));
+      xyz[3 * pos + 1] = (float) (Math.cos(latr) * Math.sin(lonr));
+      xyz[3 * pos + 2] = (float) Math.sin(latr);
+      for (int d = 0; d < 3; d++) {
+        rootMin[d] = Math.min(rootMin[d], xyz[3 * pos + d]);
+        rootMax[d] = Math.max(rootMax[d], xyz[3 * pos + d]);
+      }
+      pos++;
+    }
+    build(0, n, rootMin.clone(), rootMax.clone());
+  }
+
+  public int getNrows() {
+    return nrows;
+  }
+
+  public int getNcols() {
+    return ncols;
+  }
+
+  /** Number of points in the index, that is, those with a lat and lon. */
+  public int getSize() {
+    return n;
+  }
+
+  /**
+   * Find the point nearest to a lat, lon, by great circle distance.
+   *
+   * @param lat latitude
+   * @param lon longitude, any normalization
+   * @return index of the point in the field (row * ncols + col), or -1 if the index is empty.
+   */
+  public int findNearest(double lat, double lon) {
+    if (n == 0)
+      return -1;
+    double latr = Math.toRadians(lat);
+    double lonr = Math.toRadians(lon);
+    double[] want = {Math.cos(latr) * Math.cos(lonr), Math.cos(latr) * Math.sin(lonr), Math.sin(latr)};
+    Nearest nearest = new Nearest(want);
+    nearest.search(0, n, rootMin.clone(), rootMax.clone());
+    return points[nearest.best];
+  }
+
+  /**
+   * Find the points inside a lat/lon box. The longitude range goes east from lonStart by lonWidth degrees, so it may
+   * cross the dateline or any other seam; a lonWidth of 360 or more is all longitudes.
+   *
+   * @param latMin minimum latitude
+   * @param latMax maximum latitude
+   * @param lonStart western edge of the box, any normalization
+   * @param lonWidth width of the box in degrees of longitude, must be &gt;= 0
+   * @param consumer called with the index in the field (row * ncols + col) of each point in the box, in no order.
+   */
+  public void findInBox(double latMin, double latMax, double lonStart, double lonWidth, IntConsumer consumer) {
+    if (n == 0 || latMin > latMax || lonWidth < 0)
+      return;
+    BoxSearch search = new BoxSearch(latMin, latMax, lonStart, lonWidth, consumer);
+    search.search(0, n, rootMin.clone(), rootMax.clone());
+  }
+
+  /**
+   * Find the rows and columns of the points inside a lat/lon box, as for findInBox().
+   *
+   * @return {minRow, maxRow, minCol, maxCol}, inclusive, or null if no points are in the box.
+   */
+  public int[] findBoundsInBox(double latMin, double latMax, double lonStart, double lonWidth) {
+    int[] bounds = {Integer.MAX_VALUE, -1, Integer.MAX_VALUE, -1};
+    findInBox(latMin, latMax, lonStart, lonWidth, index -> {
+      int row = index / ncols;
+      int col = index % ncols;
+      bounds[0] = Math.min(bounds[0], row);
+      bounds[1] = Math.max(bounds[1], row);
+      bounds[2] = Math.min(bounds[2], col);
+      bounds[3] = Math.max(bounds[3], col);
+    });
+    return (bounds[1] < 0) ? null : bounds;
+  }
+
+  /**
+   * Treating the points as the corners of a grid of (nrows - 1, ncols - 1) cells, find the largest differences in
+   * latitude and in longitude between the corners of any one cell. All the corners of a cell that contains a point are
+   * within these of the point, so a box this size around it finds them. Cells with a missing corner are skipped.
+   * O(n), so callers should keep the result.
+   *
+   * @return {latitude extent, longitude extent} in degrees
+   */
+  public double[] getMaxCellExtent() {
+    double latExtent = 0, lonExtent = 0;
+    for (int row = 0; row < nrows - 1; row++) {
+      for (int col = 0; col < ncols - 1; col++) {
+        int first = row * ncols + col;
+        int[] corners = {first, first + 1, first + ncols + 1, first + ncols};
+        double latMin = Double.MAX_VALUE, latMax = -Double.MAX_VALUE;
+        double lonMin = Double.MAX_VALUE, lonMax = -Double.MAX_VALUE;
+        for (int corner : corners) {
+          double lon = LatLonPoints.lonNormal(lons[corner], lons[first]);
+          latMin = Math.min(latMin, lats[corner]);
+          latMax = Math.max(latMax, lats[corner]);
+          lonMin = Math.min(lonMin, lon);
+          lonMax = Math.max(lonMax, lon);
+        }
+        if (Double.isNaN(latMax - latMin) || Double.isNaN(lonMax - lonMin))
+          continue; // missing corner
+        latExtent = Math.max(latExtent, latMax - latMin);
+        lonExtent = Math.max(lonExtent, lonMax - lonMin);
+      }
+    }
+    return new double[] {latExtent, lonExtent};
+  }
+
+  /**
+   * Straight line distance between two points on the unit sphere, which orders points the same as great circle
+   * distance, and has no special cases at the dateline or the poles.
+   */
+  public static double getChordDistance(double lat1, double lon1, double lat2, double lon2) {
+    double lat1r = Math.toRadians(lat1), lon1r = Math.toRadians(lon1);
+    double lat2r = Math.toRadians(lat2), lon2r = Math.toRadians(lon2);
+    double dx = Math.cos(lat1r) * Math.cos(lon1r) - Math.cos(lat2r) * Math.cos(lon2r);
+    double dy = Math.cos(lat1r) * Math.sin(lon1r) - Math.cos(lat2r) * Math.sin(lon2r);
+    double dz = Math.sin(lat1r) - Math.sin(lat2r);
+    return Math.sqrt(dx * dx + dy * dy + dz * dz);
+  }
+
+  ////////////////////////////////////////////////////////////////////////////
+  // implicit kd-tree: the node of [lo, hi) is at mid = (lo + hi) / 2, its left subtree is [lo, mid) and its right
+  // subtree is (mid, hi), and no coordinate in splitDim[mid] is less than it on the right, or greater on the left.
+
+  // min and max bound the unit vectors of the nodes in [lo, hi); split on the widest dimension
+  private void build(int lo, int hi, double[] min, double[] max) {
+    if (hi - lo <= 1)
+      return;
+    int dim = 0;
+    for (int d = 1; d < 3; d++) {
+      if (max[d] - min[d] > max[dim] - min[dim])
+        dim = d;
+    }
+    int mid = (lo + hi) >>> 1;
+    select(lo, hi - 1, mid, dim);
+    splitDim[mid] = (byte) dim;
+
+    double split = xyz[3 * mid + dim];
+    double save = max[dim];
+    max[dim] = split;
+    build(lo, mid, min, max);
+    max[dim] = save;
+    save = min[dim];
+    min[dim] = split;
+    build(mid + 1, hi, min, max);
+    min[dim] = save;
+  }
+
+  // quickselect: put the k-th smallest in dimension dim of [left, right] at k. Three way partitions, since a
+  // coordinate field often has many equal values, for example along the rows of a rectilinear grid.
+  private void select(int left, int right, int k, int dim) {
+    while (right > left) {
+      float a = coord(left, dim);
+      float b = coord((left + right) >>> 1, dim);
+      float c = coord(right, dim);
+      float pivot = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c)); // median of three
+
+      // [left, lt) < pivot, [lt, gt] == pivot, (gt, right] > pivot
+      int lt = left, gt = right, i = left;
+      while (i <= gt) {
+        float v = coord(i, dim);
+        if (v < pivot)
+          swap(lt++, i++);
+        else if (v > pivot)
+          swap(i, gt--);
+        else
+          i++;
+      }
+
+      if (k < lt)
+        right = lt - 1;
+      else if (k > gt)
+        left = gt + 1;
+      else
+        return;
+    }
+  }
+
+  private float coord(int node, int dim) {
+    return xyz[3 * node + dim];
+  }
+
+  private void swap(int i, int j) {
+    int p = points[i];
+    points[i] = points[j];
+    points[j] = p;
+    for (int d = 0; d < 3; d++) {
+      float v = xyz[3 * i + d];
+      xyz[3 * i + d] = xyz[3 * j + d];
+      xyz[3 * j + d] = v;
+    }
+  }
+
+  private class Nearest {
+    private final double[] want;
+    private int best = -1;
+    private double bestDist2 = Double.MAX_VALUE;
+
+    Nearest(double[] want) {
+      this.want = want;
+    }
+
+    // min and max bound the unit vectors of the nodes in [lo, hi)
+    void search(int lo, int hi, double[] min, double[] max) {
+      if (lo >= hi || boxDist2(min, max) >= bestDist2)
+        return;
+      int mid = (lo + hi) >>> 1;
+      double dist2 = 0;
+      for (int d = 0; d < 3; d++) {
+        double diff = want[d] - xyz[3 * mid + d];
+        dist2 += diff * diff;
+      }
+      if (dist2 < bestDist2) {
+        bestDist2 = dist2;
+        best = mid;
+      }
+
+      // the side of the splitting plane with the wanted point first
+      int dim = splitDim[mid];
+      double split = xyz[3 * mid + dim];
+      boolean leftFirst = want[dim] < split;
+      for (int side = 0; side < 2; side++) {
+        if (leftFirst == (side == 0)) {
+          double save = max[dim];
+          max[dim] = split;
+          search(lo, mid, min, max);
+          max[dim] = save;
+        } else {
+          double save = min[dim];
+          min[dim] = split;
+          search(mid + 1, hi, min, max);
+          min[dim] = save;
+        }
+      }
+    }
+
+    // square of the chord distance from the wanted point to the box [min, max], a lower bound for any point in it
+    private double boxDist2(double[] min, double[] max) {
+      double dist2 = 0;
+      for (int d = 0; d < 3; d++) {
+        double diff = Math.max(min[d] - want[d], want[d] - max[d]);
+        if (diff > 0)
+          dist2 += diff * diff;
+      }
+      return dist2;
+    }
+  }
+
+  private class BoxSearch {
+    private final double latMin, latMax, lonStart, lonWidth;
+    private final double zMin, zMax;
+    private final IntConsumer consumer;
+
+    BoxSearch(double latMin, double latMax, double lonStart, double lonWidth, IntConsumer consumer) {
+      this.latMin = latMin;
+      this.latMax = latMax;
+      this.lonStart = lonStart;
+      this.lonWidth = lonWidth;
+      this.zMin = Math.sin(Math.toRadians(Math.max(latMin, -90.0)));
+      this.zMax = Math.sin(Math.toRadians(Math.min(latMax, 90.0)));
+      this.consumer = consumer;
+    }
+
+    // min and max bound the unit vectors of the nodes in [lo, hi)
+    void search(int lo, int hi, double[] min, double[] max) {
+      if (lo >= hi || !mayIntersect(min, max))
+        return;
+      int mid = (lo + hi) >>> 1;
+      int index = points[mid];
+      if (contains(lats[index], lons[index]))
+        consumer.accept(index);
+
+      int dim = splitDim[mid];
+      double split = xyz[3 * mid + dim];
+      if (lo < mid) {
+        double save = max[dim];
+        max[dim] = Math.min(save, split);
+        search(lo, mid, min, max);
+        max[dim] = save;
+      }
+      if (mid + 1 < hi) {
+        double save = min[dim];
+        min[dim] = Math.max(save, split);
+        search(mid + 1, hi, min, max);
+        min[dim] = save;
+      }
+    }
+
+    private boolean contains(double lat, double lon) {
+      if (lat < latMin || lat > latMax)
+        return false;
+      return lonWidth >= 360.0 || LatLonPoints.lonNormalFrom(lon - lonStart, 0.0) <= lonWidth;
+    }
+
+    // could any point in the box [min, max] of unit vectors be in the lat/lon box?
+    private boolean mayIntersect(double[] min, double[] max) {
+      if (max[2] < zMin - EPS || min[2] > zMax + EPS)
+        return false;
+      if (lonWidth >= 360.0)
+        return true;
+
+      double xmin = min[0] - EPS, xmax = max[0] + EPS;
+      double ymin = min[1] - EPS, ymax = max[1] + EPS;
+      if (xmin <= 0 && xmax >= 0 && ymin <= 0 && ymax >= 0)
+        return true; // around the pole axis, so all longitudes
+
+      // the rectangle does not contain the pole axis, so its longitudes are an arc of less than 180 degrees,
+      // between the directions of its corners
+      double ref = Math.toDegrees(Math.atan2(ymin, xmin));
+      double arcMin = 0, arcMax = 0;
+      double[] xs = {xmin, xmax, xmax};
+      double[] ys = {ymax, ymin, ymax};
+      for (int i = 0; i < 3; i++) {
+        double offset = LatLonPoints.lonNormal(Math.toDegrees(Math.atan2(ys[i], xs[i])) - ref, 0.0);
+        arcMin = Math.min(arcMin, offset);
+        arcMax = Math.max(arcMax, offset);
+      }
+
+      // two arcs going east intersect if one starts inside the other
+      double arcStart = ref + arcMin;
+      double arcWidth = arcMax - arcMin;
+      if (LatLonPoints.lonNormalFrom(arcStart - lonStart, 0.0) <= lonWidth)
+        return true;
+      return LatLonPoints.lonNormalFrom(lonStart - arcStart, 0.0) <= arcWidth;
+    }
+  }
+}
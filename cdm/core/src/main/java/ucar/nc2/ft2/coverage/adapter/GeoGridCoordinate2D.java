@@ -4,9 +4,13 @@
  */
 package ucar.nc2.ft2.coverage.adapter;
 
+import java.util.ArrayList;
+import java.util.List;
 import ucar.nc2.dataset.CoordinateAxis2D;
 import ucar.ma2.ArrayDouble;
 import ucar.ma2.MAMath;
+import ucar.nc2.ft2.coverage.LatLonIndex2D;
+import ucar.unidata.geoloc.LatLonPoints;
 
 /**
  * fork ucar.nc2.dt.grid.GridCoordinate2D for adaption of GridCoverage
@@ -27,6 +31,8 @@ public class GeoGridCoordinate2D {
   private final int nrows, ncols;
   private ArrayDouble.D2 latEdge, lonEdge;
   private MAMath.MinMax latMinMax, lonMinMax;
+  private LatLonIndex2D index; // of the edges, made when first needed
+  private double[] maxCellExtent; // in lat and lon, of any cell
 
   GeoGridCoordinate2D(CoordinateAxis2D latCoord, CoordinateAxis2D lonCoord) {
     this.latCoord = latCoord;
@@ -56,36 +62,106 @@ public class GeoGridCoordinate2D {
           lonMinMax.min, lonMinMax.max);
   }
 
-  // brute force
+  /**
+   * Find the cell that contains the given lat,lon point, using a spatial index of the cell edges, which is made the
+   * first time this is called.
+   *
+   * @param wantLat lat of point
+   * @param wantLon lon of point, any normalization
+   * @param rectIndex return (row,col) index. may not be null
+   *
+   * @return false if not in the grid.
+   */
   public boolean findCoordElementForce(double wantLat, double wantLon, int[] rectIndex) {
     findBounds();
     if (wantLat < latMinMax.min)
       return false;
     if (wantLat > latMinMax.max)
       return false;
-    if (wantLon < lonMinMax.min)
-      return false;
-    if (wantLon > lonMinMax.max)
-      return false;
 
-    boolean saveDebug = debug;
-    debug = false;
-    for (int row = 0; row < nrows; row++) {
-      for (int col = 0; col < ncols; col++) {
+    synchronized (this) {
+      if (index == null) {
+        index = new LatLonIndex2D(latEdge, lonEdge);
+        maxCellExtent = index.getMaxCellExtent();
+      }
+    }
+    int nearest = index.findNearest(wantLat, wantLon);
+    if (nearest < 0)
+      return false;
+    int edgeRow = nearest / (ncols + 1);
+    int edgeCol = nearest % (ncols + 1);
 
+    // usually the nearest edge point is a corner of the cell that contains the point, or of one next to it
+    for (int row = Math.max(edgeRow - 2, 0); row <= Math.min(edgeRow + 1, nrows - 1); row++) {
+      for (int col = Math.max(edgeCol - 2, 0); col <= Math.min(edgeCol + 1, ncols - 1); col++) {
         rectIndex[0] = row;
         rectIndex[1] = col;
-
-        if (contains(wantLat, wantLon, rectIndex)) {
-          debug = saveDebug;
+        if (contains(wantLat, wantLon, rectIndex))
           return true;
+      }
+    }
+
+    // but not when the cells are long or sheared, or next to missing values
+    if (findCoordElementNear(wantLat, wantLon, rectIndex))
+      return true;
+
+    // a point within the bounds of the valid cells all around an interior edge point is in the grid, in a cell that
+    // is not convex in lat/lon, as next to a pole. Use the one of the four cells at the edge point with the nearest
+    // center.
+    if (edgeRow == 0 || edgeRow == nrows || edgeCol == 0 || edgeCol == ncols
+        || !isNearCellsAround(edgeRow, edgeCol, wantLat, wantLon))
+      return false;
+    double bestDist = Double.MAX_VALUE;
+    for (int row = edgeRow - 1; row <= edgeRow; row++) {
+      for (int col = edgeCol - 1; col <= edgeCol; col++) {
+        double dist = LatLonIndex2D.getChordDistance(latCoord.getCoordValue(row, col),
+            lonCoord.getCoordValue(row, col), wantLat, wantLon);
+        if (dist < bestDist) {
+          bestDist = dist;
+          rectIndex[0] = row;
+          rectIndex[1] = col;
         }
       }
     }
-    // debug = saveDebug;
+    return true;
+  }
+
+  // check the cells whose corners are all close enough to the point for it to be inside them
+  private boolean findCoordElementNear(double wantLat, double wantLon, int[] rectIndex) {
+    List<Integer> corners = new ArrayList<>();
+    index.findInBox(wantLat - maxCellExtent[0], wantLat + maxCellExtent[0], wantLon - maxCellExtent[1],
+        2 * maxCellExtent[1], corners::add);
+    for (int corner : corners) {
+      rectIndex[0] = corner / (ncols + 1);
+      rectIndex[1] = corner % (ncols + 1);
+      if (rectIndex[0] < nrows && rectIndex[1] < ncols && contains(wantLat, wantLon, rectIndex))
+        return true;
+    }
     return false;
   }
 
+  // is the point within the lat/lon bounds of the four cells at an interior edge point; false if any is missing
+  private boolean isNearCellsAround(int edgeRow, int edgeCol, double wantLat, double wantLon) {
+    double latMin = Double.MAX_VALUE, latMax = -Double.MAX_VALUE;
+    double lonMin = Double.MAX_VALUE, lonMax = -Double.MAX_VALUE;
+    for (int row = edgeRow - 1; row <= edgeRow + 1; row++) {
+      for (int col = edgeCol - 1; col <= edgeCol + 1; col++) {
+        double lon = LatLonPoints.lonNormal(lonEdge.get(row, col), wantLon);
+        latMin = Math.min(latMin, latEdge.get(row, col)); // NaN if missing
+        latMax = Math.max(latMax, latEdge.get(row, col));
+        lonMin = Math.min(lonMin, lon);
+        lonMax = Math.max(lonMax, lon);
+      }
+    }
+    if (lonMax - lonMin > 180.0) { // the cells go around a pole
+      if (latMax > 0)
+        latMax = 90.0;
+      else
+        latMin = -90.0;
+    }
+    return latMin <= wantLat && wantLat <= latMax && lonMin <= wantLon && wantLon <= lonMax;
+  }
+
   public boolean findCoordElement(double wantLat, double wantLon, int[] rectIndex) {
     return findCoordElementNoForce(wantLat, wantLon, rectIndex);
   }
@@ -212,18 +288,22 @@ public class GeoGridCoordinate2D {
     int row = rectIndex[0];
     int col = rectIndex[1];
 
-    double x1 = lonEdge.get(row, col);
+    // longitudes next to the wanted one, so cells across the seam of the grid or the dateline are not split
+    double x1 = LatLonPoints.lonNormal(lonEdge.get(row, col), wantLon);
     double y1 = latEdge.get(row, col);
 
-    double x2 = lonEdge.get(row, col + 1);
+    double x2 = LatLonPoints.lonNormal(lonEdge.get(row, col + 1), wantLon);
     double y2 = latEdge.get(row, col + 1);
 
-    double x3 = lonEdge.get(row + 1, col + 1);
+    double x3 = LatLonPoints.lonNormal(lonEdge.get(row + 1, col + 1), wantLon);
     double y3 = latEdge.get(row + 1, col + 1);
 
-    double x4 = lonEdge.get(row + 1, col);
+    double x4 = LatLonPoints.lonNormal(lonEdge.get(row + 1, col), wantLon);
     double y4 = latEdge.get(row + 1, col);
 
+    if (Double.isNaN(x1 + y1 + x2 + y2 + x3 + y3 + x4 + y4))
+      return false; // missing corner
+
     // must all have same determinate sign
     boolean sign = detIsPositive(x1, y1, x2, y2, wantLon, wantLat);
     if (sign != detIsPositive(x2, y2, x3, y3, wantLon, wantLat))
@@ -0,0 +1,1068 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.internal.iosp.hdf5;
+
+import com.google.common.collect.ImmutableSet;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.Group;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Variable;
+import ucar.nc2.constants.CDM;
+import ucar.nc2.iosp.netcdf4.Nc4;
+
+/**
+ * Encodes the metadata of a netCDF-4 file: superblock, object headers, chunk Btrees and global heaps.
+ * Uses the HDF5 1.8 formats: a version 2 superblock, version 2 object headers with the links of a group stored in
+ * its object header, and version 1 Btrees to index the chunks.
+ * <p>
+ * All the metadata is encoded as one block, to be placed after the data. Addresses are always 8 bytes, so the size
+ * of the block doesn't depend on them: it is encoded once to find where each object goes, then again with those
+ * addresses.
+ * <p>
+ * Dimensions follow the netCDF-4 conventions: each one is a dimension scale, either its coordinate variable or a
+ * dataset without data, and variables refer to them with a DIMENSION_LIST attribute.
+ */
+class H5headerWriter {
+  static final long UNDEFINED = -1; // all bits set
+  static final int SUPERBLOCK_SIZE = 48;
+  static final String NOT_A_VARIABLE = "This is a netCDF dimension but not a netCDF variable.";
+
+  private static final byte[] MAGIC = {(byte) 0x89, 'H', 'D', 'F', '\r', '\n', 0x1a, '\n'};
+  private static final int BTREE_K = 32; // the default for chunk Btrees, not stored in a version 2 superblock
+  private static final int HEAP_MIN_SIZE = 4096; // smallest global heap collection
+  private static final int HEAP_MAX_BYTES = 1024 * 1024; // start a new collection after this
+  private static final int HEAP_MAX_OBJECTS = Short.MAX_VALUE;
+  private static final int MAX_MESSAGE_SIZE = 0xffff;
+
+  // header message types
+  private static final int DATASPACE = 1;
+  private static final int LINK_INFO = 2;
+  private static final int DATATYPE = 3;
+  private static final int FILL_VALUE = 5;
+  private static final int LINK = 6;
+  private static final int LAYOUT = 8;
+  private static final int GROUP_INFO = 10;
+  private static final int FILTER_PIPELINE = 11;
+  private static final int ATTRIBUTE = 12;
+
+  // filter ids
+  static final int FILTER_DEFLATE = 1;
+  static final int FILTER_SHUFFLE = 2;
+
+  // attributes that are part of the file format, or are made by the readers
+  private static final Set<String> SKIP_ATTRIBUTES = ImmutableSet.of(H5headerNew.HDF5_CLASS,
+      H5headerNew.HDF5_DIMENSION_LIST, H5headerNew.HDF5_DIMENSION_SCALE, H5headerNew.HDF5_DIMENSION_LABELS,
+      H5headerNew.HDF5_DIMENSION_NAME, H5headerNew.HDF5_REFERENCE_LIST, Nc4.NETCDF4_COORDINATES, Nc4.NETCDF4_DIMID,
+      Nc4.NETCDF4_STRICT, CDM.CHUNK_SIZES, CDM.COMPRESS, CDM.NCPROPERTIES, CDM.ISNETCDF4);
+
+  /** Where and how the data of a variable is stored. */
+  static class Storage {
+    final Variable v;
+    boolean chunked;
+    int[] chunkShape; // chunked only
+    int elemSize;
+    int deflateLevel; // 0 for none
+    boolean shuffle;
+    byte[] fillValue; // one element as stored, or null if not defined
+    long address = UNDEFINED; // contiguous only
+    long size;
+    final Map<String, Chunk> chunks = new HashMap<>(); // stored chunks, by chunk key
+    String[] strings; // values of STRING variables, kept in memory and written with the metadata
+
+    Storage(Variable v) {
+      this.v = v;
+    }
+  }
+
+  /** A chunk stored in the file. */
+  static class Chunk {
+    final int[] offset; // index of its first element
+    final long address;
+    final int size; // as stored, after the filters
+
+    Chunk(int[] offset, long address, int size) {
+      this.offset = offset;
+      this.address = address;
+      this.size = size;
+    }
+  }
+
+  private final NetcdfFile ncfile;
+  private final boolean classic; // NETCDF4_CLASSIC format
+  private final Map<String, Storage> storage; // by variable full name
+
+  private final List<Variable> variables = new ArrayList<>(); // in the order they are encoded
+  private final Map<String, String> scales = new HashMap<>(); // dimension key -> object key of its scale
+  private final Map<String, Integer> dimIds = new HashMap<>(); // dimension key -> netCDF-4 dimension id
+  private final Set<String> nonCoordinates = new HashSet<>(); // full names of variables named like a dimension
+
+  // state of one encoding
+  private Map<String, Long> previous; // object key -> address, from the previous encoding
+  private Map<String, Long> found; // object key -> address, in this encoding
+  private List<HeapObject> heapObjects;
+  private int heapCollection, heapCollectionBytes, heapCollectionCount;
+  private long rootAddress;
+
+  /**
+   * Constructor.
+   *
+   * @param ncfile encode the metadata of this file
+   * @param classic if the format is NETCDF4_CLASSIC
+   * @param storage how the variables are stored, by full name
+   */
+  H5headerWriter(NetcdfFile ncfile, boolean classic, Map<String, Storage> storage) {
+    this.ncfile = ncfile;
+    this.classic = classic;
+    this.storage = storage;
+    findScales(ncfile.getRootGroup(), new int[1]);
+  }
+
+  // find the dimension scales, and the order of the variables
+  private void findScales(Group group, int[] nextDimId) {
+    for (Dimension dim : group.getDimensions()) {
+      String dimKey = dimensionKey(group, dim);
+      Variable coord = group.findVariableLocal(dim.getShortName());
+      if (coord != null && isCoordinate(coord, dim)) {
+        scales.put(dimKey, objectKey(coord));
+      } else {
+        scales.put(dimKey, "d:" + dimKey);
+        if (coord != null)
+          nonCoordinates.add(coord.getFullName());
+      }
+      dimIds.put(dimKey, nextDimId[0]++);
+    }
+    variables.addAll(group.getVariables());
+    for (Group nested : group.getGroups())
+      findScales(nested, nextDimId);
+  }
+
+  private static boolean isCoordinate(Variable v, Dimension dim) {
+    if (v.getRank() != 1)
+      return false;
+    Dimension vdim = v.getDimension(0);
+    return vdim.isShared() && dim.getShortName().equals(vdim.getShortName());
+  }
+
+  /**
+   * Encode the metadata.
+   *
+   * @param start where in the file the metadata will be written
+   * @return the encoded metadata
+   */
+  byte[] encode(long start) {
+    encode(start, new HashMap<>()); // sizes don't depend on the addresses
+    Map<String, Long> addresses = found;
+    byte[] result = encode(start, addresses);
+    if (!found.equals(addresses))
+      throw new IllegalStateException("HDF5 metadata changed size when encoded again");
+    return result;
+  }
+
+  /** Address of the root group object header, after {@link #encode(long)}. */
+  long getRootAddress() {
+    return rootAddress;
+  }
+
+  /**
+   * Encode the superblock.
+   *
+   * @param eof end of the file
+   * @return the superblock, always {@link #SUPERBLOCK_SIZE} bytes
+   */
+  byte[] encodeSuperblock(long eof) {
+    Out out = new Out();
+    out.write(MAGIC);
+    out.writeByte(2); // version
+    out.writeByte(8); // size of offsets
+    out.writeByte(8); // size of lengths
+    out.writeByte(0); // file consistency flags
+    out.writeLong(0); // base address
+    out.writeLong(UNDEFINED); // superblock extension
+    out.writeLong(eof);
+    out.writeLong(rootAddress);
+    out.writeInt(out.checksum(0));
+    return out.toByteArray();
+  }
+
+  private byte[] encode(long start, Map<String, Long> previous) {
+    this.previous = previous;
+    this.found = new HashMap<>();
+    this.heapObjects = new ArrayList<>();
+    this.heapCollection = 0;
+    this.heapCollectionBytes = 0;
+    this.heapCollectionCount = 0;
+
+    // values of STRING variables, as heap ids
+    Out strings = new Out();
+    for (Variable v : variables) {
+      if (v.getDataType() == DataType.STRING) {
+        found.put("s:" + v.getFullName(), start + strings.size());
+        for (String s : stringValues(v))
+          writeHeapId(strings, (s == null ? "" : s).getBytes(StandardCharsets.UTF_8));
+      }
+    }
+
+    // chunk Btrees
+    Out btrees = new Out();
+    long btreeStart = start + strings.size();
+    for (Variable v : variables) {
+      if (isChunked(v))
+        found.put("b:" + v.getFullName(), writeBtree(btrees, btreeStart, v));
+    }
+
+    // object headers
+    Out headers = new Out();
+    long headerStart = btreeStart + btrees.size();
+    writeGroup(headers, headerStart, ncfile.getRootGroup());
+    rootAddress = found.get(groupKey(ncfile.getRootGroup()));
+
+    // global heaps
+    Out heaps = new Out();
+    writeHeaps(heaps, headerStart + headers.size());
+
+    return strings.write(btrees).write(headers).write(heaps).toByteArray();
+  }
+
+  private long address(String key) {
+    Long result = found.get(key);
+    if (result == null)
+      result = previous.get(key);
+    return result == null ? 0 : result;
+  }
+
+  private static String objectKey(Variable v) {
+    return "v:" + v.getFullName();
+  }
+
+  private static String groupKey(Group g) {
+    return "g:" + g.getFullName();
+  }
+
+  private static String dimensionKey(Group g, Dimension dim) {
+    return g.getFullName() + "/" + dim.getShortName();
+  }
+
+  // key of the dimension declared in the group or its parents, or null if not found
+  private static String findDimensionKey(Group group, Dimension dim) {
+    for (Group g = group; g != null; g = g.getParentGroup()) {
+      if (g.findDimensionLocal(dim.getShortName()) != null)
+        return dimensionKey(g, dim);
+    }
+    return null;
+  }
+
+  private String[] stringValues(Variable v) {
+    Storage st = storage.get(v.getFullName());
+    String[] values = st.strings;
+    long n = v.getSize();
+    if (values == null || values.length != n) // not written
+      values = new String[(int) n];
+    return values;
+  }
+
+  private boolean isChunked(Variable v) {
+    if (v.getDataType() == DataType.STRING)
+      return v.getRank() > 0 && v.isUnlimited(); // in one chunk
+    return storage.get(v.getFullName()).chunked;
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////////////////////
+  // object headers
+
+  private void writeGroup(Out out, long headerStart, Group group) {
+    ObjectHeader h = new ObjectHeader();
+    h.message(LINK_INFO, new Out().writeByte(0).writeByte(0).writeLong(UNDEFINED).writeLong(UNDEFINED));
+    h.message(GROUP_INFO, new Out().writeByte(0).writeByte(0));
+
+    // links to the dimension scales, the other variables, then the nested groups
+    for (Dimension dim : group.getDimensions()) {
+      String scale = scales.get(dimensionKey(group, dim));
+      h.message(LINK, link(dim.getShortName(), address(scale)));
+    }
+    for (Variable v : group.getVariables()) {
+      if (!isScale(v))
+        h.message(LINK, link(linkName(v), address(objectKey(v))));
+    }
+    for (Group nested : group.getGroups())
+      h.message(LINK, link(nested.getShortName(), address(groupKey(nested))));
+
+    for (Attribute att : group.attributes())
+      addAttribute(h, att, null);
+    if (classic && group.isRoot())
+      h.attribute(Nc4.NETCDF4_STRICT, fixedPointType(DataType.INT), scalarSpace(), new Out().writeInt(1));
+
+    found.put(groupKey(group), headerStart + out.size());
+    h.write(out);
+
+    for (Dimension dim : group.getDimensions()) {
+      String dimKey = dimensionKey(group, dim);
+      Variable coord = group.findVariableLocal(dim.getShortName());
+      if (coord != null && scales.get(dimKey).equals(objectKey(coord)))
+        writeVariable(out, headerStart, coord, dimKey);
+      else
+        writeDimension(out, headerStart, dim, dimKey);
+    }
+    for (Variable v : group.getVariables()) {
+      if (!isScale(v))
+        writeVariable(out, headerStart, v, null);
+    }
+    for (Group nested : group.getGroups())
+      writeGroup(out, headerStart, nested);
+  }
+
+  private boolean isScale(Variable v) {
+    Group g = v.getParentGroup();
+    Dimension dim = g.findDimensionLocal(v.getShortName());
+    return dim != null && objectKey(v).equals(scales.get(dimensionKey(g, dim)));
+  }
+
+  private String linkName(Variable v) {
+    return nonCoordinates.contains(v.getFullName()) ? Nc4.NETCDF4_NON_COORD + v.getShortName() : v.getShortName();
+  }
+
+  // a dimension without a coordinate variable, as a dataset without data
+  private void writeDimension(Out out, long headerStart, Dimension dim, String dimKey) {
+    ObjectHeader h = new ObjectHeader();
+    int[] shape = {dim.getLength()};
+    h.message(DATASPACE, simpleSpace(shape, dim.isUnlimited() ? new long[] {UNDEFINED} : null));
+    h.message(DATATYPE, floatType(DataType.FLOAT));
+    h.message(FILL_VALUE, fillValue(dim.isUnlimited(), null));
+    if (dim.isUnlimited())
+      h.message(LAYOUT, chunkedLayout(UNDEFINED, new int[] {1}, 4));
+    else
+      h.message(LAYOUT, contiguousLayout(UNDEFINED, 4L * dim.getLength()));
+    addScaleAttributes(h, String.format("%s%10d", NOT_A_VARIABLE, dim.getLength()), dimKey);
+
+    found.put(scales.get(dimKey), headerStart + out.size());
+    h.write(out);
+  }
+
+  private void writeVariable(Out out, long headerStart, Variable v, String dimKey) {
+    Storage st = storage.get(v.getFullName());
+    DataType dataType = v.getDataType();
+    int[] shape = v.getShape();
+    int rank = shape.length;
+    boolean chunked = isChunked(v);
+
+    ObjectHeader h = new ObjectHeader();
+    if (rank == 0) {
+      h.message(DATASPACE, scalarSpace());
+    } else {
+      long[] maxShape = null;
+      if (chunked) {
+        maxShape = new long[rank];
+        for (int i = 0; i < rank; i++)
+          maxShape[i] = v.getDimension(i).isUnlimited() ? UNDEFINED : shape[i];
+      }
+      h.message(DATASPACE, simpleSpace(shape, maxShape));
+    }
+    h.message(DATATYPE, datatype(dataType));
+    h.message(FILL_VALUE, fillValue(chunked, st.fillValue));
+
+    if (dataType == DataType.STRING) {
+      boolean empty = v.getSize() == 0;
+      if (chunked) {
+        int[] chunkShape = new int[rank];
+        for (int i = 0; i < rank; i++)
+          chunkShape[i] = Math.max(1, shape[i]);
+        h.message(LAYOUT, chunkedLayout(address("b:" + v.getFullName()), chunkShape, H5iospNew.VLEN_T_SIZE));
+      } else {
+        long address = empty ? UNDEFINED : address("s:" + v.getFullName());
+        h.message(LAYOUT, contiguousLayout(address, v.getSize() * H5iospNew.VLEN_T_SIZE));
+      }
+    } else if (chunked) {
+      h.message(LAYOUT, chunkedLayout(address("b:" + v.getFullName()), st.chunkShape, st.elemSize));
+      if (st.deflateLevel > 0)
+        h.message(FILTER_PIPELINE, filterPipeline(st));
+    } else {
+      h.message(LAYOUT, contiguousLayout(st.address, st.size));
+    }
+
+    for (Attribute att : v.attributes())
+      addAttribute(h, att, v);
+    if (dimKey != null)
+      addScaleAttributes(h, v.getShortName(), dimKey);
+    else
+      addDimensionList(h, v);
+
+    found.put(objectKey(v), headerStart + out.size());
+    h.write(out);
+  }
+
+  private void addScaleAttributes(ObjectHeader h, String name, String dimKey) {
+    h.attribute(H5headerNew.HDF5_CLASS, fixedString("DIMENSION_SCALE"), scalarSpace(),
+        new Out().write(nullTerminated("DIMENSION_SCALE")));
+    h.attribute(H5headerNew.HDF5_DIMENSION_NAME, fixedString(name), scalarSpace(),
+        new Out().write(nullTerminated(name)));
+    h.attribute(Nc4.NETCDF4_DIMID, fixedPointType(DataType.INT), scalarSpace(),
+        new Out().writeInt(dimIds.get(dimKey)));
+  }
+
+  // references to the dimension scales, if all the dimensions are shared
+  private void addDimensionList(ObjectHeader h, Variable v) {
+    if (v.getRank() == 0)
+      return;
+    List<String> dimScales = new ArrayList<>();
+    for (Dimension dim : v.getDimensions()) {
+      String dimKey = dim.isShared() ? findDimensionKey(v.getParentGroup(), dim) : null;
+      if (dimKey == null)
+        return;
+      dimScales.add(scales.get(dimKey));
+    }
+    Out data = new Out();
+    for (String scale : dimScales) {
+      byte[] reference = new Out().writeLong(address(scale)).toByteArray();
+      writeHeapId(data, reference, 1);
+    }
+    h.attribute(H5headerNew.HDF5_DIMENSION_LIST, referenceVlenType(), simpleSpace(new int[] {v.getRank()}, null),
+        data);
+  }
+
+  private void addAttribute(ObjectHeader h, Attribute att, Variable v) {
+    String name = att.getShortName();
+    if (SKIP_ATTRIBUTES.contains(name))
+      return;
+    boolean isCharFill = false;
+    if (v != null && name.equals(CDM.FILL_VALUE)) {
+      if (att.getLength() != 1) {
+        H5iospNew.log.warn("_FillValue length must be one on var = {}", v.getFullName());
+        return;
+      }
+      if (att.getDataType() != v.getDataType()) {
+        isCharFill = att.isString() && v.getDataType() == DataType.CHAR;
+        if (!isCharFill) {
+          H5iospNew.log.warn("_FillValue type ({}) does not agree with variable '{}' type ({}).", att.getDataType(),
+              v.getFullName(), v.getDataType());
+          return;
+        }
+      }
+    }
+
+    if (att.isString()) {
+      if (classic || isCharFill) { // as text
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < att.getLength(); i++)
+          text.append(att.getStringValue(i));
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        if (bytes.length == 0)
+          bytes = new byte[] {0};
+        h.attribute(name, fixedStringType(bytes.length), scalarSpace(), new Out().write(bytes));
+      } else {
+        Out data = new Out();
+        for (int i = 0; i < att.getLength(); i++) {
+          String s = att.getStringValue(i);
+          writeHeapId(data, (s == null ? "" : s).getBytes(StandardCharsets.UTF_8));
+        }
+        h.attribute(name, vlenStringType(), simpleSpace(new int[] {att.getLength()}, null), data);
+      }
+    } else {
+      DataType dataType = att.getDataType();
+      Array values = att.getValues();
+      if (values == null || values.getSize() == 0) {
+        h.attribute(name, datatype(dataType), nullSpace(), new Out());
+      } else {
+        ByteBuffer bb = toBytes(dataType, values);
+        h.attribute(name, datatype(dataType), simpleSpace(new int[] {(int) values.getSize()}, null),
+            new Out().write(bb.array()));
+      }
+    }
+  }
+
+  private static Out link(String name, long address) {
+    byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+    Out body = new Out();
+    body.writeByte(1); // version
+    int sizeCode = bytes.length <= 0xff ? 0 : (bytes.length <= 0xffff ? 1 : 2);
+    body.writeByte(0x10 | sizeCode); // character set is present
+    body.writeByte(1); // UTF-8
+    if (sizeCode == 0)
+      body.writeByte(bytes.length);
+    else if (sizeCode == 1)
+      body.writeShort(bytes.length);
+    else
+      body.writeInt(bytes.length);
+    return body.write(bytes).writeLong(address);
+  }
+
+  private static Out simpleSpace(int[] shape, long[] maxShape) {
+    Out body = new Out();
+    body.writeByte(2).writeByte(shape.length).writeByte(maxShape != null ? 1 : 0).writeByte(1);
+    for (int len : shape)
+      body.writeLong(len);
+    if (maxShape != null) {
+      for (long len : maxShape)
+        body.writeLong(len);
+    }
+    return body;
+  }
+
+  private static Out scalarSpace() {
+    return new Out().writeByte(2).writeByte(0).writeByte(0).writeByte(0);
+  }
+
+  private static Out nullSpace() {
+    return new Out().writeByte(2).writeByte(0).writeByte(0).writeByte(2);
+  }
+
+  // true if values of this type can be written
+  static boolean canWrite(DataType dataType) {
+    switch (dataType) {
+      case BYTE:
+      case UBYTE:
+      case SHORT:
+      case USHORT:
+      case INT:
+      case UINT:
+      case LONG:
+      case ULONG:
+      case FLOAT:
+      case DOUBLE:
+      case CHAR:
+      case STRING:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  // true if the attribute can be written, by its type and by the size of its header message
+  static boolean canWrite(Attribute att, boolean classic) {
+    long size;
+    if (att.isString()) {
+      size = 0;
+      for (int i = 0; i < att.getLength(); i++) {
+        String value = att.getStringValue(i);
+        // as text, or as global heap ids
+        size += classic ? (value == null ? 0 : value.getBytes(StandardCharsets.UTF_8).length) : 16;
+      }
+    } else {
+      if (!canWrite(att.getDataType()))
+        return false;
+      size = (long) att.getLength() * att.getDataType().getSize();
+    }
+    // leave room for the name, datatype and dataspace
+    return size + att.getShortName().getBytes(StandardCharsets.UTF_8).length + 256 <= MAX_MESSAGE_SIZE;
+  }
+
+  private static Out datatype(DataType dataType) {
+    switch (dataType) {
+      case BYTE:
+      case UBYTE:
+      case SHORT:
+      case USHORT:
+      case INT:
+      case UINT:
+      case LONG:
+      case ULONG:
+        return fixedPointType(dataType);
+      case FLOAT:
+      case DOUBLE:
+        return floatType(dataType);
+      case CHAR:
+        return fixedStringType(1);
+      case STRING:
+        return vlenStringType();
+      default:
+        throw new IllegalArgumentException("HDF5 writer does not support data type " + dataType);
+    }
+  }
+
+  private static Out fixedPointType(DataType dataType) {
+    int size = dataType.getSize();
+    Out body = new Out();
+    body.writeByte(0x10).writeByte(dataType.isUnsigned() ? 0 : 0x08).writeByte(0).writeByte(0).writeInt(size);
+    return body.writeShort(0).writeShort(8 * size); // bit offset, precision
+  }
+
+  private static Out floatType(DataType dataType) {
+    Out body = new Out();
+    if (dataType == DataType.FLOAT) {
+      body.writeByte(0x11).writeByte(0x20).writeByte(31).writeByte(0).writeInt(4);
+      body.writeShort(0).writeShort(32).writeByte(23).writeByte(8).writeByte(0).writeByte(23).writeInt(127);
+    } else {
+      body.writeByte(0x11).writeByte(0x20).writeByte(63).writeByte(0).writeInt(8);
+      body.writeShort(0).writeShort(64).writeByte(52).writeByte(11).writeByte(0).writeByte(52).writeInt(1023);
+    }
+    return body;
+  }
+
+  // null terminated, UTF-8
+  private static Out fixedStringType(int size) {
+    return new Out().writeByte(0x13).writeByte(0x10).writeByte(0).writeByte(0).writeInt(size);
+  }
+
+  // null terminated, ASCII, as written by the HDF5 dimension scale API
+  private static Out fixedString(String value) {
+    return new Out().writeByte(0x13).writeByte(0).writeByte(0).writeByte(0).writeInt(nullTerminated(value).length);
+  }
+
+  private static byte[] nullTerminated(String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    return Arrays.copyOf(bytes, bytes.length + 1);
+  }
+
+  private static Out vlenStringType() {
+    Out body = new Out();
+    body.writeByte(0x19).writeByte(0x01).writeByte(0x01).writeByte(0).writeInt(H5iospNew.VLEN_T_SIZE);
+    return body.write(fixedPointType(DataType.UBYTE));
+  }
+
+  // variable length sequence of object references
+  private static Out referenceVlenType() {
+    Out body = new Out();
+    body.writeByte(0x19).writeByte(0).writeByte(0).writeByte(0).writeInt(H5iospNew.VLEN_T_SIZE);
+    return body.writeByte(0x17).writeByte(0).writeByte(0).writeByte(0).writeInt(8);
+  }
+
+  private static Out fillValue(boolean chunked, byte[] value) {
+    Out body = new Out();
+    body.writeByte(2); // version
+    body.writeByte(chunked ? 3 : 1); // space allocation time: incremental or early
+    body.writeByte(2); // fill value write time: if set
+    body.writeByte(value != null ? 1 : 0);
+    if (value != null)
+      body.writeInt(value.length).write(value);
+    return body;
+  }
+
+  private static Out contiguousLayout(long address, long size) {
+    return new Out().writeByte(3).writeByte(1).writeLong(address).writeLong(size);
+  }
+
+  private static Out chunkedLayout(long btreeAddress, int[] chunkShape, int elemSize) {
+    Out body = new Out();
+    body.writeByte(3).writeByte(2).writeByte(chunkShape.length + 1).writeLong(btreeAddress);
+    for (int len : chunkShape)
+      body.writeInt(len);
+    return body.writeInt(elemSize);
+  }
+
+  private static Out filterPipeline(Storage st) {
+    boolean shuffle = st.shuffle && st.elemSize > 1;
+    Out body = new Out();
+    body.writeByte(2).writeByte(shuffle ? 2 : 1);
+    if (shuffle)
+      body.writeShort(FILTER_SHUFFLE).writeShort(1).writeShort(1).writeInt(st.elemSize);
+    body.writeShort(FILTER_DEFLATE).writeShort(1).writeShort(1).writeInt(st.deflateLevel);
+    return body;
+  }
+
+  /** The messages of an object header. */
+  private static class ObjectHeader {
+    final Out messages = new Out();
+    int nattributes;
+
+    void message(int type, Out body) {
+      if (body.size() > MAX_MESSAGE_SIZE)
+        throw new IllegalArgumentException("HDF5 header message is larger than 64 KB");
+      messages.writeByte(type).writeShort(body.size()).writeByte(0).write(body);
+    }
+
+    void attribute(String name, Out datatype, Out dataspace, Out data) {
+      byte[] nameBytes = nullTerminated(name);
+      Out body = new Out();
+      body.writeByte(3).writeByte(0).writeShort(nameBytes.length).writeShort(datatype.size())
+          .writeShort(dataspace.size()).writeByte(1); // UTF-8
+      body.write(nameBytes).write(datatype).write(dataspace).write(data);
+      if (body.size() > MAX_MESSAGE_SIZE)
+        throw new IllegalArgumentException("Attribute " + name + " is larger than 64 KB");
+      message(ATTRIBUTE, body);
+      nattributes++;
+    }
+
+    void write(Out out) {
+      int start = out.size();
+      int size = messages.size();
+      int sizeCode = size <= 0xff ? 0 : (size <= 0xffff ? 1 : 2);
+      boolean phaseChange = nattributes > 8; // more attributes than the default maximum for compact storage
+      out.write("OHDR".getBytes(StandardCharsets.US_ASCII));
+      out.writeByte(2).writeByte(sizeCode | (phaseChange ? 0x10 : 0));
+      if (phaseChange)
+        out.writeShort(Math.min(nattributes, MAX_MESSAGE_SIZE)).writeShort(6);
+      if (sizeCode == 0)
+        out.writeByte(size);
+      else if (sizeCode == 1)
+        out.writeShort(size);
+      else
+        out.writeInt(size);
+      out.write(messages);
+      out.writeInt(out.checksum(start));
+    }
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////////////////////
+  // chunk Btrees
+
+  // returns the address of the root node, or UNDEFINED if no chunks have been stored
+  private long writeBtree(Out out, long base, Variable v) {
+    Storage st = storage.get(v.getFullName());
+    int rank = v.getRank();
+    int[] chunkShape;
+    List<Chunk> chunks = new ArrayList<>();
+    if (v.getDataType() == DataType.STRING) {
+      if (v.getSize() == 0)
+        return UNDEFINED;
+      chunkShape = v.getShape();
+      chunks.add(new Chunk(new int[rank], address("s:" + v.getFullName()),
+          (int) v.getSize() * H5iospNew.VLEN_T_SIZE));
+    } else {
+      chunkShape = st.chunkShape;
+      chunks.addAll(st.chunks.values());
+    }
+    if (chunks.isEmpty())
+      return UNDEFINED;
+    chunks.sort((c1, c2) -> {
+      for (int i = 0; i < rank; i++) {
+        if (c1.offset[i] != c2.offset[i])
+          return Integer.compare(c1.offset[i], c2.offset[i]);
+      }
+      return 0;
+    });
+
+    // the entries of the leaves are the chunks
+    List<BtreeEntry> entries = new ArrayList<>();
+    for (Chunk chunk : chunks) {
+      long[] key = new long[rank + 1];
+      long[] rightKey = new long[rank + 1];
+      for (int i = 0; i < rank; i++) {
+        key[i] = chunk.offset[i];
+        rightKey[i] = chunk.offset[i] + chunkShape[i];
+      }
+      entries.add(new BtreeEntry(key, rightKey, chunk.size, chunk.address));
+    }
+
+    // the entries of a level are the nodes of the level below
+    int keySize = 8 + 8 * (rank + 1);
+    int nodeSize = 24 + 2 * BTREE_K * (keySize + 8) + keySize;
+    int level = 0;
+    while (true) {
+      int nnodes = (entries.size() + 2 * BTREE_K - 1) / (2 * BTREE_K);
+      long levelStart = base + out.size();
+      List<BtreeEntry> parents = new ArrayList<>();
+      int first = 0;
+      for (int n = 0; n < nnodes; n++) {
+        int count = (entries.size() - first) / (nnodes - n); // spread evenly
+        List<BtreeEntry> nodeEntries = entries.subList(first, first + count);
+        long address = levelStart + (long) n * nodeSize;
+        long left = n > 0 ? address - nodeSize : UNDEFINED;
+        long right = n < nnodes - 1 ? address + nodeSize : UNDEFINED;
+        writeBtreeNode(out, level, left, right, nodeEntries, nodeSize);
+        BtreeEntry firstEntry = nodeEntries.get(0);
+        parents.add(new BtreeEntry(firstEntry.key, nodeEntries.get(count - 1).rightKey, firstEntry.size, address));
+        first += count;
+      }
+      if (nnodes == 1)
+        return parents.get(0).address;
+      entries = parents;
+      level++;
+    }
+  }
+
+  private static void writeBtreeNode(Out out, int level, long left, long right, List<BtreeEntry> entries,
+      int nodeSize) {
+    int start = out.size();
+    out.write("TREE".getBytes(StandardCharsets.US_ASCII));
+    out.writeByte(1); // raw data chunks
+    out.writeByte(level).writeShort(entries.size()).writeLong(left).writeLong(right);
+    for (BtreeEntry entry : entries) {
+      writeBtreeKey(out, entry.size, entry.key);
+      out.writeLong(entry.address);
+    }
+    BtreeEntry last = entries.get(entries.size() - 1);
+    writeBtreeKey(out, last.size, last.rightKey);
+    out.writeZeros(nodeSize - (out.size() - start)); // nodes are always allocated full size
+  }
+
+  private static void writeBtreeKey(Out out, int size, long[] key) {
+    out.writeInt(size).writeInt(0); // no filters skipped
+    for (long k : key)
+      out.writeLong(k);
+  }
+
+  private static class BtreeEntry {
+    final long[] key; // offset of the first chunk, with a trailing 0
+    final long[] rightKey; // just past the last chunk
+    final int size;
+    final long address;
+
+    BtreeEntry(long[] key, long[] rightKey, int size, long address) {
+      this.key = key;
+      this.rightKey = rightKey;
+      this.size = size;
+      this.address = address;
+    }
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////////////////////
+  // global heaps
+
+  private static class HeapObject {
+    final byte[] data;
+    final int collection;
+    final int index; // starts at 1
+
+    HeapObject(byte[] data, int collection, int index) {
+      this.data = data;
+      this.collection = collection;
+      this.index = index;
+    }
+  }
+
+  private void writeHeapId(Out out, byte[] data) {
+    writeHeapId(out, data, data.length);
+  }
+
+  private void writeHeapId(Out out, byte[] data, int nelems) {
+    int need = 16 + pad8(data.length);
+    if (heapCollectionCount > 0
+        && (heapCollectionCount >= HEAP_MAX_OBJECTS || heapCollectionBytes + need > HEAP_MAX_BYTES)) {
+      heapCollection++;
+      heapCollectionBytes = 0;
+      heapCollectionCount = 0;
+    }
+    heapCollectionBytes += need;
+    heapCollectionCount++;
+    HeapObject ho = new HeapObject(data, heapCollection, heapCollectionCount);
+    heapObjects.add(ho);
+    out.writeInt(nelems).writeLong(address("h:" + ho.collection)).writeInt(ho.index);
+  }
+
+  private void writeHeaps(Out out, long base) {
+    int first = 0;
+    while (first < heapObjects.size()) {
+      int collection = heapObjects.get(first).collection;
+      int last = first;
+      int objectBytes = 0;
+      while (last < heapObjects.size() && heapObjects.get(last).collection == collection) {
+        objectBytes += 16 + pad8(heapObjects.get(last).data.length);
+        last++;
+      }
+      int size = Math.max(HEAP_MIN_SIZE, 16 + objectBytes + 16); // leave room for the free space object
+
+      found.put("h:" + collection, base + out.size());
+      out.write("GCOL".getBytes(StandardCharsets.US_ASCII));
+      out.writeByte(1).writeZeros(3).writeLong(size);
+      for (int i = first; i < last; i++) {
+        HeapObject ho = heapObjects.get(i);
+        out.writeShort(ho.index).writeShort(0).writeInt(0).writeLong(ho.data.length);
+        out.write(ho.data).writeZeros(pad8(ho.data.length) - ho.data.length);
+      }
+      int free = size - 16 - objectBytes;
+      out.writeShort(0).writeShort(0).writeInt(0).writeLong(free).writeZeros(free - 16);
+      first = last;
+    }
+  }
+
+  private static int pad8(int n) {
+    return (n + 7) & ~7;
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /** Values in C order, little endian, as stored. */
+  static ByteBuffer toBytes(DataType dataType, Array values) {
+    ByteBuffer bb = ByteBuffer.allocate((int) values.getSize() * dataType.getSize()).order(ByteOrder.LITTLE_ENDIAN);
+    switch (dataType) {
+      case BYTE:
+      case UBYTE:
+        bb.put((byte[]) values.get1DJavaArray(dataType));
+        break;
+      case CHAR:
+        for (char c : (char[]) values.get1DJavaArray(dataType))
+          bb.put((byte) c);
+        break;
+      case SHORT:
+      case USHORT:
+        bb.asShortBuffer().put((short[]) values.get1DJavaArray(dataType));
+        break;
+      case INT:
+      case UINT:
+        bb.asIntBuffer().put((int[]) values.get1DJavaArray(dataType));
+        break;
+      case LONG:
+      case ULONG:
+        bb.asLongBuffer().put((long[]) values.get1DJavaArray(dataType));
+        break;
+      case FLOAT:
+        bb.asFloatBuffer().put((float[]) values.get1DJavaArray(dataType));
+        break;
+      case DOUBLE:
+        bb.asDoubleBuffer().put((double[]) values.get1DJavaArray(dataType));
+        break;
+      default:
+        throw new IllegalArgumentException("HDF5 writer does not support data type " + dataType);
+    }
+    bb.rewind();
+    return bb;
+  }
+
+  /**
+   * Jenkins lookup3 hash ("hashlittle") with an initial value of 0, the checksum of HDF5 metadata.
+   *
+   * @param data hash these bytes
+   * @param offset starting here
+   * @param length this many
+   * @return the hash
+   */
+  static int checksum(byte[] data, int offset, int length) {
+    int a = 0xdeadbeef + length;
+    int b = a;
+    int c = a;
+    int i = offset;
+    while (length > 12) {
+      a += getInt(data, i);
+      b += getInt(data, i + 4);
+      c += getInt(data, i + 8);
+      // mix
+      a -= c;
+      a ^= Integer.rotateLeft(c, 4);
+      c += b;
+      b -= a;
+      b ^= Integer.rotateLeft(a, 6);
+      a += c;
+      c -= b;
+      c ^= Integer.rotateLeft(b, 8);
+      b += a;
+      a -= c;
+      a ^= Integer.rotateLeft(c, 16);
+      c += b;
+      b -= a;
+      b ^= Integer.rotateLeft(a, 19);
+      a += c;
+      c -= b;
+      c ^= Integer.rotateLeft(b, 4);
+      b += a;
+      length -= 12;
+      i += 12;
+    }
+
+    // the last block, of 0 to 12 bytes
+    switch (length) {
+      case 12:
+        c += (data[i + 11] & 0xff) << 24;
+      case 11:
+        c += (data[i + 10] & 0xff) << 16;
+      case 10:
+        c += (data[i + 9] & 0xff) << 8;
+      case 9:
+        c += data[i + 8] & 0xff;
+      case 8:
+        b += (data[i + 7] & 0xff) << 24;
+      case 7:
+        b += (data[i + 6] & 0xff) << 16;
+      case 6:
+        b += (data[i + 5] & 0xff) << 8;
+      case 5:
+        b += data[i + 4] & 0xff;
+      case 4:
+        a += (data[i + 3] & 0xff) << 24;
+      case 3:
+        a += (data[i + 2] & 0xff) << 16;
+      case 2:
+        a += (data[i + 1] & 0xff) << 8;
+      case 1:
+        a += data[i] & 0xff;
+        break;
+      default:
+        return c; // nothing left
+    }
+
+    // final
+    c ^= b;
+    c -= Integer.rotateLeft(b, 14);
+    a ^= c;
+    a -= Integer.rotateLeft(c, 11);
+    b ^= a;
+    b -= Integer.rotateLeft(a, 25);
+    c ^= b;
+    c -= Integer.rotateLeft(b, 16);
+    a ^= c;
+    a -= Integer.rotateLeft(c, 4);
+    b ^= a;
+    b -= Integer.rotateLeft(a, 14);
+    c ^= b;
+    c -= Integer.rotateLeft(b, 24);
+    return c;
+  }
+
+  private static int getInt(byte[] data, int i) {
+    return (data[i] & 0xff) | (data[i + 1] & 0xff) << 8 | (data[i + 2] & 0xff) << 16 | (data[i + 3] & 0xff) << 24;
+  }
+
+  /** Growable little endian buffer. */
+  static class Out {
+    private byte[] buf = new byte[64];
+    private int size;
+
+    int size() {
+      return size;
+    }
+
+    private void ensure(int n) {
+      if (size + n > buf.length)
+        buf = Arrays.copyOf(buf, Math.max(2 * buf.length, size + n));
+    }
+
+    Out writeByte(int v) {
+      ensure(1);
+      buf[size++] = (byte) v;
+      return this;
+    }
+
+    Out writeShort(int v) {
+      return writeByte(v).writeByte(v >> 8);
+    }
+
+    Out writeInt(int v) {
+      return writeShort(v).writeShort(v >>> 16);
+    }
+
+    Out writeLong(long v) {
+      return writeInt((int) v).writeInt((int) (v >>> 32));
+    }
+
+    Out write(byte[] b) {
+      ensure(b.length);
+      System.arraycopy(b, 0, buf, size, b.length);
+      size += b.length;
+      return this;
+    }
+
+    Out write(Out other) {
+      ensure(other.size);
+      System.arraycopy(other.buf, 0, buf, size, other.size);
+      size += other.size;
+      return this;
+    }
+
+    Out writeZeros(int n) {
+      ensure(n);
+      size += n; // never written, so still zero
+      return this;
+    }
+
+    // checksum of the bytes from start to the end
+    int checksum(int start) {
+      return H5headerWriter.checksum(buf, start, size - start);
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(buf, size);
+    }
+  }
+}
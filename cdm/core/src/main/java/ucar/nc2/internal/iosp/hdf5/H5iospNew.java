@@ -116,6 +116,7 @@ public class H5iospNew extends AbstractIOServiceProvider {
   private boolean isEos;
   boolean includeOriginalAttributes;
   private Charset valueCharset;
+  private int decodeParallelism; // 0 means the default
 
   @Override
   public void build(RandomAccessFile raf, Group.Builder rootGroup, CancelTask cancelTask) throws IOException {
@@ -197,6 +198,23 @@ public class H5iospNew extends AbstractIOServiceProvider {
     return header;
   }
 
+  /**
+   * Set the number of filtered chunks decoded at the same time by each read of a variable of this file. With more
+   * than one, chunks are decoded on a shared pool of threads. Default is
+   * {@link H5tiledLayoutBB#getDefaultParallelism()}.
+   *
+   * @param parallelism number of chunks, must be > 0; 1 decodes on the calling thread.
+   */
+  public void setDecodeParallelism(int parallelism) {
+    if (parallelism <= 0)
+      throw new IllegalArgumentException("parallelism must be > 0");
+    this.decodeParallelism = parallelism;
+  }
+
+  public int getDecodeParallelism() {
+    return decodeParallelism > 0 ? decodeParallelism : H5tiledLayoutBB.getDefaultParallelism();
+  }
+
   public Array readData(Variable v2, Section section) throws IOException, InvalidRangeException {
     H5headerNew.Vinfo vinfo = (H5headerNew.Vinfo) v2.getSPobject();
     if (debugRead)
@@ -223,7 +241,7 @@ public class H5iospNew extends AbstractIOServiceProvider {
         System.out.println("read variable filtered " + v2.getFullName() + " vinfo = " + vinfo);
       assert vinfo.isChunked;
       ByteOrder bo = (vinfo.typeInfo.endian == 0) ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
-      layout = new H5tiledLayoutBB(v2, wantSection, raf, vinfo.mfp.getFilters(), bo);
+      layout = new H5tiledLayoutBB(v2, wantSection, raf, vinfo.mfp.getFilters(), bo, getDecodeParallelism());
       if (vinfo.typeInfo.isVString) {
         data = readFilteredStringData((LayoutBB) layout);
       } else {
@@ -0,0 +1,735 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.internal.iosp.hdf5;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
+import ucar.ma2.Section;
+import ucar.ma2.StructureData;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.Group;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Structure;
+import ucar.nc2.Variable;
+import ucar.nc2.constants.CDM;
+import ucar.nc2.filter.Filter;
+import ucar.nc2.filter.Filters;
+import ucar.nc2.filter.UnknownFilterException;
+import ucar.nc2.iosp.IOServiceProviderWriter;
+import ucar.nc2.iosp.Layout;
+import ucar.nc2.iosp.LayoutRegular;
+import ucar.nc2.iosp.netcdf3.N3iosp;
+import ucar.nc2.util.CancelTask;
+import ucar.nc2.util.Concurrency;
+import ucar.nc2.write.Nc4Chunking;
+import ucar.nc2.write.Nc4ChunkingDefault;
+import ucar.nc2.write.NetcdfFileFormat;
+import ucar.unidata.io.RandomAccessFile;
+
+/**
+ * IOServiceProviderWriter for netCDF-4 files, in pure Java.
+ * <p>
+ * Chunk shapes, the deflate level and shuffling come from an {@link Nc4Chunking}, and chunks are encoded with the
+ * {@link ucar.nc2.filter} codecs. Data is gathered into chunks in memory; as soon as all the values of a chunk have
+ * been written, it is encoded on a shared pool, with up to parallelism chunks in flight, and appended to the file.
+ * Chunks only partly written are stored on {@link #flush()}, with the fill value for the rest. Writing again to a
+ * stored chunk reads it back first, and appends it again.
+ * <p>
+ * The metadata, see {@link H5headerWriter}, is written after the data on {@link #flush()}, and overwritten by the
+ * data appended after that. The values of String variables are kept in memory, and written with the metadata.
+ * <p>
+ * Each writer only locks itself, so that different files can be written concurrently. Structures, enums, opaque
+ * and variable length data are not supported, see {@link #canWrite}, and only new files can be written.
+ * Data is read back by flushing, and reading the file with {@link NetcdfFiles}.
+ */
+public class H5iospWriter extends H5iospNew implements IOServiceProviderWriter {
+  // System property name for -D flag; number of chunks encoded concurrently by one writer
+  static final String PARALLELISM = "unidata.h5iosp.write.parallelism";
+
+  private static volatile int defaultParallelism =
+      Concurrency.getIntProperty(PARALLELISM, Runtime.getRuntime().availableProcessors(), 1);
+
+  /**
+   * Set the number of chunks encoded concurrently, for writers that don't specify it.
+   * Default is the number of available processors.
+   *
+   * @param parallelism number of chunks in flight, must be > 0
+   */
+  public static void setDefaultParallelism(int parallelism) {
+    if (parallelism <= 0)
+      throw new IllegalArgumentException("parallelism must be > 0");
+    defaultParallelism = parallelism;
+  }
+
+  public static int getDefaultParallelism() {
+    return defaultParallelism;
+  }
+
+  private static ExecutorService getEncodePool() {
+    return Concurrency.getSharedPool("H5iospWriter-encode", Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Whether this writer supports everything in the file. Structures, enums, opaque and variable length data, and
+   * attributes too large for an HDF5 object header, are not supported.
+   *
+   * @param ncfile the file to be written
+   * @param format NETCDF4 or NETCDF4_CLASSIC
+   * @return true if the file can be written by H5iospWriter
+   */
+  public static boolean canWrite(NetcdfFile ncfile, NetcdfFileFormat format) {
+    return canWrite(ncfile.getRootGroup(), format == NetcdfFileFormat.NETCDF4_CLASSIC);
+  }
+
+  private static boolean canWrite(Group group, boolean classic) {
+    if (!group.getEnumTypedefs().isEmpty())
+      return false;
+    for (Attribute att : group.attributes()) {
+      if (!H5headerWriter.canWrite(att, classic))
+        return false;
+    }
+    for (Variable v : group.getVariables()) {
+      if (v instanceof Structure || v.isVariableLength() || !H5headerWriter.canWrite(v.getDataType()))
+        return false;
+      for (Attribute att : v.attributes()) {
+        if (!H5headerWriter.canWrite(att, classic))
+          return false;
+      }
+    }
+    for (Group nested : group.getGroups()) {
+      if (!canWrite(nested, classic))
+        return false;
+    }
+    return true;
+  }
+
+  private final NetcdfFileFormat format;
+  private Nc4Chunking chunker = new Nc4ChunkingDefault();
+  private int parallelism; // 0 means the default
+  private boolean fill = true;
+  private final Map<String, VarWriter> varWriters = new LinkedHashMap<>(); // by full name
+  private final Map<String, H5headerWriter.Storage> storage = new HashMap<>(); // by full name
+  private H5headerWriter headerWriter;
+  private final CompletionService<EncodedChunk> completionService = new ExecutorCompletionService<>(getEncodePool());
+  private int inFlight; // number of chunks submitted but not yet appended
+  private long eof; // end of the data, the metadata goes here
+  private boolean metadataChanged;
+  private NetcdfFile readBack; // opened to read data, closed when the file changes
+
+  /**
+   * Constructor.
+   *
+   * @param format NETCDF4 or NETCDF4_CLASSIC
+   */
+  public H5iospWriter(NetcdfFileFormat format) {
+    if (!format.isNetcdf4Format())
+      throw new IllegalArgumentException("H5iospWriter writes netCDF-4 files, not " + format);
+    this.format = format;
+  }
+
+  /** Set the strategy for chunk shapes and compression. Null means use the default, {@link Nc4ChunkingDefault}. */
+  public void setChunker(Nc4Chunking chunker) {
+    this.chunker = chunker != null ? chunker : new Nc4ChunkingDefault();
+  }
+
+  /**
+   * Set the number of chunks encoded concurrently by this writer.
+   *
+   * @param parallelism number of chunks in flight, must be > 0
+   */
+  public void setParallelism(int parallelism) {
+    if (parallelism <= 0)
+      throw new IllegalArgumentException("parallelism must be > 0");
+    this.parallelism = parallelism;
+  }
+
+  /** Number of chunks encoded concurrently by this writer. */
+  public int getParallelism() {
+    return parallelism > 0 ? parallelism : defaultParallelism;
+  }
+
+  @Override
+  public synchronized void create(String filename, NetcdfFile ncfile, int extra, long preallocateSize,
+      boolean largeFile) throws IOException {
+    this.ncfile = ncfile;
+    this.location = filename;
+    for (Variable v : ncfile.getVariables()) {
+      VarWriter vw = new VarWriter(v);
+      varWriters.put(v.getFullName(), vw);
+      storage.put(v.getFullName(), vw.st);
+    }
+    this.headerWriter = new H5headerWriter(ncfile, format == NetcdfFileFormat.NETCDF4_CLASSIC, storage);
+    headerWriter.encode(H5headerWriter.SUPERBLOCK_SIZE); // fail now if the metadata can't be written
+
+    raf = new RandomAccessFile(filename, "rw");
+    raf.order(RandomAccessFile.LITTLE_ENDIAN);
+    raf.getRandomAccessFile().setLength(0);
+    raf.write(new byte[H5headerWriter.SUPERBLOCK_SIZE]); // written on flush
+    eof = H5headerWriter.SUPERBLOCK_SIZE;
+    metadataChanged = true;
+  }
+
+  @Override
+  public void openForWriting(RandomAccessFile raf, NetcdfFile ncfile, CancelTask cancelTask) {
+    throw new UnsupportedOperationException("H5iospWriter can only write new files");
+  }
+
+  @Override
+  public void setFill(boolean fill) {
+    this.fill = fill;
+  }
+
+  /** Read the data written so far, by flushing and then reading the file. */
+  @Override
+  public synchronized Array readData(Variable v2, Section section) throws IOException, InvalidRangeException {
+    if (readBack == null) {
+      flush();
+      readBack = NetcdfFiles.open(location);
+    }
+    Variable v = readBack.findVariable(v2.getFullNameEscaped());
+    if (v == null)
+      throw new IllegalArgumentException("Variable " + v2.getFullName() + " is not in this file");
+    return v.read(section);
+  }
+
+  private void closeReadBack() throws IOException {
+    if (readBack != null) {
+      readBack.close();
+      readBack = null;
+    }
+  }
+
+  @Override
+  public synchronized void writeData(Variable v2, Section section, Array values)
+      throws IOException, InvalidRangeException {
+    VarWriter vw = varWriters.get(v2.getFullName());
+    if (vw == null)
+      throw new IllegalArgumentException("Variable " + v2.getFullName() + " is not in this file");
+    closeReadBack();
+    vw.write(section, values);
+    metadataChanged = true;
+  }
+
+  @Override
+  public int appendStructureData(Structure s, StructureData sdata) {
+    throw new UnsupportedOperationException("H5iospWriter does not support Structures");
+  }
+
+  @Override
+  public boolean rewriteHeader(boolean largeFile) {
+    return false; // the metadata is rewritten as needed
+  }
+
+  @Override
+  public synchronized void updateAttribute(Variable v2, Attribute att) throws IOException {
+    closeReadBack();
+    if (v2 == null) {
+      ncfile.getRootGroup().addAttribute(att);
+    } else {
+      VarWriter vw = varWriters.get(v2.getFullName());
+      if (vw == null)
+        throw new IllegalArgumentException("Variable " + v2.getFullName() + " is not in this file");
+      vw.v.addAttribute(att);
+    }
+    metadataChanged = true;
+  }
+
+  /** Store all the chunks written so far, including those only partly written, then write the metadata. */
+  @Override
+  public synchronized void flush() throws IOException {
+    if (raf == null)
+      return;
+    for (VarWriter vw : varWriters.values())
+      vw.flush();
+    drain();
+    if (metadataChanged) {
+      byte[] metadata = headerWriter.encode(eof);
+      raf.seek(eof);
+      raf.write(metadata);
+      long end = eof + metadata.length;
+      raf.seek(0);
+      raf.write(headerWriter.encodeSuperblock(end));
+      raf.flush();
+      if (raf.length() > end) // metadata written before was longer
+        raf.getRandomAccessFile().setLength(end);
+      metadataChanged = false;
+    }
+    raf.flush();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      closeReadBack();
+      flush();
+    } finally {
+      if (raf != null) {
+        raf.close();
+        raf = null;
+      }
+    }
+  }
+
+  // the length of an unlimited dimension has changed
+  private void resetShapes() {
+    for (Variable v : ncfile.getVariables()) {
+      if (v.isUnlimited()) {
+        v.resetShape();
+        v.setCachedData(null, false);
+        varWriters.get(v.getFullName()).reshape();
+      }
+    }
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////////////////////
+  // chunks in flight
+
+  private void submit(VarWriter vw, String key, int[] offset, byte[] data) throws IOException {
+    while (inFlight >= getParallelism())
+      waitForOne();
+    completionService.submit(() -> new EncodedChunk(vw, key, offset, vw.encode(data)));
+    inFlight++;
+  }
+
+  private void drain() throws IOException {
+    while (inFlight > 0)
+      waitForOne();
+  }
+
+  private void waitForOne() throws IOException {
+    EncodedChunk chunk;
+    try {
+      chunk = Concurrency.takeResult(completionService);
+    } finally {
+      inFlight--;
+    }
+    append(chunk);
+  }
+
+  // chunks are only appended on the calling thread
+  private void append(EncodedChunk chunk) throws IOException {
+    raf.seek(eof);
+    raf.write(chunk.data);
+    chunk.writer.st.chunks.put(chunk.key, new H5headerWriter.Chunk(chunk.offset, eof, chunk.data.length));
+    eof += chunk.data.length;
+  }
+
+  /** Gathers the data written to one variable into chunks, and stores them. */
+  private class VarWriter {
+    final Variable v;
+    final H5headerWriter.Storage st;
+    final DataType dataType;
+    final int elemSize;
+    final List<Filter> filters = new ArrayList<>(); // in the order they are applied when writing
+    final Map<String, PendingChunk> pending = new HashMap<>(); // by chunk key
+    final Set<String> stored = new HashSet<>(); // chunk keys
+    int[] stringShape; // shape of st.strings
+
+    VarWriter(Variable v) throws IOException {
+      if (v instanceof Structure)
+        throw new IllegalArgumentException("H5iospWriter does not support Structures: " + v.getFullName());
+      if (v.getDataType().isEnum() || v.getDataType() == DataType.OPAQUE || v.isVariableLength())
+        throw new IllegalArgumentException(
+            "H5iospWriter does not support " + v.getDataType() + " variables: " + v.getFullName());
+      this.v = v;
+      this.st = new H5headerWriter.Storage(v);
+      this.dataType = v.getDataType();
+      int rank = v.getRank();
+
+      if (dataType == DataType.STRING) {
+        this.elemSize = H5iospNew.VLEN_T_SIZE;
+        this.stringShape = v.getShape();
+        st.strings = new String[(int) v.getSize()];
+        st.elemSize = elemSize;
+        return;
+      }
+      this.elemSize = dataType.getSize();
+      st.elemSize = elemSize;
+      st.fillValue = fillValue();
+
+      // chunk shape, chunks must not be larger than fixed dimensions
+      st.chunked = rank > 0 && (chunker.isChunked(v) || v.isUnlimited());
+      if (!st.chunked)
+        return;
+      int[] shape = v.getShape();
+      long[] computed = chunker.computeChunking(v);
+      st.chunkShape = new int[rank];
+      long chunkBytes = elemSize;
+      for (int i = 0; i < rank; i++) {
+        long size = computed != null && i < computed.length ? computed[i] : shape[i];
+        if (!v.getDimension(i).isUnlimited())
+          size = Math.min(size, shape[i]);
+        st.chunkShape[i] = (int) Math.max(1, Math.min(size, Integer.MAX_VALUE));
+        chunkBytes *= st.chunkShape[i];
+      }
+      if (chunkBytes > Integer.MAX_VALUE - 8)
+        throw new IllegalArgumentException("Chunks of " + v.getFullName() + " would be larger than 2 GB");
+
+      // filters
+      int level = chunker.getDeflateLevel(v);
+      if (level > 0) {
+        st.deflateLevel = level;
+        st.shuffle = chunker.isShuffle(v) && elemSize > 1;
+        try {
+          if (st.shuffle) {
+            Map<String, Object> shuffle = new HashMap<>();
+            shuffle.put(Filters.Keys.ID, (short) H5headerWriter.FILTER_SHUFFLE);
+            shuffle.put(Filters.Keys.ELEM_SIZE, elemSize);
+            filters.add(Filters.getFilter(shuffle));
+          }
+          Map<String, Object> deflate = new HashMap<>();
+          deflate.put(Filters.Keys.ID, (short) H5headerWriter.FILTER_DEFLATE);
+          deflate.put("level", level);
+          filters.add(Filters.getFilter(deflate));
+        } catch (UnknownFilterException e) {
+          throw new IOException(e);
+        }
+      }
+    }
+
+    // from the _FillValue attribute, or the netCDF default
+    private byte[] fillValue() {
+      Number value = N3iosp.getFillValueDefault(dataType);
+      Attribute att = v.findAttribute(CDM.FILL_VALUE);
+      if (att != null && att.getLength() == 1) {
+        if (att.getDataType() == dataType) {
+          value = att.getNumericValue();
+        } else if (dataType == DataType.CHAR && att.isString()) {
+          String s = att.getStringValue();
+          value = s == null || s.isEmpty() ? 0 : (byte) s.charAt(0);
+        }
+      }
+      ByteBuffer bb = ByteBuffer.allocate(elemSize).order(ByteOrder.LITTLE_ENDIAN);
+      switch (elemSize) {
+        case 1:
+          bb.put(value.byteValue());
+          break;
+        case 2:
+          bb.putShort(value.shortValue());
+          break;
+        case 4:
+          if (dataType == DataType.FLOAT)
+            bb.putFloat(value.floatValue());
+          else
+            bb.putInt(value.intValue());
+          break;
+        default:
+          if (dataType == DataType.DOUBLE)
+            bb.putDouble(value.doubleValue());
+          else
+            bb.putLong(value.longValue());
+      }
+      return bb.array();
+    }
+
+    void write(Section section, Array values) throws IOException, InvalidRangeException {
+      int rank = v.getRank();
+      if (section.getRank() != rank)
+        throw new InvalidRangeException("Section " + section + " does not match the rank of " + v.getFullName());
+      int[] origin = section.getOrigin();
+      int[] count = section.getShape();
+      if (section.computeSize() == 0)
+        return;
+
+      // extend the unlimited dimensions
+      int[] shape = v.getShape();
+      boolean extended = false;
+      for (int i = 0; i < rank; i++) {
+        Range r = section.getRange(i);
+        int end = r.last() + 1;
+        if (end > shape[i]) {
+          Dimension dim = v.getDimension(i);
+          if (!dim.isUnlimited())
+            throw new InvalidRangeException("Section " + section + " is outside of " + v.getFullName());
+          extendDimension(dim, end);
+          extended = true;
+        }
+      }
+      if (extended)
+        resetShapes();
+
+      if (dataType == DataType.STRING) {
+        writeStrings(section, values);
+      } else if (st.chunked) {
+        for (Range r : section.getRanges()) {
+          if (r.stride() != 1)
+            throw new InvalidRangeException("H5iospWriter does not support strided sections of chunked variables");
+        }
+        writeChunks(origin, count, H5headerWriter.toBytes(dataType, values));
+      } else {
+        writeContiguous(section, H5headerWriter.toBytes(dataType, values));
+      }
+    }
+
+    private void extendDimension(Dimension dim, int length) {
+      dim.setLength(length);
+      for (Group g = v.getParentGroup(); g != null; g = g.getParentGroup()) {
+        Dimension declared = g.findDimensionLocal(dim.getShortName());
+        if (declared != null) {
+          if (declared != dim)
+            declared.setLength(length);
+          return;
+        }
+      }
+    }
+
+    // the shape of the variable has changed
+    void reshape() {
+      if (dataType != DataType.STRING)
+        return;
+      int[] shape = v.getShape();
+      String[] values = new String[(int) v.getSize()];
+      if (st.strings.length > 0 && values.length > 0) {
+        Section old = new Section(stringShape);
+        Section.Iterator iter = old.getIterator(shape);
+        int[] index = new int[shape.length];
+        for (int i = 0; i < st.strings.length; i++)
+          values[iter.next(index)] = st.strings[i];
+      }
+      st.strings = values;
+      stringShape = shape;
+    }
+
+    private void writeStrings(Section section, Array values) {
+      Section.Iterator iter = section.getIterator(v.getShape());
+      int[] index = new int[v.getRank()];
+      for (int i = 0; iter.hasNext(); i++) {
+        Object value = values.getObject(i);
+        st.strings[iter.next(index)] = value == null ? null : value.toString();
+      }
+    }
+
+    private void writeContiguous(Section section, ByteBuffer src) throws IOException, InvalidRangeException {
+      if (st.address == H5headerWriter.UNDEFINED) { // allocate on first write
+        st.address = eof;
+        st.size = v.getSize() * elemSize;
+        eof += st.size;
+        if (fill && section.computeSize() < v.getSize())
+          writeFill(st.address, v.getSize());
+      }
+      Layout layout = new LayoutRegular(st.address, elemSize, v.getShape(), section);
+      while (layout.hasNext()) {
+        Layout.Chunk chunk = layout.next();
+        raf.seek(chunk.getSrcPos());
+        raf.write(src.array(), (int) chunk.getDestElem() * elemSize, chunk.getNelems() * elemSize);
+      }
+    }
+
+    private void writeFill(long pos, long nelems) throws IOException {
+      byte[] buffer = newFilled((int) Math.min(nelems, 8192));
+      raf.seek(pos);
+      for (long n = nelems; n > 0; n -= buffer.length / elemSize)
+        raf.write(buffer, 0, (int) Math.min(n * elemSize, buffer.length));
+    }
+
+    private void writeChunks(int[] origin, int[] count, ByteBuffer src) throws IOException {
+      int rank = origin.length;
+      int[] chunks = st.chunkShape;
+      int[] first = new int[rank];
+      int[] last = new int[rank];
+      for (int i = 0; i < rank; i++) {
+        first[i] = origin[i] / chunks[i];
+        last[i] = (origin[i] + count[i] - 1) / chunks[i];
+      }
+      int[] chunk = first.clone();
+      do {
+        writeChunk(chunk, origin, count, src);
+      } while (increment(chunk, first, last));
+    }
+
+    // copy the part of src that falls in the chunk, and store the chunk if all of it has been written
+    private void writeChunk(int[] chunk, int[] origin, int[] count, ByteBuffer src) throws IOException {
+      int rank = chunk.length;
+      int[] chunks = st.chunkShape;
+      String key = chunkKey(chunk);
+      PendingChunk pc = pending.get(key);
+      if (pc == null) {
+        pc = new PendingChunk(stored.contains(key) ? load(key) : newFilled(chunkElements()));
+        pending.put(key, pc);
+      }
+
+      // intersection of the section and the chunk
+      int[] lo = new int[rank];
+      int[] n = new int[rank];
+      long nelems = 1;
+      for (int i = 0; i < rank; i++) {
+        int chunkStart = chunk[i] * chunks[i];
+        lo[i] = Math.max(origin[i], chunkStart);
+        n[i] = Math.min(origin[i] + count[i], chunkStart + chunks[i]) - lo[i];
+        nelems *= n[i];
+      }
+
+      // copy a row at a time, the last dimension is contiguous in both
+      int rowBytes = n[rank - 1] * elemSize;
+      int[] row = new int[rank];
+      do {
+        long srcIndex = 0;
+        long dstIndex = 0;
+        for (int i = 0; i < rank; i++) {
+          srcIndex = srcIndex * count[i] + (lo[i] + row[i] - origin[i]);
+          dstIndex = dstIndex * chunks[i] + (lo[i] + row[i] - chunk[i] * chunks[i]);
+        }
+        src.position((int) (srcIndex * elemSize));
+        src.get(pc.data, (int) (dstIndex * elemSize), rowBytes);
+      } while (incrementRow(row, n));
+
+      pc.nwritten += nelems;
+      if (pc.nwritten >= elementsInShape(chunk)) {
+        pending.remove(key);
+        storeChunk(key, chunk, pc.data);
+      }
+    }
+
+    void flush() throws IOException {
+      for (Map.Entry<String, PendingChunk> entry : pending.entrySet())
+        storeChunk(entry.getKey(), parseChunkKey(entry.getKey()), entry.getValue().data);
+      pending.clear();
+    }
+
+    private void storeChunk(String key, int[] chunk, byte[] data) throws IOException {
+      stored.add(key);
+      int[] offset = new int[chunk.length];
+      for (int i = 0; i < chunk.length; i++)
+        offset[i] = chunk[i] * st.chunkShape[i];
+      if (filters.isEmpty())
+        append(new EncodedChunk(this, key, offset, data));
+      else
+        submit(this, key, offset, data);
+    }
+
+    byte[] encode(byte[] data) throws IOException {
+      for (Filter filter : filters)
+        data = filter.encode(data);
+      return data;
+    }
+
+    // read back a chunk that was already stored
+    private byte[] load(String key) throws IOException {
+      drain(); // it may still be in flight
+      H5headerWriter.Chunk chunk = st.chunks.get(key);
+      byte[] data = new byte[chunk.size];
+      raf.seek(chunk.address);
+      raf.readFully(data);
+      for (int i = filters.size() - 1; i >= 0; i--)
+        data = filters.get(i).decode(data);
+      if (data.length != chunkElements() * elemSize)
+        throw new IOException("Stored chunk " + key + " of " + v.getFullName() + " has the wrong size");
+      return data;
+    }
+
+    // elements filled with the fill value, or zeroes if not filling
+    private byte[] newFilled(int nelems) {
+      byte[] data = new byte[nelems * elemSize];
+      boolean zero = true;
+      for (byte b : st.fillValue)
+        zero &= b == 0;
+      if (fill && !zero && data.length > 0) {
+        System.arraycopy(st.fillValue, 0, data, 0, elemSize);
+        for (int filled = elemSize; filled < data.length; filled *= 2)
+          System.arraycopy(data, 0, data, filled, Math.min(filled, data.length - filled));
+      }
+      return data;
+    }
+
+    private int chunkElements() {
+      int result = 1;
+      for (int c : st.chunkShape)
+        result *= c;
+      return result;
+    }
+
+    // number of elements of the chunk that are inside the current shape
+    private long elementsInShape(int[] chunk) {
+      int[] shape = v.getShape();
+      int[] chunks = st.chunkShape;
+      long result = 1;
+      for (int i = 0; i < chunk.length; i++)
+        result *= Math.max(0, Math.min(chunks[i], shape[i] - chunk[i] * chunks[i]));
+      return result;
+    }
+  }
+
+  private static class PendingChunk {
+    final byte[] data;
+    long nwritten; // elements written, may count some more than once
+
+    PendingChunk(byte[] data) {
+      this.data = data;
+    }
+  }
+
+  private static class EncodedChunk {
+    final VarWriter writer;
+    final String key;
+    final int[] offset;
+    final byte[] data;
+
+    EncodedChunk(VarWriter writer, String key, int[] offset, byte[] data) {
+      this.writer = writer;
+      this.key = key;
+      this.offset = offset;
+      this.data = data;
+    }
+  }
+
+  private static String chunkKey(int[] chunk) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < chunk.length; i++) {
+      if (i > 0)
+        sb.append('.');
+      sb.append(chunk[i]);
+    }
+    return sb.toString();
+  }
+
+  private static int[] parseChunkKey(String key) {
+    String[] tokens = key.split("\\.");
+    int[] chunk = new int[tokens.length];
+    for (int i = 0; i < tokens.length; i++)
+      chunk[i] = Integer.parseInt(tokens[i]);
+    return chunk;
+  }
+
+  // odometer over the chunk indices from first to last inclusive; false when done
+  private static boolean increment(int[] counter, int[] first, int[] last) {
+    for (int i = counter.length - 1; i >= 0; i--) {
+      if (counter[i] < last[i]) {
+        counter[i]++;
+        return true;
+      }
+      counter[i] = first[i];
+    }
+    return false;
+  }
+
+  // odometer over all but the last dimension of a shape; false when done
+  private static boolean incrementRow(int[] row, int[] shape) {
+    for (int i = row.length - 2; i >= 0; i--) {
+      if (row[i] + 1 < shape[i]) {
+        row[i]++;
+        return true;
+      }
+      row[i] = 0;
+    }
+    return false;
+  }
+}
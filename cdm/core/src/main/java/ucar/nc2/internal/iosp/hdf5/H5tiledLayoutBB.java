@@ -11,7 +11,14 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import javax.annotation.Nullable;
 
 import ucar.ma2.DataType;
 import ucar.ma2.InvalidRangeException;
@@ -20,11 +27,15 @@ import ucar.nc2.Variable;
 import ucar.nc2.filter.Filter;
 import ucar.nc2.filter.Filters;
 import ucar.nc2.filter.UnknownFilterException;
+import ucar.nc2.iosp.ChunkCache;
 import ucar.nc2.iosp.LayoutBB;
 import ucar.nc2.iosp.LayoutBBTiled;
 import ucar.nc2.iosp.hdf5.DataBTree;
+import ucar.nc2.util.Concurrency;
 import ucar.nc2.util.IO;
+import ucar.unidata.io.FileRange;
 import ucar.unidata.io.RandomAccessFile;
+import ucar.unidata.io.RemoteRandomAccessFile;
 
 /**
  * Iterator to read/write subsets of an array.
@@ -32,6 +43,17 @@ import ucar.unidata.io.RandomAccessFile;
  * Assumes that the data is stored in chunks, indexed by a Btree.
  * Used for filtered data
  * Had to split from old H5tiledLayoutBB because need to use H5headerNew.Vinfo.
+ * <p>
+ * If the decode parallelism is greater than 1, the Btree is walked up front, the raw chunks are read in file order
+ * on the calling thread, and the filters are applied on a shared worker pool. Decoded chunks are returned in the
+ * order they finish; each one knows its place in the result, so the order doesn't matter to the caller.
+ * <p>
+ * For remote files the Btree is also walked up front, and the wanted chunks are passed to
+ * {@link RandomAccessFile#prefetch(List)} in batches ahead of reading them, so they are fetched concurrently
+ * instead of one request at a time.
+ * <p>
+ * Decoded chunks are kept in the shared {@link ChunkCache}; chunks found there are neither read nor decoded again.
+ * Chunks of a file without a {@link RandomAccessFile#getContentVersion() content version} are not cached.
  * 
  * @author caron
  */
@@ -40,12 +62,41 @@ public class H5tiledLayoutBB implements LayoutBB {
   static final int DEFAULTZIPBUFFERSIZE = 512;
   // System property name for -D flag
   static final String INFLATEBUFFERSIZE = "unidata.h5iosp.inflate.buffersize";
+  // System property name for -D flag; number of chunks decoded concurrently for one read
+  static final String DECODEPARALLELISM = "unidata.h5iosp.decode.parallelism";
+  // bytes of chunks passed to one RandomAccessFile.prefetch() call
+  static final int PREFETCH_SIZE = 16 * 1024 * 1024;
 
   public static boolean debugFilter;
 
+  private static volatile int defaultParallelism = Concurrency.getIntProperty(DECODEPARALLELISM, 1, 1);
+
+  /**
+   * Set the number of chunks decoded concurrently, for reads that don't specify it, see
+   * {@link H5iospNew#setDecodeParallelism}. Default is 1 (serial).
+   *
+   * @param parallelism number of chunks decoded concurrently, must be > 0
+   */
+  public static void setDefaultParallelism(int parallelism) {
+    if (parallelism <= 0)
+      throw new IllegalArgumentException("parallelism must be > 0");
+    defaultParallelism = parallelism;
+  }
+
+  public static int getDefaultParallelism() {
+    return defaultParallelism;
+  }
+
+  private static ExecutorService getDecodePool() {
+    return Concurrency.getSharedPool("H5tiledLayoutBB-decode", Runtime.getRuntime().availableProcessors());
+  }
+
   private LayoutBBTiled delegate;
 
   private RandomAccessFile raf;
+  private String contentVersion; // of raf, found on first use; chunks are not cached if null
+  private boolean contentVersionFound;
+  private final String varName; // full name, part of the chunk cache keys
   private Filter[] filters;
   private ByteOrder byteOrder;
 
@@ -58,9 +109,12 @@ public class H5tiledLayoutBB implements LayoutBB {
 
   private int inflatebuffersize = DEFAULTZIPBUFFERSIZE;
 
+  private int prefetched; // number of chunks passed to raf.prefetch()
+
   /**
    * Constructor.
    * This is for HDF5 chunked data storage. The data is read by chunk, for efficiency.
+   * Uses the default decode parallelism.
    *
    * @param v2 Variable to index over; assumes that vinfo is the data object
    * @param wantSection the wanted section of data, contains a List of Range objects. must be complete
@@ -71,6 +125,23 @@ public class H5tiledLayoutBB implements LayoutBB {
    */
   public H5tiledLayoutBB(Variable v2, Section wantSection, RandomAccessFile raf, H5objects.Filter[] filterProps,
       ByteOrder byteOrder) throws InvalidRangeException, IOException {
+    this(v2, wantSection, raf, filterProps, byteOrder, defaultParallelism);
+  }
+
+  /**
+   * Constructor.
+   * This is for HDF5 chunked data storage. The data is read by chunk, for efficiency.
+   *
+   * @param v2 Variable to index over; assumes that vinfo is the data object
+   * @param wantSection the wanted section of data, contains a List of Range objects. must be complete
+   * @param raf the RandomAccessFile
+   * @param filterProps set of filter properties from which filter object will be created
+   * @param parallelism number of chunks decoded concurrently; 1 means decode serially on the calling thread
+   * @throws InvalidRangeException if section invalid for this variable
+   * @throws IOException on io error
+   */
+  public H5tiledLayoutBB(Variable v2, Section wantSection, RandomAccessFile raf, H5objects.Filter[] filterProps,
+      ByteOrder byteOrder, int parallelism) throws InvalidRangeException, IOException {
     wantSection = Section.fill(wantSection, v2.getShape());
 
     H5headerNew.Vinfo vinfo = (H5headerNew.Vinfo) v2.getSPobject();
@@ -78,6 +149,7 @@ public class H5tiledLayoutBB implements LayoutBB {
     assert vinfo.btree != null;
 
     this.raf = raf;
+    this.varName = v2.getFullName();
     this.filters = new Filter[filterProps.length];
     for (int i = 0; i < filterProps.length; i++) {
       // add var info to filter props
@@ -110,7 +182,13 @@ public class H5tiledLayoutBB implements LayoutBB {
 
     // create the data chunk iterator
     DataBTree.DataChunkIterator iter = vinfo.btree.getDataChunkIteratorFilter(this.want);
-    DataChunkIterator dcIter = new DataChunkIterator(iter);
+    LayoutBBTiled.DataChunkIterator dcIter;
+    if (parallelism > 1)
+      dcIter = new ParallelDataChunkIterator(wantedChunks(iter), parallelism);
+    else if (raf instanceof RemoteRandomAccessFile)
+      dcIter = new PrefetchDataChunkIterator(wantedChunks(iter));
+    else
+      dcIter = new DataChunkIterator(iter);
     delegate = new LayoutBBTiled(dcIter, chunkSize, elemSize, this.want);
 
     if (System.getProperty(INFLATEBUFFERSIZE) != null) {
@@ -161,6 +239,42 @@ public class H5tiledLayoutBB implements LayoutBB {
     return sbuff.toString();
   }
 
+  // walk the Btree, keeping only the chunks that intersect the wanted section, sorted by file position,
+  // and take the ones already decoded from the cache
+  private List<DataChunk> wantedChunks(DataBTree.DataChunkIterator delegate)
+      throws IOException, InvalidRangeException {
+    List<DataChunk> chunks = new ArrayList<>();
+    while (delegate.hasNext()) {
+      DataChunk dc = new DataChunk(delegate.next());
+      Section dataSection = new Section(dc.getOffset(), chunkSize);
+      if (dataSection.intersects(want))
+        chunks.add(dc);
+    }
+    chunks.sort(Comparator.comparingLong(dc -> dc.delegate.filePos));
+    for (DataChunk dc : chunks)
+      dc.lookup();
+    return chunks;
+  }
+
+  // pass the chunks starting at from, up to PREFETCH_SIZE bytes, to raf.prefetch(), unless already done or cached
+  private void prefetch(List<DataChunk> chunks, int from) throws IOException {
+    if (from < prefetched)
+      return;
+    List<FileRange> ranges = new ArrayList<>();
+    long bytes = 0;
+    int i = from;
+    for (; i < chunks.size() && (ranges.isEmpty() || bytes + chunks.get(i).delegate.size <= PREFETCH_SIZE); i++) {
+      if (chunks.get(i).decoded != null)
+        continue;
+      DataBTree.DataChunk dc = chunks.get(i).delegate;
+      ranges.add(new FileRange(dc.filePos, dc.size));
+      bytes += dc.size;
+    }
+    prefetched = i;
+    if (!ranges.isEmpty())
+      raf.prefetch(ranges);
+  }
+
   private class DataChunkIterator implements LayoutBBTiled.DataChunkIterator {
     DataBTree.DataChunkIterator delegate;
 
@@ -177,11 +291,82 @@ public class H5tiledLayoutBB implements LayoutBB {
     }
   }
 
+  /** Returns the wanted chunks in file order, prefetching them in batches. */
+  private class PrefetchDataChunkIterator implements LayoutBBTiled.DataChunkIterator {
+    private final List<DataChunk> chunks;
+    private int next;
+
+    PrefetchDataChunkIterator(List<DataChunk> chunks) {
+      this.chunks = chunks;
+    }
+
+    public boolean hasNext() {
+      return next < chunks.size();
+    }
+
+    public LayoutBBTiled.DataChunk next() throws IOException {
+      prefetch(chunks, next);
+      return chunks.get(next++);
+    }
+  }
+
+  /**
+   * Raw chunks are read in file order on the calling thread, since the RandomAccessFile is not thread safe.
+   * At most parallelism chunks are being decoded at any one time, which bounds the memory used.
+   */
+  private class ParallelDataChunkIterator implements LayoutBBTiled.DataChunkIterator {
+    private final List<DataChunk> chunks;
+    private final CompletionService<DataChunk> completionService;
+    private final int parallelism;
+    private int nread; // number of chunks read and submitted for decoding
+    private int inFlight; // number of chunks submitted but not yet returned
+
+    ParallelDataChunkIterator(List<DataChunk> chunks, int parallelism) {
+      this.chunks = chunks;
+      this.parallelism = parallelism;
+      this.completionService = new ExecutorCompletionService<>(getDecodePool());
+    }
+
+    public boolean hasNext() {
+      return nread < chunks.size() || inFlight > 0;
+    }
+
+    public LayoutBBTiled.DataChunk next() throws IOException {
+      // keep the pool busy while we wait
+      while (inFlight < parallelism && nread < chunks.size()) {
+        prefetch(chunks, nread);
+        DataChunk dc = chunks.get(nread++);
+        if (dc.decoded != null) // from the cache
+          return dc;
+        byte[] raw = dc.readRaw();
+        completionService.submit(() -> {
+          dc.decoded = dc.decode(raw);
+          return dc;
+        });
+        inFlight++;
+      }
+
+      DataChunk result = Concurrency.takeResult(completionService);
+      inFlight--;
+      return result;
+    }
+  }
+
+  private synchronized String getContentVersion() {
+    if (!contentVersionFound) {
+      contentVersion = raf.getContentVersion();
+      contentVersionFound = true;
+    }
+    return contentVersion;
+  }
+
   private class DataChunk implements LayoutBBTiled.DataChunk {
     // Copied from ArrayList.
     private static final int MAX_ARRAY_LEN = Integer.MAX_VALUE - 8;
 
     DataBTree.DataChunk delegate;
+    ByteBuffer decoded; // set when found in the cache, or decoded by ParallelDataChunkIterator
+    private boolean lookedUp; // in the cache
 
     DataChunk(DataBTree.DataChunk delegate) {
       this.delegate = delegate;
@@ -217,12 +402,59 @@ public class H5tiledLayoutBB implements LayoutBB {
     }
 
     public ByteBuffer getByteBuffer() throws IOException {
+      if (allFiltersSkipped()) // stored as is; a memory mapped file can hand out its bytes without copying
+        return raf.readByteBuffer(delegate.filePos, delegate.size).order(byteOrder);
+      lookup();
+      if (decoded != null)
+        return decoded;
+      return decode(readRaw());
+    }
+
+    // set decoded if the chunk is in the cache; only looks once
+    void lookup() {
+      if (lookedUp || allFiltersSkipped())
+        return;
+      lookedUp = true;
+      ChunkCache.Key key = cacheKey();
+      if (key == null)
+        return;
+      byte[] data = ChunkCache.get(key);
+      if (data != null)
+        decoded = ByteBuffer.wrap(data).order(byteOrder);
+    }
+
+    // null if the chunk can't be cached
+    @Nullable
+    private ChunkCache.Key cacheKey() {
+      String version = getContentVersion();
+      if (version == null)
+        return null;
+      return new ChunkCache.Key(raf.getLocation(), version, varName, delegate.filePos, delegate.size);
+    }
+
+    byte[] readRaw() throws IOException {
       try {
-        // read the data
+        ByteBuffer bb = raf.readByteBuffer(delegate.filePos, delegate.size);
+        if (bb.hasArray() && bb.arrayOffset() == 0 && bb.array().length == delegate.size)
+          return bb.array();
         byte[] data = new byte[delegate.size];
-        raf.seek(delegate.filePos);
-        raf.readFully(data);
+        bb.get(data);
+        return data;
+      } catch (OutOfMemoryError e) {
+        throw outOfMemory(e);
+      }
+    }
 
+    private boolean allFiltersSkipped() {
+      for (int i = 0; i < filters.length; i++) {
+        if (!isBitSet(delegate.filterMask, i))
+          return false;
+      }
+      return true;
+    }
+
+    ByteBuffer decode(byte[] data) throws IOException {
+      try {
         // apply filters backwards
         for (int i = filters.length - 1; i >= 0; i--) {
           Filter f = filters[i];
@@ -234,18 +466,25 @@ public class H5tiledLayoutBB implements LayoutBB {
           }
           data = f.decode(data);
         }
+        ChunkCache.Key key = allFiltersSkipped() ? null : cacheKey();
+        if (key != null)
+          ChunkCache.put(key, data);
 
         ByteBuffer result = ByteBuffer.wrap(data);
         result.order(byteOrder);
         return result;
       } catch (OutOfMemoryError e) {
-        Error oom = new OutOfMemoryError("Ran out of memory trying to read HDF5 filtered chunk. Either increase the "
-            + "JVM's heap size (use the -Xmx switch) or reduce the size of the dataset's chunks (use nccopy -c).");
-        oom.initCause(e); // OutOfMemoryError lacks a constructor with a cause parameter.
-        throw oom;
+        throw outOfMemory(e);
       }
     }
 
+    private Error outOfMemory(OutOfMemoryError e) {
+      Error oom = new OutOfMemoryError("Ran out of memory trying to read HDF5 filtered chunk. Either increase the "
+          + "JVM's heap size (use the -Xmx switch) or reduce the size of the dataset's chunks (use nccopy -c).");
+      oom.initCause(e); // OutOfMemoryError lacks a constructor with a cause parameter.
+      return oom;
+    }
+
     boolean isBitSet(int val, int bitno) {
       return ((val >>> bitno) & 1) != 0;
     }
@@ -37,6 +37,9 @@ class AggDatasetOuter extends AggDataset {
   // not final because of deffered read
   int ncoord; // number of coordinates in outer dimension
   int aggStart, aggEnd; // index in aggregated dataset; aggStart <= i < aggEnd
+  // units and calendar name of the time coordinate, when the time units change; null if not yet known
+  @Nullable
+  String timeUnits, calendar;
 
   /**
    * Dataset constructor.
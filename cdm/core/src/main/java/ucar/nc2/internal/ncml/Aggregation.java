@@ -56,12 +56,27 @@ public abstract class Aggregation implements ucar.nc2.ncml.AggregationIF {
   }
 
   // experimental multithreading
-  protected static Executor executor;
+  protected static volatile Executor executor;
 
   public static void setExecutor(Executor exec) {
     executor = exec;
   }
 
+  // maximum number of nested datasets read concurrently by one section read, when there is an executor
+  protected static volatile int parallelism = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Set the maximum number of nested datasets that one read of a section of an outer aggregation reads
+   * concurrently on the executor. Default is the number of available processors.
+   *
+   * @param n number of nested datasets read at once, must be > 0
+   */
+  public static void setParallelism(int n) {
+    if (n <= 0)
+      throw new IllegalArgumentException("parallelism must be > 0");
+    parallelism = n;
+  }
+
   public static void setTypicalDatasetMode(String mode) {
     if (mode.equalsIgnoreCase("random"))
       typicalDatasetMode = TypicalDataset.RANDOM;
@@ -325,8 +340,10 @@ public abstract class Aggregation implements ucar.nc2.ncml.AggregationIF {
 
   /**
    * read info from the persistent XML file, if it exists; overridden in AggregationExisting
+   *
+   * @param allCacheVars if all the cache variables have been added, else only the coordinate variable
    */
-  protected void persistRead() {}
+  protected void persistRead(boolean allCacheVars) {}
 
   @Override
   public void getDetailInfo(Formatter f) {
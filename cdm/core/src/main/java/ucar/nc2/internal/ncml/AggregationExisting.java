@@ -83,7 +83,7 @@ class AggregationExisting extends AggregationOuter {
     }
 
     // gotta check persistence info - before buildCoords - if its going to do any good
-    persistRead();
+    persistRead(false);
 
     // now find out how many coordinates we have, caching values if needed
     buildCoords(cancelTask);
@@ -156,7 +156,7 @@ class AggregationExisting extends AggregationOuter {
     }
 
     // check persistence info - may have cached values other than coordinate LOOK ????
-    persistRead();
+    persistRead(true);
 
     setDatasetAcquireProxy(typicalDataset, ncDataset);
     typicalDataset.close(typical);
@@ -170,7 +170,8 @@ class AggregationExisting extends AggregationOuter {
 
   /**
    * Persist info (ncoords, coordValues) from joinExisting, since that can be expensive to
-   * recreate.
+   * recreate. Each dataset is fingerprinted with the last modified time and size of its file, so that on the next
+   * open only the datasets that were added or changed since are read. Only written when something changed.
    */
   public void persistWrite() throws IOException {
     if (diskCache2 == null) {
@@ -220,7 +221,7 @@ class AggregationExisting extends AggregationOuter {
       }
 
       out.print("<?xml version='1.0' encoding='UTF-8'?>\n");
-      out.print("<aggregation xmlns='http://www.unidata.ucar.edu/namespaces/netcdf/ncml-2.2' version='3' ");
+      out.print("<aggregation xmlns='http://www.unidata.ucar.edu/namespaces/netcdf/ncml-2.2' version='4' ");
       out.print("type='" + type + "' ");
       if (dimName != null) {
         out.print("dimName='" + dimName + "' ");
@@ -238,7 +239,18 @@ class AggregationExisting extends AggregationOuter {
         }
 
         out.print("  <netcdf id='" + dod.getId() + "' ");
-        out.print("ncoords='" + dod.getNcoords(null) + "' >\n");
+        out.print("ncoords='" + dod.getNcoords(null) + "' ");
+        MFile mfile = dod.getMFile();
+        if (mfile != null) {
+          out.print("lastModified='" + mfile.getLastModified() + "' size='" + mfile.getLength() + "' ");
+        }
+        if (dod.timeUnits != null) {
+          out.print("timeUnits='" + quote(dod.timeUnits) + "' ");
+        }
+        if (dod.calendar != null) {
+          out.print("calendar='" + quote(dod.calendar) + "' ");
+        }
+        out.print(">\n");
 
         for (CacheVar pv : cacheList) {
           Array data = pv.getData(dod.getId());
@@ -276,8 +288,18 @@ class AggregationExisting extends AggregationOuter {
     }
   }
 
-  // read info from the persistent XML file, if it exists
-  protected void persistRead() {
+  private static String quote(String s) {
+    return s.replace("&", "&amp;").replace("<", "&lt;").replace("'", "&apos;").replace("\"", "&quot;");
+  }
+
+  /**
+   * Read info from the persistent XML file, if it exists. Datasets whose file changed since they were persisted, and
+   * datasets that are not in the file, are left to be read from the file. Marks the persistent XML file as needing to
+   * be written if it did not hold all datasets, or held datasets that are gone.
+   *
+   * @param allCacheVars if all the cache variables are known, else only the coordinate variable is checked
+   */
+  protected void persistRead(boolean allCacheVars) {
     if (diskCache2 == null) {
       return;
     }
@@ -315,9 +337,10 @@ class AggregationExisting extends AggregationOuter {
     }
 
     String version = aggElem.getAttributeValue("version");
-    if (!"3".equals(version)) {
+    if (!"3".equals(version) && !"4".equals(version)) {
       return; // dont read old cache files, recreate
     }
+    boolean complete = true; // does the cache file hold all the datasets, and only those
 
     // use a map to find datasets to avoid O(n**2) searching
     Map<String, AggDataset> map = new HashMap<>();
@@ -335,6 +358,7 @@ class AggregationExisting extends AggregationOuter {
         if (logger.isDebugEnabled()) {
           logger.debug(" have cache but no dataset= {}", id);
         }
+        complete = false;
         continue;
       }
       if (logger.isDebugEnabled()) {
@@ -342,12 +366,22 @@ class AggregationExisting extends AggregationOuter {
       }
 
       MFile mfile = dod.getMFile();
-      if (mfile != null && mfile.getLastModified() > lastWritten) { // skip datasets that have changed
+      if (mfile != null && isChanged(netcdfElemNested, mfile, lastWritten)) { // skip datasets that have changed
         if (logger.isDebugEnabled()) {
           logger.debug(" dataset was changed= {}", mfile);
         }
+        complete = false;
         continue;
       }
+      map.remove(id);
+
+      if (dod.timeUnits == null) {
+        dod.timeUnits = netcdfElemNested.getAttributeValue("timeUnits");
+        dod.calendar = netcdfElemNested.getAttributeValue("calendar");
+      }
+      if (timeUnitsChange && dod.timeUnits == null) {
+        complete = false;
+      }
 
       if (dod.ncoord == 0) {
         String ncoordsS = netcdfElemNested.getAttributeValue("ncoords");
@@ -364,10 +398,12 @@ class AggregationExisting extends AggregationOuter {
       // if (dod.coordValue != null) continue; // allow ncml to override
 
       List<Element> cacheElemList = netcdfElemNested.getChildren("cache", Catalog.ncmlNS);
+      int nvars = 0;
       for (Element cacheElemNested : cacheElemList) {
         String varName = cacheElemNested.getAttributeValue("varName");
         CacheVar pv = findCacheVariable(varName);
         if (pv != null) {
+          nvars++;
           String sdata = cacheElemNested.getText();
           if (sdata.isEmpty()) {
             continue;
@@ -388,12 +424,33 @@ class AggregationExisting extends AggregationOuter {
             logger.warn("Error reading cached data ", e);
           }
 
-        } else {
+        } else if (allCacheVars) {
           logger.warn("not a cache var=" + varName);
         }
       }
+      if (nvars < (allCacheVars ? cacheList.size() : 1)) {
+        complete = false;
+      }
     }
 
+    // datasets left in the map were not in the cache file. The second read, with all the cache variables, must keep
+    // the changes made since the first one, such as time units read from the datasets
+    boolean dirty = !complete || !map.isEmpty();
+    cacheDirty = allCacheVars ? cacheDirty || dirty : dirty;
+  }
+
+  // has the file changed since it was persisted in datasetElem
+  private boolean isChanged(Element datasetElem, MFile mfile, long lastWritten) {
+    String lastModifiedS = datasetElem.getAttributeValue("lastModified");
+    String sizeS = datasetElem.getAttributeValue("size");
+    if (lastModifiedS == null || sizeS == null) { // version 3: no fingerprint
+      return mfile.getLastModified() > lastWritten;
+    }
+    try {
+      return mfile.getLastModified() != Long.parseLong(lastModifiedS) || mfile.getLength() != Long.parseLong(sizeS);
+    } catch (NumberFormatException e) {
+      return true;
+    }
   }
 
   // name to use in the DiskCache2 for the persistent XML info.
@@ -15,7 +15,9 @@ import java.util.StringTokenizer;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
 import thredds.inventory.MFile;
 import ucar.ma2.Array;
 import ucar.ma2.DataType;
@@ -39,6 +41,7 @@ import ucar.nc2.time.CalendarDate;
 import ucar.nc2.time.CalendarDateUnit;
 import ucar.nc2.units.DateUnit;
 import ucar.nc2.util.CancelTask;
+import ucar.nc2.util.Concurrency;
 
 /**
  * Superclass for Aggregations on the outer dimension: joinNew, joinExisting, Fmrc, FmrcSingle
@@ -170,54 +173,85 @@ abstract class AggregationOuter extends Aggregation implements ProxyReader {
     Calendar calendarToCheck = null;
     CalendarDateUnit calendarDateUnit;
 
+    // the coordinate values and time units persisted for a dataset save opening it again
+    CacheVar coordCacheVar =
+        timeAxis.dataType != null && timeAxis.dataType.isNumeric() ? findCacheVariable(timeAxis.shortName) : null;
+
     // make concurrent
     for (AggDataset dataset : getDatasets()) {
-      try (NetcdfFile ncfile = dataset.acquireFile(cancelTask)) {
-        // LOOK was Variable v = ncfile.findVariable(timeAxis.getFullNameEscaped());
-        Variable v = ncfile.findVariable(timeAxis.shortName);
-        if (v == null) {
-          logger.warn(
-              "readTimeCoordinates: variable = " + timeAxis.shortName + " not found in file " + dataset.getLocation());
-          return;
+      AggDatasetOuter dod = (AggDatasetOuter) dataset;
+      Array cached = (coordCacheVar != null && dod.timeUnits != null && dod.coordValue == null)
+          ? coordCacheVar.getData(dod.getId())
+          : null;
+      String datasetUnits;
+      Calendar datasetCalendar;
+      if (cached != null) {
+        datasetUnits = dod.timeUnits;
+        datasetCalendar = dod.calendar == null ? null : Calendar.get(dod.calendar);
+        CalendarDateUnit cdu = CalendarDateUnit.withCalendar(datasetCalendar, datasetUnits);
+        IndexIterator cii = cached.getIndexIterator();
+        while (cii.hasNext()) {
+          double val = cii.getDoubleNext();
+          if (!Double.isNaN(val)) { // as CoordinateAxis1DTime
+            dateList.add(cdu.makeCalendarDate(val));
+          }
         }
-        VariableDS vds = (v instanceof VariableDS) ? (VariableDS) v : new VariableDS(null, v, true);
-        // LOOK was CoordinateAxis1DTime timeCoordVar = CoordinateAxis1DTime.factory(ncDataset, vds, null);
-        CoordinateAxis1DTime timeCoordVar = CoordinateAxis1DTime.factory(null, vds, null);
-        dateList.addAll(timeCoordVar.getCalendarDates());
-
-        // if timeUnits is null, then that is our signal in the code that
-        // we are on the first file of the aggregation
-        if (timeUnits == null) {
-          timeUnits = v.getUnitsString();
-          // time units might be null. Check before moving on, and, if so, throw runtime error
-          if (timeUnits != null) {
-            calendar = timeCoordVar.getCalendarFromAttribute();
-          } else {
-            String msg = String.format("Time coordinate %s must have a non-null unit attribute.", timeAxis.shortName);
-            logger.error(msg);
-            if (cancelTask != null) {
-              cancelTask.setError(msg);
-            }
-            throw new UnsupportedOperationException(msg);
+
+      } else {
+        try (NetcdfFile ncfile = dataset.acquireFile(cancelTask)) {
+          // LOOK was Variable v = ncfile.findVariable(timeAxis.getFullNameEscaped());
+          Variable v = ncfile.findVariable(timeAxis.shortName);
+          if (v == null) {
+            logger.warn("readTimeCoordinates: variable = " + timeAxis.shortName + " not found in file "
+                + dataset.getLocation());
+            return;
           }
+          VariableDS vds = (v instanceof VariableDS) ? (VariableDS) v : new VariableDS(null, v, true);
+          // LOOK was CoordinateAxis1DTime timeCoordVar = CoordinateAxis1DTime.factory(ncDataset, vds, null);
+          CoordinateAxis1DTime timeCoordVar = CoordinateAxis1DTime.factory(null, vds, null);
+          dateList.addAll(timeCoordVar.getCalendarDates());
+          datasetUnits = v.getUnitsString();
+          datasetCalendar = timeCoordVar.getCalendarFromAttribute();
+        }
+        if (datasetUnits != null) {
+          dod.timeUnits = datasetUnits;
+          dod.calendar = datasetCalendar == null ? null : datasetCalendar.name();
+          cacheDirty = true;
+        }
+      }
+
+      // if timeUnits is null, then that is our signal in the code that
+      // we are on the first file of the aggregation
+      if (timeUnits == null) {
+        timeUnits = datasetUnits;
+        // time units might be null. Check before moving on, and, if so, throw runtime error
+        if (timeUnits != null) {
+          calendar = datasetCalendar;
         } else {
-          // Aggregation only makes sense if all files use the same calendar.
-          // This block does take into account the same calendar might have
-          // different names (i.e. "all_leap" and "366_day" are the same calendar)
-          // and we will allow that in the aggregation.
-          // If first file in the aggregation was not defined, it also must be
-          // not defined in the other files.
-          calendarToCheck = timeCoordVar.getCalendarFromAttribute();
-          if (!calendarsEquivalent(calendar, calendarToCheck)) {
-            String msg = String.format(
-                "Inequivalent calendars found across the aggregation: calendar %s is not equivalent to %s.", calendar,
-                calendarToCheck);
-            logger.error(msg);
-            if (cancelTask != null) {
-              cancelTask.setError(msg);
-            }
-            throw new UnsupportedOperationException(msg);
+          String msg = String.format("Time coordinate %s must have a non-null unit attribute.", timeAxis.shortName);
+          logger.error(msg);
+          if (cancelTask != null) {
+            cancelTask.setError(msg);
           }
+          throw new UnsupportedOperationException(msg);
+        }
+      } else {
+        // Aggregation only makes sense if all files use the same calendar.
+        // This block does take into account the same calendar might have
+        // different names (i.e. "all_leap" and "366_day" are the same calendar)
+        // and we will allow that in the aggregation.
+        // If first file in the aggregation was not defined, it also must be
+        // not defined in the other files.
+        calendarToCheck = datasetCalendar;
+        if (!calendarsEquivalent(calendar, calendarToCheck)) {
+          String msg = String.format(
+              "Inequivalent calendars found across the aggregation: calendar %s is not equivalent to %s.", calendar,
+              calendarToCheck);
+          logger.error(msg);
+          if (cancelTask != null) {
+            cancelTask.setError(msg);
+          }
+          throw new UnsupportedOperationException(msg);
         }
       }
 
@@ -399,13 +433,13 @@ abstract class AggregationOuter extends Aggregation implements ProxyReader {
 
     List<Range> ranges = section.getRanges();
     Range joinRange = section.getRange(0);
-    List<Range> nestedSection = new ArrayList<>(ranges); // get copy
     List<Range> innerSection = ranges.subList(1, ranges.size());
 
     if (debug)
       System.out.println("   agg wants range=" + mainv.getFullName() + "(" + joinRange + ")");
 
-    // LOOK: could multithread here
+    // the nested datasets that the section touches, in order
+    List<SectionReaderTask> tasks = new ArrayList<>();
     List<AggDataset> nestedDatasets = getDatasets();
     for (AggDataset nested : nestedDatasets) {
       AggDatasetOuter dod = (AggDatasetOuter) nested;
@@ -413,14 +447,22 @@ abstract class AggregationOuter extends Aggregation implements ProxyReader {
       if (nestedJoinRange == null)
         continue;
 
-      Array varData;
+      List<Range> nestedSection;
       if ((type == Type.joinNew) || (type == Type.forecastModelRunCollection)) {
-        varData = dod.read(mainv, cancelTask, innerSection);
+        nestedSection = innerSection;
       } else {
+        nestedSection = new ArrayList<>(ranges); // get copy
         nestedSection.set(0, nestedJoinRange);
-        varData = dod.read(mainv, cancelTask, nestedSection);
       }
+      tasks.add(new SectionReaderTask(dod, mainv, cancelTask, nestedSection, tasks.size()));
+    }
 
+    Executor exec = executor;
+    if (exec != null && tasks.size() > 1)
+      return readConcurrently(exec, tasks, sectionData, dtype, cancelTask);
+
+    for (SectionReaderTask task : tasks) {
+      Array varData = task.ds.read(mainv, cancelTask, task.section);
       if ((cancelTask != null) && cancelTask.isCancel())
         return null;
       varData = MAMath.convert(varData, dtype); // just in case it need to be converted
@@ -432,6 +474,54 @@ abstract class AggregationOuter extends Aggregation implements ProxyReader {
     return sectionData;
   }
 
+  /**
+   * Read the nested datasets of a section on exec, with at most parallelism of them being read at once,
+   * and copy each one into its place in sectionData as it arrives.
+   * Each one goes where its wanted section of the aggregation starts, so if a nested dataset has less data than its
+   * coordinates say (ragged fmrc time), the rest of its place is left as zeroes.
+   */
+  private Array readConcurrently(Executor exec, List<SectionReaderTask> tasks, Array sectionData, DataType dtype,
+      CancelTask cancelTask) throws IOException, InvalidRangeException {
+    long[] destPos = new long[tasks.size()];
+    long[] destSize = new long[tasks.size()];
+    long pos = 0;
+    for (int i = 0; i < tasks.size(); i++) {
+      destPos[i] = pos;
+      destSize[i] = new Section(tasks.get(i).section).computeSize();
+      pos += destSize[i];
+    }
+
+    CompletionService<Result> completionService = new ExecutorCompletionService<>(exec);
+    int maxInFlight = parallelism;
+    List<Future<Result>> futures = new ArrayList<>();
+    int next = 0;
+    int inFlight = 0;
+    try {
+      while (next < tasks.size() || inFlight > 0) {
+        while (inFlight < maxInFlight && next < tasks.size()) {
+          if ((cancelTask != null) && cancelTask.isCancel())
+            return null;
+          futures.add(completionService.submit(tasks.get(next++)));
+          inFlight++;
+        }
+
+        Result r = Concurrency.takeResult(completionService, InvalidRangeException.class);
+        inFlight--;
+        if ((cancelTask != null) && cancelTask.isCancel())
+          return null;
+        if (r.data == null)
+          continue;
+        Array varData = MAMath.convert(r.data, dtype); // just in case it needs to be converted
+        int size = (int) Math.min(varData.getSize(), destSize[r.index]);
+        Array.arraycopy(varData, 0, sectionData, (int) destPos[r.index], size);
+      }
+      return sectionData;
+
+    } finally {
+      Concurrency.cancelAll(futures); // on cancel or failure, don't start the rest
+    }
+  }
+
   /**
    * Read an aggregation variable: A variable whose data spans multiple files.
    * This is an implementation of ProxyReader, so must fulfill that contract.
@@ -530,6 +620,27 @@ abstract class AggregationOuter extends Aggregation implements ProxyReader {
     }
   }
 
+  private static class SectionReaderTask implements Callable<Result> {
+    final AggDatasetOuter ds;
+    final Variable mainv;
+    final CancelTask cancelTask;
+    final List<Range> section;
+    final int index;
+
+    SectionReaderTask(AggDatasetOuter ds, Variable mainv, CancelTask cancelTask, List<Range> section, int index) {
+      this.ds = ds;
+      this.mainv = mainv;
+      this.cancelTask = cancelTask;
+      this.section = section;
+      this.index = index;
+    }
+
+    public Result call() throws Exception {
+      Array data = ds.read(mainv, cancelTask, section);
+      return new Result(data, index);
+    }
+  }
+
   private static class Result {
     Array data;
     int index;
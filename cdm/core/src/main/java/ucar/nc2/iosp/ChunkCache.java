@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.iosp;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Objects;
+import javax.annotation.Nullable;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ucar.nc2.util.Concurrency;
+
+/**
+ * A process wide cache of decoded (decompressed and unfiltered) chunks, shared by the chunked layouts of the
+ * HDF5/netCDF-4 and Zarr readers, so that chunks read again, by any dataset or thread, are not read and decoded again.
+ * <p>
+ * Chunks are keyed by (file location, content version, variable, chunk offset, chunk length); a file that is rewritten
+ * gets a new content version, such as its last modified time or ETag, so its old chunks are never served, and age out
+ * of the cache. Use {@link #invalidate(String)} to drop them at once. Chunks of files without a content version (see
+ * {@link ucar.unidata.io.RandomAccessFile#getContentVersion()}), such as files in memory, must not be cached.
+ * <p>
+ * The cache is bounded by the total number of decoded bytes held, and evicts the least recently used chunks.
+ * Chunks larger than a quarter of the maximum size are not cached, so that a single large read does not evict all
+ * the hot chunks. With {@link Policy#FREQUENCY}, a chunk is also only cached the second time it is missed within
+ * the recent history, so that scans of chunks read only once don't evict chunks that are read repeatedly.
+ * <p>
+ * Configured with the system properties {@code unidata.chunkCache.maxSize}, in bytes, default 32 MiB, 0 disables
+ * caching; and {@code unidata.chunkCache.policy}, LRU (the default) or FREQUENCY.
+ * The statistics are published to JMX as {@code ucar.nc2.iosp:type=ChunkCache}.
+ */
+public final class ChunkCache {
+  private static final Logger logger = LoggerFactory.getLogger(ChunkCache.class);
+
+  // System property names for -D flag
+  static final String MAXSIZE = "unidata.chunkCache.maxSize";
+  static final String POLICY = "unidata.chunkCache.policy";
+  // 32 MiB default maximum size
+  static final long defaultMaxSize = 32 * 1024 * 1024;
+
+  static final String OBJECT_NAME = "ucar.nc2.iosp:type=ChunkCache";
+
+  /** How chunks are admitted to the cache. Chunks are always evicted least recently used first. */
+  public enum Policy {
+    /** Cache every chunk read. */
+    LRU,
+    /** Cache a chunk the second time it is missed within the recent history. */
+    FREQUENCY
+  }
+
+  private static volatile long maxSize;
+  private static volatile Policy policy = Policy.LRU;
+  private static volatile Cache<Key, byte[]> cache;
+  private static final Doorkeeper doorkeeper = new Doorkeeper();
+
+  static {
+    if (System.getProperty(POLICY) != null) {
+      try {
+        policy = Policy.valueOf(System.getProperty(POLICY).toUpperCase());
+      } catch (IllegalArgumentException e) {
+        logger.warn(String.format("-D%s must be one of %s", POLICY, Arrays.toString(Policy.values())));
+      }
+    }
+    setMaxSize(Concurrency.getLongProperty(MAXSIZE, defaultMaxSize, 0));
+
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(new Stats(), new ObjectName(OBJECT_NAME));
+    } catch (Exception e) {
+      // eg already registered by another class loader
+      logger.debug("ChunkCache not registered with JMX: {}", e.getMessage());
+    }
+  }
+
+  private ChunkCache() {}
+
+  /**
+   * Set the maximum total size of the cached chunks, discarding the chunks cached so far.
+   *
+   * @param size maximum size in bytes; 0 disables caching.
+   */
+  public static synchronized void setMaxSize(long size) {
+    if (size < 0)
+      throw new IllegalArgumentException("maxSize must be >= 0");
+    maxSize = size;
+    cache = CacheBuilder.newBuilder().maximumWeight(size).weigher((Key key, byte[] data) -> data.length)
+        .recordStats().build();
+    doorkeeper.clear();
+  }
+
+  public static long getMaxSize() {
+    return maxSize;
+  }
+
+  /** Set how chunks are admitted to the cache. The chunks cached so far are kept. */
+  public static void setPolicy(Policy policy) {
+    ChunkCache.policy = Objects.requireNonNull(policy);
+    doorkeeper.clear();
+  }
+
+  public static Policy getPolicy() {
+    return policy;
+  }
+
+  /** Get a decoded chunk, or null if it is not in the cache. The returned array must not be modified. */
+  @Nullable
+  public static byte[] get(Key key) {
+    return maxSize > 0 ? cache.getIfPresent(key) : null;
+  }
+
+  /** Add a decoded chunk, which must not be modified afterwards. The cache may decline to keep it. */
+  public static void put(Key key, byte[] data) {
+    if (data.length > maxSize / 4)
+      return;
+    if (policy == Policy.FREQUENCY && !doorkeeper.seenBefore(key.hashCode()))
+      return;
+    cache.put(key, data);
+  }
+
+  /** Remove all chunks of the file at location, eg after it has been rewritten. */
+  public static void invalidate(String location) {
+    cache.asMap().keySet().removeIf(key -> key.location.equals(location));
+  }
+
+  /** Remove all chunks. */
+  public static void clear() {
+    cache.invalidateAll();
+    doorkeeper.clear();
+  }
+
+  /** Number of chunks found in the cache. */
+  public static long getHitCount() {
+    return cache.stats().hitCount();
+  }
+
+  /** Number of chunks looked for and not found in the cache. */
+  public static long getMissCount() {
+    return cache.stats().missCount();
+  }
+
+  /** Number of chunks evicted to make room for others. */
+  public static long getEvictionCount() {
+    return cache.stats().evictionCount();
+  }
+
+  /** Number of chunks in the cache. */
+  public static long getSize() {
+    return cache.size();
+  }
+
+  /** Total size in bytes of the chunks in the cache. */
+  public static long getWeight() {
+    return cache.asMap().values().stream().mapToLong(data -> data.length).sum();
+  }
+
+  /** Identifies a chunk of a variable in one version of a file. */
+  public static class Key {
+    final String location;
+    final String version;
+    final String variable;
+    final long offset;
+    final long length;
+
+    /**
+     * @param location of the file holding the chunk
+     * @param version of the file contents, so that a rewritten file doesn't match
+     * @param variable full name of the variable
+     * @param offset of the stored chunk in the file
+     * @param length of the stored chunk in the file
+     */
+    public Key(String location, String version, String variable, long offset, long length) {
+      this.location = location;
+      this.version = Objects.requireNonNull(version);
+      this.variable = variable;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o)
+        return true;
+      if (!(o instanceof Key))
+        return false;
+      Key key = (Key) o;
+      return offset == key.offset && length == key.length && location.equals(key.location)
+          && version.equals(key.version) && variable.equals(key.variable);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(location, version, variable, offset, length);
+    }
+  }
+
+  /**
+   * Remembers (approximately) which chunks were missed recently: a bit set, indexed by two hashes of the key,
+   * cleared whenever as many keys have been added as it has bits / 8, so that the recent history is bounded.
+   */
+  private static class Doorkeeper {
+    private static final int NBITS = 1 << 20;
+    private final long[] bits = new long[NBITS / 64];
+    private int added;
+
+    // true if hash was seen since the last clear, and remember it
+    synchronized boolean seenBefore(int hash) {
+      int h1 = hash & (NBITS - 1);
+      int h2 = (hash * 0x9E3779B9 >>> 12) & (NBITS - 1);
+      boolean seen = isSet(h1) && isSet(h2);
+      if (!seen) {
+        if (++added > NBITS / 8)
+          clear();
+        set(h1);
+        set(h2);
+      }
+      return seen;
+    }
+
+    synchronized void clear() {
+      Arrays.fill(bits, 0);
+      added = 0;
+    }
+
+    private boolean isSet(int bit) {
+      return (bits[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    private void set(int bit) {
+      bits[bit >>> 6] |= 1L << bit;
+    }
+  }
+
+  private static class Stats implements ChunkCacheMXBean {
+    @Override
+    public long getMaxSize() {
+      return ChunkCache.getMaxSize();
+    }
+
+    @Override
+    public void setMaxSize(long size) {
+      ChunkCache.setMaxSize(size);
+    }
+
+    @Override
+    public String getPolicy() {
+      return ChunkCache.getPolicy().name();
+    }
+
+    @Override
+    public void setPolicy(String policy) {
+      ChunkCache.setPolicy(Policy.valueOf(policy.toUpperCase()));
+    }
+
+    @Override
+    public long getSize() {
+      return ChunkCache.getSize();
+    }
+
+    @Override
+    public long getWeight() {
+      return ChunkCache.getWeight();
+    }
+
+    @Override
+    public long getHitCount() {
+      return ChunkCache.getHitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+      return ChunkCache.getMissCount();
+    }
+
+    @Override
+    public double getHitRate() {
+      return cache.stats().hitRate();
+    }
+
+    @Override
+    public long getEvictionCount() {
+      return ChunkCache.getEvictionCount();
+    }
+
+    @Override
+    public void clear() {
+      ChunkCache.clear();
+    }
+  }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.iosp;
+
+/** JMX view of the {@link ChunkCache}, registered as {@code ucar.nc2.iosp:type=ChunkCache}. */
+public interface ChunkCacheMXBean {
+  long getMaxSize();
+
+  void setMaxSize(long size);
+
+  String getPolicy();
+
+  void setPolicy(String policy);
+
+  long getSize();
+
+  long getWeight();
+
+  long getHitCount();
+
+  long getMissCount();
+
+  double getHitRate();
+
+  long getEvictionCount();
+
+  void clear();
+}
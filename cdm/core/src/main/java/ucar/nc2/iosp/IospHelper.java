@@ -58,6 +58,13 @@ public class IospHelper {
     return readData(raf, index, dataType, arr, byteOrder, convertChar);
   }
 
+  // Chunks at least as large as the file buffer are read with the positional reads, which convert whole blocks at
+  // once instead of one element at a time, and leave the buffer alone. Only for read only files, since positional
+  // reads do not see data that is still in the buffer.
+  private static boolean usePositional(RandomAccessFile raf, Layout.Chunk chunk, int elemSize) {
+    return raf.isReadOnly() && (long) chunk.getNelems() * elemSize >= raf.getBufferSize();
+  }
+
   /**
    * Read data subset from RandomAccessFile, place in given primitive array.
    * Reading is controlled by the Layout object.
@@ -81,8 +88,12 @@ public class IospHelper {
       while (layout.hasNext()) {
         Layout.Chunk chunk = layout.next();
         raf.order(byteOrder);
-        raf.seek(chunk.getSrcPos());
-        raf.readFully(pa, (int) chunk.getDestElem(), chunk.getNelems());
+        if (usePositional(raf, chunk, 1)) {
+          raf.readFully(chunk.getSrcPos(), pa, (int) chunk.getDestElem(), chunk.getNelems());
+        } else {
+          raf.seek(chunk.getSrcPos());
+          raf.readFully(pa, (int) chunk.getDestElem(), chunk.getNelems());
+        }
       }
       if (convertChar && dataType == DataType.CHAR)
         return convertByteToChar(pa);
@@ -94,8 +105,12 @@ public class IospHelper {
       while (layout.hasNext()) {
         Layout.Chunk chunk = layout.next();
         raf.order(byteOrder);
-        raf.seek(chunk.getSrcPos());
-        raf.readShort(pa, (int) chunk.getDestElem(), chunk.getNelems());
+        if (usePositional(raf, chunk, 2)) {
+          raf.readShorts(chunk.getSrcPos(), pa, (int) chunk.getDestElem(), chunk.getNelems(), raf.getByteOrder());
+        } else {
+          raf.seek(chunk.getSrcPos());
+          raf.readShort(pa, (int) chunk.getDestElem(), chunk.getNelems());
+        }
       }
       return pa;
 
@@ -104,8 +119,12 @@ public class IospHelper {
       while (layout.hasNext()) {
         Layout.Chunk chunk = layout.next();
         raf.order(byteOrder);
-        raf.seek(chunk.getSrcPos());
-        raf.readInt(pa, (int) chunk.getDestElem(), chunk.getNelems());
+        if (usePositional(raf, chunk, 4)) {
+          raf.readInts(chunk.getSrcPos(), pa, (int) chunk.getDestElem(), chunk.getNelems(), raf.getByteOrder());
+        } else {
+          raf.seek(chunk.getSrcPos());
+          raf.readInt(pa, (int) chunk.getDestElem(), chunk.getNelems());
+        }
       }
       return pa;
 
@@ -114,8 +133,12 @@ public class IospHelper {
       while (layout.hasNext()) {
         Layout.Chunk chunk = layout.next();
         raf.order(byteOrder);
-        raf.seek(chunk.getSrcPos());
-        raf.readFloat(pa, (int) chunk.getDestElem(), chunk.getNelems());
+        if (usePositional(raf, chunk, 4)) {
+          raf.readFloats(chunk.getSrcPos(), pa, (int) chunk.getDestElem(), chunk.getNelems(), raf.getByteOrder());
+        } else {
+          raf.seek(chunk.getSrcPos());
+          raf.readFloat(pa, (int) chunk.getDestElem(), chunk.getNelems());
+        }
       }
       return pa;
 
@@ -124,8 +147,12 @@ public class IospHelper {
       while (layout.hasNext()) {
         Layout.Chunk chunk = layout.next();
         raf.order(byteOrder);
-        raf.seek(chunk.getSrcPos());
-        raf.readDouble(pa, (int) chunk.getDestElem(), chunk.getNelems());
+        if (usePositional(raf, chunk, 8)) {
+          raf.readDoubles(chunk.getSrcPos(), pa, (int) chunk.getDestElem(), chunk.getNelems(), raf.getByteOrder());
+        } else {
+          raf.seek(chunk.getSrcPos());
+          raf.readDouble(pa, (int) chunk.getDestElem(), chunk.getNelems());
+        }
       }
       return pa;
 
@@ -134,8 +161,12 @@ public class IospHelper {
       while (layout.hasNext()) {
         Layout.Chunk chunk = layout.next();
         raf.order(byteOrder);
-        raf.seek(chunk.getSrcPos());
-        raf.readLong(pa, (int) chunk.getDestElem(), chunk.getNelems());
+        if (usePositional(raf, chunk, 8)) {
+          raf.readLongs(chunk.getSrcPos(), pa, (int) chunk.getDestElem(), chunk.getNelems(), raf.getByteOrder());
+        } else {
+          raf.seek(chunk.getSrcPos());
+          raf.readLong(pa, (int) chunk.getDestElem(), chunk.getNelems());
+        }
       }
       return pa;
 
@@ -145,8 +176,12 @@ public class IospHelper {
       while (layout.hasNext()) {
         Layout.Chunk chunk = layout.next();
         raf.order(byteOrder);
-        raf.seek(chunk.getSrcPos());
-        raf.readFully(pa, (int) chunk.getDestElem() * recsize, chunk.getNelems() * recsize);
+        if (usePositional(raf, chunk, recsize)) {
+          raf.readFully(chunk.getSrcPos(), pa, (int) chunk.getDestElem() * recsize, chunk.getNelems() * recsize);
+        } else {
+          raf.seek(chunk.getSrcPos());
+          raf.readFully(pa, (int) chunk.getDestElem() * recsize, chunk.getNelems() * recsize);
+        }
       }
       return pa;
     } else if (dataType == DataType.STRING) {
@@ -316,8 +351,7 @@ public class IospHelper {
         }
         bb.position(chunk.getSrcElem());
         int pos = (int) chunk.getDestElem();
-        for (int i = 0; i < chunk.getNelems(); i++)
-          pa[pos++] = bb.get();
+        bb.get(pa, pos, chunk.getNelems());
       }
       // return (dataType == DataType.CHAR) ? convertByteToChar(pa) : pa;
       if (dataType == DataType.CHAR) {
@@ -338,8 +372,7 @@ public class IospHelper {
         }
         buff.position(chunk.getSrcElem());
         int pos = (int) chunk.getDestElem();
-        for (int i = 0; i < chunk.getNelems(); i++)
-          pa[pos++] = buff.get();
+        buff.get(pa, pos, chunk.getNelems());
       }
       return pa;
 
@@ -354,8 +387,7 @@ public class IospHelper {
         }
         buff.position(chunk.getSrcElem());
         int pos = (int) chunk.getDestElem();
-        for (int i = 0; i < chunk.getNelems(); i++)
-          pa[pos++] = buff.get();
+        buff.get(pa, pos, chunk.getNelems());
       }
       return pa;
 
@@ -370,8 +402,7 @@ public class IospHelper {
         }
         buff.position(chunk.getSrcElem());
         int pos = (int) chunk.getDestElem();
-        for (int i = 0; i < chunk.getNelems(); i++)
-          pa[pos++] = buff.get();
+        buff.get(pa, pos, chunk.getNelems());
       }
       return pa;
 
@@ -386,8 +417,7 @@ public class IospHelper {
         }
         buff.position(chunk.getSrcElem());
         int pos = (int) chunk.getDestElem();
-        for (int i = 0; i < chunk.getNelems(); i++)
-          pa[pos++] = buff.get();
+        buff.get(pa, pos, chunk.getNelems());
       }
       return pa;
 
@@ -402,8 +432,7 @@ public class IospHelper {
         }
         buff.position(chunk.getSrcElem());
         int pos = (int) chunk.getDestElem();
-        for (int i = 0; i < chunk.getNelems(); i++)
-          pa[pos++] = buff.get();
+        buff.get(pa, pos, chunk.getNelems());
       }
       return pa;
 
@@ -419,8 +448,7 @@ public class IospHelper {
         }
         bb.position(chunk.getSrcElem() * recsize);
         int pos = (int) chunk.getDestElem() * recsize;
-        for (int i = 0; i < chunk.getNelems() * recsize; i++)
-          pa[pos++] = bb.get();
+        bb.get(pa, pos, chunk.getNelems() * recsize);
       }
       return pa;
     } else if (dataType == DataType.STRING) {
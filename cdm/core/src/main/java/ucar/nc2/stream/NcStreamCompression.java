@@ -46,7 +46,8 @@ public class NcStreamCompression {
       case DEFLATE:
         // limit level to range [-1, 9], where -1 is default deflate setting.
         int level = Math.min(Math.max((Integer) compressInfo, -1), 9);
-        int bufferSize = Math.min(size / 2, 512 * 1024 * 1024);
+        // initial size of the buffer for the compressed data, which grows as needed
+        int bufferSize = Math.max(Math.min(size / 2, 1024 * 1024), 32);
         return new NcStreamCompressedOutputStream(out, bufferSize, level);
 
       default:
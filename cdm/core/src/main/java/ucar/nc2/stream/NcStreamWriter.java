@@ -9,6 +9,12 @@ import ucar.nc2.*;
 import ucar.nc2.constants.CDM;
 import java.io.*;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import ucar.nc2.iosp.IospHelper;
+import ucar.nc2.util.Concurrency;
 import ucar.nc2.write.ChunkingIndex;
 
 /**
@@ -22,6 +28,11 @@ public class NcStreamWriter {
   private static final int sizeToCache = 100; // when to store a variable's data in the header, ie "immediate" mode
   private static final int currentVersion = 1;
 
+  // reads the next slab of a large section while the current one is being written
+  private static ExecutorService getReadPool() {
+    return Concurrency.getSharedPool("NcStreamWriter-read");
+  }
+
   private NetcdfFile ncfile;
   private NcStreamProto.Header header;
   private boolean show;
@@ -68,6 +79,13 @@ public class NcStreamWriter {
     return size;
   }
 
+  /**
+   * Send one data message with the data of a section of a variable.
+   * A section larger than 1 Mbyte is read and written in slabs of about 1 Mbyte, with the next slab being read while
+   * the current one is written, so the data starts going out right away and memory use does not grow with the size
+   * of the section. With deflate compression, the compressed data is still held until the end of the message, since
+   * its size comes first.
+   */
   public long sendData(Variable v, Section section, OutputStream out, NcStreamCompression compress)
       throws IOException, InvalidRangeException {
     if (show)
@@ -123,11 +141,70 @@ public class NcStreamWriter {
 
     // Writing the size of the block is handled for us.
     out = compress.setupStream(out, (int) uncompressedLength);
-    size += v.readToStream(section, out);
+    List<Section> slabs = v.isVariableLength() ? null : makeSlabs(section, maxChunk / v.getElementSize());
+    if (slabs == null || slabs.size() < 2) {
+      size += v.readToStream(section, out);
+    } else {
+      size += sendSlabs(v, slabs, out);
+    }
     out.flush();
     return size;
   }
 
+  /**
+   * Split a section into slabs of no more than maxElems elements, in the order of the section's elements.
+   * Return null if the section has a range that can't be split.
+   */
+  static List<Section> makeSlabs(Section section, long maxElems) throws InvalidRangeException {
+    int rank = section.getRank();
+    for (int i = 0; i < rank; i++) {
+      Range r = section.getRange(i);
+      if (r == null || r.getClass() != Range.class)
+        return null;
+    }
+
+    List<Section> result = new ArrayList<>();
+    ChunkingIndex index = new ChunkingIndex(section.getShape());
+    while (index.currentElement() < index.getSize()) {
+      int[] slabOrigin = index.getCurrentCounter();
+      int[] slabShape = index.computeChunkShape(Math.max(1, maxElems));
+      List<Range> ranges = new ArrayList<>(rank);
+      for (int i = 0; i < rank; i++) {
+        Range r = section.getRange(i);
+        int first = r.element(slabOrigin[i]);
+        int last = r.element(slabOrigin[i] + slabShape[i] - 1);
+        ranges.add(new Range(r.getName(), first, last, r.stride()));
+      }
+      result.add(new Section(ranges));
+      index.setCurrentCounter(index.currentElement() + (int) Index.computeSize(slabShape));
+    }
+    return result;
+  }
+
+  // write the slabs, reading the next one in the background while the current one is written
+  private long sendSlabs(Variable v, List<Section> slabs, OutputStream out) throws IOException, InvalidRangeException {
+    ExecutorService pool = getReadPool();
+    DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+    long size = 0;
+    Future<Array> next = pool.submit(() -> v.read(slabs.get(0)));
+    try {
+      for (int i = 0; i < slabs.size(); i++) {
+        Array data = Concurrency.getResult(next, InvalidRangeException.class);
+        if (i + 1 < slabs.size()) {
+          Section nextSlab = slabs.get(i + 1);
+          next = pool.submit(() -> v.read(nextSlab));
+        } else {
+          next = null;
+        }
+        size += IospHelper.copyToOutputStream(data, dout);
+        dout.flush();
+      }
+    } finally {
+      Concurrency.cancel(next);
+    }
+    return size;
+  }
+
   // LOOK compression not used
   public long sendData2(Variable v, Section section, OutputStream out, NcStreamCompression compress)
       throws IOException, InvalidRangeException {
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Static routines for the thread pools that read or write files in parallel: their settings, the shared pools,
+ * and waiting on and cancelling their tasks.
+ */
+public class Concurrency {
+  private static final Logger logger = LoggerFactory.getLogger(Concurrency.class);
+
+  private static final Map<String, ExecutorService> sharedPools = new ConcurrentHashMap<>();
+
+  /**
+   * Get the value of an integer system property, typically set with a -D flag.
+   * If the property is not set, or is not an integer >= min, in which case a warning is logged, defaultValue is used.
+   *
+   * @param name the property name
+   * @param defaultValue the value if the property is not set or not valid
+   * @param min the smallest valid value
+   * @return the value of the property, or defaultValue
+   */
+  public static int getIntProperty(String name, int defaultValue, int min) {
+    return (int) getLongProperty(name, defaultValue, min, Integer.MAX_VALUE);
+  }
+
+  /** Get the value of a long system property, as getIntProperty does. */
+  public static long getLongProperty(String name, long defaultValue, long min) {
+    return getLongProperty(name, defaultValue, min, Long.MAX_VALUE);
+  }
+
+  private static long getLongProperty(String name, long defaultValue, long min, long max) {
+    String prop = System.getProperty(name);
+    if (prop == null)
+      return defaultValue;
+    try {
+      long value = Long.parseLong(prop.trim());
+      if (value >= min && value <= max)
+        return value;
+    } catch (NumberFormatException e) {
+      // fall through
+    }
+    logger.warn("-D{} must be an integer {}", name, min == 1 ? "> 0" : ">= " + min);
+    return defaultValue;
+  }
+
+  /** A ThreadFactory making daemon threads with the given name, so idle pools don't keep the JVM alive. */
+  public static ThreadFactory daemonThreadFactory(String name) {
+    return r -> {
+      Thread t = new Thread(r, name);
+      t.setDaemon(true);
+      return t;
+    };
+  }
+
+  /**
+   * Get the pool with the given name, shared by all its users and created on first use. Threads are created as
+   * needed, so the pool suits tasks that mostly wait on I/O; users bound the number of their own tasks in flight.
+   *
+   * @param name the name of the pool and its threads, by convention "ClassName-purpose"
+   * @return the shared pool, of daemon threads
+   */
+  public static ExecutorService getSharedPool(String name) {
+    return sharedPools.computeIfAbsent(name, n -> Executors.newCachedThreadPool(daemonThreadFactory(n)));
+  }
+
+  /**
+   * Get the pool with the given name, shared by all its users and created on first use, with a fixed number of
+   * threads. Suits tasks that mostly use the CPU, such as decoding.
+   *
+   * @param name the name of the pool and its threads, by convention "ClassName-purpose"
+   * @param nThreads the number of threads, when the pool is created
+   * @return the shared pool, of daemon threads
+   */
+  public static ExecutorService getSharedPool(String name, int nThreads) {
+    return sharedPools.computeIfAbsent(name, n -> Executors.newFixedThreadPool(nThreads, daemonThreadFactory(n)));
+  }
+
+  /**
+   * Wait for a task to finish and return its result.
+   * If the task failed, its IOException or unchecked exception is rethrown, anything else is wrapped in an
+   * IOException.
+   *
+   * @param future the task
+   * @return the result of the task
+   * @throws InterruptedIOException if interrupted while waiting, the interrupt flag is set again
+   * @throws IOException if the task failed
+   */
+  public static <T> T getResult(Future<T> future) throws IOException {
+    return getResult(future, IOException.class);
+  }
+
+  /**
+   * Wait for a task to finish and return its result.
+   * If the task failed, its IOException, exceptionType or unchecked exception is rethrown, anything else is wrapped
+   * in an IOException.
+   *
+   * @param future the task
+   * @param exceptionType a checked exception the task may throw, besides IOException
+   * @return the result of the task
+   * @throws InterruptedIOException if interrupted while waiting, the interrupt flag is set again
+   * @throws IOException if the task failed
+   * @throws X if the task failed with it
+   */
+  public static <T, X extends Exception> T getResult(Future<T> future, Class<X> exceptionType) throws IOException, X {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a task");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      if (exceptionType.isInstance(cause))
+        throw exceptionType.cast(cause);
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      if (cause instanceof Error)
+        throw (Error) cause;
+      throw new IOException(cause);
+    }
+  }
+
+  /** Wait for the next task of the completionService to finish and return its result, as getResult does. */
+  public static <T> T takeResult(CompletionService<T> completionService) throws IOException {
+    return takeResult(completionService, IOException.class);
+  }
+
+  /** Wait for the next task of the completionService to finish and return its result, as getResult does. */
+  public static <T, X extends Exception> T takeResult(CompletionService<T> completionService, Class<X> exceptionType)
+      throws IOException, X {
+    Future<T> future;
+    try {
+      future = completionService.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a task");
+    }
+    return getResult(future, exceptionType);
+  }
+
+  /**
+   * Cancel a task if it has not started. A running task is not interrupted, see
+   * {@link ucar.unidata.io.RandomAccessFile#readFully(long, byte[], int, int)}.
+   *
+   * @param future the task, may be null
+   */
+  public static void cancel(Future<?> future) {
+    if (future != null)
+      future.cancel(false);
+  }
+
+  /** Cancel the tasks that have not started, as cancel does. */
+  public static void cancelAll(Iterable<? extends Future<?>> futures) {
+    for (Future<?> future : futures)
+      cancel(future);
+  }
+
+  private Concurrency() {}
+}
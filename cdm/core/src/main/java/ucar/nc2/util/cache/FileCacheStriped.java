@@ -0,0 +1,679 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.util.cache;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Formatter;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.concurrent.ThreadSafe;
+import ucar.nc2.dataset.DatasetUrl;
+import ucar.nc2.time.CalendarDateFormatter;
+import ucar.nc2.util.CancelTask;
+import ucar.nc2.util.Concurrency;
+
+/**
+ * A cache of open FileCacheable objects for many concurrent users, with the same contract as {@link FileCache}:
+ * an acquired object is used by one thread until it is closed, which returns it to the cache.
+ * <ul>
+ * <li>No monitor is held while files are acquired or released. Entries are kept in a ConcurrentHashMap, whose
+ * per-bin locks are only taken when a key gains or loses an open file. Each key has a copy-on-write list of its
+ * open files, and a file is taken from the pool of idle ones, and given back, by compare-and-set of its state.</li>
+ * <li>Opens are single-flight: when a file is not open at all, concurrent acquires of it wait for one open instead
+ * of all opening it. If that open fails, they all fail with its exception. Once the file is open, acquires that find
+ * every copy in use open another one without waiting.</li>
+ * <li>Eviction runs on a background thread and never blocks acquire or release. When there are more than softLimit
+ * files, or every period seconds, the least recently used idle files are closed until minElements are left.
+ * Unlike FileCache, there is no hard limit.</li>
+ * <li>Hits, misses, open latency and evictions are counted, see {@link #getStats()}.</li>
+ * </ul>
+ * Use it in place of FileCache with, for example, {@code NetcdfDatasets.setNetcdfFileCache(new FileCacheStriped(...))}.
+ * Call {@link #shutdown()} when exiting the program.
+ */
+@ThreadSafe
+public class FileCacheStriped implements FileCacheIF {
+  private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(FileCacheStriped.class);
+  private static final org.slf4j.Logger cacheLog = org.slf4j.LoggerFactory.getLogger("cacheLogger");
+
+  // one thread evicts and closes files for all instances
+  private static ScheduledThreadPoolExecutor evictor;
+
+  private static synchronized ScheduledExecutorService getEvictor() {
+    if (evictor == null) {
+      evictor = new ScheduledThreadPoolExecutor(1, Concurrency.daemonThreadFactory("FileCacheStriped-evict"));
+      evictor.setRemoveOnCancelPolicy(true);
+    }
+    return evictor;
+  }
+
+  /**
+   * Shut down the eviction thread. Periodic evictions stop; evictions over the soft limit start a new thread.
+   */
+  public static synchronized void shutdown() {
+    if (evictor != null)
+      evictor.shutdownNow();
+    evictor = null;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////////////////
+
+  private static final int IN_USE = 0;
+  private static final int IDLE = 1;
+  private static final int CLOSED = 2;
+
+  private final String name;
+  private final int minElements, softLimit;
+  private final long period; // msecs
+
+  private final AtomicBoolean disabled = new AtomicBoolean(false);
+  private final AtomicBoolean evictionPending = new AtomicBoolean(false);
+  private ScheduledFuture<?> periodicEviction; // guarded by this
+
+  private final ConcurrentHashMap<Object, Entry> entries; // unique files (by key, often = filename)
+  private final ConcurrentHashMap<FileCacheable, Handle> handles; // all open files in the cache
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder sharedOpens = new LongAdder();
+  private final LongAdder openFailures = new LongAdder();
+  private final LongAdder openNanos = new LongAdder();
+  private final AtomicLong maxOpenNanos = new AtomicLong();
+  private final LongAdder evictions = new LongAdder();
+
+  /**
+   * Constructor.
+   *
+   * @param name of file cache
+   * @param minElementsInMemory evictions leave this number of files in the cache
+   * @param softLimit evict in the background when there are more than this number of files
+   * @param period if > 0, also evict every this number of seconds.
+   */
+  public FileCacheStriped(String name, int minElementsInMemory, int softLimit, int period) {
+    this.name = name;
+    this.minElements = minElementsInMemory;
+    this.softLimit = softLimit;
+    this.period = 1000L * period;
+
+    entries = new ConcurrentHashMap<>(2 * Math.max(softLimit, 16));
+    handles = new ConcurrentHashMap<>(4 * Math.max(softLimit, 16));
+    schedulePeriodicEviction();
+  }
+
+  private synchronized void schedulePeriodicEviction() {
+    if (period > 0 && periodicEviction == null) {
+      periodicEviction = getEvictor().scheduleAtFixedRate(() -> {
+        if (!disabled.get() && evictionPending.compareAndSet(false, true))
+          evict();
+      }, period, period, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private synchronized void cancelPeriodicEviction() {
+    if (periodicEviction != null)
+      periodicEviction.cancel(false);
+    periodicEviction = null;
+  }
+
+  /**
+   * Disable the cache, and force release all files.
+   */
+  @Override
+  public void disable() {
+    disabled.set(true);
+    cancelPeriodicEviction();
+    clearCache(true);
+  }
+
+  /**
+   * Enable the cache, with the current set of parameters.
+   */
+  @Override
+  public void enable() {
+    disabled.set(false);
+    schedulePeriodicEviction();
+  }
+
+  @Override
+  public FileCacheable acquire(FileFactory factory, DatasetUrl durl) throws IOException {
+    return acquire(factory, durl.trueurl, durl, -1, null, null);
+  }
+
+  /**
+   * Acquire a FileCacheable from the cache, and lock it so no one else can use it.
+   * If there is no idle copy in the cache, open it with the FileFactory; if the file is not open at all and
+   * another thread is already opening it, wait for that open to finish and try again.
+   * <p/>
+   * App should call FileCacheable.close when done, and the file is then released instead of closed.
+   *
+   * @param factory use this factory to open the file if not in the cache; may not be null
+   * @param hashKey unique key for this file. If null, the location will be used
+   * @param location file location, may also used as the cache name, will be passed to the NetcdfFileFactory
+   * @param buffer_size RandomAccessFile buffer size, if <= 0, use default size
+   * @param cancelTask user can cancel, ok to be null.
+   * @param spiObject passed to the factory if object needs to be recreated
+   * @return FileCacheable corresponding to location, or null if cancelled.
+   * @throws IOException on error, including the error of an open made by another thread
+   */
+  @Override
+  public FileCacheable acquire(FileFactory factory, Object hashKey, DatasetUrl location, int buffer_size,
+      CancelTask cancelTask, Object spiObject) throws IOException {
+    if (null == hashKey)
+      hashKey = location.trueurl;
+    if (null == hashKey)
+      throw new IllegalArgumentException();
+
+    if (disabled.get())
+      return factory.open(location, buffer_size, cancelTask, spiObject);
+
+    while (true) {
+      Entry entry = entries.get(hashKey);
+      if (entry != null) {
+        FileCacheable ncfile = acquireIdle(entry);
+        if (ncfile != null) {
+          hits.increment();
+          return ncfile;
+        }
+      } else {
+        entry = entries.computeIfAbsent(hashKey, Entry::new);
+      }
+
+      // the file is already open, but all copies are in use: open another
+      if (!entry.files.isEmpty())
+        return open(entry, factory, location, buffer_size, cancelTask, spiObject);
+
+      // otherwise open it once for everyone who wants it now
+      CompletableFuture<Void> current = entry.opening.get();
+      if (current == null) {
+        CompletableFuture<Void> flight = new CompletableFuture<>();
+        if (!entry.opening.compareAndSet(null, flight))
+          continue;
+        FileCacheable ncfile = null;
+        Throwable failure = null;
+        try {
+          ncfile = open(entry, factory, location, buffer_size, cancelTask, spiObject);
+          return ncfile;
+        } catch (IOException | RuntimeException e) {
+          failure = e;
+          throw e;
+        } finally {
+          if (ncfile == null) // failed or cancelled: don't keep an entry without files
+            removeIfEmpty(entry);
+          entry.opening.set(null);
+          if (failure == null)
+            flight.complete(null);
+          else
+            flight.completeExceptionally(failure);
+        }
+      }
+
+      sharedOpens.increment();
+      try {
+        current.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("FileCache " + name + " interrupted waiting for " + hashKey);
+      } catch (ExecutionException e) {
+        throw new IOException("FileCache " + name + " open failed for " + hashKey, e.getCause());
+      }
+      // the open finished; look for an idle copy, or open another
+    }
+  }
+
+  // take an idle file of this entry, or return null
+  private FileCacheable acquireIdle(Entry entry) {
+    for (Handle handle : entry.files) {
+      if (handle.state.get() != IDLE || !handle.state.compareAndSet(IDLE, IN_USE))
+        continue; // in use, or being evicted
+
+      if (handle.ncfile.getLastModified() != handle.lastModified) {
+        if (cacheLog.isDebugEnabled())
+          cacheLog.debug("FileCache {} acquire from cache {} {} was changed; discard", name, entry.hashKey,
+              handle.ncfile.getLocation());
+        discard(handle);
+        continue;
+      }
+
+      try {
+        handle.ncfile.reacquire(); // rehydrate
+      } catch (IOException ioe) {
+        if (cacheLog.isDebugEnabled())
+          cacheLog.debug("FileCache {} acquire from cache {} {} failed: {}", name, entry.hashKey,
+              handle.ncfile.getLocation(), ioe.getMessage());
+        discard(handle);
+        continue;
+      }
+      return handle.ncfile;
+    }
+    return null;
+  }
+
+  private FileCacheable open(Entry entry, FileFactory factory, DatasetUrl location, int buffer_size,
+      CancelTask cancelTask, Object spiObject) throws IOException {
+    misses.increment();
+    FileCacheable ncfile;
+    long start = System.nanoTime();
+    try {
+      ncfile = factory.open(location, buffer_size, cancelTask, spiObject);
+    } catch (IOException | RuntimeException e) {
+      openFailures.increment();
+      throw e;
+    } finally {
+      long took = System.nanoTime() - start;
+      openNanos.add(took);
+      maxOpenNanos.accumulateAndGet(took, Math::max);
+    }
+
+    // user may have canceled
+    if (ncfile == null || (cancelTask != null && cancelTask.isCancel())) {
+      if (ncfile != null)
+        ncfile.close();
+      return null;
+    }
+
+    // the entry may have been evicted or ejected while we were opening
+    long lastModified = ncfile.getLastModified();
+    Handle[] handle = new Handle[1];
+    entries.compute(entry.hashKey, (key, e) -> {
+      Entry home = (e == null) ? new Entry(key) : e;
+      handle[0] = new Handle(home, ncfile, lastModified);
+      home.files.add(handle[0]);
+      return home;
+    });
+    handles.put(ncfile, handle[0]);
+    ncfile.setFileCache(this);
+    if (cacheLog.isDebugEnabled())
+      cacheLog.debug("FileCache {} acquire {} {}", name, entry.hashKey, ncfile.getLocation());
+
+    maybeEvict();
+    return ncfile;
+  }
+
+  /**
+   * Release the file. This unlocks it, updates its lastAccessed date, and puts it in the pool of idle files.
+   * Normally applications need not call this, just close the file as usual.
+   *
+   * @param ncfile release this file.
+   * @return true if file was in cache, false if it was not
+   */
+  @Override
+  public boolean release(FileCacheable ncfile) throws IOException {
+    if (ncfile == null)
+      return false;
+
+    Handle handle = handles.get(ncfile);
+    if (handle == null)
+      return false;
+
+    if (disabled.get()) {
+      if (handle.state.getAndSet(CLOSED) != CLOSED)
+        remove(handle);
+      return false; // the caller closes it
+    }
+
+    if (handle.state.get() != IN_USE)
+      cacheLog.warn("FileCache {} release {} not locked; hash= {}", name, ncfile.getLocation(), ncfile.hashCode());
+    handle.lastAccessed = System.currentTimeMillis();
+    handle.countAccessed++;
+
+    try {
+      ncfile.release();
+    } catch (IOException ioe) {
+      cacheLog.error("FileCache {} release failed on {} - will remove from cache. Failure due to:", name,
+          ncfile.getLocation(), ioe);
+      discard(handle);
+      return true;
+    }
+
+    Entry entry = handle.entry;
+    if (entry.ejected) {
+      discard(handle);
+      return true;
+    }
+    handle.state.set(IDLE);
+    // eject may have looked at this file before it was idle
+    if (entry.ejected && handle.state.compareAndSet(IDLE, CLOSED)) {
+      remove(handle);
+      closeInBackground(ncfile);
+    }
+
+    maybeEvict();
+    return true;
+  }
+
+  // close a file that the caller took from the cache
+  private void discard(Handle handle) {
+    handle.state.set(CLOSED);
+    remove(handle);
+    closeInBackground(handle.ncfile);
+  }
+
+  // take a handle, already marked CLOSED, out of the cache, and unhook the caching of its file
+  private void remove(Handle handle) {
+    Entry entry = handle.entry;
+    entry.files.remove(handle);
+    handles.remove(handle.ncfile);
+    removeIfEmpty(entry);
+    handle.ncfile.setFileCache(null);
+  }
+
+  private void removeIfEmpty(Entry entry) {
+    if (entry.files.isEmpty())
+      entries.computeIfPresent(entry.hashKey, (key, e) -> (e == entry && e.files.isEmpty()) ? null : e);
+  }
+
+  // for testing
+  int getEntryCount() {
+    return entries.size();
+  }
+
+  private void close(FileCacheable ncfile) {
+    try {
+      ncfile.close();
+    } catch (IOException e) {
+      log.error("FileCache " + name + " close failed on " + ncfile.getLocation(), e);
+    }
+  }
+
+  private void closeInBackground(FileCacheable ncfile) {
+    try {
+      getEvictor().execute(() -> close(ncfile));
+    } catch (RejectedExecutionException e) {
+      close(ncfile); // shut down
+    }
+  }
+
+  private void maybeEvict() {
+    if (softLimit > 0 && handles.size() > softLimit && evictionPending.compareAndSet(false, true)) {
+      try {
+        getEvictor().execute(this::evict);
+      } catch (RejectedExecutionException e) {
+        evictionPending.set(false);
+      }
+    }
+  }
+
+  // We need to freeze the lastAccessed value for sorting, since releases change it.
+  private static class Candidate implements Comparable<Candidate> {
+    private final Handle handle;
+    private final long lastAccessed;
+
+    Candidate(Handle handle) {
+      this.handle = handle;
+      this.lastAccessed = handle.lastAccessed;
+    }
+
+    @Override
+    public int compareTo(Candidate o) {
+      return Long.compare(lastAccessed, o.lastAccessed);
+    }
+  }
+
+  // close the least recently used idle files, down to minElements. Runs on the evictor thread.
+  private void evict() {
+    try {
+      int size = handles.size();
+      if (size <= minElements)
+        return;
+
+      List<Candidate> candidates = new ArrayList<>();
+      for (Handle handle : handles.values()) {
+        if (handle.state.get() == IDLE)
+          candidates.add(new Candidate(handle));
+      }
+      Collections.sort(candidates); // oldest first
+
+      int need = size - minElements;
+      int count = 0;
+      long start = System.currentTimeMillis();
+      for (Candidate candidate : candidates) {
+        if (count >= need)
+          break;
+        Handle handle = candidate.handle;
+        if (handle.state.compareAndSet(IDLE, CLOSED)) { // an acquire may have taken it
+          remove(handle);
+          close(handle.ncfile);
+          count++;
+        }
+      }
+      evictions.add(count);
+      if (cacheLog.isDebugEnabled())
+        cacheLog.debug("FileCache {} evict had={} removed={} took={} msecs", name, size, count,
+            System.currentTimeMillis() - start);
+
+    } catch (RuntimeException e) {
+      log.error("FileCache " + name + " eviction failed", e);
+    } finally {
+      evictionPending.set(false);
+    }
+  }
+
+  /**
+   * Remove all instances of object from the cache. Idle files are closed now, files in use when they are released.
+   *
+   * @param hashKey the object
+   */
+  @Override
+  public void eject(Object hashKey) {
+    if (disabled.get())
+      return;
+
+    Entry entry = entries.remove(hashKey);
+    if (entry == null)
+      return;
+    entry.ejected = true;
+    for (Handle handle : entry.files) {
+      if (handle.state.compareAndSet(IDLE, CLOSED)) {
+        remove(handle);
+        close(handle.ncfile);
+      }
+    }
+  }
+
+  /**
+   * Remove all cache entries.
+   *
+   * @param force if true, remove them even if they are currently locked.
+   */
+  @Override
+  public void clearCache(boolean force) {
+    int count = 0;
+    for (Handle handle : handles.values()) {
+      boolean take = handle.state.compareAndSet(IDLE, CLOSED);
+      if (!take && force && handle.state.compareAndSet(IN_USE, CLOSED)) {
+        cacheLog.warn("FileCache {} force close locked file= {}", name, handle.ncfile.getLocation());
+        take = true;
+      }
+      if (take) {
+        remove(handle);
+        close(handle.ncfile);
+        count++;
+      }
+    }
+    if (cacheLog.isDebugEnabled())
+      cacheLog.debug("*FileCache {} clearCache force= {} deleted= {} left= {}", name, force, count, handles.size());
+  }
+
+  /**
+   * Get the counts of this cache since it was created, or since {@link #resetTracking()}.
+   */
+  public Stats getStats() {
+    int idle = 0;
+    for (Handle handle : handles.values()) {
+      if (handle.state.get() == IDLE)
+        idle++;
+    }
+    return new Stats(hits.sum(), misses.sum(), sharedOpens.sum(), openFailures.sum(), openNanos.sum(),
+        maxOpenNanos.get(), evictions.sum(), handles.size(), idle);
+  }
+
+  /** Reset the counts. */
+  @Override
+  public void resetTracking() {
+    hits.reset();
+    misses.reset();
+    sharedOpens.reset();
+    openFailures.reset();
+    openNanos.reset();
+    maxOpenNanos.set(0);
+    evictions.reset();
+  }
+
+  @Override
+  public void showTracking(Formatter format) {
+    showStats(format);
+  }
+
+  @Override
+  public void showCache(Formatter format) {
+    List<Handle> all = new ArrayList<>(handles.values());
+    all.sort((a, b) -> Long.compare(a.lastAccessed, b.lastAccessed)); // oldest on top
+
+    format.format("%nFileCacheStriped %s (min=%d softLimit=%d scour=%d secs):%n", name, minElements, softLimit,
+        period / 1000);
+    format.format(" isLocked  accesses lastAccess                   location %n");
+    for (Handle handle : all) {
+      format.format("%8s %9d %s == %s %n", handle.state.get() == IN_USE, handle.countAccessed,
+          CalendarDateFormatter.toDateTimeStringISO(handle.lastAccessed), handle.ncfile.getLocation());
+    }
+    showStats(format);
+  }
+
+  @Override
+  public List<String> showCache() {
+    List<Handle> all = new ArrayList<>(handles.values());
+    all.sort((a, b) -> Long.compare(a.lastAccessed, b.lastAccessed));
+    List<String> result = new ArrayList<>(all.size());
+    for (Handle handle : all) {
+      result.add(handle.toString());
+    }
+    return result;
+  }
+
+  @Override
+  public void showStats(Formatter format) {
+    format.format("  %s%n", getStats());
+  }
+
+  /** Counts of cache activity. */
+  public static class Stats {
+    private final long hits, misses, sharedOpens, openFailures, openNanos, maxOpenNanos, evictions;
+    private final int nfiles, nidle;
+
+    Stats(long hits, long misses, long sharedOpens, long openFailures, long openNanos, long maxOpenNanos,
+        long evictions, int nfiles, int nidle) {
+      this.hits = hits;
+      this.misses = misses;
+      this.sharedOpens = sharedOpens;
+      this.openFailures = openFailures;
+      this.openNanos = openNanos;
+      this.maxOpenNanos = maxOpenNanos;
+      this.evictions = evictions;
+      this.nfiles = nfiles;
+      this.nidle = nidle;
+    }
+
+    /** Acquires that found an idle file in the cache. */
+    public long getHits() {
+      return hits;
+    }
+
+    /** Acquires that opened a file; this is the number of opens. */
+    public long getMisses() {
+      return misses;
+    }
+
+    /** Times an acquire waited for another thread to open the file, instead of opening it. */
+    public long getSharedOpens() {
+      return sharedOpens;
+    }
+
+    /** Opens that threw an exception. */
+    public long getOpenFailures() {
+      return openFailures;
+    }
+
+    /** Mean time taken by an open, in msecs. */
+    public double getMeanOpenMillis() {
+      return misses == 0 ? 0 : openNanos / 1.0e6 / misses;
+    }
+
+    /** Longest time taken by an open, in msecs. */
+    public double getMaxOpenMillis() {
+      return maxOpenNanos / 1.0e6;
+    }
+
+    /** Idle files closed by eviction. */
+    public long getEvictions() {
+      return evictions;
+    }
+
+    /** Number of open files in the cache, idle or in use. */
+    public int getFileCount() {
+      return nfiles;
+    }
+
+    /** Number of idle files in the cache. */
+    public int getIdleCount() {
+      return nidle;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("hits= %d miss= %d shared= %d failed= %d open= %.3f (max %.3f) msecs evictions= %d"
+          + " nfiles= %d idle= %d", hits, misses, sharedOpens, openFailures, getMeanOpenMillis(), getMaxOpenMillis(),
+          evictions, nfiles, nidle);
+    }
+  }
+
+  // all the open files with the same key, and the single open in flight when there are none
+  private static class Entry {
+    final Object hashKey;
+    final CopyOnWriteArrayList<Handle> files = new CopyOnWriteArrayList<>(); // open files, idle or in use
+    final AtomicReference<CompletableFuture<Void>> opening = new AtomicReference<>();
+    volatile boolean ejected;
+
+    Entry(Object hashKey) {
+      this.hashKey = hashKey;
+    }
+  }
+
+  private static class Handle {
+    final Entry entry;
+    final FileCacheable ncfile;
+    final long lastModified;
+    final AtomicInteger state = new AtomicInteger(IN_USE);
+    volatile long lastAccessed;
+    volatile int countAccessed; // only changed by the thread that has it locked
+
+    Handle(Entry entry, FileCacheable ncfile, long lastModified) {
+      this.entry = entry;
+      this.ncfile = ncfile;
+      this.lastModified = lastModified;
+      this.lastAccessed = System.currentTimeMillis();
+    }
+
+    @Override
+    public String toString() {
+      return (state.get() == IN_USE) + " " + countAccessed + " "
+          + CalendarDateFormatter.toDateTimeStringISO(lastAccessed) + "   " + ncfile.getLocation();
+    }
+  }
+}
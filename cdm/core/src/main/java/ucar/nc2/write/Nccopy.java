@@ -32,11 +32,12 @@ public class Nccopy {
     String formatLegacy = null;
 
     @Parameter(names = {"-outf", "--outformat"}, description = "Output file format. Allowed values = "
-        + "[netcdf3, netcdf4, netcdf4_classic, netcdf3_64bit_offset,  ncstream] (See NetcdfFileFormat enum values)")
+        + "[netcdf3, netcdf4, netcdf4_classic, netcdf3_64bit_offset,  ncstream, zarr] "
+        + "(See NetcdfFileFormat enum values)")
     NetcdfFileFormat format = NetcdfFileFormat.NETCDF3;
 
     @Parameter(names = {"-st", "--strategy"},
-        description = "Chunking strategy. Only used in NetCDF 4. Allowed values = [standard, grib, none]")
+        description = "Chunking strategy. Only used in NetCDF 4 and Zarr. Allowed values = [standard, grib, none]")
     Nc4Chunking.Strategy strategy = Nc4Chunking.Strategy.standard;
 
     @Parameter(names = {"-isLargeFile", "--isLargeFile"},
@@ -46,14 +47,22 @@ public class Nccopy {
     @Parameter(names = {"-useJna", "--useJna"}, description = "Use JNA/netCDF C library for writing.")
     boolean useJna;
 
-    @Parameter(names = {"-d", "--deflateLevel"}, description = "Compression level. Only used in NetCDF 4. "
+    @Parameter(names = {"-d", "--deflateLevel"}, description = "Compression level. Only used in NetCDF 4 and Zarr. "
         + "Allowed values = 0 (no compression, fast) to 9 (max compression, slow)")
     int deflateLevel = 5;
 
     @Parameter(names = {"-sh", "--shuffle"}, description = "Enable the shuffle filter, which may improve compression. "
-        + "Only used in NetCDF 4. This option is ignored unless a non-zero deflate level is specified.")
+        + "Only used in NetCDF 4 and Zarr. This option is ignored unless a non-zero deflate level is specified.")
     boolean shuffle = true;
 
+    @Parameter(names = {"-w", "--workers"},
+        description = "Number of threads reading the input. Default is the number of available processors.")
+    int workers = NetcdfCopier.getDefaultParallelism();
+
+    @Parameter(names = {"-m", "--memoryLimit"},
+        description = "Maximum Mbytes of data read from the input and not yet written to the output.")
+    long memoryLimit = NetcdfCopier.DEFAULT_MEMORY_BUDGET / 1000 / 1000;
+
     @Parameter(names = "--diskCacheRoot",
         description = "Set the DiskCache root. "
             + "This parameter controls where temporary files will be stored, if necessary "
@@ -71,7 +80,8 @@ public class Nccopy {
 
       // Display parameters in this order in the usage information.
       private final List<String> orderedParamNames = Arrays.asList("--input", "--output", "--ncformat", "--isLargeFile",
-          "--strategy", "--deflateLevel", "--shuffle", "--diskCacheRoot", "--useJna", "--help");
+          "--strategy", "--deflateLevel", "--shuffle", "--workers", "--memoryLimit", "--diskCacheRoot", "--useJna",
+          "--help");
 
       @Override
       public int compare(ParameterDescription p0, ParameterDescription p1) {
@@ -172,7 +182,9 @@ public class Nccopy {
 
       NetcdfFormatWriter.Builder builder = NetcdfFormatWriter.builder().setNewFile(true).setFormat(getFormat(cmdLine))
           .setLocation(datasetOut).setChunker(cmdLine.getNc4Chunking()).setUseJna(cmdLine.useJna);
-      NetcdfCopier copier = NetcdfCopier.create(ncfileIn, builder);
+      NetcdfCopier copier = NetcdfCopier.create(ncfileIn, builder).setParallelism(cmdLine.workers)
+          .setMemoryBudget(cmdLine.memoryLimit * 1000 * 1000)
+          .setInputOpener(() -> ucar.nc2.dataset.NetcdfDatasets.openFile(datasetIn, null));
 
       try (NetcdfFile ncfileOut = copier.write(cancel)) {
 
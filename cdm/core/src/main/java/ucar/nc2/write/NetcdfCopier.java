@@ -6,6 +6,18 @@ package ucar.nc2.write;
 
 import com.google.common.base.Preconditions;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 import ucar.ma2.Array;
 import ucar.ma2.ArrayChar;
@@ -23,17 +35,24 @@ import ucar.nc2.NetcdfFile;
 import ucar.nc2.Structure;
 import ucar.nc2.Variable;
 import ucar.nc2.util.CancelTask;
+import ucar.nc2.util.Concurrency;
 
 /**
  * Utility class for copying a NetcdfFile object, or parts of one, to a netcdf-3 or netcdf-4 disk file.
  * This handles the entire CDM model (groups, etc) if you are writing to netcdf-4.
- * If copying from an extended model to classic model, Strings are converted to Chars; nested groups are not allowed.
+ * If copying from an extended model to classic model, Strings are converted to Chars; nested groups are not allowed,
+ * except in Zarr stores.
  * <p/>
  * The fileIn may be an NcML file which has a referenced dataset in the location URL, the underlying data (modified by
  * the NcML) is written to the new file. If the NcML does not have a referenced dataset, then the new file is filled
  * with
  * fill values, like ncgen.
  * <p/>
+ * Variables are copied in sections that line up with the chunks of the output variables. The sections are read on up
+ * to {@link #setParallelism} worker threads and written in order by the calling thread, holding no more than
+ * {@link #setMemoryBudget} bytes of data in memory at once. The workers read the input file one at a time, unless
+ * {@link #setInputOpener} lets each of them open its own copy.
+ * <p/>
  * Use Nccopy for a command line interface.
  * Use NetcdfFormatWriter object for a lower level API.
  */
@@ -42,6 +61,30 @@ public class NetcdfCopier {
   private static final long maxSize = 50 * 1000 * 1000; // 50 Mbytes
   private static boolean debug, debugWrite;
 
+  /** System property for the default number of worker threads reading sections. */
+  public static final String PARALLELISM = "unidata.copier.parallelism";
+  /** Default memory budget, in bytes, for sections that have been read and not yet written. */
+  public static final long DEFAULT_MEMORY_BUDGET = 500 * 1000 * 1000; // 500 Mbytes
+
+  private static volatile int defaultParallelism =
+      Concurrency.getIntProperty(PARALLELISM, Runtime.getRuntime().availableProcessors(), 1);
+
+  /**
+   * Set the default number of worker threads that read sections of the input file.
+   * Default is the number of available processors, or the system property {@value #PARALLELISM}.
+   *
+   * @param parallelism number of worker threads, must be > 0
+   */
+  public static void setDefaultParallelism(int parallelism) {
+    if (parallelism <= 0)
+      throw new IllegalArgumentException("parallelism must be > 0");
+    defaultParallelism = parallelism;
+  }
+
+  public static int getDefaultParallelism() {
+    return defaultParallelism;
+  }
+
   public static void setDebugFlags(ucar.nc2.util.DebugFlags debugFlags) {
     debug = debugFlags.isSet("ncfileWriter/debug");
     debugWrite = debugFlags.isSet("ncfileWriter/debugWrite");
@@ -51,6 +94,9 @@ public class NetcdfCopier {
   private final NetcdfFile fileIn;
   private final NetcdfFormatWriter.Builder writerb;
   private final boolean extended;
+  private int parallelism; // 0 means the default
+  private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+  private InputOpener inputOpener;
 
   public static NetcdfCopier create(NetcdfFile fileIn, NetcdfFormatWriter.Builder ncwriter) {
     Preconditions.checkNotNull(fileIn);
@@ -63,12 +109,66 @@ public class NetcdfCopier {
     this.writerb = writerb;
     this.extended = getOutputFormat().isExtendedModel();
 
-    // Try to do some checking
-    if (!fileIn.getRootGroup().getGroups().isEmpty() && !extended) {
+    // Try to do some checking; Zarr stores have groups but otherwise the classic model
+    if (!fileIn.getRootGroup().getGroups().isEmpty() && !extended && getOutputFormat() != NetcdfFileFormat.ZARR) {
       throw new IllegalStateException("Input file has nested groups: cannot write to format= " + getOutputFormat());
     }
   }
 
+  /**
+   * Set the number of worker threads that read sections of the input file, overriding the default.
+   * Use 1 to read and write on the calling thread only.
+   *
+   * @param parallelism number of worker threads, must be > 0
+   * @return this
+   */
+  public NetcdfCopier setParallelism(int parallelism) {
+    if (parallelism <= 0)
+      throw new IllegalArgumentException("parallelism must be > 0");
+    this.parallelism = parallelism;
+    return this;
+  }
+
+  public int getParallelism() {
+    return parallelism > 0 ? parallelism : defaultParallelism;
+  }
+
+  /**
+   * Set the maximum number of bytes of data that have been read and not yet written. A single section larger than
+   * this is still copied, by itself. Default is {@link #DEFAULT_MEMORY_BUDGET}.
+   *
+   * @param memoryBudget in bytes, must be > 0
+   * @return this
+   */
+  public NetcdfCopier setMemoryBudget(long memoryBudget) {
+    if (memoryBudget <= 0)
+      throw new IllegalArgumentException("memoryBudget must be > 0");
+    this.memoryBudget = memoryBudget;
+    return this;
+  }
+
+  public long getMemoryBudget() {
+    return memoryBudget;
+  }
+
+  /** Opens another copy of the input file. */
+  public interface InputOpener {
+    NetcdfFile open() throws IOException;
+  }
+
+  /**
+   * Let each worker thread read from its own copy of the input file, so that reads don't wait for each other.
+   * The copies must have the same variables as the input file, and are closed when the copy is done.
+   * Without an opener, the worker threads read the input file one at a time.
+   *
+   * @param inputOpener opens a copy of the input file, or null
+   * @return this
+   */
+  public NetcdfCopier setInputOpener(@Nullable InputOpener inputOpener) {
+    this.inputOpener = inputOpener;
+    return this;
+  }
+
   private NetcdfFileFormat getOutputFormat() {
     return writerb.getFormat();
   }
@@ -277,35 +377,304 @@ public class NetcdfCopier {
     int countVars;
   }
 
+  /** A variable to copy, with the variable it is copied to. */
+  private static class VarPair {
+    final Variable oldVar;
+    final Variable newVar;
+
+    VarPair(Variable oldVar, Variable newVar) {
+      this.oldVar = oldVar;
+      this.newVar = newVar;
+    }
+  }
+
+  /** A section that has been submitted for reading, and is waiting to be written. */
+  private static class PendingSection {
+    final Variable newVar;
+    final int[] origin; // in newVar
+    final long bytes;
+    final Future<Array> data;
+
+    PendingSection(Variable newVar, int[] origin, long bytes, Future<Array> data) {
+      this.newVar = newVar;
+      this.origin = origin;
+      this.bytes = bytes;
+      this.data = data;
+    }
+  }
+
+  private void collectVariables(Group groupIn, Group groupOut, List<VarPair> result) {
+    for (Variable oldVar : groupIn.getVariables()) {
+      result.add(new VarPair(oldVar, groupOut.findVariableLocal(oldVar.getShortName())));
+    }
+    for (Group nestedIn : groupIn.getGroups()) {
+      collectVariables(nestedIn, groupOut.findGroupLocal(nestedIn.getShortName()), result);
+    }
+  }
+
+  /**
+   * Copy the data of all variables. Each variable is split into sections that line up with the chunks of the output
+   * variable, the sections are read by up to parallelism worker threads, and written in order by this thread. Sections
+   * that have been read but not yet written are held in memory, up to the memory budget.
+   */
   private void copyVariableData(NetcdfFormatWriter ncwriter, Group groupIn, Group groupOut, Count counter,
       CancelTask cancel) throws IOException {
-    for (Variable oldVar : groupIn.getVariables()) {
-      if (cancel.isCancel()) {
+    List<VarPair> vars = new ArrayList<>();
+    collectVariables(groupIn, groupOut, vars);
+    long totalBytes = 0;
+    for (VarPair pair : vars) {
+      totalBytes += pair.oldVar.getSize() * pair.oldVar.getElementSize();
+    }
+
+    int nworkers = getParallelism();
+    long budget = getMemoryBudget();
+    long maxSectionBytes = Math.max(1, Math.min(maxSize, budget / nworkers));
+    ExecutorService pool = nworkers > 1
+        ? Executors.newFixedThreadPool(nworkers, Concurrency.daemonThreadFactory("NetcdfCopier-read")) : null;
+
+    // the copies of the input file opened by the worker threads
+    List<NetcdfFile> opened = Collections.synchronizedList(new ArrayList<>());
+    ThreadLocal<NetcdfFile> workerInput = new ThreadLocal<>();
+
+    Progress progress = new Progress(cancel, totalBytes);
+    Deque<PendingSection> pending = new ArrayDeque<>();
+    long inFlightBytes = 0;
+    try {
+      for (VarPair pair : vars) {
+        if (cancel.isCancel()) {
+          return;
+        }
+        Variable oldVar = pair.oldVar;
+        Variable newVar = pair.newVar;
+        if (debug) {
+          System.out.format("write var= %s size = %d type = %s%n", oldVar.getFullName(), oldVar.getSize(),
+              oldVar.getDataType());
+        }
+        counter.countVars++;
+        long size = oldVar.getSize() * oldVar.getElementSize();
+        counter.bytes += size;
+
+        if (oldVar.isVariableLength() || oldVar instanceof Structure) {
+          // not split into sections; the writes stay in order since all pending sections are written first
+          while (!pending.isEmpty()) {
+            inFlightBytes -= writeSection(ncwriter, pending.removeFirst(), progress);
+          }
+          copyAll(ncwriter, oldVar, newVar);
+          progress.add(size);
+          continue;
+        }
+
+        int[] shape = oldVar.getShape();
+        if (Index.computeSize(shape) == 0) { // zero when record dimension = 0
+          continue;
+        }
+        long maxElems = Math.max(1, maxSectionBytes / oldVar.getElementSize());
+        int[] sectionShape = computeSectionShape(shape, getChunkShape(newVar, shape), maxElems);
+
+        int[] sectionOrigin = new int[shape.length];
+        do {
+          int[] origin = sectionOrigin.clone();
+          int[] sshape = new int[shape.length];
+          for (int i = 0; i < shape.length; i++) {
+            sshape[i] = Math.min(sectionShape[i], shape[i] - origin[i]);
+          }
+          long bytes = Index.computeSize(sshape) * oldVar.getElementSize();
+
+          // keep the sections in memory within the budget, but always allow one
+          while (!pending.isEmpty() && (inFlightBytes + bytes > budget || pending.size() >= 2 * nworkers)) {
+            inFlightBytes -= writeSection(ncwriter, pending.removeFirst(), progress);
+            if (cancel.isCancel()) {
+              return;
+            }
+          }
+
+          Callable<Array> reader =
+              () -> readSection(getInput(pool, workerInput, opened), oldVar, newVar, origin, sshape);
+          Future<Array> future;
+          if (pool != null) {
+            future = pool.submit(reader);
+          } else {
+            FutureTask<Array> task = new FutureTask<>(reader);
+            task.run();
+            future = task;
+          }
+          int[] writeOrigin = origin;
+          if (newVar.getRank() > origin.length) { // String converted to char
+            writeOrigin = Arrays.copyOf(origin, newVar.getRank());
+          }
+          pending.addLast(new PendingSection(newVar, writeOrigin, bytes, future));
+          inFlightBytes += bytes;
+        } while (nextSection(sectionOrigin, sectionShape, shape));
+      }
+
+      while (!pending.isEmpty()) {
+        writeSection(ncwriter, pending.removeFirst(), progress);
+        if (cancel.isCancel()) {
+          return;
+        }
+      }
+
+    } finally {
+      for (PendingSection section : pending) { // on cancel or failure, don't start the rest
+        Concurrency.cancel(section.data);
+      }
+      if (pool != null) {
+        pool.shutdown();
+        try {
+          pool.awaitTermination(1, TimeUnit.MINUTES); // reads in progress, before closing their files
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      for (NetcdfFile copy : opened) {
+        copy.close();
+      }
+    }
+  }
+
+  // the file this worker reads from: its own copy of the input file if there is an opener, else the shared input
+  private NetcdfFile getInput(ExecutorService pool, ThreadLocal<NetcdfFile> workerInput, List<NetcdfFile> opened)
+      throws IOException {
+    if (pool == null || inputOpener == null) {
+      return fileIn;
+    }
+    NetcdfFile result = workerInput.get();
+    if (result == null) {
+      result = inputOpener.open();
+      opened.add(result);
+      workerInput.set(result);
+    }
+    return result;
+  }
+
+  // the chunk shape of the output variable, or all ones if it is not chunked
+  private int[] getChunkShape(Variable newVar, int[] shape) {
+    int[] result = new int[shape.length];
+    Arrays.fill(result, 1);
+    Nc4Chunking chunker = writerb.getChunker();
+    NetcdfFileFormat format = getOutputFormat();
+    boolean chunkedFormat = format.isNetcdf4Format() || format == NetcdfFileFormat.ZARR;
+    if (chunker == null || !chunkedFormat || newVar.getRank() != shape.length || !chunker.isChunked(newVar)) {
+      return result;
+    }
+    long[] chunks = chunker.computeChunking(newVar);
+    if (chunks == null || chunks.length != shape.length) {
+      return result;
+    }
+    for (int i = 0; i < shape.length; i++) {
+      result[i] = (int) Math.max(1, Math.min(chunks[i], shape[i]));
+    }
+    return result;
+  }
+
+  /**
+   * Compute the shape of the sections that a variable is copied in. Each side is a multiple of the chunk shape, or
+   * the whole dimension, growing from the innermost dimension out, so that sections are as contiguous as possible
+   * and no bigger than maxElems, unless a single chunk is bigger.
+   *
+   * @param shape shape of the variable
+   * @param chunkShape chunk shape of the output variable, all ones if it is not chunked
+   * @param maxElems maximum number of elements in a section
+   * @return the section shape
+   */
+  static int[] computeSectionShape(int[] shape, int[] chunkShape, long maxElems) {
+    int rank = shape.length;
+    int[] result = new int[rank];
+    long size = 1;
+    for (int i = 0; i < rank; i++) {
+      result[i] = Math.max(1, Math.min(chunkShape[i], shape[i]));
+      size *= result[i];
+    }
+    for (int i = rank - 1; i >= 0; i--) {
+      long others = size / result[i];
+      long multiple = Math.max(1, maxElems / others / result[i]);
+      long n = result[i] * multiple;
+      if (n < shape[i]) {
+        result[i] = (int) n;
         break;
       }
-      Variable newVar = groupOut.findVariableLocal(oldVar.getShortName());
-      if (debug) {
-        System.out.format("write var= %s size = %d type = %s%n", oldVar.getFullName(), oldVar.getSize(),
-            oldVar.getDataType());
+      result[i] = shape[i];
+      size = others * shape[i];
+    }
+    return result;
+  }
+
+  // step origin to the next section in row-major order, return false when done
+  private static boolean nextSection(int[] origin, int[] sectionShape, int[] shape) {
+    for (int i = origin.length - 1; i >= 0; i--) {
+      origin[i] += sectionShape[i];
+      if (origin[i] < shape[i]) {
+        return true;
       }
-      cancel.setProgress("writing " + oldVar.getFullName(), counter.countVars++);
+      origin[i] = 0;
+    }
+    return false;
+  }
 
-      long size = oldVar.getSize() * oldVar.getElementSize();
-      counter.bytes += size;
+  private Array readSection(NetcdfFile input, Variable oldVar, Variable newVar, int[] origin, int[] shape)
+      throws IOException, InvalidRangeException {
+    Array data;
+    if (input == fileIn) {
+      synchronized (fileIn) { // reading a NetcdfFile is not thread safe
+        data = oldVar.read(origin, shape);
+      }
+    } else {
+      Variable copyVar = input.findVariable(oldVar.getFullNameEscaped());
+      if (copyVar == null) {
+        throw new IOException("Variable " + oldVar.getFullName() + " is not in " + input.getLocation());
+      }
+      data = copyVar.read(origin, shape);
+    }
+    if (!extended && oldVar.getDataType() == DataType.STRING) {
+      data = convertDataToChar(newVar, data);
+    }
+    return data;
+  }
 
-      if (size <= maxSize) {
-        copyAll(ncwriter, oldVar, newVar);
-      } else {
-        copySome(ncwriter, oldVar, newVar, maxSize, cancel);
+  // wait for the section to be read and write it, return its size in bytes
+  private long writeSection(NetcdfFormatWriter ncwriter, PendingSection section, Progress progress)
+      throws IOException {
+    Array data = Concurrency.getResult(section.data);
+
+    try {
+      if (data.getSize() > 0) {
+        ncwriter.write(section.newVar, section.origin, data);
+        if (debugWrite) {
+          System.out.println(" write " + data.getSize() + " elements at " + section.newVar.getShortName() + " "
+              + new Section(section.origin, data.getShape()));
+        }
       }
+    } catch (InvalidRangeException e) {
+      throw new IOException(e.getMessage() + " for Variable " + section.newVar.getFullName(), e);
     }
+    progress.add(section.bytes);
+    return section.bytes;
+  }
 
-    for (Group nestedIn : groupIn.getGroups()) {
-      if (cancel.isCancel()) {
-        break;
+  /** Reports bytes copied and throughput to the CancelTask, at most once a second. */
+  private static class Progress {
+    final CancelTask cancel;
+    final long totalBytes;
+    final long startNanos = System.nanoTime();
+    long bytes;
+    long lastReport;
+
+    Progress(CancelTask cancel, long totalBytes) {
+      this.cancel = cancel;
+      this.totalBytes = totalBytes;
+    }
+
+    void add(long n) {
+      bytes += n;
+      long now = System.nanoTime();
+      if (now - lastReport < 1000 * 1000 * 1000 && bytes < totalBytes) {
+        return;
       }
-      Group nestedOut = groupOut.findGroupLocal(nestedIn.getShortName());
-      copyVariableData(ncwriter, nestedIn, nestedOut, counter, cancel);
+      lastReport = now;
+      double secs = Math.max(1.0e-9, (now - startNanos) / 1.0e9);
+      int percent = totalBytes > 0 ? (int) (100 * bytes / totalBytes) : 100;
+      cancel.setProgress(String.format("Copied %d of %d Mbytes (%.1f Mbytes/sec)", bytes / 1000 / 1000,
+          totalBytes / 1000 / 1000, bytes / 1.0e6 / secs), percent);
     }
   }
 
@@ -326,62 +695,10 @@ public class NetcdfCopier {
     }
   }
 
-  /**
-   * Copies data from {@code oldVar} to {@code newVar}. The writes are done in a series of chunks no larger than
-   * {@code maxChunkSize}
-   * bytes.
-   *
-   * @param oldVar a variable from the original file to copy data from.
-   * @param newVar a variable from the original file to copy data from.
-   * @param maxChunkSize the size, <b>in bytes</b>, of the largest chunk to write.
-   * @param cancel allow user to cancel, may be null.
-   * @throws IOException if an I/O error occurs.
-   */
-  private void copySome(NetcdfFormatWriter ncwriter, Variable oldVar, Variable newVar, long maxChunkSize,
-      CancelTask cancel) throws IOException {
-    long maxChunkElems = maxChunkSize / oldVar.getElementSize();
-    long byteWriteTotal = 0;
-
-    ChunkingIndex index = new ChunkingIndex(oldVar.getShape());
-    while (index.currentElement() < index.getSize()) {
-      try {
-        int[] chunkOrigin = index.getCurrentCounter();
-        int[] chunkShape = index.computeChunkShape(maxChunkElems);
-
-        cancel.setProgress(
-            "Reading chunk " + new Section(chunkOrigin, chunkShape) + " from variable: " + oldVar.getShortName(), -1);
-
-        Array data = oldVar.read(chunkOrigin, chunkShape);
-        if (!getOutputFormat().isNetcdf4Format() && oldVar.getDataType() == DataType.STRING) {
-          data = convertDataToChar(newVar, data);
-        }
-
-        if (data.getSize() > 0) { // zero when record dimension = 0
-          cancel.setProgress(
-              "Writing chunk " + new Section(chunkOrigin, chunkShape) + " from variable: " + oldVar.getShortName(), -1);
-
-          ncwriter.write(newVar, chunkOrigin, data);
-          if (debugWrite) {
-            System.out.println(" write " + data.getSize() + " bytes at " + new Section(chunkOrigin, chunkShape));
-          }
-
-          byteWriteTotal += data.getSize();
-        }
-
-        index.setCurrentCounter(index.currentElement() + (int) Index.computeSize(chunkShape));
-        if (cancel.isCancel()) {
-          return;
-        }
-
-      } catch (InvalidRangeException e) {
-        e.printStackTrace();
-        throw new IOException(e.getMessage());
-      }
-    }
-  }
-
   private Array convertDataToChar(Variable newVar, Array oldData) {
-    ArrayChar newData = (ArrayChar) Array.factory(DataType.CHAR, newVar.getShape());
+    int[] shape = Arrays.copyOf(oldData.getShape(), oldData.getRank() + 1);
+    shape[oldData.getRank()] = newVar.getShape(newVar.getRank() - 1);
+    ArrayChar newData = (ArrayChar) Array.factory(DataType.CHAR, shape);
     Index ima = newData.getIndex();
     IndexIterator ii = oldData.getIndexIterator();
     while (ii.hasNext()) {
@@ -21,6 +21,7 @@ import ucar.ma2.InvalidRangeException;
 import ucar.ma2.Section;
 import ucar.ma2.StructureData;
 import ucar.nc2.*;
+import ucar.nc2.internal.iosp.hdf5.H5iospWriter;
 import ucar.nc2.internal.iosp.netcdf3.N3iospNew;
 import ucar.nc2.internal.iosp.netcdf3.N3iospWriter;
 import ucar.nc2.iosp.IOServiceProvider;
@@ -71,7 +72,7 @@ public class NetcdfFormatWriter implements Closeable {
    *
    * @param format One of the netcdf-4 NetcdfFileFormat.
    * @param location name of new file to open; if it exists, will overwrite it.
-   * @param chunker used only for netcdf4, or null for default chunking algorithm
+   * @param chunker used only for netcdf4 and zarr, or null for default chunking algorithm
    * @return new NetcdfFormatWriter
    */
   public static NetcdfFormatWriter.Builder createNewNetcdf4(NetcdfFileFormat format, String location,
@@ -157,13 +158,21 @@ public class NetcdfFormatWriter implements Closeable {
       return this;
     }
 
-    /** Nc4Chunking, used only for netcdf4 */
+    /** Nc4Chunking, used only for netcdf4 and zarr */
     public Builder setChunker(Nc4Chunking chunker) {
       this.chunker = chunker;
       return this;
     }
 
-    /** Set if you want to use JNA / netcdf c library to do the writing. Default is false. */
+    public Nc4Chunking getChunker() {
+      return chunker;
+    }
+
+    /**
+     * Set if you want to use JNA / netcdf c library to do the writing. Default is false.
+     * New netcdf4 files are otherwise written in pure Java, unless they contain something the pure Java writer does
+     * not support, such as Structures or enums; existing netcdf4 files always use the netcdf c library.
+     */
     public Builder setUseJna(boolean useJna) {
       this.useJna = useJna;
       return this;
@@ -293,10 +302,11 @@ public class NetcdfFormatWriter implements Closeable {
     this.extraHeaderBytes = builder.extraHeaderBytes;
     this.preallocateSize = builder.preallocateSize;
     this.chunker = builder.chunker;
-    this.useJna = builder.useJna || format.isNetcdf4Format();
 
     this.ncout = NetcdfFile.builder().setRootGroup(builder.rootGroup).setLocation(builder.location).build();
     this.rootGroup = this.ncout.getRootGroup();
+    this.useJna = builder.useJna
+        || (format.isNetcdf4Format() && (!isNewFile || !H5iospWriter.canWrite(this.ncout, format)));
 
     if (!isNewFile) {
       existingRaf = new ucar.unidata.io.RandomAccessFile(location, "rw");
@@ -310,7 +320,24 @@ public class NetcdfFormatWriter implements Closeable {
       existingRaf = null;
     }
 
-    if (useJna) {
+    if (format == NetcdfFileFormat.ZARR) {
+      if (!isNewFile) {
+        throw new IllegalArgumentException("Zarr stores can only be written as new files: " + location);
+      }
+      String className = "ucar.nc2.iosp.zarr.ZarrIospWriter";
+      IOServiceProviderWriter spi;
+      try {
+        Class iospClass = this.getClass().getClassLoader().loadClass(className);
+        spi = (IOServiceProviderWriter) iospClass.getConstructor().newInstance();
+
+        Method method = iospClass.getMethod("setChunker", Nc4Chunking.class);
+        method.invoke(spi, chunker);
+      } catch (Throwable e) {
+        throw new IllegalArgumentException(className + " cannot be loaded (is cdm-zarr on the classpath?) err= "
+            + e.getMessage());
+      }
+      spiw = spi;
+    } else if (useJna) {
       String className = "ucar.nc2.jni.netcdf.Nc4Iosp";
       IOServiceProviderWriter spi;
       try {
@@ -325,6 +352,10 @@ public class NetcdfFormatWriter implements Closeable {
         throw new IllegalArgumentException(className + " cannot use JNI/C library err= " + e.getMessage());
       }
       spiw = spi;
+    } else if (format.isNetcdf4Format()) {
+      H5iospWriter spi = new H5iospWriter(format);
+      spi.setChunker(chunker);
+      spiw = spi;
     } else {
       spiw = new N3iospWriter(new N3iospNew());
     }
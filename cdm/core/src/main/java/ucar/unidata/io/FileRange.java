@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.unidata.io;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A range of bytes in a file, for {@link RandomAccessFile#readVectored(java.util.List)} and
+ * {@link RandomAccessFile#prefetch(java.util.List)}.
+ */
+@Immutable
+public final class FileRange {
+  private final long offset;
+  private final int length;
+
+  /**
+   * Constructor.
+   *
+   * @param offset start of the range in the file, must be >= 0
+   * @param length number of bytes, must be >= 0
+   */
+  public FileRange(long offset, int length) {
+    if (offset < 0 || length < 0)
+      throw new IllegalArgumentException("offset and length must be >= 0");
+    this.offset = offset;
+    this.length = length;
+  }
+
+  /** Start of the range in the file. */
+  public long getOffset() {
+    return offset;
+  }
+
+  /** Number of bytes in the range. */
+  public int getLength() {
+    return length;
+  }
+
+  /** Position just after the end of the range. */
+  public long getEnd() {
+    return offset + length;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o)
+      return true;
+    if (!(o instanceof FileRange))
+      return false;
+    FileRange other = (FileRange) o;
+    return offset == other.offset && length == other.length;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * Long.hashCode(offset) + length;
+  }
+
+  @Override
+  public String toString() {
+    return "FileRange{" + offset + ", " + length + '}';
+  }
+}
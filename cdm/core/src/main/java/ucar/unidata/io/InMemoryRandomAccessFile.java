@@ -45,6 +45,12 @@ public class InMemoryRandomAccessFile extends ucar.unidata.io.RandomAccessFile {
     return dataEnd;
   }
 
+  /** Always null: the name of the data is not tied to its contents. */
+  @Override
+  public String getContentVersion() {
+    return null;
+  }
+
   @Override
   public void setBufferSize(int bufferSize) {
     // do nothing
@@ -58,6 +64,13 @@ public class InMemoryRandomAccessFile extends ucar.unidata.io.RandomAccessFile {
     return len;
   }
 
+  @Override
+  protected int readAt(long pos, byte[] b, int offset, int len) {
+    if (pos >= buffer.length)
+      return -1;
+    return read_(pos, b, offset, len);
+  }
+
   @Override
   public long readToByteChannel(WritableByteChannel dest, long offset, long nbytes) throws IOException {
     return dest.write(ByteBuffer.wrap(buffer, (int) offset, (int) nbytes));
@@ -15,6 +15,8 @@ import javax.annotation.concurrent.Immutable;
 @Immutable
 public class KMPMatch {
 
+  private static final int SHORT_MATCH = 8; // longest pattern searched for without the failure table
+
   private final byte[] match;
   private final int[] failure;
 
@@ -41,10 +43,12 @@ public class KMPMatch {
    * @return index into data[] of first match, else -1 if not found.
    */
   public int indexOf(byte[] data, int start, int max) {
-    int j = 0;
     if (data.length == 0)
       return -1;
+    if (match.length <= SHORT_MATCH)
+      return indexOfShort(data, start, max);
 
+    int j = 0;
     for (int i = start; i < start + max; i++) {
       while (j > 0 && match[j] != data[i])
         j = failure[j - 1];
@@ -59,6 +63,23 @@ public class KMPMatch {
     return -1;
   }
 
+  // Short patterns, such as the magic strings that start GRIB and BUFR messages, are found faster by scanning for the
+  // first byte and then comparing the rest, since the first byte is rare in the data and the inner loop is tight.
+  private int indexOfShort(byte[] data, int start, int max) {
+    int last = start + max - match.length; // last possible start of a match
+    byte first = match[0];
+    for (int i = start; i <= last; i++) {
+      if (data[i] != first)
+        continue;
+      int j = 1;
+      while (j < match.length && data[i + j] == match[j])
+        j++;
+      if (j == match.length)
+        return i;
+    }
+    return -1;
+  }
+
   /*
    * Finds the first occurrence of match in data.
    * 
@@ -4,99 +4,361 @@
  */
 package ucar.unidata.io;
 
-import java.io.*;
-import java.nio.channels.FileChannel;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import ucar.unidata.io.spi.RandomAccessFileProvider;
+import ucar.unidata.util.StringUtil2;
 
 /**
- * Use NIO MappedByteBuffer to implement a RandomAccessFile.
- * Limited to 2G size. Not currently used - NOT UP TO DATE DO NOT USE
- * 
- * @deprecated not part of public API.
+ * A read-only RandomAccessFile that memory maps the file, instead of copying reads through a buffer.
+ * Files larger than 2 Gb are mapped as a sequence of segments.
+ * Primitive array reads use NIO view buffers directly on the mapping, and {@link #readByteBuffer(long, int)}
+ * returns a slice of the mapping without copying, when the bytes lie within one segment.
+ * The positional reads, such as {@link #readFloats(long, float[], int, int, ByteOrder)}, also use views on the
+ * mapping, and are safe to call from several threads at once.
+ * The small buffer inherited from RandomAccessFile is only filled by {@link #readBuffer(long)}, when searching, so
+ * {@link #searchForward(KMPMatch, int)} and {@link MessageFinder} work as for any other RandomAccessFile.
+ * <p>
+ * The file is mapped when it is opened, so data appended to it afterwards is not seen.
+ * To use it from NetcdfFiles, prefix the location with "mmap:", eg {@code NetcdfFiles.open("mmap:/data/file.nc")}.
  */
-@Deprecated
 public class MMapRandomAccessFile extends RandomAccessFile {
+  /** Location prefix owned by the {@link Provider}. */
+  public static final String PREFIX = "mmap:";
+
+  static final int DEFAULT_SEGMENT_SHIFT = 30; // 1 Gb segments
+  private static final int SEARCH_BUFFER_SIZE = 8 * 1024;
 
-  private MappedByteBuffer source;
+  private final long size;
+  private final int segmentShift;
+  private final long segmentMask;
+  private MappedByteBuffer[] segments; // null when closed
 
   /**
-   * Constructor for in-memory "files"
-   * 
-   * @param location used as a name
-   * @param mode the open mode
+   * Constructor.
+   *
+   * @param location location of the file
+   * @param mode the open mode, must be "r"
    * @throws java.io.IOException on error
    */
   public MMapRandomAccessFile(String location, String mode) throws IOException {
-    super(location, mode, 1);
-    FileChannel channel = file.getChannel();
-    source = channel.map(readonly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE, (long) 0,
-        channel.size());
-    // channel.close();
+    this(location, mode, DEFAULT_SEGMENT_SHIFT);
+  }
+
+  // segments of (1 << segmentShift) bytes; small values are used for testing
+  MMapRandomAccessFile(String location, String mode, int segmentShift) throws IOException {
+    super(location, checkMode(mode), SEARCH_BUFFER_SIZE);
+    this.segmentShift = segmentShift;
+    this.segmentMask = (1L << segmentShift) - 1;
 
+    try {
+      FileChannel channel = file.getChannel();
+      this.size = channel.size();
+      long segmentSize = 1L << segmentShift;
+      int nsegs = (int) ((size + segmentSize - 1) >>> segmentShift);
+      this.segments = new MappedByteBuffer[nsegs];
+      for (int i = 0; i < nsegs; i++) {
+        long start = (long) i << segmentShift;
+        segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segmentSize, size - start));
+      }
+    } catch (IOException | RuntimeException e) {
+      file.close();
+      throw e;
+    }
+
+    // reads do not use the buffer, it is only filled by readBuffer, for searching
     bufferStart = 0;
-    dataSize = (int) channel.size();
-    dataEnd = channel.size();
+    dataSize = 0;
+    dataEnd = 0;
     filePosition = 0;
-    buffer = null;
     endOfFile = false;
   }
 
+  private static String checkMode(String mode) {
+    if (!"r".equals(mode))
+      throw new IllegalArgumentException("MMapRandomAccessFile is read only, mode must be \"r\"");
+    return mode;
+  }
 
-  public void flush() {
-    if (bufferModified) {
-      source.force();
-      bufferModified = false;
+  private MappedByteBuffer[] segments() throws IOException {
+    MappedByteBuffer[] result = segments;
+    if (result == null)
+      throw new IOException("File is closed: " + location);
+    return result;
+  }
+
+  // copy bytes starting at pos into b, crossing segments as needed. return number of bytes copied
+  private int copy(long pos, byte[] b, int offset, int len) throws IOException {
+    MappedByteBuffer[] segs = segments();
+    int n = (int) Math.min(len, size - pos);
+    int done = 0;
+    while (done < n) {
+      long p = pos + done;
+      ByteBuffer seg = segs[(int) (p >>> segmentShift)].duplicate();
+      int segPos = (int) (p & segmentMask);
+      int count = Math.min(n - done, seg.limit() - segPos);
+      seg.position(segPos);
+      seg.get(b, offset + done, count);
+      done += count;
     }
+    return n;
+  }
+
+  @Override
+  public void close() throws IOException {
+    super.close();
+    segments = null; // the mappings are released when garbage collected
   }
 
+  @Override
   public long length() {
-    return dataEnd;
+    return size;
   }
 
-  public void seek(long pos) {
-    filePosition = pos;
-    if (filePosition < dataEnd)
-      source.position((int) filePosition);
-    else
-      endOfFile = true;
+  @Override
+  public void setBufferSize(int bufferSize) {
+    // do nothing
   }
 
-  public void unread() {
-    seek(filePosition - 1);
+  @Override
+  public void flush() {
+    // read only
   }
 
-  public int read() {
-    // If the file position is within the data, return the byte...
-    if (filePosition < dataEnd) {
-      filePosition++;
-      return source.get() & 0xff;
+  @Override
+  public void write(int b) throws IOException {
+    throw new IOException("MMapRandomAccessFile is read only");
+  }
 
-    } else {
+  @Override
+  public void writeBytes(byte[] b, int off, int len) throws IOException {
+    throw new IOException("MMapRandomAccessFile is read only");
+  }
+
+  @Override
+  public void seek(long pos) throws IOException {
+    if (pos < 0)
+      throw new java.io.IOException("Negative seek offset");
+    filePosition = pos;
+    endOfFile = pos >= size;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (filePosition >= size) {
+      endOfFile = true;
+      return -1;
+    }
+    long pos = filePosition++;
+    return segments()[(int) (pos >>> segmentShift)].get((int) (pos & segmentMask)) & 0xff;
+  }
+
+  @Override
+  public int readBytes(byte[] b, int off, int len) throws IOException {
+    if (filePosition >= size) {
+      endOfFile = true;
       return -1;
     }
+    int n = copy(filePosition, b, off, len);
+    filePosition += n;
+    return n;
   }
 
-  public int readBytes(byte[] dst, int offset, int length) {
-    if (endOfFile)
+  @Override
+  protected int read_(long pos, byte[] b, int offset, int len) throws IOException {
+    if (segments == null || pos >= size)
       return -1;
+    return copy(pos, b, offset, len);
+  }
+
+  // copying from the mapping is stateless, so positional reads need no lock
+  @Override
+  protected int readAt(long pos, byte[] b, int offset, int len) throws IOException {
+    return read_(pos, b, offset, len);
+  }
+
+  /**
+   * Read nbytes starting at pos. If they lie within one mapped segment, the result is a read-only view of the
+   * mapping, otherwise they are copied into a heap buffer. The file pointer is left at pos + nbytes.
+   */
+  @Override
+  public ByteBuffer readByteBuffer(long pos, int nbytes) throws IOException {
+    if (pos < 0 || nbytes < 0)
+      throw new IllegalArgumentException("pos and nbytes must be >= 0");
+    if (pos + nbytes > size)
+      throw new EOFException("Reading " + location + " at " + pos + " file length = " + size);
+
+    ByteOrder bo = bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+    ByteBuffer result;
+    int segPos = (int) (pos & segmentMask);
+    ByteBuffer seg = (nbytes == 0) ? null : segments()[(int) (pos >>> segmentShift)];
+    if (seg != null && segPos + nbytes <= seg.limit()) {
+      ByteBuffer dup = seg.duplicate();
+      dup.position(segPos);
+      dup.limit(segPos + nbytes);
+      result = dup.slice();
+    } else {
+      byte[] b = new byte[nbytes];
+      copy(pos, b, 0, nbytes);
+      result = ByteBuffer.wrap(b);
+    }
+    filePosition = pos + nbytes;
+    return result.order(bo);
+  }
 
-    length = (int) Math.min(length, dataEnd - filePosition);
-    if (length > 0) {
-      source.get(dst, offset, length);
-      filePosition += length;
+  @Override
+  public long readToByteChannel(WritableByteChannel dest, long offset, long nbytes) throws IOException {
+    long need = Math.min(nbytes, size - offset);
+    long done = 0;
+    while (done < need) {
+      long p = offset + done;
+      int segPos = (int) (p & segmentMask);
+      ByteBuffer seg = segments()[(int) (p >>> segmentShift)].duplicate();
+      seg.position(segPos);
+      seg.limit((int) Math.min(seg.limit(), segPos + need - done));
+      int count = dest.write(seg);
+      if (count == 0)
+        break;
+      done += count;
     }
-    return length;
+    return done;
   }
 
-  public void write(int b) {
-    source.put((byte) b);
-    filePosition++;
-    bufferModified = true;
+  // view the next nelems * elemSize bytes, and advance the file pointer past them
+  private ByteBuffer view(int nelems, int elemSize) throws IOException {
+    return readByteBuffer(filePosition, nelems * elemSize);
   }
 
-  public void writeBytes(byte[] dst, int offset, int length) {
-    source.put(dst, offset, length);
-    filePosition += length;
+  private static boolean tooBig(int nelems, int elemSize) {
+    return (long) nelems * elemSize > Integer.MAX_VALUE;
   }
 
+  @Override
+  public void readShort(short[] pa, int start, int n) throws IOException {
+    if (tooBig(n, 2))
+      super.readShort(pa, start, n);
+    else
+      view(n, 2).asShortBuffer().get(pa, start, n);
+  }
+
+  @Override
+  public void readInt(int[] pa, int start, int n) throws IOException {
+    if (tooBig(n, 4))
+      super.readInt(pa, start, n);
+    else
+      view(n, 4).asIntBuffer().get(pa, start, n);
+  }
+
+  @Override
+  public void readLong(long[] pa, int start, int n) throws IOException {
+    if (tooBig(n, 8))
+      super.readLong(pa, start, n);
+    else
+      view(n, 8).asLongBuffer().get(pa, start, n);
+  }
+
+  @Override
+  public void readFloat(float[] pa, int start, int n) throws IOException {
+    if (tooBig(n, 4))
+      super.readFloat(pa, start, n);
+    else
+      view(n, 4).asFloatBuffer().get(pa, start, n);
+  }
+
+  @Override
+  public void readDouble(double[] pa, int start, int n) throws IOException {
+    if (tooBig(n, 8))
+      super.readDouble(pa, start, n);
+    else
+      view(n, 8).asDoubleBuffer().get(pa, start, n);
+  }
+
+  // a view of nelems * elemSize bytes at pos without changing the file pointer, or null if they cross segments
+  private ByteBuffer positionalView(long pos, int nelems, int elemSize, ByteOrder bo) throws IOException {
+    if (tooBig(nelems, elemSize) || pos < 0)
+      return null;
+    int nbytes = nelems * elemSize;
+    if (pos + nbytes > size)
+      throw new EOFException("Reading " + location + " at " + pos + " file length = " + size);
+    int segPos = (int) (pos & segmentMask);
+    ByteBuffer seg = (nbytes == 0) ? null : segments()[(int) (pos >>> segmentShift)];
+    if (seg == null || segPos + nbytes > seg.limit())
+      return null;
+    ByteBuffer dup = seg.duplicate();
+    dup.position(segPos);
+    dup.limit(segPos + nbytes);
+    return dup.slice().order(bo);
+  }
+
+  @Override
+  public void readShorts(long pos, short[] pa, int start, int n, ByteOrder bo) throws IOException {
+    ByteBuffer view = positionalView(pos, n, 2, bo);
+    if (view == null)
+      super.readShorts(pos, pa, start, n, bo);
+    else
+      view.asShortBuffer().get(pa, start, n);
+  }
+
+  @Override
+  public void readInts(long pos, int[] pa, int start, int n, ByteOrder bo) throws IOException {
+    ByteBuffer view = positionalView(pos, n, 4, bo);
+    if (view == null)
+      super.readInts(pos, pa, start, n, bo);
+    else
+      view.asIntBuffer().get(pa, start, n);
+  }
+
+  @Override
+  public void readLongs(long pos, long[] pa, int start, int n, ByteOrder bo) throws IOException {
+    ByteBuffer view = positionalView(pos, n, 8, bo);
+    if (view == null)
+      super.readLongs(pos, pa, start, n, bo);
+    else
+      view.asLongBuffer().get(pa, start, n);
+  }
+
+  @Override
+  public void readFloats(long pos, float[] pa, int start, int n, ByteOrder bo) throws IOException {
+    ByteBuffer view = positionalView(pos, n, 4, bo);
+    if (view == null)
+      super.readFloats(pos, pa, start, n, bo);
+    else
+      view.asFloatBuffer().get(pa, start, n);
+  }
+
+  @Override
+  public void readDoubles(long pos, double[] pa, int start, int n, ByteOrder bo) throws IOException {
+    ByteBuffer view = positionalView(pos, n, 8, bo);
+    if (view == null)
+      super.readDoubles(pos, pa, start, n, bo);
+    else
+      view.asDoubleBuffer().get(pa, start, n);
+  }
+
+  /**
+   * Hook for service provider interface RandomAccessFileProvider.
+   * Owns local file locations with the "mmap:" prefix.
+   */
+  public static class Provider implements RandomAccessFileProvider {
+
+    @Override
+    public boolean isOwnerOf(String location) {
+      return location.startsWith(PREFIX);
+    }
+
+    @Override
+    public RandomAccessFile open(String location) throws IOException {
+      String path = location.substring(PREFIX.length()).split("#")[0];
+      if (path.startsWith("file://"))
+        path = path.substring(7);
+      else if (path.startsWith("file:"))
+        path = StringUtil2.unescape(path.substring(5));
+      return new MMapRandomAccessFile(StringUtil2.replace(path, '\\', "/"), "r");
+    }
+  }
 }
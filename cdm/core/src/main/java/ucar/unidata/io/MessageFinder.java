@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.unidata.io;
+
+import java.io.IOException;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Finds the messages in a file of concatenated messages, such as GRIB or BUFR, where each message starts with a
+ * magic string followed by an indicator section that gives the length of the message. Headers and garbage between
+ * messages are skipped.
+ * <p>
+ * The indicator section is parsed by the subclass straight from the buffer of the RandomAccessFile, so a caller that
+ * then reads the message sections finds them already buffered. Only the start and length of the current message are
+ * kept, so nothing is allocated per message, and the bodies of messages are not read at all. When the next message
+ * does not follow in the buffer, the file is searched for it in large blocks, bypassing the buffer.
+ * This works for any RandomAccessFile, since readBuffer always leaves the buffer holding the file from bufferStart to
+ * dataEnd, even in subclasses such as MMapRandomAccessFile that read without it.
+ * <p>
+ * This moves the file pointer of the RandomAccessFile, so callers must seek before reading from it themselves.
+ */
+@NotThreadSafe
+public abstract class MessageFinder {
+  /** Default size of the blocks read when searching. */
+  public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+  private final RandomAccessFile raf;
+  private final KMPMatch matcher;
+  private final int indicatorLength;
+  private final int blockSize;
+  private byte[] block; // only allocated if we have to search past the buffer
+  private long blockStart;
+  private int blockLength;
+
+  // the bytes passed to parseIndicator, which are the raf buffer
+  private byte[] bytes;
+  private long bytesStart;
+
+  private long start = -1;
+  private long length;
+
+  /**
+   * Constructor
+   *
+   * @param raf find messages in this file
+   * @param magic each message starts with these bytes
+   * @param indicatorLength number of bytes, starting with the magic, passed to {@link #parseIndicator}.
+   * @param blockSize size of the blocks read when searching
+   */
+  protected MessageFinder(RandomAccessFile raf, byte[] magic, int indicatorLength, int blockSize) {
+    if (indicatorLength < magic.length || blockSize < indicatorLength)
+      throw new IllegalArgumentException("indicatorLength=" + indicatorLength + " blockSize=" + blockSize);
+    this.raf = raf;
+    this.matcher = new KMPMatch(magic);
+    this.indicatorLength = indicatorLength;
+    this.blockSize = blockSize;
+  }
+
+  /**
+   * Parse the indicator section of a message.
+   *
+   * @param buffer the indicator section is in here
+   * @param offset the magic string is at buffer[offset], and the indicator ends before buffer[offset +
+   *        indicatorLength]
+   * @return the length of the message in bytes, or -1 if this is not a message that should be found, in which case
+   *         the search continues from the byte after the magic string.
+   */
+  protected abstract long parseIndicator(byte[] buffer, int offset);
+
+  /**
+   * Position in the file of a byte in the buffer passed to {@link #parseIndicator}.
+   *
+   * @param offset index in the buffer
+   * @return position in the file
+   */
+  protected long positionOf(int offset) {
+    return bytesStart + offset;
+  }
+
+  /**
+   * Find the first message that starts at or after pos. If found, its start and length are available from
+   * {@link #getStart()} and {@link #getLength()}.
+   *
+   * @param pos start searching here
+   * @return false if there are no more messages with a complete indicator section in the file.
+   */
+  public boolean find(long pos) throws IOException {
+    start = -1;
+    while (true) {
+      long candidate = search(pos);
+      if (candidate < 0)
+        return false;
+      int offset = fill(candidate, indicatorLength);
+      if (offset < 0)
+        return false;
+      long len = parseIndicator(bytes, offset);
+      if (len >= 0) {
+        start = candidate;
+        length = len;
+        return true;
+      }
+      pos = candidate + 1;
+    }
+  }
+
+  /** Start of the current message, or -1 if there is none. */
+  public long getStart() {
+    return start;
+  }
+
+  /** Length of the current message, from its indicator section. */
+  public long getLength() {
+    return length;
+  }
+
+  /** Position of the byte after the current message, according to its indicator section. */
+  public long getEnd() {
+    return start + length;
+  }
+
+  /**
+   * Get a byte of the file.
+   *
+   * @param pos position in the file
+   * @return the byte as 0-255, or -1 if pos is past the end of the file.
+   */
+  public int getByte(long pos) throws IOException {
+    int offset = fill(pos, 1);
+    return (offset < 0) ? -1 : bytes[offset] & 0xff;
+  }
+
+  /**
+   * See if the file contains the given bytes at pos, for example the end marker of a message.
+   *
+   * @param pos position in the file
+   * @param pattern compare to these bytes
+   * @return true if all the bytes match; false if any do not, or the file ends first.
+   */
+  public boolean matches(long pos, byte[] pattern) throws IOException {
+    int offset = fill(pos, pattern.length);
+    if (offset < 0)
+      return false;
+    for (int i = 0; i < pattern.length; i++) {
+      if (bytes[offset + i] != pattern[i])
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Copy bytes of the file, for example a header before the current message.
+   *
+   * @param pos position in the file
+   * @param dest copy into this array
+   * @param off starting here
+   * @param len number of bytes to copy
+   * @throws java.io.EOFException if the file ends first.
+   */
+  public void copy(long pos, byte[] dest, int off, int len) throws IOException {
+    if (pos >= raf.bufferStart && pos + len <= raf.dataEnd) {
+      System.arraycopy(raf.buffer, (int) (pos - raf.bufferStart), dest, off, len);
+    } else if (inBlock(pos, len)) {
+      System.arraycopy(block, (int) (pos - blockStart), dest, off, len);
+    } else {
+      raf.seek(pos);
+      raf.readFully(dest, off, len);
+    }
+  }
+
+  // return the position of the first match at or after pos, or -1 if none
+  private long search(long pos) throws IOException {
+    int magicLength = matcher.getMatchLength();
+    // usually the next message follows in the buffer, or in the next buffer full
+    for (int tries = 0; tries < 2; tries++) {
+      if (tries > 0 || pos < raf.bufferStart || pos >= raf.dataEnd) {
+        if (raf.length() - pos < magicLength)
+          return -1;
+        raf.readBuffer(pos);
+      }
+      int index = matcher.indexOf(raf.buffer, (int) (pos - raf.bufferStart), (int) (raf.dataEnd - pos));
+      if (index >= 0)
+        return raf.bufferStart + index;
+      pos = Math.max(pos, raf.dataEnd - magicLength + 1); // the match may start in the buffer and end past it
+    }
+
+    // otherwise search in large blocks
+    long fileLength = raf.length();
+    while (fileLength - pos >= magicLength) {
+      if (!inBlock(pos, magicLength))
+        readBlock(pos, (int) Math.min(blockSize, fileLength - pos));
+      if (!inBlock(pos, magicLength))
+        return -1; // the file ended early
+      int offset = (int) (pos - blockStart);
+      int index = matcher.indexOf(block, offset, blockLength - offset);
+      if (index >= 0)
+        return blockStart + index;
+      pos = Math.max(pos + 1, blockStart + blockLength - magicLength + 1);
+    }
+    return -1;
+  }
+
+  // make sure the n bytes starting at pos are in bytes[], and return their offset, or -1 if the file ends first
+  private int fill(long pos, int n) throws IOException {
+    if (pos < raf.bufferStart || pos + n > raf.dataEnd) {
+      if (pos < 0 || raf.length() - pos < n)
+        return -1;
+      raf.readBuffer(pos);
+      if (pos + n > raf.dataEnd)
+        return -1;
+    }
+    bytes = raf.buffer;
+    bytesStart = raf.bufferStart;
+    return (int) (pos - bytesStart);
+  }
+
+  private boolean inBlock(long pos, int n) {
+    return block != null && pos >= blockStart && pos + n <= blockStart + blockLength;
+  }
+
+  private void readBlock(long pos, int size) throws IOException {
+    if (block == null || block.length < size)
+      block = new byte[size];
+    int n = 0;
+    while (n < size) {
+      int count = raf.read_(pos + n, block, n, size - n);
+      if (count <= 0)
+        break;
+      n += count;
+    }
+    blockStart = pos;
+    blockLength = n;
+  }
+}
@@ -16,8 +16,10 @@ import ucar.nc2.util.cache.FileCacheIF;
 import ucar.nc2.util.cache.FileCacheable;
 import ucar.nc2.util.cache.FileFactory;
 import ucar.unidata.util.StringUtil2;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.WritableByteChannel;
 import java.util.*;
@@ -49,6 +51,8 @@ import java.util.concurrent.atomic.AtomicLong;
  * Freeware Java Classes</a>.
  * <p/>
  * Must be thread confined - that is, can only be used by a single thread at a time..
+ * The exception is the positional read methods such as {@link #readFully(long, byte[], int, int)} and
+ * {@link #readFloats(long, float[])}, which do not use the file pointer or buffer and may be called concurrently.
  *
  * @author Alex McManus
  * @author Russ Rew
@@ -65,6 +69,8 @@ public class RandomAccessFile implements DataInput, DataOutput, FileCacheable, C
   public static final int LITTLE_ENDIAN = 1;
 
   protected static final int defaultBufferSize = 8092; // The default buffer size, in bytes.
+  // file systems may only keep last modified times to the second or two, so a file is rewritten "at the same time"
+  private static final long MODIFIED_RESOLUTION = 2000; // msecs
 
   ///////////////////////////////////////////////////////////////////////
   // debug leaks - keep track of open files
@@ -470,6 +476,29 @@ public class RandomAccessFile implements DataInput, DataOutput, FileCacheable, C
     return file.lastModified();
   }
 
+  /**
+   * Identifies the current contents of the file, so that what was read from one version of the file is not used for
+   * another, eg by {@link ucar.nc2.iosp.ChunkCache}. By default, the last modified time, if it is known, and old
+   * enough that the file cannot be rewritten again within the same tick of the clock.
+   *
+   * @return the version, or null if the contents of the file can't be identified.
+   */
+  @Nullable
+  public String getContentVersion() {
+    return getContentVersion(getLastModified());
+  }
+
+  /**
+   * The content version of a file that was last modified at lastModified, or null if that is not known (&lt;= 0) or
+   * so recent that the file may be rewritten without changing it.
+   */
+  @Nullable
+  public static String getContentVersion(long lastModified) {
+    if (lastModified <= 0 || System.currentTimeMillis() - lastModified < MODIFIED_RESOLUTION)
+      return null;
+    return Long.toString(lastModified);
+  }
+
   /** Returns true if file pointer is at end of file. */
   public boolean isAtEndOfFile() {
     return endOfFile;
@@ -579,6 +608,22 @@ public class RandomAccessFile implements DataInput, DataOutput, FileCacheable, C
     this.bigEndian = bo.equals(ByteOrder.BIG_ENDIAN);
   }
 
+  /**
+   * Get the current byte order, as set by {@link #order(ByteOrder)}.
+   *
+   * @return ByteOrder.BIG_ENDIAN or ByteOrder.LITTLE_ENDIAN
+   */
+  public ByteOrder getByteOrder() {
+    return bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+  }
+
+  /**
+   * True if the file was opened read only, so nothing is ever written through this object.
+   */
+  public boolean isReadOnly() {
+    return readonly;
+  }
+
   /**
    * Copy the contents of the buffer to the disk.
    *
@@ -804,6 +849,255 @@ public class RandomAccessFile implements DataInput, DataOutput, FileCacheable, C
     return b;
   }
 
+  /**
+   * Read nbytes starting at the given file offset, and return them as a ByteBuffer in the current byte order.
+   * Subclasses may return a read-only view of their storage instead of a copy, so callers should not assume that
+   * the result has an accessible backing array.
+   * The file pointer is left at pos + nbytes.
+   *
+   * @param pos start here in the file
+   * @param nbytes number of bytes to read
+   * @return ByteBuffer with position 0 and limit nbytes
+   * @throws EOFException if the file ends before nbytes are read
+   * @throws IOException if an I/O error occurs.
+   */
+  public ByteBuffer readByteBuffer(long pos, int nbytes) throws IOException {
+    byte[] b = new byte[nbytes];
+    seek(pos);
+    readFully(b);
+    return ByteBuffer.wrap(b).order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Read a list of byte ranges, as with {@link #readByteBuffer(long, int)} for each one.
+   * This calls {@link #prefetch(List)} with all the ranges, then reads them in file order, so subclasses for
+   * remote files can merge nearby ranges and fetch them concurrently.
+   * The file pointer is left at the end of the last range in the file.
+   *
+   * @param ranges the byte ranges, in any order
+   * @return one ByteBuffer for each range, in the order of the ranges, in the current byte order
+   * @throws EOFException if a range extends past the end of the file
+   * @throws IOException if an I/O error occurs.
+   */
+  public List<ByteBuffer> readVectored(List<FileRange> ranges) throws IOException {
+    prefetch(ranges);
+    Integer[] order = new Integer[ranges.size()];
+    for (int i = 0; i < order.length; i++)
+      order[i] = i;
+    Arrays.sort(order, Comparator.comparingLong(i -> ranges.get(i).getOffset()));
+
+    ByteBuffer[] result = new ByteBuffer[order.length];
+    for (int i : order) {
+      FileRange range = ranges.get(i);
+      result[i] = readByteBuffer(range.getOffset(), range.getLength());
+    }
+    return Arrays.asList(result);
+  }
+
+  /**
+   * A hint that the given byte ranges will be read soon. Subclasses for remote files fetch them ahead of time,
+   * merging nearby ranges and making the requests concurrently; the default does nothing.
+   * The file pointer is not changed.
+   *
+   * @param ranges the byte ranges, in any order
+   * @throws IOException if an I/O error occurs.
+   */
+  public void prefetch(List<FileRange> ranges) throws IOException {
+    // do nothing
+  }
+
+  ///////////////////////////////////////////////////////////////////////
+  // positional reads, which may be called concurrently
+
+  /**
+   * Read up to len bytes starting at the given file offset, for the positional read methods.
+   * This must not use or change the file pointer or the buffer.
+   * The default reads the file channel directly, or for subclasses without a local file, calls read_ while holding
+   * the lock on this object. Subclasses whose read_ is stateless should override this to skip the lock.
+   *
+   * @param pos start here in the file
+   * @param b put data into this array
+   * @param offset array offset
+   * @param len read up to this number of bytes
+   * @return actual number of bytes read, or -1 at the end of the file
+   * @throws IOException on io error, or if the file is closed
+   */
+  protected int readAt(long pos, byte[] b, int offset, int len) throws IOException {
+    java.io.RandomAccessFile raf = file;
+    if (raf == null) {
+      synchronized (this) {
+        return read_(pos, b, offset, len);
+      }
+    }
+    int n = raf.getChannel().read(ByteBuffer.wrap(b, offset, len), pos);
+    if (debugAccess) {
+      debug_nseeks.incrementAndGet();
+      debug_nbytes.addAndGet(len);
+    }
+    return n;
+  }
+
+  /**
+   * Read exactly len bytes starting at the given file offset.
+   * Unlike the other read methods, this does not use or change the file pointer or the buffer, so one open file
+   * may be shared by any number of threads reading this way at the same time.
+   * Data written through this object but not yet flushed is not seen.
+   * <p>
+   * Reads are made on the underlying FileChannel, which is closed if a reading thread is interrupted. A file may be
+   * shared by other readers, for instance through the file cache, so tasks that read it must be cancelled without
+   * interrupting them, as {@link ucar.nc2.util.Concurrency#cancel} does.
+   *
+   * @param pos start here in the file
+   * @param b the array into which the data is read.
+   * @param off the start offset in the array.
+   * @param len the number of bytes to read.
+   * @throws EOFException if the file ends before all the bytes are read.
+   * @throws IOException if an I/O error occurs.
+   */
+  public void readFully(long pos, byte[] b, int off, int len) throws IOException {
+    int n = 0;
+    while (n < len) {
+      int count = readAt(pos + n, b, off + n, len - n);
+      if (count <= 0) { // some subclasses return 0 at the end of the file
+        if (extendMode) {
+          Arrays.fill(b, off + n, off + len, (byte) 0);
+          return;
+        }
+        throw new EOFException("Reading " + location + " at " + pos + " file length = " + length());
+      }
+      n += count;
+    }
+  }
+
+  /**
+   * Read b.length bytes starting at the given file offset, as in {@link #readFully(long, byte[], int, int)}.
+   *
+   * @param pos start here in the file
+   * @param b the array into which the data is read.
+   * @throws EOFException if the file ends before all the bytes are read.
+   * @throws IOException if an I/O error occurs.
+   */
+  public void readFully(long pos, byte[] b) throws IOException {
+    readFully(pos, b, 0, b.length);
+  }
+
+  // convert the n elements in block into the destination array, starting at start
+  private interface BlockReader {
+    void convert(ByteBuffer block, int start, int n);
+  }
+
+  private static final int POSITIONAL_BLOCK_SIZE = 64 * 1024; // bytes
+
+  // read n elements of elemSize bytes starting at pos, one block at a time, so large arrays need little extra memory
+  private void readElements(long pos, int start, int n, int elemSize, ByteOrder bo, BlockReader reader)
+      throws IOException {
+    int blockElems = Math.max(1, Math.min(n, POSITIONAL_BLOCK_SIZE / elemSize));
+    byte[] block = new byte[blockElems * elemSize];
+    while (n > 0) {
+      int count = Math.min(n, blockElems);
+      readFully(pos, block, 0, count * elemSize);
+      reader.convert(ByteBuffer.wrap(block, 0, count * elemSize).order(bo), start, count);
+      pos += (long) count * elemSize;
+      start += count;
+      n -= count;
+    }
+  }
+
+  /**
+   * Read an array of shorts starting at the given file offset, as in {@link #readFully(long, byte[], int, int)}.
+   *
+   * @param pos start here in the file
+   * @param pa read into this array
+   * @param start starting at pa[start]
+   * @param n read this many elements
+   * @param bo the byte order of the data in the file
+   * @throws IOException on read error
+   */
+  public void readShorts(long pos, short[] pa, int start, int n, ByteOrder bo) throws IOException {
+    readElements(pos, start, n, 2, bo, (block, s, count) -> block.asShortBuffer().get(pa, s, count));
+  }
+
+  /** Read pa.length shorts starting at the given file offset, in the current byte order. */
+  public void readShorts(long pos, short[] pa) throws IOException {
+    readShorts(pos, pa, 0, pa.length, getByteOrder());
+  }
+
+  /**
+   * Read an array of ints starting at the given file offset, as in {@link #readFully(long, byte[], int, int)}.
+   *
+   * @param pos start here in the file
+   * @param pa read into this array
+   * @param start starting at pa[start]
+   * @param n read this many elements
+   * @param bo the byte order of the data in the file
+   * @throws IOException on read error
+   */
+  public void readInts(long pos, int[] pa, int start, int n, ByteOrder bo) throws IOException {
+    readElements(pos, start, n, 4, bo, (block, s, count) -> block.asIntBuffer().get(pa, s, count));
+  }
+
+  /** Read pa.length ints starting at the given file offset, in the current byte order. */
+  public void readInts(long pos, int[] pa) throws IOException {
+    readInts(pos, pa, 0, pa.length, getByteOrder());
+  }
+
+  /**
+   * Read an array of longs starting at the given file offset, as in {@link #readFully(long, byte[], int, int)}.
+   *
+   * @param pos start here in the file
+   * @param pa read into this array
+   * @param start starting at pa[start]
+   * @param n read this many elements
+   * @param bo the byte order of the data in the file
+   * @throws IOException on read error
+   */
+  public void readLongs(long pos, long[] pa, int start, int n, ByteOrder bo) throws IOException {
+    readElements(pos, start, n, 8, bo, (block, s, count) -> block.asLongBuffer().get(pa, s, count));
+  }
+
+  /** Read pa.length longs starting at the given file offset, in the current byte order. */
+  public void readLongs(long pos, long[] pa) throws IOException {
+    readLongs(pos, pa, 0, pa.length, getByteOrder());
+  }
+
+  /**
+   * Read an array of floats starting at the given file offset, as in {@link #readFully(long, byte[], int, int)}.
+   *
+   * @param pos start here in the file
+   * @param pa read into this array
+   * @param start starting at pa[start]
+   * @param n read this many elements
+   * @param bo the byte order of the data in the file
+   * @throws IOException on read error
+   */
+  public void readFloats(long pos, float[] pa, int start, int n, ByteOrder bo) throws IOException {
+    readElements(pos, start, n, 4, bo, (block, s, count) -> block.asFloatBuffer().get(pa, s, count));
+  }
+
+  /** Read pa.length floats starting at the given file offset, in the current byte order. */
+  public void readFloats(long pos, float[] pa) throws IOException {
+    readFloats(pos, pa, 0, pa.length, getByteOrder());
+  }
+
+  /**
+   * Read an array of doubles starting at the given file offset, as in {@link #readFully(long, byte[], int, int)}.
+   *
+   * @param pos start here in the file
+   * @param pa read into this array
+   * @param start starting at pa[start]
+   * @param n read this many elements
+   * @param bo the byte order of the data in the file
+   * @throws IOException on read error
+   */
+  public void readDoubles(long pos, double[] pa, int start, int n, ByteOrder bo) throws IOException {
+    readElements(pos, start, n, 8, bo, (block, s, count) -> block.asDoubleBuffer().get(pa, s, count));
+  }
+
+  /** Read pa.length doubles starting at the given file offset, in the current byte order. */
+  public void readDoubles(long pos, double[] pa) throws IOException {
+    readDoubles(pos, pa, 0, pa.length, getByteOrder());
+  }
+
   /**
    * Reads <code>b.length</code> bytes from this file into the byte
    * array. This method reads repeatedly from the file until all the
@@ -1123,7 +1417,7 @@ public class RandomAccessFile implements DataInput, DataOutput, FileCacheable, C
    * @param n read this many elements
    * @throws IOException on read error
    */
-  public final void readShort(short[] pa, int start, int n) throws IOException {
+  public void readShort(short[] pa, int start, int n) throws IOException {
     for (int i = 0; i < n; i++) {
       pa[start + i] = readShort();
     }
@@ -1282,7 +1576,7 @@ public class RandomAccessFile implements DataInput, DataOutput, FileCacheable, C
    * @param n read this many elements
    * @throws IOException on read error
    */
-  public final void readInt(int[] pa, int start, int n) throws IOException {
+  public void readInt(int[] pa, int start, int n) throws IOException {
     for (int i = 0; i < n; i++) {
       pa[start + i] = readInt();
     }
@@ -1356,7 +1650,7 @@ public class RandomAccessFile implements DataInput, DataOutput, FileCacheable, C
    * @param n read this many elements
    * @throws IOException on read error
    */
-  public final void readLong(long[] pa, int start, int n) throws IOException {
+  public void readLong(long[] pa, int start, int n) throws IOException {
     for (int i = 0; i < n; i++) {
       pa[start + i] = readLong();
     }
@@ -1393,7 +1687,7 @@ public class RandomAccessFile implements DataInput, DataOutput, FileCacheable, C
    * @param n read this many elements
    * @throws IOException on read error
    */
-  public final void readFloat(float[] pa, int start, int n) throws IOException {
+  public void readFloat(float[] pa, int start, int n) throws IOException {
     for (int i = 0; i < n; i++) {
       pa[start + i] = Float.intBitsToFloat(readInt());
     }
@@ -1430,7 +1724,7 @@ public class RandomAccessFile implements DataInput, DataOutput, FileCacheable, C
    * @param n read this many elements
    * @throws IOException on read error
    */
-  public final void readDouble(double[] pa, int start, int n) throws IOException {
+  public void readDouble(double[] pa, int start, int n) throws IOException {
     for (int i = 0; i < n; i++) {
       pa[start + i] = Double.longBitsToDouble(readLong());
     }
@@ -2332,12 +2626,11 @@ public class RandomAccessFile implements DataInput, DataOutput, FileCacheable, C
     long last = (maxBytes < 0) ? length() : Math.min(length(), start + maxBytes);
     long needToScan = last - start;
 
-    // check what ever is now in the buffer
-    int bytesAvailable = (int) (dataEnd - filePosition);
-    if (bytesAvailable < 1) {
-      seek(filePosition); // read a new buffer
-      bytesAvailable = (int) (dataEnd - filePosition);
+    // check what ever is now in the buffer. subclasses may move the file pointer without filling the buffer
+    if (filePosition < bufferStart || filePosition >= dataEnd) {
+      readBuffer(filePosition); // read a new buffer
     }
+    int bytesAvailable = (int) (dataEnd - filePosition);
     int bufStart = (int) (filePosition - bufferStart);
     int scanBytes = (int) Math.min(bytesAvailable, needToScan);
     int pos = match.indexOf(buffer, bufStart, scanBytes);
@@ -2352,9 +2645,11 @@ public class RandomAccessFile implements DataInput, DataOutput, FileCacheable, C
     while (needToScan > matchLen) {
       readBuffer(dataEnd - matchLen); // force new buffer
 
-      scanBytes = (int) Math.min(buffer.length, needToScan);
+      scanBytes = (int) Math.min(dataEnd - bufferStart, needToScan);
+      if (scanBytes <= matchLen)
+        break; // the file ended, or the buffer is too small to make progress
       pos = match.indexOf(buffer, 0, scanBytes);
-      if (pos > 0) {
+      if (pos >= 0) {
         seek(bufferStart + pos);
         return true;
       }
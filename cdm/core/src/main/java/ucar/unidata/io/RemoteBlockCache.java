@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.unidata.io;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Formatter;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A process wide cache of blocks read from remote files, shared by all {@link RemoteRandomAccessFile}s,
+ * so that reopening the same object, from any thread, does not fetch the same bytes again.
+ * <p>
+ * Blocks are keyed by (url, version, block size, block number), where the version is the ETag or last modified
+ * time of the object when known, so a changed object is not served from stale blocks. When it is not known,
+ * {@link RemoteRandomAccessFile} uses a version of its own, so the blocks are not shared with other instances.
+ * The cache is bounded by the total number of bytes held, not the number of blocks.
+ * Blocks may be held on the java heap, or off-heap in direct ByteBuffers.
+ * Concurrent requests for a block that is not in the cache result in a single remote read; the other callers wait
+ * for it.
+ * <p>
+ * The default cache is configured with these system properties:
+ * <ul>
+ * <li>{@code ucar.unidata.io.remote.blockCache.maxSize} maximum size in bytes, default 64 MiB. 0 disables caching.</li>
+ * <li>{@code ucar.unidata.io.remote.blockCache.timeToLive} time to live of a block in milliseconds, default 5
+ * minutes.</li>
+ * <li>{@code ucar.unidata.io.remote.blockCache.offHeap} if true, store blocks off-heap, default false.</li>
+ * </ul>
+ */
+@ThreadSafe
+public class RemoteBlockCache {
+  private static final Logger logger = LoggerFactory.getLogger(RemoteBlockCache.class);
+
+  // 64 MiB default maximum size
+  static final long defaultMaxSize = 64 * 1024 * 1024;
+  // 5 minutes default time to live, in milliseconds
+  static final long defaultTimeToLive = 5 * 60 * 1000;
+
+  private static RemoteBlockCache defaultCache;
+
+  /** Get the process wide cache, creating it from the system properties on first use. */
+  public static synchronized RemoteBlockCache getDefault() {
+    if (defaultCache == null) {
+      long maxSize = Long.getLong("ucar.unidata.io.remote.blockCache.maxSize", defaultMaxSize);
+      long ttl = Long.getLong("ucar.unidata.io.remote.blockCache.timeToLive", defaultTimeToLive);
+      boolean offHeap = Boolean.getBoolean("ucar.unidata.io.remote.blockCache.offHeap");
+      defaultCache = new RemoteBlockCache(maxSize, Duration.ofMillis(ttl), offHeap);
+    }
+    return defaultCache;
+  }
+
+  /** Replace the process wide cache. Files that are already open keep using the previous one. */
+  public static synchronized void setDefault(RemoteBlockCache cache) {
+    if (defaultCache != null)
+      defaultCache.clear();
+    defaultCache = Objects.requireNonNull(cache);
+  }
+
+  /** Reads one block from the remote file. */
+  public interface BlockLoader {
+    byte[] load() throws IOException;
+  }
+
+  private final Cache<Key, ByteBuffer> cache;
+  private final long maxSize;
+  private final boolean offHeap;
+  private final LongAdder bytesFetched = new LongAdder();
+  private final LongAdder bytesServed = new LongAdder();
+
+  /**
+   * Constructor.
+   *
+   * @param maxSize maximum total size of the cached blocks in bytes; 0 disables caching.
+   * @param timeToLive blocks are evicted this long after they are read.
+   * @param offHeap store blocks in direct ByteBuffers, outside the java heap.
+   */
+  public RemoteBlockCache(long maxSize, Duration timeToLive, boolean offHeap) {
+    if (maxSize < 0)
+      throw new IllegalArgumentException("maxSize must be >= 0");
+    this.maxSize = maxSize;
+    this.offHeap = offHeap;
+    this.cache = CacheBuilder.newBuilder().maximumWeight(maxSize)
+        .weigher((Key key, ByteBuffer block) -> block.capacity()).expireAfterWrite(timeToLive).recordStats().build();
+  }
+
+  /** Is caching enabled, ie is the maximum size > 0? */
+  public boolean isEnabled() {
+    return maxSize > 0;
+  }
+
+  /**
+   * Get a block, reading it with the loader if it is not in the cache.
+   * If another thread is already reading the same block, wait for it instead of reading it again.
+   *
+   * @param url location of the remote file
+   * @param version ETag or last modified time of the remote file, may be null if not known
+   * @param blockSize size of the blocks the file is divided into
+   * @param blockNumber which block, starting at 0
+   * @param loader reads the block from the remote file
+   * @return read-only view of the block, positioned at 0
+   * @throws IOException if the loader fails
+   */
+  public ByteBuffer getBlock(String url, @Nullable String version, int blockSize, long blockNumber,
+      BlockLoader loader) throws IOException {
+    Key key = new Key(url, version, blockSize, blockNumber);
+    ByteBuffer block;
+    try {
+      block = cache.get(key, () -> store(loader.load()));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      throw new IOException("Error obtaining data from the remote block cache.", cause);
+    }
+    bytesServed.add(block.capacity());
+    return block.asReadOnlyBuffer();
+  }
+
+  /** Is the block in the cache? Does not count as a hit or a miss. */
+  public boolean contains(String url, @Nullable String version, int blockSize, long blockNumber) {
+    return cache.asMap().containsKey(new Key(url, version, blockSize, blockNumber));
+  }
+
+  /**
+   * Add a block that was read ahead of time, unless it is already in the cache.
+   *
+   * @param url location of the remote file
+   * @param version ETag or last modified time of the remote file, may be null if not known
+   * @param blockSize size of the blocks the file is divided into
+   * @param blockNumber which block, starting at 0
+   * @param data contents of the block, not copied when the blocks are held on the java heap
+   */
+  public void put(String url, @Nullable String version, int blockSize, long blockNumber, byte[] data) {
+    cache.asMap().putIfAbsent(new Key(url, version, blockSize, blockNumber), store(data));
+  }
+
+  private ByteBuffer store(byte[] data) {
+    bytesFetched.add(data.length);
+    if (!offHeap)
+      return ByteBuffer.wrap(data);
+    ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+    direct.put(data);
+    direct.flip();
+    return direct;
+  }
+
+  /** Remove all blocks of the given remote file. */
+  public void invalidate(String url) {
+    cache.asMap().keySet().removeIf(key -> key.url.equals(url));
+  }
+
+  /** Remove the blocks of one version of the given remote file. */
+  public void invalidate(String url, @Nullable String version) {
+    cache.asMap().keySet().removeIf(key -> key.url.equals(url) && Objects.equals(key.version, version));
+  }
+
+  /** Remove all blocks. */
+  public void clear() {
+    cache.invalidateAll();
+  }
+
+  /** Number of requests served from the cache, including those that waited for another thread's read. */
+  public long getHitCount() {
+    return cache.stats().hitCount();
+  }
+
+  /** Number of requests that had to read from the remote file. Blocks added with put() are not counted. */
+  public long getMissCount() {
+    return cache.stats().missCount();
+  }
+
+  /** Number of blocks evicted, because of size or age. */
+  public long getEvictionCount() {
+    return cache.stats().evictionCount();
+  }
+
+  /** Total bytes read from remote files. */
+  public long getBytesFetched() {
+    return bytesFetched.sum();
+  }
+
+  /** Total bytes of the blocks returned to callers. */
+  public long getBytesServed() {
+    return bytesServed.sum();
+  }
+
+  /** Number of blocks currently held. */
+  public long getBlockCount() {
+    return cache.size();
+  }
+
+  /** Bytes currently held. */
+  public long getSizeBytes() {
+    long total = 0;
+    for (ByteBuffer block : cache.asMap().values())
+      total += block.capacity();
+    return total;
+  }
+
+  public void showStats(Formatter f) {
+    CacheStats stats = cache.stats();
+    f.format("RemoteBlockCache: maxSize=%d offHeap=%s blocks=%d bytes=%d%n", maxSize, offHeap, getBlockCount(),
+        getSizeBytes());
+    f.format("  hits=%d misses=%d evictions=%d bytesFetched=%d bytesServed=%d%n", stats.hitCount(),
+        stats.missCount(), stats.evictionCount(), getBytesFetched(), getBytesServed());
+  }
+
+  void logStats() {
+    Formatter f = new Formatter();
+    showStats(f);
+    logger.info(f.toString());
+  }
+
+  private static class Key {
+    final String url;
+    final String version;
+    final int blockSize;
+    final long blockNumber;
+
+    Key(String url, @Nullable String version, int blockSize, long blockNumber) {
+      this.url = url;
+      this.version = version;
+      this.blockSize = blockSize;
+      this.blockNumber = blockNumber;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o)
+        return true;
+      if (!(o instanceof Key))
+        return false;
+      Key key = (Key) o;
+      return blockSize == key.blockSize && blockNumber == key.blockNumber && url.equals(key.url)
+          && Objects.equals(version, key.version);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(url, version, blockSize, blockNumber);
+    }
+  }
+}
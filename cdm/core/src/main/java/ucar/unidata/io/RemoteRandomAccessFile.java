@@ -5,19 +5,35 @@
 
 package ucar.unidata.io;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.WritableByteChannel;
-import java.time.Duration;
-import java.util.concurrent.ExecutionException;
-import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import ucar.nc2.util.Concurrency;
 
-/** An abstract superclass for remote RandomAccessFile */
+/**
+ * An abstract superclass for remote RandomAccessFile.
+ * Reads go through the process wide {@link RemoteBlockCache}, so blocks read by one instance are reused by other
+ * instances opened on the same remote file, in this or other threads. That is only done when the version of the
+ * remote file is known, see {@link #getRemoteVersion()}; otherwise the blocks belong to this instance, and are
+ * dropped on close.
+ * <p>
+ * While reads are sequential, each block that is not in the cache is fetched together with the following ones,
+ * in one request; the number of blocks read ahead doubles with each sequential block, up to
+ * {@link #getMaxReadAheadBlocks()}, and drops back to none on a seek elsewhere.
+ * {@link #prefetch(List)} and {@link #readVectored(List)} merge nearby ranges and fetch them concurrently, see
+ * {@link VectoredReads}. They call {@link #readRemote(long, byte[], int, int)} from several threads at once,
+ * so subclasses must make it thread safe.
+ */
 // not immutable because RandomAccessFile is not immutable.
 public abstract class RemoteRandomAccessFile extends ucar.unidata.io.RandomAccessFile implements ReadableRemoteFile {
   private static final Logger logger = LoggerFactory.getLogger(RemoteRandomAccessFile.class);
@@ -28,14 +44,45 @@ public abstract class RemoteRandomAccessFile extends ucar.unidata.io.RandomAcces
   protected static final int defaultRemoteFileBufferSize = 262144;
   // default connection timeout in milliseconds (10 seconds)
   protected static final int defaultRemoteFileTimeout = 10 * 1000;
-  // default cache time to live in milliseconds
-  private static final long defaultReadCacheTimeToLive = 30 * 1000;
+
+  // System property name for -D flag; maximum number of blocks read ahead of sequential reads
+  static final String READAHEADBLOCKS = "ucar.unidata.io.remote.readAheadBlocks";
+
+  private static volatile int maxReadAheadBlocks = Concurrency.getIntProperty(READAHEADBLOCKS, 8, 0);
+  private static final AtomicLong instances = new AtomicLong();
+
+  /**
+   * Set the maximum number of cache blocks read ahead of sequential reads. Default is 8.
+   *
+   * @param nblocks number of blocks, must be >= 0; 0 turns read-ahead off
+   */
+  public static void setMaxReadAheadBlocks(int nblocks) {
+    if (nblocks < 0)
+      throw new IllegalArgumentException("maxReadAheadBlocks must be >= 0");
+    maxReadAheadBlocks = nblocks;
+  }
+
+  public static int getMaxReadAheadBlocks() {
+    return maxReadAheadBlocks;
+  }
 
   protected final String url;
   private final boolean readCacheEnabled;
   private final int readCacheBlockSize;
-  private final LoadingCache<Long, byte[]> readCache;
+  private final RemoteBlockCache readCache;
+  // cache version of the blocks when the remote version is not known, so they are not served to other instances
+  private final String instanceVersion = "instance " + instances.incrementAndGet();
+  private long lastBlockRead = -1;
+  private int readAheadBlocks; // grows while reads are sequential
 
+  /**
+   * Constructor.
+   *
+   * @param url location of the remote file
+   * @param bufferSize size of the read buffer, and of the cached blocks
+   * @param maxRemoteCacheSize caching is only used if this is at least twice the buffer size. The total size of the
+   *        cache is set by the shared {@link RemoteBlockCache}.
+   */
   protected RemoteRandomAccessFile(String url, int bufferSize, long maxRemoteCacheSize) {
     super(bufferSize);
 
@@ -46,15 +93,11 @@ public abstract class RemoteRandomAccessFile extends ucar.unidata.io.RandomAcces
     // Only enable cache if its maximum size is at least 2x the buffer size, both of which are configurable
     // at runtime
     int minimumCacheActivationSize = 2 * bufferSize;
-    if (maxRemoteCacheSize >= minimumCacheActivationSize) {
+    RemoteBlockCache shared = RemoteBlockCache.getDefault();
+    if (maxRemoteCacheSize >= minimumCacheActivationSize && shared.isEnabled()) {
       // have each cache block hold a 1 buffer sized chunk
       this.readCacheBlockSize = bufferSize;
-      // user set max cache size in bytes
-      // guava cache set as number of objects
-      // The question here is, how many readCacheBlockSize objects would there be in maxRemoteCacheSize bytes?
-      // total max cache size in bytes / size of one cache block, rounded up.
-      long numberOfCacheBlocks = (maxRemoteCacheSize / readCacheBlockSize) + 1;
-      this.readCache = initCache(numberOfCacheBlocks, Duration.ofMillis(defaultReadCacheTimeToLive));
+      this.readCache = shared;
       readCacheEnabled = true;
     } else {
       this.readCacheBlockSize = -1;
@@ -63,17 +106,29 @@ public abstract class RemoteRandomAccessFile extends ucar.unidata.io.RandomAcces
     }
   }
 
-  private LoadingCache<Long, byte[]> initCache(long maximumNumberOfCacheBlocks, java.time.Duration timeToLive) {
-    CacheBuilder<Object, Object> cb =
-        CacheBuilder.newBuilder().maximumSize(maximumNumberOfCacheBlocks).expireAfterWrite(timeToLive);
-    if (debugAccess) {
-      cb.recordStats();
-    }
-    return cb.build(new CacheLoader<Long, byte[]>() {
-      public byte[] load(@Nonnull Long key) throws IOException {
-        return readRemoteCacheSizedChunk(key);
-      }
-    });
+  /**
+   * The version of the remote file, such as its ETag or last modified time, used to keep blocks of different
+   * versions of the same file apart in the shared cache.
+   *
+   * @return the version, or null if not known
+   */
+  @Nullable
+  protected String getRemoteVersion() {
+    return null;
+  }
+
+  // the version the blocks of this file are cached under
+  private String blockVersion() {
+    String version = getRemoteVersion();
+    return version != null ? version : instanceVersion;
+  }
+
+  /** The remote version of the file if known, else its last modified time. */
+  @Override
+  @Nullable
+  public String getContentVersion() {
+    String version = getRemoteVersion();
+    return version != null ? version : super.getContentVersion();
   }
 
   /**
@@ -97,144 +152,206 @@ public abstract class RemoteRandomAccessFile extends ucar.unidata.io.RandomAcces
   }
 
   /**
-   * Fill byte array with remote data.
+   * Fill byte array with remote data, through the cache.
    *
    * @param pos position of remote file or object to start reading
    * @param buff put data into this buffer
    * @param offset buffer offset
    * @param len number of bytes to read
-   * @return actual number of bytes read
+   * @return actual number of bytes read, or -1 if pos is at or past the end of the file
    * @throws IOException error reading remote data
    */
   private int readFromCache(long pos, byte[] buff, int offset, int len) throws IOException {
     // We basically treat the entire remote file or object as a series of non-overlapping blocks of size
     // readCacheBlockSize. Each of these blocks are assigned a number (0 - N) starting from position 0 in the
-    // remote file or object, and that number is used as the key of the cache.
-    // Here, we compute the first and last cache block that we need to read from based on the desired position in the
-    // file and the length of read.
-    long firstCacheBlockNumber = pos / readCacheBlockSize;
-    long lastCacheBlockNumber = (pos + len) / readCacheBlockSize;
+    // remote file or object, and that number (with the url and version) is used as the key of the cache.
+    long toEof = length() - pos;
+    if (toEof <= 0)
+      return -1;
+    int want = (int) Math.min(len, toEof);
+    String version = blockVersion();
+
     int totalBytesRead = 0;
-    int currentOffsetIntoBuffer = offset;
-
-    // Read cacheBlock containing pos, and fill the buffer from the effective location of pos in the cache block
-    // up to the smaller of these three lengths: 1. bytes remaining in the cache block, 2. bytes remaining in the file,
-    // or 3. bytes remaining in the destination array.
-    totalBytesRead += readCacheBlockPartial(pos, buff, currentOffsetIntoBuffer, true);
-    currentOffsetIntoBuffer += totalBytesRead;
-    // If we have read everything we have been asked to read, skip the rest of the read logic.
-    // Otherwise, keep going.
-    if ((totalBytesRead < len) && (firstCacheBlockNumber != lastCacheBlockNumber)) {
-      // Now fill the buffer using whole cache blocks, up until the last cache block (as reading from the last cache
-      // block might be a partial read).
-      // LOOK: might benefit from concurrency? Need to see how often we end up inside this while statement.
-      // Initial testing shows this only happens for small readCacheBlockSize (which is equal to the read buffer size)
-      // when reading netCDF-4 files, but I think might depend on the specific IOSP in use.
-      long currentCacheBlockNumber = firstCacheBlockNumber + 1;
-      while (currentCacheBlockNumber < lastCacheBlockNumber) {
-        totalBytesRead += readCacheBlockFull(currentCacheBlockNumber, currentOffsetIntoBuffer, buff);
-        currentOffsetIntoBuffer += readCacheBlockSize;
-        currentCacheBlockNumber += 1;
-      }
-      logger.debug("Number of full cache block reads: {}", currentCacheBlockNumber - firstCacheBlockNumber - 1);
+    while (totalBytesRead < want) {
+      long currentPos = pos + totalBytesRead;
+      long cacheBlockNumber = currentPos / readCacheBlockSize;
+      long lastBlockToRead = cacheBlockNumber + updateReadAhead(cacheBlockNumber);
+      ByteBuffer block = readCache.getBlock(url, version, readCacheBlockSize, cacheBlockNumber,
+          () -> readAhead(version, cacheBlockNumber, lastBlockToRead));
 
-      // If there are still bytes to read, read last cacheBlock from the start of the cache block to the
-      // smaller of these two lengths: 1. bytes remaining in the file, or 2. bytes remaining in the destination array.
-      if (totalBytesRead < len) {
-        totalBytesRead += readCacheBlockPartial(pos + totalBytesRead, buff, currentOffsetIntoBuffer, false);
-      }
+      int offsetIntoCacheBlock = Math.toIntExact(currentPos - cacheBlockNumber * readCacheBlockSize);
+      int sizeToCopy = Math.min(want - totalBytesRead, block.limit() - offsetIntoCacheBlock);
+      if (sizeToCopy <= 0) // remote file is shorter than its reported length
+        break;
+      block.position(offsetIntoCacheBlock);
+      block.get(buff, offset + totalBytesRead, sizeToCopy);
+      totalBytesRead += sizeToCopy;
     }
-
+    logger.debug("Read {} bytes at {} from cache blocks of {} bytes", totalBytesRead, pos, readCacheBlockSize);
     return totalBytesRead;
   }
 
-  private int readCacheBlockPartial(long pos, byte[] buff, int positionInBuffer, boolean fillForward)
-      throws IOException {
+  // track sequential reads, and return the number of blocks to read ahead of this one
+  private int updateReadAhead(long blockNumber) {
+    if (blockNumber == lastBlockRead + 1)
+      readAheadBlocks = Math.min(Math.max(1, 2 * readAheadBlocks), maxReadAheadBlocks);
+    else if (blockNumber != lastBlockRead)
+      readAheadBlocks = 0;
+    lastBlockRead = blockNumber;
+    return readAheadBlocks;
+  }
 
-    long cacheBlockNumber = pos / readCacheBlockSize;
+  /**
+   * Read a block, and up to lastBlock in the same request, stopping before any block that is already cached.
+   * The blocks after the first are put in the cache, and the first is returned.
+   */
+  private byte[] readAhead(String version, long firstBlock, long lastBlock) throws IOException {
+    long nblocks = (length() + readCacheBlockSize - 1) / readCacheBlockSize;
+    long last = firstBlock;
+    while (last < Math.min(lastBlock, nblocks - 1)
+        && !readCache.contains(url, version, readCacheBlockSize, last + 1)) {
+      last++;
+    }
+    byte[] data = readRemoteBlocks(firstBlock, last);
+    if (last == firstBlock)
+      return data;
+    putBlocks(version, firstBlock, data, 1);
+    return Arrays.copyOf(data, Math.min(data.length, readCacheBlockSize));
+  }
+
+  /**
+   * Read whole cache blocks of the remote file in one request, up to the end of the file.
+   * The result is shorter if the remote file is shorter than its reported length.
+   */
+  private byte[] readRemoteBlocks(long firstBlock, long lastBlock) throws IOException {
+    long position = firstBlock * readCacheBlockSize;
+    long end = Math.min((lastBlock + 1) * readCacheBlockSize, length());
+    int bytes = Math.toIntExact(end - position);
+    byte[] buffer = new byte[bytes];
+
+    int n = readRemote(position, buffer, 0, bytes);
+    return (n == bytes) ? buffer : Arrays.copyOf(buffer, Math.max(n, 0));
+  }
 
-    // read in the cache block
-    byte[] src;
-    try {
-      src = readCache.get(cacheBlockNumber);
-    } catch (ExecutionException ee) {
-      throw new IOException("Error obtaining data from the remote data read cache.", ee);
+  // put the blocks in data, which starts at firstBlock, into the cache, skipping the first skip blocks
+  private void putBlocks(String version, long firstBlock, byte[] data, int skip) {
+    for (int i = skip; (long) i * readCacheBlockSize < data.length; i++) {
+      int start = i * readCacheBlockSize;
+      byte[] block = Arrays.copyOfRange(data, start, Math.min(start + readCacheBlockSize, data.length));
+      readCache.put(url, version, readCacheBlockSize, firstBlock + i, block);
     }
+  }
 
-    // Careful - we are doing a partial read from the cache block. The pos in the file is some offset into the cache
-    // block, so let's start by calculating the pos of the first block
-    long posCacheBlockStart = cacheBlockNumber * readCacheBlockSize;
-
-    // Now, there are two possible cases. We either need to read from this position in the cache block to the end of
-    // the cache block (i.e. "fill buffer forward from the offset into the cache block"), or read from the beginning
-    // of the cache block up to the offset in the cache block (useful if reading last cache block in a series of cache
-    // blocks). Basically,the question is where do we start reading in the cache block, and what size read do we use?
-    int offsetIntoCacheBlock;
-    int sizeToCopy;
-    if (fillForward) {
-      // .....size to copy (assuming we will want to read until the end of the cache block)
-      // .....<-------->
-      // X ---|------- X
-      // ^____^
-      // ..|
-      // Offset Into Cache Block
-      offsetIntoCacheBlock = Math.toIntExact(pos - posCacheBlockStart);
-      sizeToCopy = readCacheBlockSize - offsetIntoCacheBlock;
-    } else {
-      // size to copy
-      // <---->
-      // X ---|------- X
-      // ^
-      // Offset Into Cache Block
-      offsetIntoCacheBlock = 0;
-      sizeToCopy = Math.toIntExact(pos - posCacheBlockStart);
+  /**
+   * Fetch the cache blocks covering the ranges that are not already in the shared cache. Nearby blocks are merged
+   * into one request, and the requests are made concurrently, as configured by {@link VectoredReads}.
+   * Does nothing if the cache is not enabled.
+   */
+  @Override
+  public void prefetch(List<FileRange> ranges) throws IOException {
+    if (!readCacheEnabled)
+      return;
+    String version = blockVersion();
+    long length = length();
+
+    List<FileRange> missing = new ArrayList<>();
+    for (FileRange range : ranges) {
+      long end = Math.min(range.getEnd(), length);
+      for (long block = range.getOffset() / readCacheBlockSize; block * readCacheBlockSize < end; block++) {
+        if (!readCache.contains(url, version, readCacheBlockSize, block)) {
+          long start = block * readCacheBlockSize;
+          missing.add(new FileRange(start, (int) Math.min(readCacheBlockSize, length - start)));
+        }
+      }
     }
 
-    // We don't want to read past the end of the file, so let's check sizeToCopy against how much of the file
-    // is left to read
-    long toEof = length() - pos;
-    sizeToCopy = Math.toIntExact(Math.min(sizeToCopy, toEof));
-
-    // Finally, check to make sure we are not reading more than buff will hold
-    sizeToCopy = Math.toIntExact(Math.min(sizeToCopy, buff.length - positionInBuffer));
-
-    // Copy byte array fulfilling the request as obtained from the cache into the destination buffer
-    logger.debug("Requested {} bytes from the cache block (cache block size upper limit: {} bytes.)", sizeToCopy,
-        readCacheBlockSize);
-    logger.debug("Actual size of the cache block: {} bytes.", src.length);
-    logger.debug("Offset into cache block to begin copy: {} bytes.", offsetIntoCacheBlock);
-    logger.debug("Total size of the destination buffer: {} bytes.", buff.length);
-    logger.debug("Position in buffer to place the copy from the cache: {} bytes.", positionInBuffer);
-    logger.debug("Trying to fit {} bytes from the cache into {} bytes of the destination.",
-        src.length - offsetIntoCacheBlock, buff.length - positionInBuffer);
-    System.arraycopy(src, offsetIntoCacheBlock, buff, positionInBuffer, sizeToCopy);
-    return sizeToCopy;
+    List<Callable<Void>> requests = new ArrayList<>();
+    for (FileRange run : VectoredReads.coalesce(missing)) {
+      long firstBlock = run.getOffset() / readCacheBlockSize;
+      long lastBlock = (run.getEnd() - 1) / readCacheBlockSize;
+      requests.add(() -> {
+        putBlocks(version, firstBlock, readRemoteBlocks(firstBlock, lastBlock), 0);
+        return null;
+      });
+    }
+    logger.debug("Prefetch {} ranges of {} in {} requests", ranges.size(), url, requests.size());
+    VectoredReads.invokeAll(requests);
   }
 
-  private int readCacheBlockFull(long cacheBlockNumber, int positionInBuffer, byte[] buff) throws IOException {
-    byte[] src;
-    try {
-      src = readCache.get(cacheBlockNumber);
-    } catch (ExecutionException ee) {
-      throw new IOException("Error obtaining data from the remote data read cache.", ee);
-    }
-    System.arraycopy(src, 0, buff, positionInBuffer, readCacheBlockSize);
-    return readCacheBlockSize;
+  /**
+   * If the cache is enabled, read directly from it rather than through the buffer, so that no blocks past the end of
+   * the range are fetched.
+   */
+  @Override
+  public ByteBuffer readByteBuffer(long pos, int nbytes) throws IOException {
+    if (!readCacheEnabled)
+      return super.readByteBuffer(pos, nbytes);
+
+    byte[] b = new byte[nbytes];
+    int n = (nbytes == 0) ? 0 : readFromCache(pos, b, 0, nbytes);
+    if (n < nbytes)
+      throw new EOFException("Reading " + location + " at " + pos + " file length = " + length());
+    emptyBufferAt(pos + nbytes);
+    return ByteBuffer.wrap(b).order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
   }
 
   /**
-   * read a readCacheBlockSize chunk of the remote file
+   * Read a list of byte ranges. If the cache is enabled, the ranges are prefetched into it and then read from it.
+   * Otherwise nearby ranges are merged, the requests are made concurrently, and the results are slices of the
+   * merged reads.
    */
-  private byte[] readRemoteCacheSizedChunk(Long cacheBlockNumber) throws IOException {
-    long position = cacheBlockNumber * readCacheBlockSize;
-    long toEOF = length() - position;
-    // if size to EOF less than readCacheBlockSize, just read to EOF
-    long bytesToRead = toEOF < readCacheBlockSize ? toEOF : readCacheBlockSize;
-    int bytes = Math.toIntExact(bytesToRead);
-    byte[] buffer = new byte[bytes];
+  @Override
+  public List<ByteBuffer> readVectored(List<FileRange> ranges) throws IOException {
+    if (readCacheEnabled)
+      return super.readVectored(ranges);
+
+    long length = length();
+    long lastEnd = filePosition;
+    for (FileRange range : ranges) {
+      if (range.getEnd() > length)
+        throw new EOFException("Reading " + location + " at " + range.getOffset() + " file length = " + length);
+      lastEnd = Math.max(lastEnd, range.getEnd());
+    }
+
+    List<FileRange> runs = VectoredReads.coalesce(ranges);
+    List<Callable<byte[]>> requests = new ArrayList<>();
+    for (FileRange run : runs) {
+      requests.add(() -> {
+        byte[] data = new byte[run.getLength()];
+        int n = readRemote(run.getOffset(), data, 0, data.length);
+        if (n < data.length)
+          throw new EOFException("Reading " + location + " at " + run.getOffset() + " file length = " + length);
+        return data;
+      });
+    }
+    logger.debug("Read {} ranges of {} in {} requests", ranges.size(), url, requests.size());
+    List<byte[]> data = VectoredReads.invokeAll(requests);
+
+    ByteOrder bo = bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+    long[] runOffsets = runs.stream().mapToLong(FileRange::getOffset).toArray();
+    List<ByteBuffer> result = new ArrayList<>(ranges.size());
+    for (FileRange range : ranges) {
+      if (range.getLength() == 0) {
+        result.add(ByteBuffer.allocate(0).order(bo));
+        continue;
+      }
+      int i = Arrays.binarySearch(runOffsets, range.getOffset());
+      if (i < 0)
+        i = -i - 2; // the run starting before the range
+      int start = (int) (range.getOffset() - runOffsets[i]);
+      result.add(ByteBuffer.wrap(data.get(i), start, range.getLength()).slice().order(bo));
+    }
+    emptyBufferAt(lastEnd);
+    return result;
+  }
 
-    readRemote(position, buffer, 0, bytes);
-    return buffer;
+  // move the file pointer without reading, emptying the buffer so the next read starts there
+  private void emptyBufferAt(long pos) {
+    filePosition = pos;
+    bufferStart = pos;
+    dataEnd = pos;
+    dataSize = 0;
+    endOfFile = false;
   }
 
   @Override
@@ -252,12 +369,11 @@ public abstract class RemoteRandomAccessFile extends ucar.unidata.io.RandomAcces
   public void close() throws IOException {
     closeRemote();
     super.close();
-    // clean out the cache when closing the Remote Random Access File
+    // the blocks stay in the shared cache for the next open of this file, unless its version is not known
     if (readCache != null) {
-      readCache.invalidateAll();
-      if (debugAccess) {
-        logger.info(readCache.stats().toString());
-      }
+      readCache.invalidate(url, instanceVersion);
+      if (debugAccess)
+        readCache.logStats();
     }
   }
 }
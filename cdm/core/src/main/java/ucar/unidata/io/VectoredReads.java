@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.unidata.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import ucar.nc2.util.Concurrency;
+
+/**
+ * Helpers for vectored reads of remote files: merging byte ranges that are close together into fewer requests,
+ * and running the requests concurrently, with a bound on how many are in flight for any one read.
+ * <p>
+ * Configured with these system properties:
+ * <ul>
+ * <li>{@code ucar.unidata.io.vectored.maxInFlight} maximum number of concurrent requests for one read, default 8.</li>
+ * <li>{@code ucar.unidata.io.vectored.maxGap} ranges separated by at most this many bytes are merged, default 128
+ * KiB.</li>
+ * <li>{@code ucar.unidata.io.vectored.maxMergedSize} merged ranges are not grown beyond this many bytes, default 16
+ * MiB.</li>
+ * </ul>
+ */
+public final class VectoredReads {
+  // System property names for -D flags
+  static final String MAXINFLIGHT = "ucar.unidata.io.vectored.maxInFlight";
+  static final String MAXGAP = "ucar.unidata.io.vectored.maxGap";
+  static final String MAXMERGEDSIZE = "ucar.unidata.io.vectored.maxMergedSize";
+
+  private static volatile int maxInFlight = Concurrency.getIntProperty(MAXINFLIGHT, 8, 1);
+  private static volatile long maxGap = Concurrency.getLongProperty(MAXGAP, 128 * 1024, 0);
+  private static volatile long maxMergedSize = Concurrency.getLongProperty(MAXMERGEDSIZE, 16 * 1024 * 1024, 1);
+
+  private VectoredReads() {}
+
+  /**
+   * Set the maximum number of concurrent requests made by one vectored read. Default is 8.
+   *
+   * @param n number of requests, must be > 0; 1 means make the requests serially on the calling thread
+   */
+  public static void setMaxInFlight(int n) {
+    if (n <= 0)
+      throw new IllegalArgumentException("maxInFlight must be > 0");
+    maxInFlight = n;
+  }
+
+  public static int getMaxInFlight() {
+    return maxInFlight;
+  }
+
+  /**
+   * Set the largest gap, in bytes, between two ranges that are merged into one request. Default is 128 KiB.
+   *
+   * @param bytes gap in bytes, must be >= 0
+   */
+  public static void setMaxGap(long bytes) {
+    if (bytes < 0)
+      throw new IllegalArgumentException("maxGap must be >= 0");
+    maxGap = bytes;
+  }
+
+  public static long getMaxGap() {
+    return maxGap;
+  }
+
+  /**
+   * Set the size, in bytes, beyond which merged ranges are not grown. A single range larger than this is not split.
+   * Default is 16 MiB.
+   *
+   * @param bytes size in bytes, must be > 0
+   */
+  public static void setMaxMergedSize(long bytes) {
+    if (bytes <= 0)
+      throw new IllegalArgumentException("maxMergedSize must be > 0");
+    maxMergedSize = bytes;
+  }
+
+  public static long getMaxMergedSize() {
+    return maxMergedSize;
+  }
+
+  /** Merge ranges using the configured maximum gap and merged size. */
+  public static List<FileRange> coalesce(List<FileRange> ranges) {
+    return coalesce(ranges, maxGap, maxMergedSize);
+  }
+
+  /**
+   * Merge ranges that overlap, or are separated by no more than maxGap bytes, as long as the merged range stays
+   * within maxMergedSize. Empty ranges are dropped.
+   *
+   * @param ranges the ranges, in any order
+   * @param maxGap largest gap between merged ranges, in bytes
+   * @param maxMergedSize merged ranges are not grown beyond this size, in bytes
+   * @return merged ranges, sorted by offset, covering all bytes of the given ranges
+   */
+  public static List<FileRange> coalesce(List<FileRange> ranges, long maxGap, long maxMergedSize) {
+    List<FileRange> sorted = new ArrayList<>(ranges);
+    sorted.sort(Comparator.comparingLong(FileRange::getOffset));
+
+    long limit = Math.min(maxMergedSize, Integer.MAX_VALUE);
+    List<FileRange> result = new ArrayList<>();
+    long start = -1;
+    long end = -1;
+    for (FileRange range : sorted) {
+      if (range.getLength() == 0)
+        continue;
+      long newEnd = Math.max(end, range.getEnd());
+      if (start >= 0 && range.getOffset() - end <= maxGap && newEnd - start <= limit) {
+        end = newEnd;
+      } else {
+        if (start >= 0)
+          result.add(new FileRange(start, (int) (end - start)));
+        start = range.getOffset();
+        end = range.getEnd();
+      }
+    }
+    if (start >= 0)
+      result.add(new FileRange(start, (int) (end - start)));
+    return result;
+  }
+
+  /**
+   * Run the tasks with at most {@link #getMaxInFlight()} of them in flight at once, the calling thread being one.
+   * The calling thread runs any task not yet started by the pool, so nested calls can not deadlock.
+   *
+   * @param tasks the tasks, typically remote reads
+   * @return the results, in the order of the tasks
+   * @throws IOException the first failure, after which tasks not yet started are cancelled
+   */
+  public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks) throws IOException {
+    List<FutureTask<T>> futures = new ArrayList<>(tasks.size());
+    for (Callable<T> task : tasks)
+      futures.add(new FutureTask<>(task));
+
+    int background = Math.min(futures.size() - 1, maxInFlight - 1);
+    int submitted = 1; // the first is run by the calling thread
+    for (; submitted <= background; submitted++)
+      getRequestPool().execute(futures.get(submitted));
+
+    List<T> results = new ArrayList<>(futures.size());
+    try {
+      for (int i = 0; i < futures.size(); i++) {
+        FutureTask<T> future = futures.get(i);
+        future.run(); // does nothing if the pool already started it
+        results.add(Concurrency.getResult(future));
+        if (submitted < futures.size())
+          getRequestPool().execute(futures.get(submitted++));
+      }
+    } finally {
+      Concurrency.cancelAll(futures);
+    }
+    return results;
+  }
+
+  // threads are only created while requests are in flight; each read bounds its own concurrency
+  private static ExecutorService getRequestPool() {
+    return Concurrency.getSharedPool("VectoredReads-request");
+  }
+}
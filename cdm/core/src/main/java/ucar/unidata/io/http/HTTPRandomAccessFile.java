@@ -46,6 +46,7 @@ public final class HTTPRandomAccessFile extends RemoteRandomAccessFile {
 
   private HTTPSession session;
   private long total_length;
+  private String version; // ETag or Last-Modified, to key the shared block cache
 
   public HTTPRandomAccessFile(String url) throws IOException {
     this(url, httpBufferSize, httpMaxCacheSize);
@@ -78,6 +79,9 @@ public final class HTTPRandomAccessFile extends RemoteRandomAccessFile {
         }
       }
 
+      Optional<String> etag = method.getResponseHeaderValue("ETag");
+      this.version = etag.isPresent() ? etag.get() : method.getResponseHeaderValue("Last-Modified").orElse(null);
+
       try {
         this.total_length = method.getResponseHeaderValue("Content-Length").map(Long::parseLong)
             .orElseThrow(() -> new IOException("Server does not support Content-Length"));
@@ -218,6 +222,11 @@ public final class HTTPRandomAccessFile extends RemoteRandomAccessFile {
       return fileLength;
   }
 
+  @Override
+  protected String getRemoteVersion() {
+    return version;
+  }
+
   /**
    * Always returns {@code 0L}, as we cannot easily determine the last time that a remote file was modified.
    *
@@ -244,4 +244,103 @@ public class TestMAMath {
     // Null
     assertEquals(0, MAMath.hashCode(null));
   }
+
+  private static float[] makeData(int n) {
+    float[] data = new float[n];
+    for (int i = 0; i < n; i++) {
+      data[i] = (float) Math.sin(i * 0.001) * 1000;
+    }
+    data[7] = Float.NaN;
+    data[11] = -999;
+    data[n - 1] = 2000; // max is last
+    return data;
+  }
+
+  @Test
+  public void testCanonicalReductions() {
+    float[] data = makeData(1000);
+    Array canonical = Array.factory(DataType.FLOAT, new int[] {10, 100}, data);
+    Array transposed = canonical.transpose(0, 1); // not canonical, so iterated
+
+    double min = Double.MAX_VALUE, max = -Double.MAX_VALUE, sum = 0;
+    for (float val : data) {
+      if (Float.isNaN(val) || val == -999)
+        continue;
+      min = Math.min(min, val);
+      max = Math.max(max, val);
+      sum += val;
+    }
+
+    for (Array a : new Array[] {canonical, transposed}) {
+      MAMath.MinMax minmax = MAMath.getMinMax(a);
+      assertEquals(-999, minmax.min, 0);
+      assertEquals(2000, minmax.max, 0);
+      assertEquals(-999, MAMath.getMinimum(a), 0);
+
+      minmax = MAMath.getMinMaxSkipMissingData(a, -999);
+      assertEquals(min, minmax.min, 0);
+      assertEquals(max, minmax.max, 0);
+      assertEquals(min, MAMath.getMinimumSkipMissingData(a, -999), 0);
+      assertEquals(max, MAMath.getMaximumSkipMissingData(a, -999), 0);
+
+      IsMissingEvaluator eval = new IsMissingEvaluator() {
+        public boolean hasMissing() {
+          return true;
+        }
+
+        public boolean isMissing(double val) {
+          return Double.isNaN(val) || val == -999;
+        }
+      };
+      minmax = MAMath.getMinMaxSkipMissingData(a, eval);
+      assertEquals(min, minmax.min, 0);
+      assertEquals(max, minmax.max, 0);
+
+      assertEquals(sum, MAMath.sumDoubleSkipMissingData(a, -999), 1.0e-6);
+      assertTrue(Double.isNaN(MAMath.sumDouble(a)));
+    }
+  }
+
+  @Test
+  public void testCanonicalCopyAndAdd() {
+    Array a = Array.factory(DataType.DOUBLE, new int[] {3, 4}, new double[] {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11});
+    Array copy = Array.factory(DataType.DOUBLE, new int[] {3, 4});
+    MAMath.copy(copy, a);
+    assertTrue(MAMath.equals(a, copy));
+
+    Array sum = MAMath.add(a, copy);
+    assertEquals(22, sum.getDouble(11), 0);
+    assertEquals(2 * 66, MAMath.sumDouble(sum), 0);
+
+    // a transposed view is copied in canonical order
+    Array copyT = Array.factory(DataType.DOUBLE, new int[] {4, 3});
+    MAMath.copy(copyT, a.transpose(0, 1));
+    assertEquals(4, copyT.getDouble(1), 0);
+
+    try {
+      MAMath.copy(Array.factory(DataType.DOUBLE, new int[] {5}), a);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testParallelReductions() {
+    int n = 2 * MAMath.PARALLEL_THRESHOLD + 3;
+    Array a = Array.factory(DataType.FLOAT, new int[] {n}, makeData(n));
+    MAMath.MinMax serialMinMax = MAMath.getMinMaxSkipMissingData(a, -999);
+    double serialSum = MAMath.sumDoubleSkipMissingData(a, -999);
+
+    int saveParallelism = MAMath.getDefaultParallelism();
+    try {
+      MAMath.setDefaultParallelism(4);
+      MAMath.MinMax minmax = MAMath.getMinMaxSkipMissingData(a, -999);
+      assertEquals(serialMinMax.min, minmax.min, 0);
+      assertEquals(2000, minmax.max, 0);
+      assertEquals(serialSum, MAMath.sumDoubleSkipMissingData(a, -999), Math.abs(serialSum) * 1.0e-9);
+    } finally {
+      MAMath.setDefaultParallelism(saveParallelism);
+    }
+  }
 }
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.ma2;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+/** Test StridedCopy, and the Array copies that use it, against copies through an IndexIterator. */
+public class TestStridedCopy {
+
+  private static Array make3D(DataType dataType) {
+    Array a = Array.factory(dataType, new int[] {4, 5, 6});
+    IndexIterator iter = a.getIndexIterator();
+    for (int i = 0; iter.hasNext(); i++) {
+      iter.setDoubleNext(i);
+    }
+    return a;
+  }
+
+  // copy through the iterators, which is what MAMath.copy did before
+  private static Array iteratorCopy(Array a) {
+    Array result = Array.factory(a.getDataType(), a.getShape());
+    MAMath.copy(a.getDataType(), a.getIndexIterator(), result.getIndexIterator());
+    return result;
+  }
+
+  @Test
+  public void shouldCopyViews() throws InvalidRangeException {
+    for (DataType dataType : new DataType[] {DataType.FLOAT, DataType.DOUBLE, DataType.INT, DataType.SHORT,
+        DataType.BYTE, DataType.LONG, DataType.UBYTE}) {
+      Array a = make3D(dataType);
+      Array[] views = {a, a.section(new Section("1:3,0:4:2,1:4").getRanges()),
+          a.section(new Section("1:2,:,:").getRanges()), // contiguous
+          a.section(new Section("2,:,3").getRanges()), // reduced rank
+          a.section(new Section("0:3,2,0:5:5").getRanges()), a.transpose(0, 2), a.flip(1),
+          a.permute(new int[] {1, 2, 0}),
+          a.reshape(new int[] {2, 1, 60, 1}), a.section(new Section(":,:,2").getRanges()).flip(0)};
+      for (Array view : views) {
+        Array expected = iteratorCopy(view);
+        Array copy = view.copy();
+        assertThat(copy.getShape()).isEqualTo(expected.getShape());
+        assertThat(copy.getStorage()).isEqualTo(expected.getStorage());
+        assertThat(copy.getDataType()).isEqualTo(dataType);
+      }
+    }
+  }
+
+  @Test
+  public void shouldCopyIntoView() throws InvalidRangeException {
+    Array a = make3D(DataType.FLOAT);
+    Array target = Array.factory(DataType.FLOAT, new int[] {6, 5, 4});
+    Array view = target.transpose(0, 2);
+    MAMath.copy(view, a);
+    assertThat(MAMath.equals(view, a)).isTrue();
+    assertThat(target.getFloat(target.getIndex().set(5, 4, 3))).isEqualTo(119);
+
+    // conformable, but not the same shape
+    Array flat = Array.factory(DataType.FLOAT, new int[] {1, 4, 5, 6});
+    MAMath.copy(flat, a);
+    assertThat(flat.getStorage()).isEqualTo(a.getStorage());
+
+    assertThrows(IllegalArgumentException.class, () -> MAMath.copy(Array.factory(DataType.FLOAT, new int[] {3}), a));
+  }
+
+  @Test
+  public void shouldArraycopyView() {
+    Array a = make3D(DataType.INT);
+    Array dst = Array.factory(DataType.INT, new int[] {3 + 120});
+    Array.arraycopy(a.transpose(1, 2), 0, dst, 3, 120);
+    assertThat(dst.getInt(3 + 1)).isEqualTo(6); // [0,1,0] of the transpose
+    assertThat(dst.getInt(3 + 119)).isEqualTo(119);
+  }
+
+  @Test
+  public void shouldCopyWithStrides() {
+    int[] src = new int[100];
+    for (int i = 0; i < src.length; i++) {
+      src[i] = i;
+    }
+    // every third column of rows 9, 7, 5, of a 10 x 10 grid
+    int[] dst = new int[9];
+    StridedCopy.copy(src, 91, new int[] {-20, 3}, dst, 0, new int[] {3, 1}, new int[] {3, 3});
+    assertThat(dst).isEqualTo(new int[] {91, 94, 97, 71, 74, 77, 51, 54, 57});
+
+    // into every other element
+    String[] sdst = new String[4];
+    StridedCopy.copy(new String[] {"a", "b"}, 0, new int[] {1}, sdst, 1, new int[] {2}, new int[] {2});
+    assertThat(sdst).isEqualTo(new String[] {null, "a", null, "b"});
+
+    assertThrows(IllegalArgumentException.class,
+        () -> StridedCopy.copy(src, 0, new int[] {1}, new float[3], 0, new int[] {1}, new int[] {3}));
+    assertThrows(ArrayIndexOutOfBoundsException.class,
+        () -> StridedCopy.copy(src, 0, new int[] {1}, new int[3], 0, new int[] {1}, new int[] {4}));
+  }
+
+  @Test
+  public void shouldExtractMembers() throws IOException {
+    StructureMembers members = new StructureMembers("s");
+    members.addMember("b", null, null, DataType.BYTE, new int[] {3});
+    members.addMember("f", null, null, DataType.FLOAT, new int[] {1});
+    members.addMember("s", null, null, DataType.SHORT, new int[] {2});
+    int recsize = ArrayStructureBB.setOffsets(members);
+    assertThat(recsize).isEqualTo(11); // so the floats are not aligned
+
+    int nrecs = 5;
+    ArrayStructureBB asbb = new ArrayStructureBB(members, new int[] {nrecs});
+    ByteBuffer bb = asbb.getByteBuffer();
+    for (int r = 0; r < nrecs; r++) {
+      bb.put(new byte[] {(byte) r, (byte) (10 + r), (byte) (20 + r)});
+      bb.putFloat(r + 0.5f);
+      bb.putShort((short) -r);
+      bb.putShort((short) (100 * r));
+    }
+
+    Array bytes = asbb.extractMemberArray(members.findMember("b"));
+    assertThat(bytes.getShape()).isEqualTo(new int[] {nrecs, 3});
+    assertThat(bytes.getByte(3 * 4 + 2)).isEqualTo(24);
+    Array floats = asbb.extractMemberArray(members.findMember("f"));
+    assertThat(floats.getFloat(3)).isEqualTo(3.5f);
+    Array shorts = asbb.extractMemberArray(members.findMember("s"));
+    assertThat(shorts.getShort(2 * 2 + 1)).isEqualTo(200);
+
+    // records placed anywhere in the buffer
+    ArrayStructureBB picked = new ArrayStructureBBpos(members, new int[] {2}, bb, new int[] {2 * recsize, recsize});
+    assertThat(picked.extractMemberArray(members.findMember("f")).getStorage()).isEqualTo(new float[] {2.5f, 1.5f});
+    assertThat(picked.extractMemberArray(members.findMember("b")).getStorage())
+        .isEqualTo(new byte[] {2, 12, 22, 1, 11, 21});
+  }
+}
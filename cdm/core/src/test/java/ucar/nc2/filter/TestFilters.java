@@ -11,6 +11,8 @@ import org.junit.Test;
 import ucar.unidata.io.RandomAccessFile;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
@@ -59,6 +61,74 @@ public class TestFilters {
     testEncodeDecode(filter, "shuffle");
   }
 
+  @Test
+  public void testBloscDecode() throws IOException {
+    Map<String, Object> props = new HashMap<>();
+    props.put("id", "blosc");
+    Filter filter = new Blosc(props);
+    // lz4 with byte shuffle, zstd with bit shuffle, zlib with no shuffle
+    assertThat(filter.decode(readAsByteArray("blosc_lz4"))).isEqualTo(decoded_data);
+    assertThat(filter.decode(readAsByteArray("blosc_zstd"))).isEqualTo(decoded_data);
+    assertThat(filter.decode(readAsByteArray("blosc_zlib"))).isEqualTo(decoded_data);
+
+    // decode blocks in parallel
+    props.put("nthreads", 4);
+    filter = new Blosc(props);
+    assertThat(filter.decode(readAsByteArray("blosc_lz4"))).isEqualTo(decoded_data);
+  }
+
+  @Test
+  public void testBloscBitshuffleLeftover() throws IOException {
+    // format version 3, zlib with bit shuffle, 4 byte elements: a block of 64 elements, then a block of 21, of which
+    // the first 16 are bit shuffled and the last 5 copied
+    ByteBuffer expected = ByteBuffer.allocate(85 * 4).order(ByteOrder.LITTLE_ENDIAN);
+    for (int i = 0; i < 85; i++) {
+      expected.putInt(i * i * 37 - 5000);
+    }
+    Map<String, Object> props = new HashMap<>();
+    props.put("id", "blosc");
+    Filter filter = new Blosc(props);
+    assertThat(filter.decode(readAsByteArray("blosc_bitshuffle_v3"))).isEqualTo(expected.array());
+  }
+
+  @Test
+  public void testBloscRoundTrip() throws IOException {
+    for (String cname : new String[] {"lz4", "lz4hc", "zlib", "zstd"}) {
+      for (int shuffle = -1; shuffle <= 2; shuffle++) {
+        Map<String, Object> props = new HashMap<>();
+        props.put("id", "blosc");
+        props.put("cname", cname);
+        props.put("clevel", 5);
+        props.put("shuffle", shuffle);
+        props.put("typesize", 4);
+        Filter filter = new Blosc(props);
+        byte[] encoded = filter.encode(decoded_data);
+        assertThat(encoded.length).isLessThan(decoded_data.length);
+        assertThat(filter.decode(encoded)).isEqualTo(decoded_data);
+      }
+    }
+
+    // incompressible data is stored
+    Map<String, Object> props = new HashMap<>();
+    props.put("id", "blosc");
+    props.put("clevel", 0);
+    Filter filter = new Blosc(props);
+    byte[] encoded = filter.encode(decoded_data);
+    assertThat(encoded.length).isEqualTo(decoded_data.length + 16);
+    assertThat(filter.decode(encoded)).isEqualTo(decoded_data);
+  }
+
+  @Test
+  public void testBloscHdf5ClientData() throws IOException {
+    // filter version, blosc version, typesize, chunk size, clevel, shuffle, compressor code (zstd)
+    Map<String, Object> props = new HashMap<>();
+    props.put(Filters.Keys.DATA, new int[] {2, 2, 4, decoded_data.length, 5, 1, 4});
+    Filter filter = new Blosc(props);
+    byte[] encoded = filter.encode(decoded_data);
+    assertThat((encoded[2] & 0xff) >>> 5).isEqualTo(4);
+    assertThat(filter.decode(encoded)).isEqualTo(decoded_data);
+  }
+
   @Test
   public void testChecksum32() throws IOException {
     // test Adler32
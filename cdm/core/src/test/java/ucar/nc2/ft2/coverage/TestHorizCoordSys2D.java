@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.ft2.coverage;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Random;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import ucar.ma2.Array;
+import ucar.ma2.ArrayDouble;
+import ucar.ma2.DataType;
+import ucar.nc2.constants.AxisType;
+import ucar.nc2.dataset.CoordinateAxis2D;
+import ucar.nc2.ft2.coverage.CoverageCoordAxis.Spacing;
+import ucar.nc2.util.Optional;
+
+/**
+ * Find the cells of points in a grid of long, sheared cells with a hole of missing values, where the nearest edge
+ * point is usually not a corner of the cell that contains the point.
+ */
+public class TestHorizCoordSys2D {
+  private static final int nrows = 6, ncols = 40;
+  private static final int holeRow = 3, holeCol = 20;
+  private static HorizCoordSys2D hcs;
+  private static ArrayDouble.D2 latEdge, lonEdge;
+
+  @BeforeClass
+  public static void makeCoordSys() {
+    double[] lats = new double[nrows * ncols];
+    double[] lons = new double[nrows * ncols];
+    for (int row = 0; row < nrows; row++) {
+      for (int col = 0; col < ncols; col++) {
+        // parallelograms 20 degrees long and 1 wide, sheared by 1 degree per column
+        lats[row * ncols + col] = -70.0 + 20.0 * row + col;
+        lons[row * ncols + col] = 10.0 + col;
+      }
+    }
+    lats[holeRow * ncols + holeCol] = Double.NaN; // missing
+    lons[holeRow * ncols + holeCol] = Double.NaN;
+
+    hcs = new HorizCoordSys2D(makeAxis("lat", AxisType.Lat, lats), makeAxis("lon", AxisType.Lon, lons));
+    latEdge = makeEdges(lats);
+    lonEdge = makeEdges(lons);
+  }
+
+  private static ArrayDouble.D2 makeEdges(double[] values) {
+    Array centers = Array.factory(DataType.DOUBLE, new int[] {nrows, ncols}, values);
+    return CoordinateAxis2D.makeEdges((ArrayDouble.D2) centers);
+  }
+
+  private static LatLonAxis2D makeAxis(String name, AxisType type, double[] values) {
+    CoverageCoordAxisBuilder builder = new CoverageCoordAxisBuilder(name, "degrees", name, DataType.DOUBLE, type, null,
+        CoverageCoordAxis.DependenceType.twoD, "y x", Spacing.irregularPoint, values.length, values[0],
+        values[values.length - 1], 0.0, values, null);
+    builder.shape = new int[] {nrows, ncols};
+    return new LatLonAxis2D(builder);
+  }
+
+  @Test
+  public void shouldFindLongShearedCells() {
+    Random random = new Random(17);
+    int count = 0;
+    for (int row = 0; row < nrows; row++) {
+      for (int col = 0; col < ncols; col++) {
+        if (isMissing(row, col))
+          continue;
+        for (int i = 0; i < 5; i++) {
+          double[] latlon = pointInCell(row, col, random);
+          Optional<HorizCoordSys.CoordReturn> found = hcs.findXYindexFromCoord(latlon[1], latlon[0]);
+          assertThat(found.isPresent()).isTrue();
+          assertThat(contains(found.get().y, found.get().x, latlon[0], latlon[1])).isTrue();
+          count++;
+        }
+      }
+    }
+    assertThat(count).isGreaterThan(nrows * ncols);
+  }
+
+  @Test
+  public void shouldNotFindPointsInHoles() {
+    // the center of the missing point, inside cells with missing corners
+    double lat = -70.0 + 20.0 * holeRow + holeCol;
+    double lon = 10.0 + holeCol;
+    assertThat(hcs.findXYindexFromCoord(lon, lat).isPresent()).isFalse();
+  }
+
+  @Test
+  public void shouldNotFindPointsOutsideGrid() {
+    assertThat(hcs.findXYindexFromCoord(9.0, 0.0).isPresent()).isFalse();
+    assertThat(hcs.findXYindexFromCoord(51.0, 0.0).isPresent()).isFalse();
+    assertThat(hcs.findXYindexFromCoord(30.0, 85.0).isPresent()).isFalse();
+    assertThat(hcs.findXYindexFromCoord(-150.0, 0.0).isPresent()).isFalse();
+  }
+
+  private static boolean isMissing(int row, int col) {
+    return Double.isNaN(latEdge.get(row, col) + latEdge.get(row, col + 1) + latEdge.get(row + 1, col)
+        + latEdge.get(row + 1, col + 1));
+  }
+
+  // a random point inside the cell, away from its sides
+  private static double[] pointInCell(int row, int col, Random random) {
+    double u = 0.05 + 0.9 * random.nextDouble();
+    double v = 0.05 + 0.9 * random.nextDouble();
+    return new double[] {bilinear(latEdge, row, col, u, v), bilinear(lonEdge, row, col, u, v)};
+  }
+
+  private static double bilinear(ArrayDouble.D2 edge, int row, int col, double u, double v) {
+    return (1 - v) * ((1 - u) * edge.get(row, col) + u * edge.get(row, col + 1))
+        + v * ((1 - u) * edge.get(row + 1, col) + u * edge.get(row + 1, col + 1));
+  }
+
+  private static boolean contains(int row, int col, double lat, double lon) {
+    if (isMissing(row, col))
+      return false;
+    double[] ys = {latEdge.get(row, col), latEdge.get(row, col + 1), latEdge.get(row + 1, col + 1),
+        latEdge.get(row + 1, col)};
+    double[] xs = {lonEdge.get(row, col), lonEdge.get(row, col + 1), lonEdge.get(row + 1, col + 1),
+        lonEdge.get(row + 1, col)};
+    int positive = 0;
+    for (int i = 0; i < 4; i++) {
+      int j = (i + 1) % 4;
+      if ((xs[j] - xs[i]) * (lat - ys[i]) - (ys[j] - ys[i]) * (lon - xs[i]) > 0)
+        positive++;
+    }
+    return positive == 0 || positive == 4;
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.ft2.coverage;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.unidata.geoloc.LatLonPoints;
+
+/** Compare LatLonIndex2D with examining every point, on a skewed grid that crosses the dateline and reaches a pole. */
+public class TestLatLonIndex2D {
+  private static final int nrows = 120, ncols = 150;
+  private static double[] lats, lons;
+  private static LatLonIndex2D index;
+
+  @BeforeClass
+  public static void makeIndex() {
+    lats = new double[nrows * ncols];
+    lons = new double[nrows * ncols];
+    for (int row = 0; row < nrows; row++) {
+      for (int col = 0; col < ncols; col++) {
+        lats[row * ncols + col] = Math.min(90.0, -30.0 + row * 1.0 + col * 0.02);
+        lons[row * ncols + col] = LatLonPoints.lonNormal(150.0 + col * 0.5 + row * 0.1);
+      }
+    }
+    lats[7] = Double.NaN; // missing
+    index = new LatLonIndex2D(Array.factory(DataType.DOUBLE, new int[] {nrows, ncols}, lats),
+        Array.factory(DataType.DOUBLE, new int[] {nrows, ncols}, lons));
+  }
+
+  @Test
+  public void shouldIndexPointsWithLatLon() {
+    assertThat(index.getNrows()).isEqualTo(nrows);
+    assertThat(index.getNcols()).isEqualTo(ncols);
+    assertThat(index.getSize()).isEqualTo(nrows * ncols - 1);
+  }
+
+  @Test
+  public void shouldFindNearest() {
+    Random random = new Random(17);
+    for (int i = 0; i < 500; i++) {
+      double lat = random.nextDouble() * 180.0 - 90.0;
+      double lon = random.nextDouble() * 360.0 - 180.0;
+      int found = index.findNearest(lat, lon);
+      assertThat(distance(found, lat, lon)).isWithin(1.0e-6).of(distance(findNearestExhaustive(lat, lon), lat, lon));
+    }
+  }
+
+  @Test
+  public void shouldFindNearestAcrossDatelineAndAtPole() {
+    // both sides of the dateline are in the grid, with longitudes in [-180, 180]
+    int found = index.findNearest(lats[10 * ncols + 60], lons[10 * ncols + 60] + 360.0);
+    assertThat(found).isEqualTo(10 * ncols + 60);
+    assertThat(lats[index.findNearest(90.0, 17.0)]).isEqualTo(90.0);
+  }
+
+  @Test
+  public void shouldFindInBox() {
+    Random random = new Random(42);
+    for (int i = 0; i < 200; i++) {
+      double latMin = random.nextDouble() * 180.0 - 90.0;
+      double latMax = latMin + random.nextDouble() * 40.0;
+      double lonStart = random.nextDouble() * 360.0 - 180.0;
+      double lonWidth = random.nextDouble() * ((i % 10 == 0) ? 400.0 : 60.0);
+
+      Set<Integer> found = new HashSet<>();
+      index.findInBox(latMin, latMax, lonStart, lonWidth, found::add);
+      assertThat(found).isEqualTo(findInBoxExhaustive(latMin, latMax, lonStart, lonWidth));
+    }
+  }
+
+  @Test
+  public void shouldFindBoundsAcrossDateline() {
+    int[] bounds = index.findBoundsInBox(-30.0, -25.0, 175.0, 10.0);
+    assertThat(bounds).isNotNull();
+    for (int row = bounds[0]; row <= bounds[1]; row++) {
+      for (int col = bounds[2]; col <= bounds[3]; col++) {
+        double lon = lons[row * ncols + col];
+        assertThat(lon >= 174.0 || lon <= -174.0).isTrue();
+      }
+    }
+    assertThat(index.findBoundsInBox(-30.0, -25.0, 0.0, 10.0)).isNull();
+  }
+
+  private int findNearestExhaustive(double lat, double lon) {
+    int best = -1;
+    double bestDist = Double.MAX_VALUE;
+    for (int i = 0; i < lats.length; i++) {
+      if (Double.isNaN(lats[i]))
+        continue;
+      double dist = distance(i, lat, lon);
+      if (dist < bestDist) {
+        bestDist = dist;
+        best = i;
+      }
+    }
+    return best;
+  }
+
+  private Set<Integer> findInBoxExhaustive(double latMin, double latMax, double lonStart, double lonWidth) {
+    Set<Integer> result = new HashSet<>();
+    for (int i = 0; i < lats.length; i++) {
+      if (Double.isNaN(lats[i]) || lats[i] < latMin || lats[i] > latMax)
+        continue;
+      if (lonWidth >= 360.0 || LatLonPoints.lonNormalFrom(lons[i] - lonStart, 0.0) <= lonWidth)
+        result.add(i);
+    }
+    return result;
+  }
+
+  private double distance(int i, double lat, double lon) {
+    return LatLonIndex2D.getChordDistance(lats[i], lons[i], lat, lon);
+  }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.internal.iosp.hdf5;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ucar.ma2.Array;
+import ucar.ma2.ArrayString;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Section;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.EnumTypedef;
+import ucar.nc2.Group;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Structure;
+import ucar.nc2.Variable;
+import ucar.nc2.write.Nc4Chunking;
+import ucar.nc2.write.NetcdfFileFormat;
+import ucar.nc2.write.NetcdfFormatWriter;
+
+/** Files written with H5iospWriter read back with H5iospNew. */
+public class TestH5iospWriter {
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  // chunks of 2 along every dimension, so that there are partial edge chunks and many chunks per variable
+  private static class SmallChunks implements Nc4Chunking {
+    private final int level;
+
+    SmallChunks(int level) {
+      this.level = level;
+    }
+
+    @Override
+    public boolean isChunked(Variable v) {
+      return v.getRank() > 0;
+    }
+
+    @Override
+    public long[] computeChunking(Variable v) {
+      long[] result = new long[v.getRank()];
+      Arrays.fill(result, 2);
+      return result;
+    }
+
+    @Override
+    public int getDeflateLevel(Variable v) {
+      return level;
+    }
+
+    @Override
+    public boolean isShuffle(Variable v) {
+      return level > 0;
+    }
+  }
+
+  private NetcdfFormatWriter.Builder builder(String location, int level) {
+    return NetcdfFormatWriter.builder().setNewFile(true).setFormat(NetcdfFileFormat.NETCDF4).setLocation(location)
+        .setChunker(new SmallChunks(level));
+  }
+
+  @Test
+  public void shouldWriteMultiLevelChunkBtrees() throws IOException, InvalidRangeException {
+    // 65 * 65 chunks: more than fit in two levels of nodes with 64 entries each
+    int n = 130;
+    Array data = Array.makeArray(DataType.INT, n * n, 0, 1).reshape(new int[] {n, n});
+    for (int level : new int[] {0, 5}) {
+      String location = tempFolder.newFile().getAbsolutePath();
+      NetcdfFormatWriter.Builder writerb = builder(location, level);
+      writerb.addDimension("y", n);
+      writerb.addDimension("x", n);
+      writerb.addVariable("data", DataType.INT, "y x");
+
+      try (NetcdfFormatWriter writer = writerb.build()) {
+        for (int start = 0; start < n; start += 13) {
+          writer.write(writer.findVariable("data"), new int[] {start, 0},
+              data.section(new int[] {start, 0}, new int[] {13, n}));
+        }
+      }
+
+      try (NetcdfFile ncfile = NetcdfFiles.open(location)) {
+        Variable v = ncfile.findVariable("data");
+        assertThat(v.read().get1DJavaArray(DataType.INT)).isEqualTo(data.get1DJavaArray(DataType.INT));
+        // the first and last chunks, in the leftmost and rightmost leaves
+        assertThat(v.read("0:1,0:1").get1DJavaArray(DataType.INT)).isEqualTo(new int[] {0, 1, n, n + 1});
+        assertThat(v.read("129,128:129").get1DJavaArray(DataType.INT))
+            .isEqualTo(new int[] {n * n - 2, n * n - 1});
+      }
+    }
+  }
+
+  @Test
+  public void shouldBeReadableAfterEachFlush() throws IOException, InvalidRangeException {
+    String location = tempFolder.newFile().getAbsolutePath();
+    NetcdfFormatWriter.Builder writerb = builder(location, 1);
+    writerb.addUnlimitedDimension("time");
+    writerb.addDimension("n", 3);
+    writerb.addVariable("temp", DataType.INT, "time n");
+
+    try (NetcdfFormatWriter writer = writerb.build()) {
+      int ntimes = 0;
+      for (int flush = 0; flush < 5; flush++) {
+        // 3 records each time, so that a chunk is rewritten across flushes
+        for (int i = 0; i < 3; i++, ntimes++) {
+          writer.write(writer.findVariable("temp"), new int[] {ntimes, 0},
+              Array.factory(DataType.INT, new int[] {1, 3}, new int[] {ntimes, -ntimes, 7}));
+        }
+        writer.flush();
+
+        try (NetcdfFile ncfile = NetcdfFiles.open(location)) {
+          assertThat(ncfile.findDimension("time").getLength()).isEqualTo(ntimes);
+          Array temp = ncfile.findVariable("temp").read();
+          assertThat(temp.getShape()).isEqualTo(new int[] {ntimes, 3});
+          for (int t = 0; t < ntimes; t++) {
+            assertThat(temp.getInt(3 * t)).isEqualTo(t);
+            assertThat(temp.getInt(3 * t + 1)).isEqualTo(-t);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void shouldWriteDimensionScales() throws IOException, InvalidRangeException {
+    String location = tempFolder.newFile().getAbsolutePath();
+    NetcdfFormatWriter.Builder writerb = builder(location, 0);
+    writerb.addDimension("y", 4); // with a coordinate variable
+    writerb.addDimension("x", 3); // without
+    writerb.addVariable("y", DataType.FLOAT, "y").addAttribute(new Attribute("units", "m"));
+    writerb.addVariable("data", DataType.SHORT, "y x");
+    Group.Builder sub = Group.builder().setName("sub");
+    writerb.getRootGroup().addGroup(sub);
+    sub.addDimension(new Dimension("z", 2));
+    sub.addVariable(Variable.builder().setName("flags").setDataType(DataType.UBYTE).setParentGroupBuilder(sub)
+        .setDimensionsByName("x z"));
+
+    try (NetcdfFormatWriter writer = writerb.build()) {
+      writer.write("y", Array.factory(DataType.FLOAT, new int[] {4}, new float[] {10, 20, 30, 40}));
+      writer.write(writer.findVariable("sub/flags"),
+          Array.factory(DataType.UBYTE, new int[] {3, 2}, new byte[] {1, 2, 3, 4, 5, (byte) 255}));
+    }
+
+    try (NetcdfFile ncfile = NetcdfFiles.open(location)) {
+      Variable y = ncfile.findVariable("y");
+      assertThat(y.isCoordinateVariable()).isTrue();
+      assertThat(y.findAttributeString("units", null)).isEqualTo("m");
+      assertThat(y.read().getFloat(3)).isEqualTo(40f);
+      assertThat(ncfile.findVariable("x")).isNull(); // a dimension scale that is not a netCDF variable
+
+      Variable data = ncfile.findVariable("data");
+      assertThat(data.getDimension(0)).isEqualTo(ncfile.findDimension("y"));
+      assertThat(data.getDimension(1)).isEqualTo(ncfile.findDimension("x"));
+
+      // the nested group uses the dimension of its parent, and has its own
+      Group g = ncfile.findGroup("sub");
+      assertThat(g.getDimensions()).hasSize(1);
+      Variable flags = ncfile.findVariable("sub/flags");
+      assertThat(flags.getDimension(0)).isEqualTo(ncfile.findDimension("x"));
+      assertThat(flags.getDimension(1).getShortName()).isEqualTo("z");
+      assertThat(flags.getDataType()).isEqualTo(DataType.UBYTE);
+      assertThat(flags.read().getInt(5)).isEqualTo(255);
+    }
+  }
+
+  @Test
+  public void shouldGrowUnlimitedDimension() throws IOException, InvalidRangeException {
+    String location = tempFolder.newFile().getAbsolutePath();
+    NetcdfFormatWriter.Builder writerb = builder(location, 1);
+    writerb.addUnlimitedDimension("time");
+    writerb.addDimension("n", 3);
+    writerb.addVariable("time", DataType.DOUBLE, "time").addAttribute(new Attribute("units", "days since 2000-01-01"));
+    writerb.addVariable("temp", DataType.INT, "time n");
+    writerb.addVariable("name", DataType.STRING, "time");
+
+    int ntimes = 500;
+    try (NetcdfFormatWriter writer = writerb.build()) {
+      for (int t = 0; t < ntimes; t++) {
+        writer.write(writer.findVariable("time"), new int[] {t},
+            Array.factory(DataType.DOUBLE, new int[] {1}, new double[] {t}));
+        writer.write(writer.findVariable("temp"), new int[] {t, 0},
+            Array.factory(DataType.INT, new int[] {1, 3}, new int[] {t, t + 1, t + 2}));
+        ArrayString.D1 name = new ArrayString.D1(1);
+        name.set(0, "record" + t);
+        writer.write(writer.findVariable("name"), new int[] {t}, name);
+      }
+    }
+
+    try (NetcdfFile ncfile = NetcdfFiles.open(location)) {
+      Dimension time = ncfile.findDimension("time");
+      assertThat(time).isNotNull();
+      assertThat(time.isUnlimited()).isTrue();
+      assertThat(time.getLength()).isEqualTo(ntimes);
+      Variable timeVar = ncfile.findVariable("time");
+      assertThat(timeVar.findAttributeString("units", null)).isEqualTo("days since 2000-01-01");
+      assertThat(timeVar.read().getDouble(ntimes - 1)).isEqualTo(ntimes - 1);
+
+      Array temp = ncfile.findVariable("temp").read("321,:");
+      assertThat(temp.get1DJavaArray(DataType.INT)).isEqualTo(new int[] {321, 322, 323});
+      Array names = ncfile.findVariable("name").read("497:499");
+      assertThat(names.getObject(0)).isEqualTo("record497");
+      assertThat(names.getObject(2)).isEqualTo("record499");
+    }
+  }
+
+  @Test
+  public void shouldFillUnwrittenValues() throws IOException, InvalidRangeException {
+    String location = tempFolder.newFile().getAbsolutePath();
+    NetcdfFormatWriter.Builder writerb = builder(location, 1);
+    writerb.addDimension("x", 5);
+    writerb.addVariable("data", DataType.SHORT, "x").addAttribute(new Attribute("_FillValue", (short) -1));
+
+    try (NetcdfFormatWriter writer = writerb.build()) {
+      writer.write(writer.findVariable("data"), new int[] {1},
+          Array.factory(DataType.SHORT, new int[] {2}, new short[] {10, 11}));
+      writer.flush();
+      // rewrite a chunk that was already stored
+      writer.write(writer.findVariable("data"), new int[] {2},
+          Array.factory(DataType.SHORT, new int[] {1}, new short[] {12}));
+    }
+
+    try (NetcdfFile ncfile = NetcdfFiles.open(location)) {
+      Array result = ncfile.findVariable("data").read();
+      assertThat(result.get1DJavaArray(DataType.SHORT)).isEqualTo(new short[] {-1, 10, 12, -1, -1});
+    }
+  }
+
+  private static NetcdfFile makeFile(Consumer<Group.Builder> extra) {
+    Group.Builder root = Group.builder().addDimension(new Dimension("x", 5));
+    root.addVariable(Variable.builder().setName("data").setDataType(DataType.SHORT).setParentGroupBuilder(root)
+        .setDimensionsByName("x"));
+    extra.accept(root);
+    return NetcdfFile.builder().setRootGroup(root).build();
+  }
+
+  @Test
+  public void shouldOnlyWriteWhatItSupports() {
+    assertThat(H5iospWriter.canWrite(makeFile(root -> root.addAttribute(new Attribute("title", "small"))),
+        NetcdfFileFormat.NETCDF4)).isTrue();
+    assertThat(H5iospWriter.canWrite(
+        makeFile(root -> root.addVariable(Structure.builder().setName("record").setParentGroupBuilder(root)
+            .addMemberVariable(Variable.builder().setName("member").setDataType(DataType.INT)))),
+        NetcdfFileFormat.NETCDF4)).isFalse();
+    assertThat(H5iospWriter.canWrite(makeFile(root -> root.addEnumTypedef(new EnumTypedef("flags",
+        ImmutableMap.of(0, "off", 1, "on")))), NetcdfFileFormat.NETCDF4)).isFalse();
+    assertThat(H5iospWriter.canWrite(makeFile(root -> root.addAttribute(new Attribute("big",
+        Array.factory(DataType.DOUBLE, new int[] {10000}, new double[10000])))), NetcdfFileFormat.NETCDF4)).isFalse();
+  }
+
+  @Test
+  public void shouldReadBackWhileWriting() throws IOException, InvalidRangeException {
+    String location = tempFolder.newFile().getAbsolutePath();
+    NetcdfFile ncfile = makeFile(root -> root.addAttribute(new Attribute("title", "read back")));
+    Variable v = ncfile.findVariable("data");
+    H5iospWriter writer = new H5iospWriter(NetcdfFileFormat.NETCDF4);
+    try {
+      writer.create(location, ncfile, 0, 0, false);
+      writer.writeData(v, new Section(new int[] {0}, new int[] {2}),
+          Array.factory(DataType.SHORT, new int[] {2}, new short[] {1, 2}));
+      assertThat(writer.readData(v, new Section(new int[] {0}, new int[] {2})).get1DJavaArray(DataType.SHORT))
+          .isEqualTo(new short[] {1, 2});
+
+      // data written after reading is seen
+      writer.writeData(v, new Section(new int[] {2}, new int[] {1}),
+          Array.factory(DataType.SHORT, new int[] {1}, new short[] {3}));
+      assertThat(writer.readData(v, new Section(new int[] {1}, new int[] {2})).get1DJavaArray(DataType.SHORT))
+          .isEqualTo(new short[] {2, 3});
+    } finally {
+      writer.close();
+    }
+  }
+}
@@ -0,0 +1,180 @@
+package ucar.nc2.internal.iosp.hdf5;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.MAMath;
+import ucar.ma2.Section;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Variable;
+import ucar.nc2.iosp.ChunkCache;
+import ucar.nc2.iosp.IospHelper;
+import ucar.unidata.io.RandomAccessFile;
+import ucar.unidata.util.test.TestDir;
+
+/** Compare serial and parallel decoding of filtered chunks. */
+@RunWith(Parameterized.class)
+public class TestH5tiledLayoutBB {
+
+  @Parameters(name = "{0}")
+  public static List<Object[]> getTestParameters() {
+    List<Object[]> result = new ArrayList<>();
+    result.add(new Object[] {TestDir.cdmLocalTestDataDir + "testCFGridWriter.nc4"});
+    result.add(new Object[] {TestDir.cdmLocalTestDataDir + "testSpecialAttributes.nc4"});
+    result.add(new Object[] {TestDir.cdmLocalTestDataDir + "dataset/testRename.nc4"});
+    result.add(new Object[] {TestDir.cdmLocalTestDataDir + "hdf5/test_enum_2.nc4"});
+    return result;
+  }
+
+  private final String filename;
+
+  public TestH5tiledLayoutBB(String filename) {
+    this.filename = filename;
+  }
+
+  @Test
+  public void shouldDecodeSameInParallel() throws IOException, InvalidRangeException {
+    try (NetcdfFile ncfile = NetcdfFiles.open(filename)) {
+      RandomAccessFile raf = ((H5iospNew) ncfile.getIosp()).getRandomAccessFile();
+      for (Variable v : ncfile.getVariables()) {
+        if (!(v.getSPobject() instanceof H5headerNew.Vinfo))
+          continue;
+        H5headerNew.Vinfo vinfo = (H5headerNew.Vinfo) v.getSPobject();
+        if (vinfo.mfp == null || vinfo.typeInfo.isVString)
+          continue;
+
+        Section all = new Section(v.getShape());
+        Array serial = read(v, vinfo, raf, all, 1);
+        Array parallel = read(v, vinfo, raf, all, 4);
+        assertThat(MAMath.nearlyEquals(serial, parallel)).isTrue();
+        assertThat(MAMath.nearlyEquals(serial, v.read())).isTrue();
+      }
+    }
+  }
+
+  @Test
+  public void shouldReadSameFromChunkCache() throws IOException, InvalidRangeException {
+    long maxSize = ChunkCache.getMaxSize();
+    try (NetcdfFile ncfile = NetcdfFiles.open(filename)) {
+      RandomAccessFile raf = ((H5iospNew) ncfile.getIosp()).getRandomAccessFile();
+      for (Variable v : ncfile.getVariables()) {
+        if (!(v.getSPobject() instanceof H5headerNew.Vinfo))
+          continue;
+        H5headerNew.Vinfo vinfo = (H5headerNew.Vinfo) v.getSPobject();
+        if (vinfo.mfp == null || vinfo.typeInfo.isVString)
+          continue;
+
+        Section all = new Section(v.getShape());
+        ChunkCache.setMaxSize(0);
+        Array uncached = read(v, vinfo, raf, all, 1);
+        ChunkCache.setMaxSize(32 * 1024 * 1024);
+        for (int parallelism : new int[] {1, 4}) {
+          read(v, vinfo, raf, all, parallelism); // fills the cache
+          long hits = ChunkCache.getHitCount();
+          Array cached = read(v, vinfo, raf, all, parallelism);
+          assertThat(ChunkCache.getHitCount()).isGreaterThan(hits);
+          assertThat(MAMath.nearlyEquals(uncached, cached)).isTrue();
+        }
+      }
+    } finally {
+      ChunkCache.setMaxSize(maxSize);
+    }
+  }
+
+  @Test
+  public void shouldNotCacheChunksInMemory() throws IOException, InvalidRangeException {
+    long maxSize = ChunkCache.getMaxSize();
+    byte[] data = Files.readAllBytes(Paths.get(filename));
+    // data of the same name may be different, so it must not be served from the cache
+    try (NetcdfFile ncfile = NetcdfFiles.openInMemory("inMemory", data)) {
+      RandomAccessFile raf = ((H5iospNew) ncfile.getIosp()).getRandomAccessFile();
+      ChunkCache.setMaxSize(32 * 1024 * 1024);
+      for (Variable v : ncfile.getVariables()) {
+        if (!(v.getSPobject() instanceof H5headerNew.Vinfo))
+          continue;
+        H5headerNew.Vinfo vinfo = (H5headerNew.Vinfo) v.getSPobject();
+        if (vinfo.mfp == null || vinfo.typeInfo.isVString)
+          continue;
+
+        Section all = new Section(v.getShape());
+        for (int parallelism : new int[] {1, 4}) {
+          Array first = read(v, vinfo, raf, all, parallelism);
+          Array second = read(v, vinfo, raf, all, parallelism);
+          assertThat(MAMath.nearlyEquals(first, second)).isTrue();
+        }
+      }
+      assertThat(ChunkCache.getSize()).isEqualTo(0);
+      assertThat(ChunkCache.getHitCount()).isEqualTo(0);
+    } finally {
+      ChunkCache.setMaxSize(maxSize);
+    }
+  }
+
+  @Test
+  public void shouldReadSameWithDecodeParallelismOfTheFile() throws IOException, InvalidRangeException {
+    long maxSize = ChunkCache.getMaxSize();
+    ChunkCache.setMaxSize(0); // so each read decodes its chunks
+    try (NetcdfFile serialFile = NetcdfFiles.open(filename); NetcdfFile parallelFile = NetcdfFiles.open(filename)) {
+      H5iospNew iosp = (H5iospNew) parallelFile.getIosp();
+      assertThat(iosp.getDecodeParallelism()).isEqualTo(H5tiledLayoutBB.getDefaultParallelism());
+      ((H5iospNew) serialFile.getIosp()).setDecodeParallelism(1);
+      iosp.setDecodeParallelism(4);
+      assertThat(iosp.getDecodeParallelism()).isEqualTo(4);
+
+      for (Variable v : serialFile.getVariables()) {
+        if (!(v.getSPobject() instanceof H5headerNew.Vinfo))
+          continue;
+        H5headerNew.Vinfo vinfo = (H5headerNew.Vinfo) v.getSPobject();
+        if (vinfo.mfp == null || vinfo.typeInfo.isVString)
+          continue;
+
+        Variable pv = parallelFile.findVariable(v.getFullNameEscaped());
+        assertThat(pv).isNotNull();
+        assertThat(MAMath.nearlyEquals(v.read(), pv.read())).isTrue();
+        if (v.getRank() > 0 && v.getShape(0) > 1) {
+          int[] origin = new int[v.getRank()];
+          int[] shape = v.getShape();
+          origin[0] = 1;
+          shape[0]--;
+          assertThat(MAMath.nearlyEquals(v.read(origin, shape), pv.read(origin, shape))).isTrue();
+        }
+      }
+    } finally {
+      ChunkCache.setMaxSize(maxSize);
+    }
+  }
+
+  @Test
+  public void shouldRejectBadDefaultParallelism() {
+    assertThrows(IllegalArgumentException.class, () -> H5tiledLayoutBB.setDefaultParallelism(0));
+  }
+
+  @Test
+  public void shouldRejectBadDecodeParallelism() throws IOException {
+    try (NetcdfFile ncfile = NetcdfFiles.open(filename)) {
+      H5iospNew iosp = (H5iospNew) ncfile.getIosp();
+      assertThrows(IllegalArgumentException.class, () -> iosp.setDecodeParallelism(0));
+    }
+  }
+
+  private Array read(Variable v, H5headerNew.Vinfo vinfo, RandomAccessFile raf, Section want, int parallelism)
+      throws IOException, InvalidRangeException {
+    ByteOrder bo = (vinfo.typeInfo.endian == 0) ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+    H5tiledLayoutBB layout = new H5tiledLayoutBB(v, want, raf, vinfo.mfp.getFilters(), bo, parallelism);
+    Object data = IospHelper.readDataFill(layout, v.getDataType(), vinfo.getFillValue());
+    return Array.factory(v.getDataType(), want.getShape(), data);
+  }
+}
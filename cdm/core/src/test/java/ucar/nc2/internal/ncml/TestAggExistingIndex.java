@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.internal.ncml;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Variable;
+import ucar.nc2.util.DiskCache2;
+import ucar.nc2.write.NetcdfFormatWriter;
+
+/** The persisted joinExisting index is used for unchanged files, and updated for added and changed files. */
+public class TestAggExistingIndex {
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private File dataDir;
+
+  @Before
+  public void setup() throws IOException {
+    dataDir = tempFolder.newFolder("data");
+    Aggregation.setPersistenceCache(new DiskCache2(tempFolder.newFolder("cache").getAbsolutePath(), false, 0, 0));
+  }
+
+  @After
+  public void reset() {
+    Aggregation.setPersistenceCache(null);
+  }
+
+  private void writeFile(String name, String units, double... times) throws IOException, InvalidRangeException {
+    NetcdfFormatWriter.Builder writerb =
+        NetcdfFormatWriter.createNewNetcdf3(new File(dataDir, name).getAbsolutePath());
+    writerb.addDimension("time", times.length);
+    writerb.addVariable("time", DataType.DOUBLE, "time").addAttribute(new Attribute("units", units));
+    try (NetcdfFormatWriter writer = writerb.build()) {
+      writer.write("time", Array.factory(DataType.DOUBLE, new int[] {times.length}, times));
+    }
+  }
+
+  private double[] readTimes() throws IOException {
+    String ncml = "<?xml version='1.0' encoding='UTF-8'?>\n"
+        + "<netcdf xmlns='http://www.unidata.ucar.edu/namespaces/netcdf/ncml-2.2'>\n"
+        + "  <aggregation dimName='time' type='joinExisting' timeUnitsChange='true'>\n" + "    <scan location='"
+        + dataDir.getAbsolutePath().replace('\\', '/') + "/' suffix='.nc' />\n" + "  </aggregation>\n"
+        + "</netcdf>";
+    String location = "file:" + tempFolder.getRoot().getAbsolutePath().replace('\\', '/') + "/agg.ncml";
+    try (NetcdfFile ncfile = NcmlReader.readNcml(new StringReader(ncml), location, null).build()) {
+      Variable time = ncfile.findVariable("time");
+      assertThat(time).isNotNull();
+      assertThat(time.findAttributeString("units", null)).isEqualTo("hours since 2000-01-01");
+      return (double[]) time.read().get1DJavaArray(DataType.DOUBLE);
+    }
+  }
+
+  @Test
+  public void shouldReuseIndexForUnchangedFiles() throws IOException, InvalidRangeException {
+    writeFile("t0.nc", "hours since 2000-01-01", 0, 1, 2);
+    writeFile("t1.nc", "days since 2000-01-01", 1, 2);
+
+    AggregationExisting.countCacheUse = 0;
+    assertThat(readTimes()).isEqualTo(new double[] {0, 1, 2, 24, 48});
+    assertThat(AggregationExisting.countCacheUse).isEqualTo(0);
+
+    // the time units are in the index, so that the files need not be opened
+    assertThat(readTimes()).isEqualTo(new double[] {0, 1, 2, 24, 48});
+    assertThat(AggregationExisting.countCacheUse).isGreaterThan(0);
+  }
+
+  @Test
+  public void shouldUpdateIndexForAddedAndChangedFiles() throws IOException, InvalidRangeException {
+    writeFile("t0.nc", "hours since 2000-01-01", 0, 1, 2);
+    writeFile("t1.nc", "days since 2000-01-01", 1, 2);
+    assertThat(readTimes()).isEqualTo(new double[] {0, 1, 2, 24, 48});
+
+    // changes size, so its fingerprint no longer matches, whatever the resolution of the last modified time
+    writeFile("t1.nc", "days since 2000-01-01", 1, 2, 3);
+    writeFile("t2.nc", "hours since 2000-01-05", 0);
+    assertThat(readTimes()).isEqualTo(new double[] {0, 1, 2, 24, 48, 72, 96});
+
+    assertThat(new File(dataDir, "t2.nc").delete()).isTrue();
+    assertThat(readTimes()).isEqualTo(new double[] {0, 1, 2, 24, 48, 72});
+  }
+
+  @Test
+  public void shouldUpgradeOldIndex() throws IOException, InvalidRangeException {
+    writeFile("t0.nc", "hours since 2000-01-01", 0, 1, 2);
+    writeFile("t1.nc", "days since 2000-01-01", 1, 2);
+    assertThat(readTimes()).isEqualTo(new double[] {0, 1, 2, 24, 48});
+
+    // rewrite the index as version 3, without fingerprints or time units
+    File cacheFile = findCacheFile();
+    String index = new String(Files.readAllBytes(cacheFile.toPath()), StandardCharsets.UTF_8);
+    String old = index.replace("version='4'", "version='3'")
+        .replaceAll("(lastModified|size|timeUnits|calendar)='[^']*' ", "");
+    Files.write(cacheFile.toPath(), old.getBytes(StandardCharsets.UTF_8));
+    assertThat(old).doesNotContain("timeUnits");
+
+    assertThat(readTimes()).isEqualTo(new double[] {0, 1, 2, 24, 48});
+    String upgraded = new String(Files.readAllBytes(cacheFile.toPath()), StandardCharsets.UTF_8);
+    assertThat(upgraded).contains("version='4'");
+    assertThat(upgraded).contains("timeUnits='days since 2000-01-01'");
+  }
+
+  private File findCacheFile() throws IOException {
+    try (Stream<Path> files = Files.walk(new File(tempFolder.getRoot(), "cache").toPath())) {
+      List<Path> found = files.filter(Files::isRegularFile).collect(Collectors.toList());
+      assertThat(found).hasSize(1);
+      return found.get(0).toFile();
+    }
+  }
+}
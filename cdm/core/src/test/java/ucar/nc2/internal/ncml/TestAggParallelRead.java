@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.internal.ncml;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Test;
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.MAMath;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Variable;
+import ucar.nc2.ncml.TestNcmlRead;
+
+/** Section reads of outer aggregations on the executor match serial reads. */
+public class TestAggParallelRead {
+  private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+  @After
+  public void reset() {
+    Aggregation.setExecutor(null);
+    Aggregation.setParallelism(Runtime.getRuntime().availableProcessors());
+    executor.shutdownNow();
+  }
+
+  private Array read(String ncml, String varName, String section) throws IOException, InvalidRangeException {
+    try (NetcdfFile ncfile = NcmlReader.readNcml("file:./" + TestNcmlRead.topDir + ncml, null, null).build()) {
+      Variable v = ncfile.findVariable(varName);
+      assertThat(v).isNotNull();
+      return v.read(section);
+    }
+  }
+
+  private void compare(String ncml, String varName, String section) throws IOException, InvalidRangeException {
+    Aggregation.setExecutor(null);
+    Array serial = read(ncml, varName, section);
+    Aggregation.setExecutor(executor);
+    for (int parallelism : new int[] {1, 2, 4}) {
+      Aggregation.setParallelism(parallelism);
+      Array parallel = read(ncml, varName, section);
+      assertThat(parallel.getShape()).isEqualTo(serial.getShape());
+      assertThat(MAMath.nearlyEquals(serial, parallel)).isTrue();
+    }
+  }
+
+  @Test
+  public void shouldReadJoinExistingSectionsInParallel() throws IOException, InvalidRangeException {
+    compare("aggExisting.xml", "T", "29:32,:,:"); // across the two files
+    compare("aggExisting.xml", "T", "0:58:3,1,1:3"); // strided
+    compare("aggExisting.xml", "T", "40:50,:,:"); // one file
+  }
+
+  @Test
+  public void shouldReadJoinNewSectionsInParallel() throws IOException, InvalidRangeException {
+    compare("aggSynthetic.xml", "T", "0:2,1:2,:");
+    compare("aggSynthetic.xml", "T", "0:2:2,:,1");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectBadParallelism() {
+    Aggregation.setParallelism(0);
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.iosp;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.lang.management.ManagementFactory;
+import javax.management.ObjectName;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestChunkCache {
+  private long maxSize;
+  private ChunkCache.Policy policy;
+
+  @Before
+  public void save() {
+    maxSize = ChunkCache.getMaxSize();
+    policy = ChunkCache.getPolicy();
+    ChunkCache.setMaxSize(1000);
+    ChunkCache.setPolicy(ChunkCache.Policy.LRU);
+  }
+
+  @After
+  public void restore() {
+    ChunkCache.setMaxSize(maxSize);
+    ChunkCache.setPolicy(policy);
+  }
+
+  private static ChunkCache.Key key(String location, long lastModified, long offset) {
+    return new ChunkCache.Key(location, Long.toString(lastModified), "var", offset, 10);
+  }
+
+  @Test
+  public void shouldGetWhatWasPut() {
+    byte[] data = new byte[100];
+    ChunkCache.put(key("file", 1, 0), data);
+    assertThat(ChunkCache.get(key("file", 1, 0))).isSameInstanceAs(data);
+    assertThat(ChunkCache.get(key("file", 1, 10))).isNull();
+    assertThat(ChunkCache.getSize()).isEqualTo(1);
+    assertThat(ChunkCache.getWeight()).isEqualTo(100);
+  }
+
+  @Test
+  public void shouldNotMatchModifiedFile() {
+    ChunkCache.put(key("file", 1, 0), new byte[100]);
+    assertThat(ChunkCache.get(key("file", 2, 0))).isNull();
+  }
+
+  @Test
+  public void shouldNotCacheLargeChunks() {
+    ChunkCache.put(key("file", 1, 0), new byte[251]);
+    assertThat(ChunkCache.get(key("file", 1, 0))).isNull();
+  }
+
+  @Test
+  public void shouldBeBoundedByBytes() {
+    for (int i = 0; i < 100; i++) {
+      ChunkCache.put(key("file", 1, i), new byte[100]);
+    }
+    assertThat(ChunkCache.getWeight()).isAtMost(1000);
+  }
+
+  @Test
+  public void shouldInvalidateFile() {
+    ChunkCache.put(key("file", 1, 0), new byte[100]);
+    ChunkCache.put(key("other", 1, 0), new byte[100]);
+    ChunkCache.invalidate("file");
+    assertThat(ChunkCache.get(key("file", 1, 0))).isNull();
+    assertThat(ChunkCache.get(key("other", 1, 0))).isNotNull();
+  }
+
+  @Test
+  public void shouldAdmitOnSecondMissWithFrequencyPolicy() {
+    ChunkCache.setPolicy(ChunkCache.Policy.FREQUENCY);
+    ChunkCache.put(key("file", 1, 0), new byte[100]);
+    assertThat(ChunkCache.get(key("file", 1, 0))).isNull();
+    ChunkCache.put(key("file", 1, 0), new byte[100]);
+    assertThat(ChunkCache.get(key("file", 1, 0))).isNotNull();
+  }
+
+  @Test
+  public void shouldCountHitsAndMisses() {
+    long hits = ChunkCache.getHitCount();
+    long misses = ChunkCache.getMissCount();
+    ChunkCache.put(key("file", 1, 0), new byte[100]);
+    ChunkCache.get(key("file", 1, 0));
+    ChunkCache.get(key("file", 1, 10));
+    assertThat(ChunkCache.getHitCount()).isEqualTo(hits + 1);
+    assertThat(ChunkCache.getMissCount()).isEqualTo(misses + 1);
+  }
+
+  @Test
+  public void shouldBeRegisteredWithJmx() throws Exception {
+    Object size = ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName(ChunkCache.OBJECT_NAME),
+        "MaxSize");
+    assertThat(size).isEqualTo(1000L);
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.stream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ucar.ma2.Array;
+import ucar.ma2.ArrayFloat;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Section;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Variable;
+import ucar.nc2.write.NetcdfFormatWriter;
+
+/** Test {@link NcStreamWriter} sending large sections in slabs. */
+public class TestNcStreamWriterSlabs {
+
+  @Rule
+  public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void testMakeSlabs() throws InvalidRangeException {
+    Section section = new Section("3:13:2,5:9");
+    List<Section> slabs = NcStreamWriter.makeSlabs(section, 10);
+    assertThat(slabs).hasSize(3);
+    assertThat(slabs.get(0)).isEqualTo(new Section("3:5:2,5:9"));
+    assertThat(slabs.get(1)).isEqualTo(new Section("7:9:2,5:9"));
+    assertThat(slabs.get(2)).isEqualTo(new Section("11:13:2,5:9"));
+
+    long total = 0;
+    for (Section slab : NcStreamWriter.makeSlabs(section, 7)) {
+      total += slab.computeSize();
+    }
+    assertThat(total).isEqualTo(section.computeSize());
+  }
+
+  @Test
+  public void testSendLargeSection() throws IOException, InvalidRangeException {
+    String filename = tempFolder.newFile().getAbsolutePath();
+    int nx = 1200;
+    int ny = 500;
+    NetcdfFormatWriter.Builder writerb = NetcdfFormatWriter.createNewNetcdf3(filename);
+    writerb.addDimension("x", nx);
+    writerb.addDimension("y", ny);
+    writerb.addVariable("data", DataType.FLOAT, "x y");
+    ArrayFloat.D2 data = new ArrayFloat.D2(nx, ny);
+    for (int i = 0; i < nx; i++) {
+      for (int j = 0; j < ny; j++) {
+        data.set(i, j, i * 1000 + j);
+      }
+    }
+    try (NetcdfFormatWriter writer = writerb.build()) {
+      writer.write("data", data);
+    }
+
+    try (NetcdfFile ncfile = NetcdfFiles.open(filename)) {
+      Variable v = ncfile.findVariable("data");
+      NcStreamWriter writer = new NcStreamWriter(ncfile, null);
+      NcStreamReader reader = new NcStreamReader();
+      // larger than a slab, the second one strided
+      for (Section section : new Section[] {v.getShapeAsSection(), new Section("3:1150,1:499:2")}) {
+        for (NcStreamCompression compress : new NcStreamCompression[] {NcStreamCompression.none(),
+            NcStreamCompression.deflate()}) {
+          ByteArrayOutputStream out = new ByteArrayOutputStream();
+          writer.sendData(v, section, out, compress);
+
+          NcStreamReader.DataResult result =
+              reader.readData(new ByteArrayInputStream(out.toByteArray()), ncfile, filename);
+          Array expected = v.read(section);
+          assertThat(result.data.getShape()).isEqualTo(expected.getShape());
+          assertThat(result.data.get1DJavaArray(DataType.FLOAT)).isEqualTo(expected.get1DJavaArray(DataType.FLOAT));
+        }
+      }
+    }
+  }
+}
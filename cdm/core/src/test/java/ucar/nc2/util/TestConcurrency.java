@@ -0,0 +1,112 @@
+package ucar.nc2.util;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+import ucar.ma2.InvalidRangeException;
+
+public class TestConcurrency {
+
+  private static <T> FutureTask<T> failed(Exception e) {
+    FutureTask<T> task = new FutureTask<>(() -> {
+      throw e;
+    });
+    task.run();
+    return task;
+  }
+
+  @Test
+  public void shouldRethrowTheCauseOfAFailedTask() {
+    IOException io = new IOException("io");
+    assertThat(assertThrows(IOException.class, () -> Concurrency.getResult(failed(io)))).isSameInstanceAs(io);
+
+    IllegalStateException unchecked = new IllegalStateException("unchecked");
+    assertThat(assertThrows(IllegalStateException.class, () -> Concurrency.getResult(failed(unchecked))))
+        .isSameInstanceAs(unchecked);
+
+    InvalidRangeException range = new InvalidRangeException("range");
+    assertThat(assertThrows(InvalidRangeException.class,
+        () -> Concurrency.getResult(failed(range), InvalidRangeException.class))).isSameInstanceAs(range);
+    assertThat(assertThrows(IOException.class, () -> Concurrency.getResult(failed(range))).getCause())
+        .isSameInstanceAs(range);
+  }
+
+  @Test
+  public void shouldKeepTheInterruptFlag() {
+    Thread.currentThread().interrupt();
+    try {
+      assertThrows(InterruptedIOException.class, () -> Concurrency.getResult(new CompletableFuture<>()));
+      assertThat(Thread.currentThread().isInterrupted()).isTrue();
+    } finally {
+      Thread.interrupted();
+    }
+  }
+
+  @Test
+  public void shouldNotInterruptRunningTasks() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicBoolean interrupted = new AtomicBoolean();
+    FutureTask<Boolean> running = new FutureTask<>(() -> {
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        interrupted.set(true);
+      }
+      return true;
+    });
+    FutureTask<Boolean> waiting = new FutureTask<>(() -> true);
+    Thread thread = new Thread(running);
+    thread.start();
+    started.await();
+
+    Concurrency.cancelAll(Arrays.asList(running, waiting));
+    release.countDown();
+    thread.join();
+
+    assertThat(running.isCancelled()).isTrue();
+    assertThat(waiting.isCancelled()).isTrue();
+    assertThat(interrupted.get()).isFalse();
+  }
+
+  @Test
+  public void shouldUseTheDefaultForMissingOrInvalidProperties() {
+    String name = "ucar.nc2.util.TestConcurrency.value";
+    try {
+      assertThat(Concurrency.getIntProperty(name, 3, 1)).isEqualTo(3);
+      System.setProperty(name, "5");
+      assertThat(Concurrency.getIntProperty(name, 3, 1)).isEqualTo(5);
+      System.setProperty(name, "0");
+      assertThat(Concurrency.getIntProperty(name, 3, 1)).isEqualTo(3);
+      assertThat(Concurrency.getLongProperty(name, 3, 0)).isEqualTo(0);
+      System.setProperty(name, "many");
+      assertThat(Concurrency.getIntProperty(name, 3, 1)).isEqualTo(3);
+      System.setProperty(name, "5000000000");
+      assertThat(Concurrency.getIntProperty(name, 3, 1)).isEqualTo(3);
+      assertThat(Concurrency.getLongProperty(name, 3, 1)).isEqualTo(5000000000L);
+    } finally {
+      System.clearProperty(name);
+    }
+  }
+
+  @Test
+  public void shouldSharePoolsByName() throws Exception {
+    ExecutorService pool = Concurrency.getSharedPool("TestConcurrency-shared");
+    assertThat(Concurrency.getSharedPool("TestConcurrency-shared")).isSameInstanceAs(pool);
+    assertThat(Concurrency.getSharedPool("TestConcurrency-other")).isNotSameInstanceAs(pool);
+
+    Thread thread = pool.submit(Thread::currentThread).get();
+    assertThat(thread.isDaemon()).isTrue();
+    assertThat(thread.getName()).isEqualTo("TestConcurrency-shared");
+  }
+}
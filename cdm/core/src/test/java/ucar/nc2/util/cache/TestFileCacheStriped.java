@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.util.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Test;
+import ucar.nc2.dataset.DatasetUrl;
+import ucar.nc2.util.CancelTask;
+
+/** Test FileCacheStriped with files that only count what is done to them. */
+public class TestFileCacheStriped {
+
+  private static class FakeFile implements FileCacheable {
+    private final String location;
+    private volatile long lastModified = 1;
+    private volatile boolean closed;
+    private FileCacheIF cache;
+
+    FakeFile(String location) {
+      this.location = location;
+    }
+
+    @Override
+    public String getLocation() {
+      return location;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      if (cache != null && cache.release(this))
+        return;
+      closed = true;
+    }
+
+    @Override
+    public long getLastModified() {
+      return lastModified;
+    }
+
+    @Override
+    public synchronized void setFileCache(FileCacheIF fileCache) {
+      this.cache = fileCache;
+    }
+
+    @Override
+    public void release() {}
+
+    @Override
+    public void reacquire() {}
+  }
+
+  // counts opens, and optionally holds them until the gate is opened
+  private static class FakeFactory implements FileFactory {
+    final AtomicInteger opens = new AtomicInteger();
+    final List<FakeFile> opened = new ArrayList<>();
+    final CountDownLatch gate;
+    final boolean fail;
+
+    FakeFactory(CountDownLatch gate, boolean fail) {
+      this.gate = gate;
+      this.fail = fail;
+    }
+
+    @Override
+    public FileCacheable open(DatasetUrl location, int buffer_size, CancelTask cancelTask, Object iospMessage)
+        throws IOException {
+      opens.incrementAndGet();
+      if (gate != null) {
+        try {
+          gate.await();
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+      }
+      if (fail)
+        throw new IOException("cant open " + location.trueurl);
+      FakeFile result = new FakeFile(location.trueurl);
+      synchronized (opened) {
+        opened.add(result);
+      }
+      return result;
+    }
+  }
+
+  private final FileCacheStriped cache = new FileCacheStriped("test", 2, 5, -1);
+  private final ExecutorService pool = Executors.newCachedThreadPool();
+
+  @After
+  public void cleanup() {
+    pool.shutdownNow();
+    cache.clearCache(true);
+  }
+
+  private static DatasetUrl durl(String location) {
+    return DatasetUrl.create(null, location);
+  }
+
+  private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+    long end = System.currentTimeMillis() + 10 * 1000;
+    while (!condition.getAsBoolean()) {
+      if (System.currentTimeMillis() > end)
+        fail("timed out");
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void shouldReuseReleasedFiles() throws IOException {
+    FakeFactory factory = new FakeFactory(null, false);
+    FileCacheable first = cache.acquire(factory, durl("/data/a.nc"));
+    FileCacheable second = cache.acquire(factory, durl("/data/a.nc"));
+    assertThat(second).isNotSameInstanceAs(first); // first is in use
+    first.close();
+    assertThat(((FakeFile) first).closed).isFalse();
+
+    FileCacheable third = cache.acquire(factory, durl("/data/a.nc"));
+    assertThat(third).isSameInstanceAs(first);
+    FileCacheStriped.Stats stats = cache.getStats();
+    assertThat(stats.getHits()).isEqualTo(1);
+    assertThat(stats.getMisses()).isEqualTo(2);
+    assertThat(stats.getFileCount()).isEqualTo(2);
+    assertThat(stats.getIdleCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldReopenChangedFiles() throws Exception {
+    FakeFactory factory = new FakeFactory(null, false);
+    FakeFile first = (FakeFile) cache.acquire(factory, durl("/data/a.nc"));
+    first.close();
+    first.lastModified = 2;
+    FileCacheable second = cache.acquire(factory, durl("/data/a.nc"));
+    assertThat(second).isNotSameInstanceAs(first);
+    waitFor(() -> first.closed);
+
+    second.close();
+    cache.eject("/data/a.nc");
+    assertThat(((FakeFile) second).closed).isTrue();
+    assertThat(cache.getStats().getFileCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldShareOneOpen() throws Exception {
+    CountDownLatch gate = new CountDownLatch(1);
+    FakeFactory factory = new FakeFactory(gate, false);
+    int nthreads = 8;
+    List<Future<FileCacheable>> futures = new ArrayList<>();
+    for (int i = 0; i < nthreads; i++) {
+      futures.add(pool.submit(() -> cache.acquire(factory, durl("/data/a.nc"))));
+    }
+    waitFor(() -> cache.getStats().getSharedOpens() == nthreads - 1);
+    assertThat(factory.opens.get()).isEqualTo(1);
+    gate.countDown();
+
+    // each one still gets its own file
+    Set<FileCacheable> files = new HashSet<>();
+    for (Future<FileCacheable> future : futures) {
+      files.add(future.get(10, TimeUnit.SECONDS));
+    }
+    assertThat(files).hasSize(nthreads);
+  }
+
+  @Test
+  public void shouldShareOpenFailure() throws Exception {
+    CountDownLatch gate = new CountDownLatch(1);
+    FakeFactory factory = new FakeFactory(gate, true);
+    int nthreads = 4;
+    List<Future<FileCacheable>> futures = new ArrayList<>();
+    for (int i = 0; i < nthreads; i++) {
+      futures.add(pool.submit(() -> cache.acquire(factory, durl("/data/missing.nc"))));
+    }
+    waitFor(() -> cache.getStats().getSharedOpens() == nthreads - 1);
+    gate.countDown();
+
+    for (Future<FileCacheable> future : futures) {
+      try {
+        future.get(10, TimeUnit.SECONDS);
+        fail();
+      } catch (ExecutionException e) {
+        assertThat(e.getCause()).isInstanceOf(IOException.class);
+      }
+    }
+    assertThat(factory.opens.get()).isEqualTo(1);
+    assertThat(cache.getStats().getOpenFailures()).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldNotKeepEntriesOfFailedOpens() throws Exception {
+    FakeFactory failing = new FakeFactory(null, true);
+    FileFactory cancelled = (location, buffer_size, cancelTask, iospMessage) -> null;
+    for (int i = 0; i < 100; i++) {
+      try {
+        cache.acquire(failing, durl("/data/missing" + i + ".nc"));
+        fail();
+      } catch (IOException e) {
+        // expected
+      }
+      assertThat(cache.acquire(cancelled, durl("/data/cancelled" + i + ".nc"))).isNull();
+    }
+    assertThat(cache.getEntryCount()).isEqualTo(0);
+    assertThat(cache.getStats().getOpenFailures()).isEqualTo(100);
+
+    // a failure doesn't drop the entry of a file that is open
+    FileCacheable open = cache.acquire(new FakeFactory(null, false), durl("/data/a.nc"));
+    try {
+      cache.acquire(failing, durl("/data/a.nc"));
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+    assertThat(cache.getEntryCount()).isEqualTo(1);
+    open.close();
+    assertThat(cache.acquire(failing, durl("/data/a.nc"))).isSameInstanceAs(open);
+  }
+
+  @Test
+  public void shouldEvictInBackground() throws Exception {
+    FakeFactory factory = new FakeFactory(null, false);
+    for (int i = 0; i < 10; i++) {
+      cache.acquire(factory, durl("/data/file" + i + ".nc")).close();
+      Thread.sleep(2); // distinct access times
+    }
+    // evictions bring it under the soft limit, but not below the minimum
+    waitFor(() -> {
+      FileCacheStriped.Stats stats = cache.getStats();
+      return stats.getFileCount() <= 5 && stats.getFileCount() + stats.getEvictions() == 10;
+    });
+    assertThat(cache.getStats().getFileCount()).isAtLeast(2);
+
+    // the least recently used ones were closed
+    boolean open = false;
+    for (FakeFile file : factory.opened) {
+      if (!file.closed)
+        open = true;
+      else
+        assertThat(open).isFalse();
+    }
+    assertThat(factory.opened.get(9).closed).isFalse();
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.write;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ucar.ma2.Array;
+import ucar.ma2.ArrayChar;
+import ucar.ma2.ArrayFloat;
+import ucar.ma2.ArrayString;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Variable;
+
+/** Test NetcdfCopier splitting variables into sections and copying them on several threads. */
+public class TestNetcdfCopierParallel {
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  // chunks of 10 along every dimension, so that there are partial edge chunks
+  private static class SmallChunks implements Nc4Chunking {
+    @Override
+    public boolean isChunked(Variable v) {
+      return v.getRank() > 0;
+    }
+
+    @Override
+    public long[] computeChunking(Variable v) {
+      long[] result = new long[v.getRank()];
+      Arrays.fill(result, 10);
+      return result;
+    }
+
+    @Override
+    public int getDeflateLevel(Variable v) {
+      return 1;
+    }
+
+    @Override
+    public boolean isShuffle(Variable v) {
+      return false;
+    }
+  }
+
+  @Test
+  public void testSectionShape() {
+    // whole variable fits
+    assertThat(NetcdfCopier.computeSectionShape(new int[] {10, 20}, new int[] {1, 1}, 1000))
+        .isEqualTo(new int[] {10, 20});
+    // contiguous rows when not chunked
+    assertThat(NetcdfCopier.computeSectionShape(new int[] {100, 20}, new int[] {1, 1}, 50))
+        .isEqualTo(new int[] {2, 20});
+    // multiples of the chunk shape
+    assertThat(NetcdfCopier.computeSectionShape(new int[] {100, 100}, new int[] {10, 30}, 2000))
+        .isEqualTo(new int[] {20, 100});
+    assertThat(NetcdfCopier.computeSectionShape(new int[] {100, 100}, new int[] {10, 30}, 500))
+        .isEqualTo(new int[] {10, 30});
+    // a single chunk larger than the maximum
+    assertThat(NetcdfCopier.computeSectionShape(new int[] {100, 100}, new int[] {50, 50}, 10))
+        .isEqualTo(new int[] {50, 50});
+    // scalar
+    assertThat(NetcdfCopier.computeSectionShape(new int[0], new int[0], 10)).isEqualTo(new int[0]);
+  }
+
+  private String writeInput(int nx, int ny) throws IOException, InvalidRangeException {
+    String filename = tempFolder.newFile().getAbsolutePath();
+    NetcdfFormatWriter.Builder writerb = NetcdfFormatWriter.builder().setNewFile(true)
+        .setFormat(NetcdfFileFormat.NETCDF4).setLocation(filename);
+    writerb.addDimension("x", nx);
+    writerb.addDimension("y", ny);
+    writerb.addVariable("data", DataType.FLOAT, "x y");
+    writerb.addVariable("name", DataType.STRING, "x");
+
+    ArrayFloat.D2 data = new ArrayFloat.D2(nx, ny);
+    ArrayString.D1 names = new ArrayString.D1(nx);
+    for (int i = 0; i < nx; i++) {
+      for (int j = 0; j < ny; j++) {
+        data.set(i, j, i * 1000 + j);
+      }
+      names.set(i, "name" + i);
+    }
+    try (NetcdfFormatWriter writer = writerb.build()) {
+      writer.write("data", data);
+      writer.write("name", names);
+    }
+    return filename;
+  }
+
+  private void copyAndCompare(String input, String output, NetcdfFormatWriter.Builder outb, int parallelism,
+      long budget, boolean reopen) throws IOException {
+    try (NetcdfFile in = NetcdfFiles.open(input)) {
+      NetcdfCopier copier = NetcdfCopier.create(in, outb).setParallelism(parallelism).setMemoryBudget(budget);
+      if (reopen) {
+        copier.setInputOpener(() -> NetcdfFiles.open(input));
+      }
+      copier.write(null).close();
+    }
+
+    try (NetcdfFile in = NetcdfFiles.open(input); NetcdfFile out = NetcdfFiles.open(output)) {
+      Variable v = out.findVariable("data");
+      assertThat(v.read().copyTo1DJavaArray()).isEqualTo(in.findVariable("data").read().copyTo1DJavaArray());
+      Array names = out.findVariable("name").read();
+      if (names.getDataType() == DataType.CHAR) {
+        names = ((ArrayChar) names).make1DStringArray();
+      }
+      int n = (int) names.getSize();
+      assertThat(names.getObject(0)).isEqualTo("name0");
+      assertThat(names.getObject(n - 1)).isEqualTo("name" + (n - 1));
+    }
+  }
+
+  @Test
+  public void testCopyChunked() throws IOException, InvalidRangeException {
+    String input = writeInput(123, 77);
+    String output = tempFolder.newFile().getAbsolutePath();
+    NetcdfFormatWriter.Builder outb = NetcdfFormatWriter.builder().setNewFile(true)
+        .setFormat(NetcdfFileFormat.NETCDF4).setLocation(output)
+        .setChunker(Nc4ChunkingStrategy.factory(Nc4Chunking.Strategy.standard, 1, true));
+    // a budget of a few Kbytes makes many small sections, several in flight at once
+    copyAndCompare(input, output, outb, 4, 8 * 1000, false);
+    outb.setChunker(new SmallChunks());
+    copyAndCompare(input, output, outb, 4, 8 * 1000, true);
+  }
+
+  @Test
+  public void testCopyToClassic() throws IOException, InvalidRangeException {
+    String input = writeInput(50, 40);
+    String output = tempFolder.newFile().getAbsolutePath();
+    NetcdfFormatWriter.Builder outb = NetcdfFormatWriter.createNewNetcdf3(output);
+    copyAndCompare(input, output, outb, 3, 1000, true);
+    copyAndCompare(input, output, NetcdfFormatWriter.createNewNetcdf3(output), 1, 1000, false);
+  }
+}
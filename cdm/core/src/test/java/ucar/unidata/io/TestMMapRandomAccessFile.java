@@ -0,0 +1,216 @@
+package ucar.unidata.io;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ucar.ma2.Array;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Variable;
+import ucar.unidata.util.test.TestDir;
+
+/** Compare MMapRandomAccessFile, with small segments so reads cross them, against RandomAccessFile. */
+public class TestMMapRandomAccessFile {
+
+  @ClassRule
+  public static final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static final int SEGMENT_SHIFT = 6; // 64 byte segments
+  private static final int FILE_LENGTH = 1003; // not a multiple of the segment size
+
+  private static File testFile;
+  private static byte[] contents;
+
+  @BeforeClass
+  public static void makeFile() throws IOException {
+    contents = new byte[FILE_LENGTH];
+    new Random(17).nextBytes(contents);
+    testFile = tempFolder.newFile();
+    try (OutputStream out = new FileOutputStream(testFile)) {
+      out.write(contents);
+    }
+  }
+
+  private static MMapRandomAccessFile openMMap() throws IOException {
+    return new MMapRandomAccessFile(testFile.getPath(), "r", SEGMENT_SHIFT);
+  }
+
+  @Test
+  public void shouldReadBytesAcrossSegments() throws IOException {
+    try (MMapRandomAccessFile raf = openMMap()) {
+      assertThat(raf.length()).isEqualTo(FILE_LENGTH);
+      byte[] all = new byte[FILE_LENGTH];
+      raf.readFully(all);
+      assertThat(all).isEqualTo(contents);
+      assertThat(raf.read()).isEqualTo(-1);
+
+      raf.seek(60);
+      assertThat(raf.read()).isEqualTo(contents[60] & 0xff);
+      byte[] some = new byte[100];
+      raf.readFully(some);
+      assertThat(some).isEqualTo(Arrays.copyOfRange(contents, 61, 161));
+
+      raf.seek(FILE_LENGTH - 3);
+      assertThat(raf.read(new byte[10])).isEqualTo(3);
+      assertThrows(EOFException.class, () -> raf.readFully(new byte[10]));
+    }
+  }
+
+  @Test
+  public void shouldReadPrimitiveArraysLikeRandomAccessFile() throws IOException {
+    for (int order : new int[] {RandomAccessFile.BIG_ENDIAN, RandomAccessFile.LITTLE_ENDIAN}) {
+      try (MMapRandomAccessFile mmap = openMMap();
+          RandomAccessFile buffered = new RandomAccessFile(testFile.getPath(), "r", 10)) {
+        mmap.order(order);
+        buffered.order(order);
+        for (long start : new long[] {0, 3, 61, 250}) {
+          int n = 40;
+          mmap.seek(start);
+          buffered.seek(start);
+
+          short[] s1 = new short[n];
+          short[] s2 = new short[n];
+          mmap.readShort(s1, 0, n);
+          buffered.readShort(s2, 0, n);
+          assertThat(s1).isEqualTo(s2);
+
+          int[] i1 = new int[n];
+          int[] i2 = new int[n];
+          mmap.readInt(i1, 0, n);
+          buffered.readInt(i2, 0, n);
+          assertThat(i1).isEqualTo(i2);
+
+          float[] f1 = new float[n];
+          float[] f2 = new float[n];
+          mmap.readFloat(f1, 0, n);
+          buffered.readFloat(f2, 0, n);
+          assertThat(Arrays.equals(f1, f2)).isTrue();
+
+          long[] l1 = new long[n / 2];
+          long[] l2 = new long[n / 2];
+          mmap.readLong(l1, 0, n / 2);
+          buffered.readLong(l2, 0, n / 2);
+          assertThat(l1).isEqualTo(l2);
+
+          double[] d1 = new double[n / 2];
+          double[] d2 = new double[n / 2];
+          mmap.readDouble(d1, 0, n / 2);
+          buffered.readDouble(d2, 0, n / 2);
+          assertThat(Arrays.equals(d1, d2)).isTrue();
+
+          assertThat(mmap.getFilePointer()).isEqualTo(buffered.getFilePointer());
+          assertThat(mmap.readInt()).isEqualTo(buffered.readInt());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void shouldSliceWithoutCopying() throws IOException {
+    try (MMapRandomAccessFile raf = openMMap()) {
+      raf.order(ByteOrder.LITTLE_ENDIAN);
+
+      ByteBuffer inSegment = raf.readByteBuffer(70, 40);
+      assertThat(inSegment.isDirect()).isTrue();
+      assertThat(inSegment.isReadOnly()).isTrue();
+      assertThat(inSegment.order()).isEqualTo(ByteOrder.LITTLE_ENDIAN);
+      assertThat(raf.getFilePointer()).isEqualTo(110);
+      byte[] b = new byte[40];
+      inSegment.get(b);
+      assertThat(b).isEqualTo(Arrays.copyOfRange(contents, 70, 110));
+
+      ByteBuffer crossing = raf.readByteBuffer(10, 200);
+      byte[] c = new byte[200];
+      crossing.get(c);
+      assertThat(c).isEqualTo(Arrays.copyOfRange(contents, 10, 210));
+
+      assertThrows(EOFException.class, () -> raf.readByteBuffer(FILE_LENGTH - 5, 10));
+    }
+  }
+
+  @Test
+  public void shouldReadToByteChannel() throws IOException {
+    try (MMapRandomAccessFile raf = openMMap()) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      assertThat(raf.readToByteChannel(Channels.newChannel(out), 5, 500)).isEqualTo(500);
+      assertThat(out.toByteArray()).isEqualTo(Arrays.copyOfRange(contents, 5, 505));
+    }
+  }
+
+  @Test
+  public void shouldMatchDefaultSliceOfRandomAccessFile() throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(testFile.getPath(), "r", 10)) {
+      ByteBuffer bb = raf.readByteBuffer(100, 300);
+      assertThat(bb.order()).isEqualTo(ByteOrder.BIG_ENDIAN);
+      assertThat(raf.getFilePointer()).isEqualTo(400);
+      byte[] b = new byte[300];
+      bb.get(b);
+      assertThat(b).isEqualTo(Arrays.copyOfRange(contents, 100, 400));
+    }
+  }
+
+  @Test
+  public void shouldSearchForwardAcrossSegments() throws IOException {
+    try (MMapRandomAccessFile raf = openMMap()) {
+      for (int at : new int[] {0, 62, 500, FILE_LENGTH - 3}) {
+        byte[] pattern = Arrays.copyOfRange(contents, at, at + 3);
+        KMPMatch match = new KMPMatch(pattern);
+        for (int start : new int[] {0, 61, at, at + 1}) {
+          for (int maxBytes : new int[] {-1, 10, 600}) {
+            int last = (maxBytes < 0) ? FILE_LENGTH : Math.min(FILE_LENGTH, start + maxBytes);
+            int expected = naiveIndexOf(pattern, start, last);
+            raf.seek(start);
+            assertThat(raf.searchForward(match, maxBytes)).isEqualTo(expected >= 0);
+            assertThat(raf.getFilePointer()).isEqualTo(expected >= 0 ? expected : last);
+          }
+        }
+      }
+    }
+  }
+
+  private static int naiveIndexOf(byte[] pattern, int start, int last) {
+    for (int i = start; i + pattern.length <= last; i++) {
+      if (Arrays.equals(Arrays.copyOfRange(contents, i, i + pattern.length), pattern))
+        return i;
+    }
+    return -1;
+  }
+
+  @Test
+  public void shouldRejectWriting() throws IOException {
+    assertThrows(IllegalArgumentException.class, () -> new MMapRandomAccessFile(testFile.getPath(), "rw"));
+    try (MMapRandomAccessFile raf = openMMap()) {
+      assertThrows(IOException.class, () -> raf.write(1));
+    }
+  }
+
+  @Test
+  public void shouldOpenThroughNetcdfFiles() throws Exception {
+    String filename = TestDir.cdmLocalTestDataDir + "jan.nc";
+    try (NetcdfFile mmap = NetcdfFiles.open(MMapRandomAccessFile.PREFIX + filename);
+        NetcdfFile buffered = NetcdfFiles.open(filename)) {
+      assertThat(mmap.getIosp().getClass()).isEqualTo(buffered.getIosp().getClass());
+      for (Variable v : buffered.getVariables()) {
+        Variable mv = mmap.findVariable(v.getFullNameEscaped());
+        assertThat(mv).isNotNull();
+        Array expected = v.read();
+        assertThat(mv.read().copyTo1DJavaArray()).isEqualTo(expected.copyTo1DJavaArray());
+      }
+    }
+  }
+}
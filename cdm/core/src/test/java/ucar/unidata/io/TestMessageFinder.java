@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.unidata.io;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Test MessageFinder, and the KMPMatch it searches with, on a file of made up messages. */
+public class TestMessageFinder {
+
+  @ClassRule
+  public static final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static final byte[] magic = "MSG!".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] ending = "7777".getBytes(StandardCharsets.US_ASCII);
+
+  private static File testFile;
+  private static byte[] contents;
+  private static final List<Long> starts = new ArrayList<>();
+  private static final List<Long> headers = new ArrayList<>(); // where the bytes before each message start
+
+  // a message is the magic, an edition byte, a 3 byte length, the body, and the ending
+  @BeforeClass
+  public static void makeFile() throws IOException {
+    Random random = new Random(17);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0; i < 200; i++) {
+      headers.add((long) out.size());
+      int gap = (i % 50 == 7) ? 20000 : random.nextInt(40); // sometimes more than a block
+      for (int j = 0; j < gap; j++) {
+        out.write('a' + random.nextInt(26));
+      }
+      if (i % 10 == 3) { // not edition 1, so skipped
+        out.write(magic, 0, magic.length);
+        out.write(new byte[] {9, 0, 0, 12}, 0, 4);
+      }
+      starts.add((long) out.size());
+      int length = 12 + ((i % 20 == 0) ? 5000 : random.nextInt(300));
+      out.write(magic, 0, magic.length);
+      out.write(new byte[] {1, (byte) (length >> 16), (byte) (length >> 8), (byte) length}, 0, 4);
+      for (int j = 0; j < length - 12; j++) {
+        out.write(random.nextInt(256));
+      }
+      out.write(ending, 0, ending.length);
+    }
+    out.write(magic, 0, magic.length); // an incomplete indicator at the end
+    out.write(1);
+    contents = out.toByteArray();
+
+    testFile = tempFolder.newFile();
+    try (OutputStream os = new FileOutputStream(testFile)) {
+      os.write(contents);
+    }
+  }
+
+  private static class TestFinder extends MessageFinder {
+    TestFinder(RandomAccessFile raf, int blockSize) {
+      super(raf, magic, 8, blockSize);
+    }
+
+    @Override
+    protected long parseIndicator(byte[] buffer, int offset) {
+      if (buffer[offset + 4] != 1)
+        return -1;
+      return ((buffer[offset + 5] & 0xff) << 16) | ((buffer[offset + 6] & 0xff) << 8) | (buffer[offset + 7] & 0xff);
+    }
+  }
+
+  private static List<RandomAccessFile> openAll() throws IOException {
+    List<RandomAccessFile> result = new ArrayList<>();
+    result.add(new RandomAccessFile(testFile.getPath(), "r", 100)); // smaller than many messages
+    result.add(new RandomAccessFile(testFile.getPath(), "r"));
+    result.add(new MMapRandomAccessFile(testFile.getPath(), "r")); // reads without its buffer
+    result.add(new InMemoryRandomAccessFile("mem", contents));
+    return result;
+  }
+
+  @Test
+  public void shouldFindAllMessages() throws IOException {
+    for (RandomAccessFile raf : openAll()) {
+      try {
+        for (int blockSize : new int[] {64, 4096, MessageFinder.DEFAULT_BLOCK_SIZE}) {
+          TestFinder finder = new TestFinder(raf, blockSize);
+          List<Long> found = new ArrayList<>();
+          long pos = 0;
+          while (finder.find(pos)) {
+            found.add(finder.getStart());
+            assertThat(finder.matches(finder.getEnd() - 4, ending)).isTrue();
+            assertThat(finder.getByte(finder.getStart() + 4)).isEqualTo(1);
+            pos = finder.getEnd();
+          }
+          assertThat(found).isEqualTo(starts);
+          assertThat(finder.getStart()).isEqualTo(-1);
+        }
+      } finally {
+        raf.close();
+      }
+    }
+  }
+
+  @Test
+  public void shouldCopyHeaders() throws IOException {
+    for (RandomAccessFile raf : openAll()) {
+      try {
+        TestFinder finder = new TestFinder(raf, 256);
+        for (int i = 0; i < starts.size(); i++) {
+          long headerStart = headers.get(i);
+          assertThat(finder.find(headerStart)).isTrue();
+          int len = (int) (finder.getStart() - headerStart);
+          byte[] header = new byte[len];
+          finder.copy(headerStart, header, 0, len);
+          for (int j = 0; j < len; j++) {
+            assertThat(header[j]).isEqualTo(contents[(int) headerStart + j]);
+          }
+        }
+        assertThat(finder.getByte(contents.length)).isEqualTo(-1);
+        assertThat(finder.matches(contents.length - 2, ending)).isFalse();
+      } finally {
+        raf.close();
+      }
+    }
+  }
+
+  @Test
+  public void shouldMatchLikeKmp() {
+    Random random = new Random(3);
+    byte[] data = new byte[10000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) ('a' + random.nextInt(3)); // so that partial matches are common
+    }
+    for (String pattern : new String[] {"a", "abc", "aab", "abab", "cccccccc", "abcabcabcab"}) {
+      byte[] match = pattern.getBytes(StandardCharsets.US_ASCII);
+      KMPMatch kmp = new KMPMatch(match);
+      for (int start = 0; start < 200; start += 7) {
+        for (int max : new int[] {0, 3, 50, data.length - start}) {
+          assertThat(kmp.indexOf(data, start, max)).isEqualTo(naiveIndexOf(data, start, max, match));
+        }
+      }
+    }
+  }
+
+  private static int naiveIndexOf(byte[] data, int start, int max, byte[] match) {
+    for (int i = start; i + match.length <= start + max; i++) {
+      int j = 0;
+      while (j < match.length && data[i + j] == match[j])
+        j++;
+      if (j == match.length)
+        return i;
+    }
+    return -1;
+  }
+}
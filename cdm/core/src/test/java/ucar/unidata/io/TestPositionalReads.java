@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.unidata.io;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Test the positional reads of RandomAccessFile and its subclasses, from many threads sharing one instance. */
+public class TestPositionalReads {
+
+  @ClassRule
+  public static final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static final int NFLOATS = 100 * 1000; // more than a positional block
+
+  private static File testFile;
+  private static byte[] contents;
+
+  @BeforeClass
+  public static void makeFile() throws IOException {
+    ByteBuffer bb = ByteBuffer.allocate(NFLOATS * 4 + 3); // not a multiple of 4
+    for (int i = 0; i < NFLOATS; i++) {
+      bb.putFloat(i);
+    }
+    contents = bb.array();
+    testFile = tempFolder.newFile();
+    try (OutputStream out = new FileOutputStream(testFile)) {
+      out.write(contents);
+    }
+  }
+
+  private static List<RandomAccessFile> openAll() throws IOException {
+    List<RandomAccessFile> result = new ArrayList<>();
+    result.add(new RandomAccessFile(testFile.getPath(), "r", 1024));
+    result.add(new MMapRandomAccessFile(testFile.getPath(), "r", 16)); // 64 Kbyte segments
+    result.add(new InMemoryRandomAccessFile("mem", Files.readAllBytes(testFile.toPath())));
+    return result;
+  }
+
+  @Test
+  public void shouldReadTypedArrays() throws IOException {
+    for (RandomAccessFile raf : openAll()) {
+      try {
+        float[] floats = new float[NFLOATS];
+        raf.readFloats(0, floats);
+        for (int i = 0; i < NFLOATS; i++) {
+          assertThat(floats[i]).isEqualTo(i);
+        }
+
+        int[] ints = new int[5];
+        raf.readInts(40, ints, 1, 3, ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer expected = ByteBuffer.wrap(contents, 40, 12).order(ByteOrder.LITTLE_ENDIAN);
+        assertThat(ints).isEqualTo(new int[] {0, expected.getInt(), expected.getInt(), expected.getInt(), 0});
+
+        double[] doubles = new double[2];
+        raf.readDoubles(8, doubles);
+        ByteBuffer bb = ByteBuffer.wrap(contents);
+        assertThat(doubles).isEqualTo(new double[] {bb.getDouble(8), bb.getDouble(16)});
+
+        byte[] tail = new byte[5];
+        raf.readFully(contents.length - 5, tail);
+        assertThat(tail[4]).isEqualTo(contents[contents.length - 1]);
+        assertThrows(EOFException.class, () -> raf.readFully(contents.length - 2, new byte[4]));
+      } finally {
+        raf.close();
+      }
+    }
+  }
+
+  @Test
+  public void shouldNotMoveFilePointer() throws IOException {
+    for (RandomAccessFile raf : openAll()) {
+      try {
+        raf.seek(100);
+        raf.readFloats(4000, new float[2000]);
+        raf.readFully(7, new byte[3]);
+        assertThat(raf.getFilePointer()).isEqualTo(100);
+        assertThat(raf.readFloat()).isEqualTo(25);
+      } finally {
+        raf.close();
+      }
+    }
+  }
+
+  @Test
+  public void shouldShareOneFileAcrossThreads() throws Exception {
+    int nthreads = 8;
+    ExecutorService pool = Executors.newFixedThreadPool(nthreads);
+    try {
+      for (RandomAccessFile raf : openAll()) {
+        try {
+          List<Future<Integer>> futures = new ArrayList<>();
+          for (int t = 0; t < nthreads; t++) {
+            long seed = t;
+            futures.add(pool.submit(() -> {
+              Random random = new Random(seed);
+              int nchecked = 0;
+              for (int i = 0; i < 200; i++) {
+                int start = random.nextInt(NFLOATS);
+                int n = 1 + random.nextInt(Math.min(NFLOATS - start, 20 * 1000));
+                float[] floats = new float[n];
+                raf.readFloats(start * 4L, floats, 0, n, ByteOrder.BIG_ENDIAN);
+                for (int j = 0; j < n; j++) {
+                  assertThat(floats[j]).isEqualTo(start + j);
+                }
+                nchecked += n;
+              }
+              return nchecked;
+            }));
+          }
+          for (Future<Integer> future : futures) {
+            assertThat(future.get(60, TimeUnit.SECONDS)).isGreaterThan(0);
+          }
+        } finally {
+          raf.close();
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+}
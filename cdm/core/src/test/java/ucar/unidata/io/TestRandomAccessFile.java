@@ -5,6 +5,7 @@ import org.junit.rules.TemporaryFolder;
 
 import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -433,6 +434,20 @@ public class TestRandomAccessFile {
     assertThat(testFile.searchForward(notMatch, -1)).isFalse();
   }
 
+  @Test
+  public void testSearchForwardAcrossBuffers() throws IOException {
+    // every match, wherever it falls relative to the 10 byte buffer
+    for (int start = 0; start < TEST_FILE_LENGTH; start += 3) {
+      for (String word : new String[] {"l", "is", "line", "text."}) {
+        int expected = TEST_FILE_STRING.indexOf(word, start);
+        testFile.seek(start);
+        assertThat(testFile.searchForward(new KMPMatch(word.getBytes(StandardCharsets.UTF_8)), -1))
+            .isEqualTo(expected >= 0);
+        assertThat(testFile.getFilePointer()).isEqualTo(expected >= 0 ? expected : TEST_FILE_LENGTH);
+      }
+    }
+  }
+
   ////////////////////////////
   // test writes on temp file
 
@@ -795,6 +810,22 @@ public class TestRandomAccessFile {
     tempFile.close();
   }
 
+  @Test
+  public void testContentVersion() throws IOException {
+    File file = tempFolder.newFile();
+    try (RandomAccessFile raf = new RandomAccessFile(file.getAbsolutePath(), "r", TEST_BUFFER_SIZE)) {
+      // just written, so could be rewritten with the same last modified time
+      assertThat(raf.getContentVersion()).isNull();
+      long lastModified = System.currentTimeMillis() - 60 * 1000;
+      assertThat(file.setLastModified(lastModified)).isTrue();
+      assertThat(raf.getContentVersion()).isEqualTo(Long.toString(raf.getLastModified()));
+    }
+    assertThat(RandomAccessFile.getContentVersion(0)).isNull();
+    try (RandomAccessFile raf = new InMemoryRandomAccessFile(file.getAbsolutePath(), UTF8_BYTES)) {
+      assertThat(raf.getContentVersion()).isNull();
+    }
+  }
+
   ///////////////////////////
   // Test read and write UTF-16
   @Test
@@ -0,0 +1,204 @@
+package ucar.unidata.io;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+public class TestRemoteBlockCache {
+  private static final int BLOCK_SIZE = 100;
+
+  @After
+  public void resetDefault() {
+    RemoteBlockCache.setDefault(new RemoteBlockCache(RemoteBlockCache.defaultMaxSize,
+        Duration.ofMillis(RemoteBlockCache.defaultTimeToLive), false));
+  }
+
+  private static byte[] block(int size, int value) {
+    byte[] b = new byte[size];
+    Arrays.fill(b, (byte) value);
+    return b;
+  }
+
+  @Test
+  public void shouldCountHitsAndMisses() throws IOException {
+    RemoteBlockCache cache = new RemoteBlockCache(10_000, Duration.ofMinutes(1), false);
+    AtomicInteger loads = new AtomicInteger();
+    for (int i = 0; i < 3; i++) {
+      ByteBuffer bb = cache.getBlock("http://server/a", "v1", BLOCK_SIZE, 7, () -> {
+        loads.incrementAndGet();
+        return block(BLOCK_SIZE, 7);
+      });
+      assertThat(bb.isReadOnly()).isTrue();
+      assertThat(bb.get(0)).isEqualTo((byte) 7);
+    }
+    assertThat(loads.get()).isEqualTo(1);
+    assertThat(cache.getMissCount()).isEqualTo(1);
+    assertThat(cache.getHitCount()).isEqualTo(2);
+    assertThat(cache.getBytesFetched()).isEqualTo(BLOCK_SIZE);
+    assertThat(cache.getBytesServed()).isEqualTo(3 * BLOCK_SIZE);
+  }
+
+  @Test
+  public void shouldKeepVersionsApart() throws IOException {
+    RemoteBlockCache cache = new RemoteBlockCache(10_000, Duration.ofMinutes(1), false);
+    ByteBuffer v1 = cache.getBlock("http://server/a", "v1", BLOCK_SIZE, 0, () -> block(BLOCK_SIZE, 1));
+    ByteBuffer v2 = cache.getBlock("http://server/a", "v2", BLOCK_SIZE, 0, () -> block(BLOCK_SIZE, 2));
+    assertThat(v1.get(0)).isEqualTo((byte) 1);
+    assertThat(v2.get(0)).isEqualTo((byte) 2);
+
+    cache.invalidate("http://server/a");
+    assertThat(cache.getBlockCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldBoundByBytes() throws IOException {
+    RemoteBlockCache cache = new RemoteBlockCache(10 * BLOCK_SIZE, Duration.ofMinutes(1), false);
+    for (int i = 0; i < 50; i++) {
+      cache.getBlock("http://server/a", null, BLOCK_SIZE, i, () -> block(BLOCK_SIZE, 0));
+    }
+    assertThat(cache.getSizeBytes()).isAtMost(10 * BLOCK_SIZE);
+    assertThat(cache.getEvictionCount()).isGreaterThan(0L);
+  }
+
+  @Test
+  public void shouldStoreOffHeap() throws IOException {
+    RemoteBlockCache cache = new RemoteBlockCache(10_000, Duration.ofMinutes(1), true);
+    ByteBuffer bb = cache.getBlock("http://server/a", null, BLOCK_SIZE, 0, () -> block(BLOCK_SIZE, 3));
+    assertThat(bb.isDirect()).isTrue();
+    assertThat(bb.remaining()).isEqualTo(BLOCK_SIZE);
+    assertThat(bb.get(BLOCK_SIZE - 1)).isEqualTo((byte) 3);
+  }
+
+  @Test
+  public void shouldPropagateLoadFailure() {
+    RemoteBlockCache cache = new RemoteBlockCache(10_000, Duration.ofMinutes(1), false);
+    assertThrows(IOException.class, () -> cache.getBlock("http://server/a", null, BLOCK_SIZE, 0, () -> {
+      throw new IOException("fail");
+    }));
+    assertThat(cache.getBlockCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldLoadOnceForConcurrentRequests() throws Exception {
+    RemoteBlockCache cache = new RemoteBlockCache(10_000, Duration.ofMinutes(1), false);
+    AtomicInteger loads = new AtomicInteger();
+    CountDownLatch loading = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<ByteBuffer>> results = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        results.add(pool.submit(() -> cache.getBlock("http://server/a", null, BLOCK_SIZE, 0, () -> {
+          loads.incrementAndGet();
+          loading.countDown();
+          try {
+            release.await(10, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            throw new IOException(e);
+          }
+          return block(BLOCK_SIZE, 5);
+        })));
+      }
+      assertThat(loading.await(10, TimeUnit.SECONDS)).isTrue();
+      release.countDown();
+      for (Future<ByteBuffer> result : results) {
+        assertThat(result.get().get(0)).isEqualTo((byte) 5);
+      }
+    } finally {
+      pool.shutdown();
+    }
+    assertThat(loads.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldShareBlocksBetweenFiles() throws IOException {
+    RemoteBlockCache.setDefault(new RemoteBlockCache(10_000, Duration.ofMinutes(1), false));
+    byte[] contents = new byte[1234];
+    new Random(3).nextBytes(contents);
+    AtomicInteger remoteBytes = new AtomicInteger();
+
+    for (int i = 0; i < 2; i++) {
+      try (RemoteRandomAccessFile raf = new FakeRemoteFile("http://server/shared", "v1", contents, remoteBytes)) {
+        byte[] all = new byte[contents.length];
+        raf.readFully(all);
+        assertThat(all).isEqualTo(contents);
+
+        raf.seek(95);
+        byte[] some = new byte[210];
+        raf.readFully(some);
+        assertThat(some).isEqualTo(Arrays.copyOfRange(contents, 95, 305));
+      }
+    }
+    // each block read from the remote once
+    assertThat(remoteBytes.get()).isEqualTo(contents.length);
+  }
+
+  @Test
+  public void shouldNotShareBlocksOfUnknownVersion() throws IOException {
+    RemoteBlockCache cache = new RemoteBlockCache(10_000, Duration.ofMinutes(1), false);
+    RemoteBlockCache.setDefault(cache);
+    AtomicInteger remoteBytes = new AtomicInteger();
+
+    // the remote file changes between opens, and has no version to tell
+    for (int value = 1; value <= 2; value++) {
+      byte[] contents = block(250, value);
+      try (RemoteRandomAccessFile raf = new FakeRemoteFile("http://server/changing", null, contents, remoteBytes)) {
+        byte[] all = new byte[contents.length];
+        raf.readFully(all);
+        assertThat(all).isEqualTo(contents);
+        assertThat(cache.getBlockCount()).isGreaterThan(0L);
+      }
+      assertThat(cache.getBlockCount()).isEqualTo(0);
+    }
+    assertThat(remoteBytes.get()).isEqualTo(2 * 250);
+  }
+
+  private static class FakeRemoteFile extends RemoteRandomAccessFile {
+    private final String version;
+    private final byte[] contents;
+    private final AtomicInteger remoteBytes;
+
+    FakeRemoteFile(String url, String version, byte[] contents, AtomicInteger remoteBytes) {
+      super(url, BLOCK_SIZE, 10 * BLOCK_SIZE);
+      this.version = version;
+      this.contents = contents;
+      this.remoteBytes = remoteBytes;
+    }
+
+    @Override
+    public int readRemote(long pos, byte[] buff, int offset, int len) {
+      int n = (int) Math.min(len, contents.length - pos);
+      System.arraycopy(contents, (int) pos, buff, offset, n);
+      remoteBytes.addAndGet(n);
+      return n;
+    }
+
+    @Override
+    public void closeRemote() {}
+
+    @Override
+    public long length() {
+      return contents.length;
+    }
+
+    @Override
+    protected String getRemoteVersion() {
+      return version;
+    }
+  }
+}
@@ -0,0 +1,188 @@
+package ucar.unidata.io;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestVectoredReads {
+  private static final int BLOCK_SIZE = 100;
+
+  private byte[] contents;
+
+  @Before
+  public void setup() {
+    contents = new byte[5000];
+    new Random(11).nextBytes(contents);
+    RemoteBlockCache.setDefault(new RemoteBlockCache(100_000, Duration.ofMinutes(1), false));
+  }
+
+  @After
+  public void reset() {
+    VectoredReads.setMaxInFlight(8);
+    VectoredReads.setMaxGap(128 * 1024);
+    RemoteRandomAccessFile.setMaxReadAheadBlocks(8);
+    RemoteBlockCache.setDefault(new RemoteBlockCache(RemoteBlockCache.defaultMaxSize,
+        Duration.ofMillis(RemoteBlockCache.defaultTimeToLive), false));
+  }
+
+  private static List<FileRange> ranges(long... offsetAndLength) {
+    List<FileRange> result = new ArrayList<>();
+    for (int i = 0; i < offsetAndLength.length; i += 2)
+      result.add(new FileRange(offsetAndLength[i], (int) offsetAndLength[i + 1]));
+    return result;
+  }
+
+  private void assertContents(ByteBuffer bb, FileRange range) {
+    byte[] b = new byte[bb.remaining()];
+    bb.get(b);
+    assertThat(b).isEqualTo(Arrays.copyOfRange(contents, (int) range.getOffset(), (int) range.getEnd()));
+  }
+
+  @Test
+  public void shouldCoalesceNearbyRanges() {
+    List<FileRange> merged = VectoredReads.coalesce(ranges(500, 10, 0, 10, 15, 5, 505, 20, 900, 0), 5, 1000);
+    assertThat(merged).containsExactly(new FileRange(0, 20), new FileRange(500, 25)).inOrder();
+
+    // not grown beyond the maximum size, but a large range is not split
+    merged = VectoredReads.coalesce(ranges(0, 60, 60, 60, 120, 200), 0, 100);
+    assertThat(merged).containsExactly(new FileRange(0, 60), new FileRange(60, 60), new FileRange(120, 200))
+        .inOrder();
+  }
+
+  @Test
+  public void shouldReadVectoredWithoutCache() throws IOException {
+    VectoredReads.setMaxGap(50);
+    List<FileRange> wanted = ranges(4000, 100, 10, 30, 60, 40, 2000, 0, 3000, 500);
+    try (FakeRemoteFile raf = new FakeRemoteFile(contents, 0)) {
+      List<ByteBuffer> result = raf.readVectored(wanted);
+      assertThat(result).hasSize(wanted.size());
+      for (int i = 0; i < wanted.size(); i++)
+        assertContents(result.get(i), wanted.get(i));
+      // 10-100 merged, the others apart
+      assertThat(raf.requests.get()).isEqualTo(3);
+      assertThat(raf.getFilePointer()).isEqualTo(4100);
+
+      assertThrows(EOFException.class, () -> raf.readVectored(ranges(4990, 20)));
+    }
+  }
+
+  @Test
+  public void shouldPrefetchIntoCache() throws IOException {
+    VectoredReads.setMaxGap(0);
+    RemoteRandomAccessFile.setMaxReadAheadBlocks(0);
+    List<FileRange> wanted = ranges(4950, 50, 120, 130, 1000, 1, 3333, 222);
+    try (FakeRemoteFile raf = new FakeRemoteFile(contents, 10 * BLOCK_SIZE)) {
+      raf.prefetch(wanted);
+      // blocks 1-2, 10, 33-35 and 49
+      assertThat(raf.requests.get()).isEqualTo(4);
+      assertThat(raf.bytes.get()).isEqualTo(7 * BLOCK_SIZE);
+
+      List<ByteBuffer> result = raf.readVectored(wanted);
+      for (int i = 0; i < wanted.size(); i++)
+        assertContents(result.get(i), wanted.get(i));
+      assertThat(raf.requests.get()).isEqualTo(4);
+
+      // nothing more to fetch
+      raf.prefetch(wanted);
+      assertThat(raf.requests.get()).isEqualTo(4);
+    }
+  }
+
+  @Test
+  public void shouldReadAheadWhenSequential() throws IOException {
+    try (FakeRemoteFile raf = new FakeRemoteFile(contents, 10 * BLOCK_SIZE)) {
+      byte[] all = new byte[contents.length];
+      for (int pos = 0; pos < contents.length; pos += BLOCK_SIZE)
+        raf.readFully(all, pos, BLOCK_SIZE);
+      assertThat(all).isEqualTo(contents);
+      assertThat(raf.bytes.get()).isEqualTo(contents.length);
+      // 50 blocks, read 2 and 5 at a time, then 9 at a time up to the end
+      assertThat(raf.requests.get()).isEqualTo(7);
+    }
+  }
+
+  @Test
+  public void shouldNotReadAheadWhenRandom() throws IOException {
+    try (FakeRemoteFile raf = new FakeRemoteFile(contents, 10 * BLOCK_SIZE)) {
+      for (int block : new int[] {40, 3, 17, 30, 8}) {
+        raf.seek(block * BLOCK_SIZE);
+        raf.readInt();
+      }
+      assertThat(raf.requests.get()).isEqualTo(5);
+      assertThat(raf.bytes.get()).isEqualTo(5 * BLOCK_SIZE);
+    }
+  }
+
+  @Test
+  public void shouldBoundRequestsInFlight() throws IOException {
+    VectoredReads.setMaxInFlight(3);
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+    List<Callable<Integer>> tasks = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      int value = i;
+      tasks.add(() -> {
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        Thread.sleep(5);
+        inFlight.decrementAndGet();
+        return value;
+      });
+    }
+    List<Integer> results = VectoredReads.invokeAll(tasks);
+    for (int i = 0; i < 20; i++)
+      assertThat(results.get(i)).isEqualTo(i);
+    assertThat(maxInFlight.get()).isAtMost(3);
+  }
+
+  @Test
+  public void shouldPropagateFailure() {
+    List<Callable<Integer>> tasks = new ArrayList<>();
+    tasks.add(() -> 1);
+    tasks.add(() -> {
+      throw new IOException("fail");
+    });
+    IOException e = assertThrows(IOException.class, () -> VectoredReads.invokeAll(tasks));
+    assertThat(e.getMessage()).isEqualTo("fail");
+  }
+
+  private static class FakeRemoteFile extends RemoteRandomAccessFile {
+    private final byte[] contents;
+    final AtomicInteger requests = new AtomicInteger();
+    final AtomicInteger bytes = new AtomicInteger();
+
+    FakeRemoteFile(byte[] contents, long maxCacheSize) {
+      super("http://server/vectored", BLOCK_SIZE, maxCacheSize);
+      this.contents = contents;
+    }
+
+    @Override
+    public int readRemote(long pos, byte[] buff, int offset, int len) {
+      int n = (int) Math.min(len, contents.length - pos);
+      System.arraycopy(contents, (int) pos, buff, offset, n);
+      requests.incrementAndGet();
+      bytes.addAndGet(n);
+      return n;
+    }
+
+    @Override
+    public void closeRemote() {}
+
+    @Override
+    public long length() {
+      return contents.length;
+    }
+  }
+}
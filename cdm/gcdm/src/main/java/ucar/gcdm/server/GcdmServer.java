@@ -7,10 +7,18 @@ package ucar.gcdm.server;
 import com.google.common.base.Stopwatch;
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import java.io.IOException;
-import java.util.Arrays;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 import ucar.gcdm.GcdmGrpc.GcdmImplBase;
 import ucar.gcdm.GcdmNetcdfProto;
 import ucar.gcdm.GcdmNetcdfProto.DataRequest;
@@ -24,6 +32,7 @@ import ucar.ma2.ArrayStructureW;
 import ucar.ma2.DataType;
 import ucar.ma2.Index;
 import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
 import ucar.ma2.Section;
 import ucar.ma2.StructureData;
 import ucar.ma2.StructureDataIterator;
@@ -33,6 +42,7 @@ import ucar.nc2.ParsedSectionSpec;
 import ucar.nc2.Sequence;
 import ucar.nc2.Variable;
 import ucar.nc2.dataset.NetcdfDatasets;
+import ucar.nc2.util.Concurrency;
 import ucar.nc2.write.ChunkingIndex;
 
 /** Server that manages startup/shutdown of a gCDM Server. */
@@ -41,9 +51,22 @@ public class GcdmServer {
 
   // public for testing
   public static final int MAX_MESSAGE = 50 * 1000 * 1000; // 50 Mb LOOK could be tuned
-  private static final int SEQUENCE_CHUNK = 1000;
   private static final int PORT = 16111;
 
+  /** System property for the approximate maximum bytes of data held in memory by one data request. */
+  public static final String MAX_REQUEST_MEMORY = "unidata.gcdm.maxRequestMemory";
+  // number of messages read ahead of the one waiting to be sent
+  private static final int READ_AHEAD = 1;
+
+  static long getDefaultMaxRequestMemory() {
+    return Concurrency.getLongProperty(MAX_REQUEST_MEMORY, (READ_AHEAD + 2L) * MAX_MESSAGE, 1);
+  }
+
+  // reads the data of requests, so the grpc threads are not blocked on reads
+  private static ExecutorService getReadPool() {
+    return Concurrency.getSharedPool("GcdmServer-read");
+  }
+
   private Server server;
 
   private void start() throws IOException {
@@ -84,6 +107,24 @@ public class GcdmServer {
   }
 
   static class GcdmImpl extends GcdmImplBase {
+    private final long chunkBytes; // maximum bytes of data in one DataResponse
+
+    GcdmImpl() {
+      this(getDefaultMaxRequestMemory());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxRequestMemory approximate maximum bytes of data held in memory for one data request: the messages
+     *        being read ahead, the one waiting for the client, and the one being sent.
+     */
+    GcdmImpl(long maxRequestMemory) {
+      if (maxRequestMemory <= 0)
+        throw new IllegalArgumentException("maxRequestMemory must be > 0");
+      this.chunkBytes = Math.max(1, Math.min(MAX_MESSAGE, maxRequestMemory / (READ_AHEAD + 2)));
+    }
+
     @Override
     public void getNetcdfHeader(HeaderRequest req, StreamObserver<HeaderResponse> responseObserver) {
       logger.info("GcdmServer getHeader " + req.getLocation());
@@ -101,110 +142,274 @@ public class GcdmServer {
       }
     }
 
+    /**
+     * Send the data as a stream of DataResponses of at most chunkBytes each. The messages are read on the read pool,
+     * one at a time and up to READ_AHEAD ahead of the one being sent, and sent when the client is ready for them.
+     * This returns as soon as the first read has been started.
+     */
     @Override
     public void getNetcdfData(DataRequest req, StreamObserver<DataResponse> responseObserver) {
       logger.info("GcdmServer getData {} {}", req.getLocation(), req.getVariableSpec());
-      final Stopwatch stopwatch = Stopwatch.createStarted();
-      long size = -1;
-
-      try (NetcdfFile ncfile = NetcdfDatasets.openFile(req.getLocation(), null)) { // LOOK cache ncfile?
+      NetcdfFile ncfile = null;
+      try {
+        ncfile = NetcdfDatasets.openFile(req.getLocation(), null); // LOOK cache ncfile?
         final ParsedSectionSpec varSection = ParsedSectionSpec.parseVariableSection(ncfile, req.getVariableSpec());
         final Variable var = varSection.getVariable();
+        final ChunkSource source;
         if (var instanceof Sequence) {
-          size = getSequenceData(ncfile, varSection, responseObserver);
+          source = new SequenceSource(ncfile, varSection, chunkBytes);
         } else {
-          final Section wantSection = varSection.getArraySection();
-          size = var.getElementSize() * wantSection.computeSize();
-          getNetcdfData(ncfile, varSection, responseObserver);
+          source = new ArraySource(ncfile, varSection, chunkBytes);
         }
-        responseObserver.onCompleted();
+        new DataStreamer(req, responseObserver, ncfile, source).start();
+
       } catch (Throwable t) {
-        logger.warn("GcdmServer getData failed ", t);
-        t.printStackTrace();
-        final DataResponse.Builder response =
-            DataResponse.newBuilder().setLocation(req.getLocation()).setVariableSpec(req.getVariableSpec());
-        response.setError(
-            GcdmNetcdfProto.Error.newBuilder().setMessage(t.getMessage() == null ? "N/A" : t.getMessage()).build());
-        responseObserver.onNext(response.build());
+        sendError(req, responseObserver, t);
+        if (ncfile != null) {
+          closeQuietly(ncfile);
+        }
       }
+    }
+  } // GcdmImpl
+
+  private static void sendError(DataRequest req, StreamObserver<DataResponse> responseObserver, Throwable t) {
+    logger.warn("GcdmServer getData failed ", t);
+    final DataResponse.Builder response =
+        DataResponse.newBuilder().setLocation(req.getLocation()).setVariableSpec(req.getVariableSpec());
+    response.setError(
+        GcdmNetcdfProto.Error.newBuilder().setMessage(t.getMessage() == null ? "N/A" : t.getMessage()).build());
+    responseObserver.onNext(response.build());
+    responseObserver.onCompleted();
+  }
 
-      logger.debug(" ** size={} took={}", size, stopwatch.stop());
+  private static void closeQuietly(NetcdfFile ncfile) {
+    try {
+      ncfile.close();
+    } catch (IOException e) {
+      logger.warn("GcdmServer failed to close " + ncfile.getLocation(), e);
     }
+  }
 
-    private void getNetcdfData(NetcdfFile ncfile, ParsedSectionSpec varSection,
-        StreamObserver<DataResponse> responseObserver) throws IOException, InvalidRangeException {
-      final Variable var = varSection.getVariable();
-      final Section wantSection = varSection.getArraySection();
-      long size = var.getElementSize() * wantSection.computeSize();
-      if (size > MAX_MESSAGE) {
-        getDataInChunks(ncfile, varSection, responseObserver);
-      } else {
-        getOneChunk(ncfile, varSection, responseObserver);
-      }
+  /** Reads the data of one request, one DataResponse at a time. Calls are made one at a time, in order. */
+  private interface ChunkSource {
+    /** The next message, or null when there is no more data. */
+    @Nullable
+    DataResponse next() throws IOException, InvalidRangeException;
+  }
+
+  /**
+   * The data of a Variable or Structure, split into sections of at most chunkBytes. A Structure is split by record
+   * count; a single record larger than chunkBytes is still sent whole.
+   */
+  private static class ArraySource implements ChunkSource {
+    private final NetcdfFile ncfile;
+    private final Variable var;
+    private final Section section;
+    private final long maxChunkElems;
+    private final ChunkingIndex index; // null if the section is sent in one message
+    private boolean done;
+
+    ArraySource(NetcdfFile ncfile, ParsedSectionSpec varSection, long chunkBytes) {
+      this.ncfile = ncfile;
+      this.var = varSection.getVariable();
+      this.section = varSection.getArraySection();
+      this.maxChunkElems = Math.max(1, chunkBytes / Math.max(1, var.getElementSize()));
+      this.index = section.computeSize() > maxChunkElems ? new ChunkingIndex(section.getShape()) : null;
     }
 
-    // TODO this returns structure member data in one chunk no matter the size, see testDataChunkingForStructures
-    private void getDataInChunks(NetcdfFile ncfile, ParsedSectionSpec varSection,
-        StreamObserver<DataResponse> responseObserver) throws IOException, InvalidRangeException {
-
-      final Variable var = varSection.getVariable();
-      final Section section = varSection.getArraySection();
-      long maxChunkElems = MAX_MESSAGE / var.getElementSize();
-      final ChunkingIndex index = new ChunkingIndex(section.getShape());
-      while (index.currentElement() < index.getSize()) {
-        final int[] chunkOrigin = index.getCurrentCounter();
-        final int[] chunkShape = index.computeChunkShape(maxChunkElems);
-        final Section chunkSection = new Section(chunkOrigin, chunkShape);
-        final ParsedSectionSpec spec = new ParsedSectionSpec(var, chunkSection);
-        getOneChunk(ncfile, spec, responseObserver);
-        index.setCurrentCounter(index.currentElement() + (int) Index.computeSize(chunkShape));
+    @Override
+    public DataResponse next() throws IOException, InvalidRangeException {
+      if (done) {
+        return null;
+      }
+      if (index == null) {
+        done = true;
+        return readChunk(section);
       }
-    }
 
-    private void getOneChunk(NetcdfFile ncfile, ParsedSectionSpec varSection,
-        StreamObserver<DataResponse> responseObserver) throws IOException, InvalidRangeException {
+      final int[] chunkOrigin = index.getCurrentCounter();
+      final int[] chunkShape = index.computeChunkShape(maxChunkElems);
+      index.setCurrentCounter(index.currentElement() + (int) Index.computeSize(chunkShape));
+      done = index.currentElement() >= index.getSize();
 
-      final String spec = varSection.makeSectionSpecString();
-      final Variable var = varSection.getVariable();
-      final Section wantSection = varSection.getArraySection();
+      // the chunk is relative to the wanted section
+      final List<Range> ranges = new ArrayList<>(section.getRank());
+      for (int i = 0; i < section.getRank(); i++) {
+        final Range r = section.getRange(i);
+        ranges.add(r.compose(new Range(chunkOrigin[i], chunkOrigin[i] + chunkShape[i] - 1)));
+      }
+      return readChunk(new Section(ranges));
+    }
 
+    private DataResponse readChunk(Section chunkSection) throws IOException, InvalidRangeException {
+      final String spec = new ParsedSectionSpec(var, chunkSection).makeSectionSpecString();
       final DataResponse.Builder response = DataResponse.newBuilder().setLocation(ncfile.getLocation())
           .setVariableSpec(spec).setVarFullName(var.getFullName());
-
-      final Array data = var.read(wantSection);
+      final Array data = var.read(chunkSection);
       response.setData(GcdmConverter.encodeData(data.getDataType(), data));
+      logger.debug("Send one chunk {} size={} bytes", spec, data.getSize() * var.getElementSize());
+      return response.build();
+    }
+  }
 
-      responseObserver.onNext(response.build());
-      logger.debug("Send one chunk {} size={} bytes", spec, data.getSize() * varSection.getVariable().getElementSize());
-    }
-
-    // TODO count >= SEQUENCE_CHUNK is not covered in tests
-    private long getSequenceData(NetcdfFile ncfile, ParsedSectionSpec varSection,
-        StreamObserver<DataResponse> responseObserver) throws IOException {
-
-      final String spec = varSection.makeSectionSpecString();
-      final Sequence seq = (Sequence) varSection.getVariable();
-      final StructureMembers members = seq.makeStructureMembers();
-
-      StructureData[] structureData = new StructureData[SEQUENCE_CHUNK];
-      int start = 0;
-      int count = 0;
-      StructureDataIterator it = seq.getStructureIterator();
-      while (it.hasNext()) {
-        structureData[count++] = it.next();
-
-        if (count >= SEQUENCE_CHUNK || !it.hasNext()) {
-          final StructureData[] correctSizeArray = Arrays.copyOf(structureData, count);
-          final ArrayStructureW arrayStructure = new ArrayStructureW(members, new int[] {count}, correctSizeArray);
-          final DataResponse.Builder response = DataResponse.newBuilder().setLocation(ncfile.getLocation())
-              .setVariableSpec(spec).setVarFullName(seq.getFullName());
-          response.setData(GcdmConverter.encodeData(DataType.SEQUENCE, arrayStructure));
-          responseObserver.onNext(response.build());
-          start = count;
-          count = 0;
+  /** The records of a Sequence, in messages of as many records as fit in chunkBytes, but at least one. */
+  private static class SequenceSource implements ChunkSource {
+    private final NetcdfFile ncfile;
+    private final String spec;
+    private final Sequence seq;
+    private final StructureMembers members;
+    private final int recordsPerChunk;
+    private StructureDataIterator iter;
+
+    SequenceSource(NetcdfFile ncfile, ParsedSectionSpec varSection, long chunkBytes) {
+      this.ncfile = ncfile;
+      this.spec = varSection.makeSectionSpecString();
+      this.seq = (Sequence) varSection.getVariable();
+      this.members = seq.makeStructureMembers();
+      long recordSize = Math.max(1, members.getStructureSize());
+      this.recordsPerChunk = (int) Math.max(1, Math.min(Integer.MAX_VALUE, chunkBytes / recordSize));
+    }
+
+    @Override
+    public DataResponse next() throws IOException {
+      if (iter == null) {
+        iter = seq.getStructureIterator();
+      }
+      final List<StructureData> records = new ArrayList<>();
+      while (records.size() < recordsPerChunk && iter.hasNext()) {
+        records.add(iter.next());
+      }
+      if (records.isEmpty()) {
+        iter.close();
+        return null;
+      }
+
+      final StructureData[] structureData = records.toArray(new StructureData[0]);
+      final ArrayStructureW arrayStructure =
+          new ArrayStructureW(members, new int[] {structureData.length}, structureData);
+      final DataResponse.Builder response = DataResponse.newBuilder().setLocation(ncfile.getLocation())
+          .setVariableSpec(spec).setVarFullName(seq.getFullName());
+      response.setData(GcdmConverter.encodeData(DataType.SEQUENCE, arrayStructure));
+      return response.build();
+    }
+  }
+
+  /**
+   * Sends the messages of one data request, using the readiness of the call for flow control. Messages are read on
+   * the read pool, one at a time, with up to READ_AHEAD of them read ahead of the one waiting to be sent. drain() is
+   * called when the client becomes ready, when a read finishes, and when the call is cancelled.
+   */
+  private static class DataStreamer {
+    private final DataRequest req;
+    private final StreamObserver<DataResponse> observer;
+    @Nullable
+    private final ServerCallStreamObserver<DataResponse> serverObserver; // null if not a real call, eg a test
+    private final NetcdfFile ncfile;
+    private final ChunkSource source;
+    private final Stopwatch stopwatch = Stopwatch.createStarted();
+
+    private final Deque<CompletableFuture<DataResponse>> pending = new ArrayDeque<>();
+    private CompletableFuture<DataResponse> lastRead = CompletableFuture.completedFuture(null);
+    private volatile boolean endOfData;
+    private boolean finished;
+    private long bytesSent;
+
+    DataStreamer(DataRequest req, StreamObserver<DataResponse> observer, NetcdfFile ncfile, ChunkSource source) {
+      this.req = req;
+      this.observer = observer;
+      this.serverObserver =
+          (observer instanceof ServerCallStreamObserver) ? (ServerCallStreamObserver<DataResponse>) observer : null;
+      this.ncfile = ncfile;
+      this.source = source;
+    }
+
+    synchronized void start() {
+      if (serverObserver != null) {
+        serverObserver.setOnReadyHandler(this::drain);
+        serverObserver.setOnCancelHandler(this::drain);
+      }
+      drain();
+    }
+
+    private boolean isReady() {
+      return serverObserver == null || serverObserver.isReady();
+    }
+
+    private boolean isCancelled() {
+      return serverObserver != null && serverObserver.isCancelled();
+    }
+
+    synchronized void drain() {
+      if (finished)
+        return;
+      try {
+        while (true) {
+          if (isCancelled()) {
+            logger.debug("GcdmServer getData {} cancelled after {} bytes", req.getVariableSpec(), bytesSent);
+            finish();
+            return;
+          }
+          fill();
+          final CompletableFuture<DataResponse> head = pending.peekFirst();
+          if (head != null && !head.isDone())
+            return; // called again when the read is done
+          final DataResponse response = (head == null) ? null : head.join(); // join throws if the read failed
+          if (response == null) { // end of data
+            observer.onCompleted();
+            logger.debug(" ** size={} took={}", bytesSent, stopwatch.stop());
+            finish();
+            return;
+          }
+          if (!isReady())
+            return; // called again by the onReady handler
+          pending.removeFirst();
+          observer.onNext(response);
+          bytesSent += response.getSerializedSize();
+        }
+      } catch (Throwable t) {
+        final Throwable cause = (t instanceof CompletionException && t.getCause() != null) ? t.getCause() : t;
+        finish();
+        if (!isCancelled()) {
+          try {
+            sendError(req, observer, cause);
+          } catch (RuntimeException e) {
+            logger.debug("GcdmServer failed to send error", e);
+          }
         }
       }
-      return (long) (start + count) * members.getStructureSize();
     }
-  } // GcdmImpl
+
+    // start reads until READ_AHEAD + 1 messages are read or being read; reads are chained so they run one at a time
+    private void fill() {
+      while (pending.size() < READ_AHEAD + 1 && !(endOfData && lastRead.isDone())) {
+        final CompletableFuture<DataResponse> read = lastRead.thenApplyAsync(prev -> readNext(), getReadPool());
+        read.whenCompleteAsync((r, t) -> drain(), getReadPool());
+        pending.addLast(read);
+        lastRead = read;
+        if (endOfData)
+          break;
+      }
+    }
+
+    @Nullable
+    private DataResponse readNext() {
+      if (endOfData)
+        return null;
+      try {
+        final DataResponse result = source.next();
+        if (result == null)
+          endOfData = true;
+        return result;
+      } catch (IOException | InvalidRangeException e) {
+        throw new CompletionException(e);
+      }
+    }
+
+    private void finish() {
+      finished = true;
+      pending.clear();
+      // close the file after any read in progress
+      lastRead.whenComplete((r, t) -> closeQuietly(ncfile));
+    }
+  }
 }
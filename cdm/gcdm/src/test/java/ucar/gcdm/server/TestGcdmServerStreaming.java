@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2023 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.gcdm.server;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Stopwatch;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ucar.gcdm.GcdmConverter;
+import ucar.gcdm.GcdmGrpc;
+import ucar.gcdm.GcdmNetcdfProto.DataRequest;
+import ucar.gcdm.GcdmNetcdfProto.DataResponse;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Section;
+import ucar.nc2.write.NetcdfFormatWriter;
+
+/** Test and time {@link GcdmServer} streaming data over an in-process channel. */
+public class TestGcdmServerStreaming {
+  private static final Logger logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+  private static final int NX = 2000;
+  private static final int NY = 500;
+  private static final long MAX_REQUEST_MEMORY = 3 * 1000 * 1000; // 1 Mbyte messages
+
+  @Rule
+  public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private Server server;
+  private ManagedChannel channel;
+  private String filename;
+  private Array expected;
+
+  @Before
+  public void setup() throws IOException, InvalidRangeException {
+    filename = tempFolder.newFile().getAbsolutePath();
+    NetcdfFormatWriter.Builder writerb = NetcdfFormatWriter.createNewNetcdf3(filename);
+    writerb.addDimension("x", NX);
+    writerb.addDimension("y", NY);
+    writerb.addVariable("data", DataType.INT, "x y");
+    expected = Array.makeArray(DataType.INT, NX * NY, 0, 1).reshape(new int[] {NX, NY});
+    try (NetcdfFormatWriter writer = writerb.build()) {
+      writer.write("data", expected);
+    }
+
+    String name = InProcessServerBuilder.generateName();
+    server = InProcessServerBuilder.forName(name).addService(new GcdmServer.GcdmImpl(MAX_REQUEST_MEMORY)).build()
+        .start();
+    channel = InProcessChannelBuilder.forName(name).build();
+  }
+
+  @After
+  public void shutdown() {
+    channel.shutdownNow();
+    server.shutdownNow();
+  }
+
+  private DataRequest request(String spec) {
+    return DataRequest.newBuilder().setLocation(filename).setVariableSpec(spec).build();
+  }
+
+  private int[] readAll(String spec, int[] messages) {
+    List<Array> results = new ArrayList<>();
+    Iterator<DataResponse> responses = GcdmGrpc.newBlockingStub(channel).getNetcdfData(request(spec));
+    while (responses.hasNext()) {
+      DataResponse response = responses.next();
+      assertThat(response.hasError()).isFalse();
+      Array data = GcdmConverter.decodeData(response.getData());
+      assertThat(data.getSize() * 4).isAtMost(MAX_REQUEST_MEMORY / 3);
+      results.add(data);
+    }
+    messages[0] = results.size();
+    return concat(results);
+  }
+
+  private static int[] concat(List<Array> results) {
+    int n = 0;
+    for (Array a : results) {
+      n += (int) a.getSize();
+    }
+    int[] result = new int[n];
+    int pos = 0;
+    for (Array a : results) {
+      int[] values = (int[]) a.get1DJavaArray(DataType.INT);
+      System.arraycopy(values, 0, result, pos, values.length);
+      pos += values.length;
+    }
+    return result;
+  }
+
+  @Test
+  public void testChunkedData() throws InvalidRangeException {
+    int[] messages = new int[1];
+    assertThat(readAll("data", messages)).isEqualTo(expected.get1DJavaArray(DataType.INT));
+    assertThat(messages[0]).isGreaterThan(1);
+
+    // chunks are relative to the wanted section
+    String spec = "data(10:1990:3,7:499:2)";
+    Array want = expected.section(new Section("10:1990:3,7:499:2").getRanges());
+    assertThat(readAll(spec, messages)).isEqualTo(want.get1DJavaArray(DataType.INT));
+    assertThat(messages[0]).isGreaterThan(1);
+  }
+
+  @Test
+  public void testSlowClient() throws Exception {
+    CompletableFuture<int[]> result = new CompletableFuture<>();
+    GcdmGrpc.newStub(channel).getNetcdfData(request("data"), new ClientResponseObserver<DataRequest, DataResponse>() {
+      private ClientCallStreamObserver<DataRequest> requestStream;
+      private final List<Array> results = new ArrayList<>();
+
+      @Override
+      public void beforeStart(ClientCallStreamObserver<DataRequest> requestStream) {
+        this.requestStream = requestStream;
+        requestStream.disableAutoRequestWithInitial(1);
+      }
+
+      @Override
+      public void onNext(DataResponse response) {
+        results.add(GcdmConverter.decodeData(response.getData()));
+        try {
+          Thread.sleep(10); // the server must wait for us
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        requestStream.request(1);
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        result.completeExceptionally(t);
+      }
+
+      @Override
+      public void onCompleted() {
+        result.complete(concat(results));
+      }
+    });
+    assertThat(result.get(30, TimeUnit.SECONDS)).isEqualTo(expected.get1DJavaArray(DataType.INT));
+  }
+
+  @Test
+  public void testConcurrentClients() throws Exception {
+    int nclients = 8;
+    ExecutorService pool = Executors.newFixedThreadPool(nclients);
+    try {
+      Stopwatch stopwatch = Stopwatch.createStarted();
+      List<Future<int[]>> futures = new ArrayList<>();
+      for (int i = 0; i < nclients; i++) {
+        futures.add(pool.submit(() -> readAll("data", new int[1])));
+      }
+      for (Future<int[]> future : futures) {
+        assertThat(future.get(60, TimeUnit.SECONDS)).isEqualTo(expected.get1DJavaArray(DataType.INT));
+      }
+      stopwatch.stop();
+      double mbytes = nclients * expected.getSizeBytes() / 1.0e6;
+      logger.debug("{} clients read {} Mbytes in {} = {} Mbytes/sec", nclients, mbytes, stopwatch,
+          mbytes * 1000 / stopwatch.elapsed(TimeUnit.MILLISECONDS));
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+}
@@ -29,6 +29,7 @@ import software.amazon.awssdk.profiles.ProfileProperty;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.S3Configuration;
 
 /**
  * A client for accessing Object Store resources.
@@ -79,6 +80,12 @@ public class CdmS3Client {
   private static final int socketTimeout =
       Integer.parseInt(System.getProperty("ucar.unidata.io.s3.socketTimeout", "100000"));
 
+  /**
+   * Address buckets in the path of the request, rather than in the host name. Needed by some S3 compatible services,
+   * including local test servers. Read when a client is created.
+   */
+  static final String PATH_STYLE_ACCESS_PROP_NAME = "ucar.unidata.io.s3.pathStyleAccess";
+
   private static final LoadingCache<CdmS3Uri, S3Client> s3ClientCache;
   private static boolean useCache = true;
 
@@ -189,6 +196,9 @@ public class CdmS3Client {
 
     // if we are accessing an S3 compatible service, we need to override the server endpoint
     uri.getEndpoint().ifPresent(s3ClientBuilder::endpointOverride);
+    if (Boolean.getBoolean(PATH_STYLE_ACCESS_PROP_NAME)) {
+      s3ClientBuilder.serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build());
+    }
 
     // build up a chain of credentials providers
     AwsCredentialsProviderChain.Builder cdmCredentialsProviderChainBuilder = AwsCredentialsProviderChain.builder();
@@ -124,6 +124,11 @@ public final class S3RandomAccessFile extends RemoteRandomAccessFile implements
     return objectHeadResponse.contentLength();
   }
 
+  @Override
+  protected String getRemoteVersion() {
+    return objectHeadResponse == null ? null : objectHeadResponse.eTag();
+  }
+
   @Override
   public long getLastModified() {
     return objectHeadResponse.lastModified().toEpochMilli();
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.unidata.io.s3;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import ucar.unidata.io.FileRange;
+import ucar.unidata.io.RandomAccessFile;
+import ucar.unidata.io.RemoteBlockCache;
+import ucar.unidata.io.VectoredReads;
+
+/** Test vectored reads of S3RandomAccessFile against a local server that answers like S3. */
+public class TestS3VectoredRead {
+  private static final String BUCKET = "test-bucket";
+  private static final int BLOCK_SIZE = 262144; // default S3 buffer size
+  // CdmS3Uri only uses http for these ports
+  private static final int[] HTTP_PORTS = {8080, 8008, 9080, 16080, 7001};
+  private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+  private static final byte[] contents = new byte[4 * 1024 * 1024];
+  private static final AtomicInteger gets = new AtomicInteger();
+  private static final AtomicInteger inFlight = new AtomicInteger();
+  private static final AtomicInteger maxInFlight = new AtomicInteger();
+
+  private static HttpServer server;
+  private static ExecutorService serverThreads;
+
+  @BeforeClass
+  public static void startServer() throws IOException {
+    new Random(5).nextBytes(contents);
+    for (int port : HTTP_PORTS) {
+      try {
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        break;
+      } catch (BindException e) {
+        // try the next one
+      }
+    }
+    Assume.assumeTrue("No free http port for the mock S3 server", server != null);
+    serverThreads = Executors.newCachedThreadPool();
+    server.setExecutor(serverThreads);
+    server.createContext("/" + BUCKET + "/", TestS3VectoredRead::handle);
+    server.start();
+
+    System.setProperty(CdmS3Client.PATH_STYLE_ACCESS_PROP_NAME, "true");
+    System.setProperty("aws.accessKeyId", "test");
+    System.setProperty("aws.secretAccessKey", "test");
+    System.setProperty(S3TestsCommon.AWS_REGION_PROP_NAME, S3TestsCommon.AWS_G16_REGION);
+    CdmS3Client.enableCache(false);
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    if (server != null) {
+      server.stop(0);
+      serverThreads.shutdown();
+    }
+    System.clearProperty(CdmS3Client.PATH_STYLE_ACCESS_PROP_NAME);
+    System.clearProperty("aws.accessKeyId");
+    System.clearProperty("aws.secretAccessKey");
+    System.clearProperty(S3TestsCommon.AWS_REGION_PROP_NAME);
+    CdmS3Client.enableCache(true);
+  }
+
+  private static void handle(HttpExchange exchange) throws IOException {
+    exchange.getResponseHeaders().set("ETag", "\"mock-etag\"");
+    exchange.getResponseHeaders().set("Last-Modified",
+        DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.of(2021, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC)));
+    exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+
+    if ("HEAD".equals(exchange.getRequestMethod())) {
+      exchange.getResponseHeaders().set("Content-Length", String.valueOf(contents.length));
+      exchange.sendResponseHeaders(200, -1);
+      exchange.close();
+      return;
+    }
+
+    gets.incrementAndGet();
+    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+    try {
+      Thread.sleep(50); // network latency, so that concurrent requests overlap
+      Matcher m = RANGE.matcher(exchange.getRequestHeaders().getFirst("Range"));
+      if (!m.matches()) {
+        exchange.sendResponseHeaders(400, -1);
+        return;
+      }
+      int start = Integer.parseInt(m.group(1));
+      int end = Math.min(Integer.parseInt(m.group(2)), contents.length - 1);
+      exchange.getResponseHeaders().set("Content-Range",
+          String.format("bytes %d-%d/%d", start, end, contents.length));
+      exchange.sendResponseHeaders(206, end - start + 1);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(contents, start, end - start + 1);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      inFlight.decrementAndGet();
+      exchange.close();
+    }
+  }
+
+  @Before
+  public void reset() {
+    RemoteBlockCache.setDefault(new RemoteBlockCache(64 * 1024 * 1024, Duration.ofMinutes(5), false));
+    gets.set(0);
+    maxInFlight.set(0);
+  }
+
+  private static RandomAccessFile open(String key) throws IOException {
+    int port = server.getAddress().getPort();
+    return new S3RandomAccessFile.Provider().open("cdms3://localhost:" + port + "/" + BUCKET + "?" + key);
+  }
+
+  private static void assertContents(ByteBuffer bb, FileRange range) {
+    byte[] b = new byte[bb.remaining()];
+    bb.get(b);
+    assertThat(b).isEqualTo(Arrays.copyOfRange(contents, (int) range.getOffset(), (int) range.getEnd()));
+  }
+
+  @Test
+  public void shouldFetchScatteredRangesConcurrently() throws IOException {
+    List<FileRange> ranges = new ArrayList<>();
+    for (int i = 6; i >= 0; i--) {
+      ranges.add(new FileRange(i * 600_000L, 1000)); // every other block or so
+    }
+    try (RandomAccessFile raf = open("scattered.bin")) {
+      List<ByteBuffer> result = raf.readVectored(ranges);
+      for (int i = 0; i < ranges.size(); i++) {
+        assertContents(result.get(i), ranges.get(i));
+      }
+      assertThat(gets.get()).isEqualTo(ranges.size());
+      assertThat(maxInFlight.get()).isGreaterThan(1);
+      assertThat(maxInFlight.get()).isAtMost(VectoredReads.getMaxInFlight());
+
+      // already in the cache
+      assertContents(raf.readByteBuffer(3 * 600_000L, 1000), new FileRange(3 * 600_000L, 1000));
+      assertThat(gets.get()).isEqualTo(ranges.size());
+    }
+  }
+
+  @Test
+  public void shouldMergeRangesInNearbyBlocks() throws IOException {
+    List<FileRange> ranges = Arrays.asList(new FileRange(BLOCK_SIZE + 10, 100), new FileRange(10, 100),
+        new FileRange(2 * BLOCK_SIZE + 5, 2 * BLOCK_SIZE));
+    try (RandomAccessFile raf = open("nearby.bin")) {
+      raf.prefetch(ranges);
+      assertThat(gets.get()).isEqualTo(1);
+
+      List<ByteBuffer> result = raf.readVectored(ranges);
+      for (int i = 0; i < ranges.size(); i++) {
+        assertContents(result.get(i), ranges.get(i));
+      }
+      assertThat(gets.get()).isEqualTo(1);
+    }
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.iosp.zarr;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+
+/** A Zarr store in a local directory, with one file per key. */
+class ZarrDirectoryStore implements ZarrStore {
+  private final Path root;
+
+  ZarrDirectoryStore(String location) throws IOException {
+    this.root = Paths.get(location);
+    if (Files.isDirectory(this.root) && !isEmpty(this.root)) {
+      if (!Files.exists(this.root.resolve(ZarrKeys.ZGROUP)) && !Files.exists(this.root.resolve(ZarrKeys.ZARRAY)))
+        throw new IOException("Directory is not empty and not a Zarr store: " + location);
+      deleteContents(this.root); // stale chunks and groups would otherwise be read back with the new ones
+    }
+    Files.createDirectories(this.root);
+  }
+
+  private static boolean isEmpty(Path dir) throws IOException {
+    try (Stream<Path> entries = Files.list(dir)) {
+      return !entries.findAny().isPresent();
+    }
+  }
+
+  private static void deleteContents(Path dir) throws IOException {
+    List<Path> paths;
+    try (Stream<Path> walk = Files.walk(dir)) {
+      paths = walk.filter(p -> !p.equals(dir)).sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+    }
+    for (Path p : paths)
+      Files.delete(p);
+  }
+
+  @Override
+  public void write(String key, byte[] data) throws IOException {
+    Path path = this.root.resolve(key);
+    Files.createDirectories(path.getParent());
+    Files.write(path, data);
+  }
+
+  @Nullable
+  @Override
+  public byte[] read(String key) throws IOException {
+    try {
+      return Files.readAllBytes(this.root.resolve(key));
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public void close() {} // nothing held open
+}
@@ -44,6 +44,7 @@ public class ZarrHeader {
     private RandomAccessDirectoryItem var;
     private ZArray zarray;
     private Map<Integer, Long> initializedChunks; // track any uninitialized chunks for var
+    private Map<Integer, Long> chunkOffsets; // byte position of each initialized chunk
     private List<Attribute> attrs; // list of variable attributes
     private long dataOffset; // byte position where data starts
 
@@ -55,6 +56,7 @@ public class ZarrHeader {
       this.var = var;
       this.attrs = null;
       this.initializedChunks = new HashMap<>();
+      this.chunkOffsets = new HashMap<>();
       this.dataOffset = -1;
       if (var != null) {
         try {
@@ -92,6 +94,8 @@ public class ZarrHeader {
         this.var = null; // skip rest of var is unrecognized files found
       }
       this.initializedChunks.put(index, item.length());
+      // chunk files are in path order, which is not chunk order when a dimension has 10 or more chunks
+      this.chunkOffsets.put(index, item.startIndex());
       // if data offset is uninitialized, set here
       if (this.dataOffset < 0) {
         this.dataOffset = item.startIndex();
@@ -103,7 +107,7 @@ public class ZarrHeader {
         return; // do nothing if no variable is in progress
       }
       try {
-        makeVariable(var, dataOffset, zarray, initializedChunks, attrs);
+        makeVariable(var, dataOffset, zarray, initializedChunks, chunkOffsets, attrs);
       } catch (ZarrFormatException ex) {
         ZarrIosp.logger.error(ex.getMessage());
       }
@@ -180,7 +184,8 @@ public class ZarrHeader {
   }
 
   private void makeVariable(RandomAccessDirectoryItem item, long dataOffset, ZArray zarray,
-      Map<Integer, Long> initializedChunks, List<Attribute> attrs) throws ZarrFormatException {
+      Map<Integer, Long> initializedChunks, Map<Integer, Long> chunkOffsets, List<Attribute> attrs)
+      throws ZarrFormatException {
     // make new Variable
     Variable.Builder var = Variable.builder();
     String location = ZarrUtils.trimLocation(item.getLocation());
@@ -212,7 +217,7 @@ public class ZarrHeader {
 
     // create VInfo
     VInfo vinfo = new VInfo(chunks, zarray.getFillValue(), zarray.getCompressor(), zarray.getByteOrder(),
-        zarray.getOrder(), zarray.getSeparator(), zarray.getFilters(), dataOffset, initializedChunks);
+        zarray.getOrder(), zarray.getSeparator(), zarray.getFilters(), dataOffset, initializedChunks, chunkOffsets);
     var.setSPobject(vinfo);
 
     // add current attributes, if any exist
@@ -264,6 +269,10 @@ public class ZarrHeader {
     }
 
     int nDims = zarray.getShape().length;
+    // scalar arrays have a single chunk, named 0
+    if (nDims == 0) {
+      return fileName.equals("0") ? 0 : -1;
+    }
     // verify is data file, else return -1
     String pattern = String.format("([0-9]+%c){%d}[0-9]+", zarray.getSeparator().charAt(0), nDims - 1);
     if (!fileName.matches(pattern)) {
@@ -279,7 +288,7 @@ public class ZarrHeader {
     int[] shape = zarray.getShape();
     int[] chunkSize = zarray.getChunks();
     for (int i = 0; i < nDims; i++) {
-      nChunks[i] = (int) Math.ceil(shape[i] / chunkSize[i]);
+      nChunks[i] = (shape[i] + chunkSize[i] - 1) / chunkSize[i];
     }
     return ZarrUtils.subscriptsToIndex(subs, nChunks);
   }
@@ -308,9 +317,10 @@ public class ZarrHeader {
     private final List<Filter> filters;
     private final long offset;
     private final Map<Integer, Long> initializedChunks;
+    private final Map<Integer, Long> chunkOffsets;
 
     VInfo(int[] chunks, Object fillValue, Filter compressor, ByteOrder byteOrder, ZArray.Order order, String separator,
-        List<Filter> filters, long offset, Map<Integer, Long> initializedChunks) {
+        List<Filter> filters, long offset, Map<Integer, Long> initializedChunks, Map<Integer, Long> chunkOffsets) {
       this.chunks = chunks;
       this.fillValue = fillValue;
       this.byteOrder = byteOrder;
@@ -320,6 +330,7 @@ public class ZarrHeader {
       this.filters = filters;
       this.offset = offset;
       this.initializedChunks = initializedChunks;
+      this.chunkOffsets = chunkOffsets;
     }
 
     public int[] getChunks() {
@@ -358,6 +369,10 @@ public class ZarrHeader {
       return this.initializedChunks;
     }
 
+    public Map<Integer, Long> getChunkOffsets() {
+      return this.chunkOffsets;
+    }
+
   }
 
 }
@@ -32,6 +32,22 @@ public class ZarrIosp extends AbstractIOServiceProvider {
   private static final String fileTypeDescription = "Zarr v2 formatted dataset";
 
   private ZarrHeader header;
+  int parallelism; // chunks read (or written) concurrently; 0 means the default
+
+  /**
+   * Set the number of chunks fetched and decoded concurrently by each read of this dataset.
+   *
+   * @param parallelism must be > 0; 1 means read serially on the calling thread
+   */
+  public void setParallelism(int parallelism) {
+    if (parallelism <= 0)
+      throw new IllegalArgumentException("parallelism must be > 0");
+    this.parallelism = parallelism;
+  }
+
+  public int getParallelism() {
+    return parallelism > 0 ? parallelism : ZarrLayoutBB.getDefaultParallelism();
+  }
 
   @Override
   public boolean isValidFile(RandomAccessFile raf) {
@@ -73,7 +89,7 @@ public class ZarrIosp extends AbstractIOServiceProvider {
     Object fillValue = getFillValue(vinfo, dataType);
 
     // create layout object
-    Layout layout = new ZarrLayoutBB(v2, section, this.raf);
+    Layout layout = new ZarrLayoutBB(v2, section, this.raf, getParallelism());
     Object data = IospHelper.readDataFill((LayoutBB) layout, dataType, fillValue);
 
     Array array = Array.factory(dataType, section.getShape(), data);
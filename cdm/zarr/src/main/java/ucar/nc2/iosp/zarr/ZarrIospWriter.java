@@ -0,0 +1,677 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.iosp.zarr;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
+import ucar.ma2.Section;
+import ucar.ma2.StructureData;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.Group;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Structure;
+import ucar.nc2.Variable;
+import ucar.nc2.constants.CDM;
+import ucar.nc2.filter.Filter;
+import ucar.nc2.filter.Filters;
+import ucar.nc2.filter.UnknownFilterException;
+import ucar.nc2.iosp.IOServiceProviderWriter;
+import ucar.nc2.util.CancelTask;
+import ucar.nc2.util.Concurrency;
+import ucar.nc2.write.Nc4Chunking;
+import ucar.nc2.write.Nc4ChunkingDefault;
+import ucar.unidata.io.RandomAccessFile;
+
+/**
+ * IOServiceProviderWriter for Zarr v2 stores, in a local directory or, through the cdm-s3 module, an S3 compatible
+ * object store given as a cdms3 uri.
+ * <p>
+ * Chunk shapes, the zlib compression level and shuffling come from an {@link Nc4Chunking}, and chunks are encoded
+ * with the {@link ucar.nc2.filter} codecs. Data is gathered into chunks in memory; as soon as all the values of a
+ * chunk have been written, it is encoded and stored on a shared pool, with up to parallelism chunks in flight.
+ * Along unlimited dimensions a chunk is only complete when it is full, so records are gathered until then.
+ * Chunks only partly written are stored on {@link #flush()}, with the fill value for the rest, and stay in memory.
+ * Writing again to a chunk that was completed and stored reads it back first.
+ * <p>
+ * Groups, attributes and dimension names, as the {@code _ARRAY_DIMENSIONS} attribute, are written.
+ * Structures, Strings, enums and variable length data are not supported, and only new stores can be written.
+ */
+public class ZarrIospWriter extends ZarrIosp implements IOServiceProviderWriter {
+  // System property name for -D flag; number of chunks encoded and stored concurrently
+  static final String PARALLELISM = "unidata.zarr.write.parallelism";
+  static final String ARRAY_DIMENSIONS = "_ARRAY_DIMENSIONS";
+  private static final int ZARR_FORMAT = 2;
+
+  private static volatile int defaultParallelism =
+      Concurrency.getIntProperty(PARALLELISM, Runtime.getRuntime().availableProcessors(), 1);
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  /**
+   * Set the number of chunks encoded and stored concurrently, for writers that don't specify it.
+   * Default is the number of available processors.
+   *
+   * @param parallelism number of chunks in flight, must be > 0
+   */
+  public static void setDefaultParallelism(int parallelism) {
+    if (parallelism <= 0)
+      throw new IllegalArgumentException("parallelism must be > 0");
+    defaultParallelism = parallelism;
+  }
+
+  public static int getDefaultParallelism() {
+    return defaultParallelism;
+  }
+
+  // stores may be remote, so the pool is not bounded by the number of processors;
+  // each writer bounds the number of its chunks in flight
+  private static ExecutorService getWritePool() {
+    return Concurrency.getSharedPool("ZarrIospWriter-encode");
+  }
+
+  private Nc4Chunking chunker = new Nc4ChunkingDefault();
+  private boolean fill = true;
+  private ZarrStore store;
+  private final Map<String, VarWriter> varWriters = new HashMap<>(); // by full name
+  private final CompletionService<Void> completionService = new ExecutorCompletionService<>(getWritePool());
+  private int inFlight; // number of chunks submitted but not yet stored
+
+  /** Set the strategy for chunk shapes and compression. Null means use the default, {@link Nc4ChunkingDefault}. */
+  public void setChunker(Nc4Chunking chunker) {
+    this.chunker = chunker != null ? chunker : new Nc4ChunkingDefault();
+  }
+
+  /** Number of chunks encoded and stored concurrently by this writer. */
+  @Override
+  public int getParallelism() {
+    return parallelism > 0 ? parallelism : defaultParallelism;
+  }
+
+  @Override
+  public void create(String filename, NetcdfFile ncfile, int extra, long preallocateSize, boolean largeFile)
+      throws IOException {
+    this.ncfile = ncfile;
+    this.location = filename;
+    this.store = ZarrStore.create(filename);
+    createGroup(ncfile.getRootGroup());
+  }
+
+  @Override
+  public void openForWriting(RandomAccessFile raf, NetcdfFile ncfile, CancelTask cancelTask) {
+    throw new UnsupportedOperationException("Zarr stores can only be written as new files");
+  }
+
+  @Override
+  public void setFill(boolean fill) {
+    this.fill = fill;
+  }
+
+  @Override
+  public synchronized void writeData(Variable v2, Section section, Array values)
+      throws IOException, InvalidRangeException {
+    VarWriter vw = varWriters.get(v2.getFullName());
+    if (vw == null)
+      throw new IllegalArgumentException("Variable " + v2.getFullName() + " is not in this Zarr store");
+    vw.write(section, values);
+  }
+
+  @Override
+  public int appendStructureData(Structure s, StructureData sdata) {
+    throw new UnsupportedOperationException("Zarr writer does not support Structures");
+  }
+
+  @Override
+  public boolean rewriteHeader(boolean largeFile) {
+    return false; // metadata is in separate objects, and is rewritten as needed
+  }
+
+  @Override
+  public synchronized void updateAttribute(Variable v2, Attribute att) throws IOException {
+    Iterable<Attribute> current = v2 == null ? ncfile.getRootGroup().attributes() : v2.attributes();
+    Map<String, Object> attrs = new LinkedHashMap<>();
+    for (Attribute a : current)
+      attrs.put(a.getShortName(), attributeValue(a));
+    attrs.put(att.getShortName(), attributeValue(att));
+    if (v2 == null) {
+      store.write(ZarrKeys.ZATTRS, objectMapper.writeValueAsBytes(attrs));
+    } else {
+      VarWriter vw = varWriters.get(v2.getFullName());
+      attrs.put(ARRAY_DIMENSIONS, vw.dimNames);
+      store.write(vw.path + ZarrKeys.ZATTRS, objectMapper.writeValueAsBytes(attrs));
+    }
+  }
+
+  /** Store all the chunks written so far, including those only partly written, and wait for them. */
+  @Override
+  public synchronized void flush() throws IOException {
+    if (store == null)
+      return;
+    for (VarWriter vw : varWriters.values())
+      vw.flush();
+    drain();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      if (store != null) {
+        store.close();
+        store = null;
+      }
+      super.close();
+    }
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////////////////////
+  // metadata
+
+  private void createGroup(Group group) throws IOException {
+    String path = groupPath(group);
+    Map<String, Object> zgroup = new LinkedHashMap<>();
+    zgroup.put("zarr_format", ZARR_FORMAT);
+    store.write(path + ZarrKeys.ZGROUP, objectMapper.writeValueAsBytes(zgroup));
+    Map<String, Object> attrs = attributeMap(group.attributes());
+    if (!attrs.isEmpty())
+      store.write(path + ZarrKeys.ZATTRS, objectMapper.writeValueAsBytes(attrs));
+
+    for (Variable v : group.getVariables()) {
+      VarWriter vw = new VarWriter(v, path + v.getShortName() + "/");
+      vw.writeZarray();
+      Map<String, Object> varAttrs = attributeMap(v.attributes());
+      varAttrs.put(ARRAY_DIMENSIONS, vw.dimNames);
+      store.write(vw.path + ZarrKeys.ZATTRS, objectMapper.writeValueAsBytes(varAttrs));
+      varWriters.put(v.getFullName(), vw);
+    }
+    for (Group nested : group.getGroups())
+      createGroup(nested);
+  }
+
+  // key prefix of the group in the store, e.g. "" for the root group, "outer/inner/" for a nested group
+  private static String groupPath(Group group) {
+    if (group.isRoot())
+      return "";
+    return groupPath(group.getParentGroup()) + group.getShortName() + "/";
+  }
+
+  private static Map<String, Object> attributeMap(Iterable<Attribute> attributes) {
+    Map<String, Object> result = new LinkedHashMap<>();
+    for (Attribute att : attributes)
+      result.put(att.getShortName(), attributeValue(att));
+    return result;
+  }
+
+  private static Object attributeValue(Attribute att) {
+    List<Object> values = new ArrayList<>();
+    for (int i = 0; i < att.getLength(); i++)
+      values.add(att.isString() ? att.getStringValue(i) : jsonNumber(att.getNumericValue(i)));
+    return values.size() == 1 ? values.get(0) : values;
+  }
+
+  // Zarr encodes non finite floating point numbers as strings
+  private static Object jsonNumber(Number value) {
+    if (value instanceof Float || value instanceof Double) {
+      double d = value.doubleValue();
+      if (Double.isNaN(d))
+        return "NaN";
+      if (Double.isInfinite(d))
+        return d > 0 ? "Infinity" : "-Infinity";
+    }
+    return value;
+  }
+
+  private static String dtype(DataType dataType) {
+    switch (dataType) {
+      case BYTE:
+        return "|i1";
+      case UBYTE:
+        return "|u1";
+      case CHAR:
+        return "|S1";
+      case SHORT:
+        return "<i2";
+      case USHORT:
+        return "<u2";
+      case INT:
+        return "<i4";
+      case UINT:
+        return "<u4";
+      case LONG:
+        return "<i8";
+      case ULONG:
+        return "<u8";
+      case FLOAT:
+        return "<f4";
+      case DOUBLE:
+        return "<f8";
+      default:
+        throw new IllegalArgumentException("Zarr writer does not support data type " + dataType);
+    }
+  }
+
+  // the netCDF default fill values
+  private static Number defaultFillValue(DataType dataType) {
+    switch (dataType) {
+      case BYTE:
+        return (byte) -127;
+      case UBYTE:
+        return 255;
+      case SHORT:
+        return (short) -32767;
+      case USHORT:
+        return 65535;
+      case INT:
+        return -2147483647;
+      case UINT:
+        return 4294967295L;
+      case LONG:
+        return -9223372036854775806L;
+      case FLOAT:
+        return 9.9692099683868690e+36f;
+      case DOUBLE:
+        return 9.9692099683868690e+36;
+      default:
+        return null; // CHAR and ULONG
+    }
+  }
+
+  ////////////////////////////////////////////////////////////////////////////////////////////////
+  // chunks in flight
+
+  private void submit(Callable<Void> task) throws IOException {
+    while (inFlight >= getParallelism())
+      waitForOne();
+    completionService.submit(task);
+    inFlight++;
+  }
+
+  private void drain() throws IOException {
+    while (inFlight > 0)
+      waitForOne();
+  }
+
+  private void waitForOne() throws IOException {
+    try {
+      Concurrency.takeResult(completionService);
+    } finally {
+      inFlight--;
+    }
+  }
+
+  /** Gathers the data written to one variable into chunks, and stores them. */
+  private class VarWriter {
+    final String path; // key prefix in the store, ending in "/"
+    final String name;
+    final DataType dataType;
+    final int elemSize;
+    final int[] shape; // unlimited dimensions grow as data is written
+    final boolean[] unlimited;
+    final int[] chunks;
+    final List<String> dimNames = new ArrayList<>();
+    final Map<String, Object> compressorConfig;
+    final List<Map<String, Object>> filterConfigs = new ArrayList<>();
+    final Filter compressor;
+    final List<Filter> filters = new ArrayList<>();
+    final Number fillValue;
+    final Map<String, PendingChunk> pending = new HashMap<>(); // by chunk key
+    final Set<String> stored = new HashSet<>(); // chunk keys
+    boolean shapeChanged;
+
+    VarWriter(Variable v, String path) throws IOException {
+      if (v instanceof Structure)
+        throw new IllegalArgumentException("Zarr writer does not support Structures: " + v.getFullName());
+      this.path = path;
+      this.name = v.getFullName();
+      this.dataType = v.getDataType();
+      dtype(this.dataType); // check it is supported
+      this.elemSize = this.dataType.getSize();
+      this.shape = v.getShape();
+      int rank = shape.length;
+      this.unlimited = new boolean[rank];
+      for (int i = 0; i < rank; i++) {
+        Dimension dim = v.getDimension(i);
+        this.unlimited[i] = dim.isUnlimited();
+        this.dimNames.add(dim.getShortName() != null ? dim.getShortName() : String.format("dim%d", i));
+      }
+
+      // chunk shape
+      this.chunks = new int[rank];
+      long[] computed = chunker.isChunked(v) ? chunker.computeChunking(v) : null;
+      long chunkBytes = elemSize;
+      for (int i = 0; i < rank; i++) {
+        long size = computed != null && i < computed.length ? computed[i] : shape[i];
+        this.chunks[i] = (int) Math.max(1, Math.min(size, Integer.MAX_VALUE));
+        chunkBytes *= this.chunks[i];
+      }
+      if (chunkBytes > Integer.MAX_VALUE - 8)
+        throw new IllegalArgumentException("Chunks of " + name + " would be larger than 2 GB");
+
+      // codecs
+      int level = chunker.getDeflateLevel(v);
+      if (level > 0) {
+        this.compressorConfig = new LinkedHashMap<>();
+        this.compressorConfig.put(Filters.Keys.NAME, "zlib");
+        this.compressorConfig.put("level", level);
+        if (chunker.isShuffle(v) && elemSize > 1) {
+          Map<String, Object> shuffle = new LinkedHashMap<>();
+          shuffle.put(Filters.Keys.NAME, "shuffle");
+          shuffle.put(Filters.Keys.ELEM_SIZE, elemSize);
+          this.filterConfigs.add(shuffle);
+        }
+      } else {
+        this.compressorConfig = null;
+      }
+      try {
+        this.compressor = Filters.getFilter(compressorConfig);
+        for (Map<String, Object> config : filterConfigs)
+          this.filters.add(Filters.getFilter(config));
+      } catch (UnknownFilterException e) {
+        throw new IOException(e);
+      }
+
+      // fill value
+      Attribute fillAtt = v.findAttribute(CDM.FILL_VALUE);
+      this.fillValue = fillAtt != null && !fillAtt.isString() ? fillAtt.getNumericValue() : defaultFillValue(dataType);
+    }
+
+    void writeZarray() throws IOException {
+      Map<String, Object> zarray = new LinkedHashMap<>();
+      zarray.put("zarr_format", ZARR_FORMAT);
+      zarray.put(ZarrKeys.SHAPE, shape);
+      zarray.put(ZarrKeys.CHUNKS, chunks);
+      zarray.put(ZarrKeys.DTYPE, dtype(dataType));
+      zarray.put(ZarrKeys.COMPRESSOR, compressorConfig);
+      zarray.put(ZarrKeys.FILL_VALUE, fillValue == null ? null : jsonNumber(fillValue));
+      zarray.put(ZarrKeys.ORDER, ZArray.Order.C.name());
+      zarray.put(ZarrKeys.FILTERS, filterConfigs.isEmpty() ? null : filterConfigs);
+      zarray.put(ZarrKeys.DIMENSION_SEPARATOR, ZArray.DEFAULT_SEPARATOR);
+      store.write(path + ZarrKeys.ZARRAY, objectMapper.writeValueAsBytes(zarray));
+    }
+
+    void write(Section section, Array values) throws IOException, InvalidRangeException {
+      int rank = shape.length;
+      if (section.getRank() != rank)
+        throw new InvalidRangeException("Section " + section + " does not match the rank of " + name);
+      for (Range r : section.getRanges()) {
+        if (r.stride() != 1)
+          throw new InvalidRangeException("Zarr writer does not support strided sections: " + section);
+      }
+      int[] origin = section.getOrigin();
+      int[] count = section.getShape();
+      if (section.computeSize() == 0)
+        return;
+      for (int i = 0; i < rank; i++) {
+        int end = origin[i] + count[i];
+        if (end > shape[i]) {
+          if (!unlimited[i])
+            throw new InvalidRangeException("Section " + section + " is outside of " + name);
+          shape[i] = end;
+          shapeChanged = true;
+        }
+      }
+
+      ByteBuffer src = toBytes(values);
+      int[] first = new int[rank];
+      int[] last = new int[rank];
+      for (int i = 0; i < rank; i++) {
+        first[i] = origin[i] / chunks[i];
+        last[i] = (origin[i] + count[i] - 1) / chunks[i];
+      }
+      int[] chunk = first.clone();
+      do {
+        writeChunk(chunk, origin, count, src);
+      } while (increment(chunk, first, last));
+    }
+
+    // copy the part of src that falls in the chunk, and store the chunk if all of it has been written
+    private void writeChunk(int[] chunk, int[] origin, int[] count, ByteBuffer src) throws IOException {
+      int rank = chunk.length;
+      String key = chunkKey(chunk);
+      PendingChunk pc = pending.get(key);
+      if (pc == null) {
+        pc = new PendingChunk(stored.contains(key) ? load(key) : newChunk());
+        pending.put(key, pc);
+      }
+
+      // intersection of the section and the chunk
+      int[] lo = new int[rank];
+      int[] n = new int[rank];
+      long nelems = 1;
+      for (int i = 0; i < rank; i++) {
+        int chunkStart = chunk[i] * chunks[i];
+        lo[i] = Math.max(origin[i], chunkStart);
+        n[i] = Math.min(origin[i] + count[i], chunkStart + chunks[i]) - lo[i];
+        nelems *= n[i];
+      }
+
+      // copy a row at a time, the last dimension is contiguous in both
+      int rowBytes = (rank == 0 ? 1 : n[rank - 1]) * elemSize;
+      int[] row = new int[rank];
+      do {
+        long srcIndex = 0;
+        long dstIndex = 0;
+        for (int i = 0; i < rank; i++) {
+          srcIndex = srcIndex * count[i] + (lo[i] + row[i] - origin[i]);
+          dstIndex = dstIndex * chunks[i] + (lo[i] + row[i] - chunk[i] * chunks[i]);
+        }
+        src.position((int) (srcIndex * elemSize));
+        src.get(pc.data, (int) (dstIndex * elemSize), rowBytes);
+      } while (incrementRow(row, n));
+
+      pc.nwritten += nelems;
+      if (pc.nwritten >= elementsToComplete(chunk)) {
+        pending.remove(key);
+        storeChunk(key, pc.data);
+      }
+    }
+
+    // partly written chunks are kept, so that later records don't read them back; the copy is stored
+    void flush() throws IOException {
+      for (Map.Entry<String, PendingChunk> entry : pending.entrySet())
+        storeChunk(entry.getKey(), entry.getValue().data.clone());
+      if (shapeChanged) {
+        writeZarray();
+        shapeChanged = false;
+      }
+    }
+
+    private void storeChunk(String key, byte[] data) throws IOException {
+      stored.add(key);
+      submit(() -> {
+        store.write(path + key, encode(data));
+        return null;
+      });
+    }
+
+    private byte[] encode(byte[] data) throws IOException {
+      for (Filter filter : filters)
+        data = filter.encode(data);
+      return compressor.encode(data);
+    }
+
+    // read back a chunk that was already stored
+    private byte[] load(String key) throws IOException {
+      drain(); // it may still be in flight
+      byte[] data = store.read(path + key);
+      if (data == null)
+        return newChunk();
+      data = compressor.decode(data);
+      for (int i = filters.size() - 1; i >= 0; i--)
+        data = filters.get(i).decode(data);
+      if (data.length != chunkElements() * elemSize)
+        throw new IOException("Stored chunk " + path + key + " has the wrong size");
+      return data;
+    }
+
+    // a chunk filled with the fill value, unless fill was turned off
+    private byte[] newChunk() {
+      byte[] data = new byte[chunkElements() * elemSize];
+      if (!fill || fillValue == null)
+        return data;
+      ByteBuffer bb = ByteBuffer.allocate(elemSize).order(ByteOrder.LITTLE_ENDIAN);
+      putElement(bb, fillValue);
+      byte[] fillElem = bb.array();
+      boolean zero = true;
+      for (byte b : fillElem)
+        zero &= b == 0;
+      if (!zero && data.length > 0) {
+        System.arraycopy(fillElem, 0, data, 0, elemSize);
+        for (int filled = elemSize; filled < data.length; filled *= 2)
+          System.arraycopy(data, 0, data, filled, Math.min(filled, data.length - filled));
+      }
+      return data;
+    }
+
+    private int chunkElements() {
+      int result = 1;
+      for (int c : chunks)
+        result *= c;
+      return result;
+    }
+
+    // number of elements to write before the chunk is complete: those inside the shape, and all of its extent along
+    // unlimited dimensions, which may still grow
+    private long elementsToComplete(int[] chunk) {
+      long result = 1;
+      for (int i = 0; i < chunk.length; i++) {
+        if (unlimited[i])
+          result *= chunks[i];
+        else
+          result *= Math.max(0, Math.min(chunks[i], shape[i] - chunk[i] * chunks[i]));
+      }
+      return result;
+    }
+
+    private String chunkKey(int[] chunk) {
+      if (chunk.length == 0)
+        return "0";
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < chunk.length; i++) {
+        if (i > 0)
+          sb.append(ZArray.DEFAULT_SEPARATOR);
+        sb.append(chunk[i]);
+      }
+      return sb.toString();
+    }
+
+    // values in C order, as stored
+    private ByteBuffer toBytes(Array values) {
+      ByteBuffer bb = ByteBuffer.allocate((int) values.getSize() * elemSize).order(ByteOrder.LITTLE_ENDIAN);
+      switch (dataType) {
+        case BYTE:
+        case UBYTE:
+          bb.put((byte[]) values.get1DJavaArray(dataType));
+          break;
+        case CHAR:
+          for (char c : (char[]) values.get1DJavaArray(dataType))
+            bb.put((byte) c);
+          break;
+        case SHORT:
+        case USHORT:
+          bb.asShortBuffer().put((short[]) values.get1DJavaArray(dataType));
+          break;
+        case INT:
+        case UINT:
+          bb.asIntBuffer().put((int[]) values.get1DJavaArray(dataType));
+          break;
+        case LONG:
+        case ULONG:
+          bb.asLongBuffer().put((long[]) values.get1DJavaArray(dataType));
+          break;
+        case FLOAT:
+          bb.asFloatBuffer().put((float[]) values.get1DJavaArray(dataType));
+          break;
+        case DOUBLE:
+          bb.asDoubleBuffer().put((double[]) values.get1DJavaArray(dataType));
+          break;
+        default:
+          throw new IllegalArgumentException("Zarr writer does not support data type " + dataType);
+      }
+      bb.rewind();
+      return bb;
+    }
+
+    private void putElement(ByteBuffer bb, Number value) {
+      switch (dataType) {
+        case BYTE:
+        case UBYTE:
+          bb.put(value.byteValue());
+          break;
+        case SHORT:
+        case USHORT:
+          bb.putShort(value.shortValue());
+          break;
+        case INT:
+        case UINT:
+          bb.putInt(value.intValue());
+          break;
+        case LONG:
+        case ULONG:
+          bb.putLong(value.longValue());
+          break;
+        case FLOAT:
+          bb.putFloat(value.floatValue());
+          break;
+        case DOUBLE:
+          bb.putDouble(value.doubleValue());
+          break;
+        default:
+          bb.put((byte) 0);
+      }
+    }
+  }
+
+  private static class PendingChunk {
+    final byte[] data;
+    long nwritten; // elements written, may count some more than once
+
+    PendingChunk(byte[] data) {
+      this.data = data;
+    }
+  }
+
+  // odometer over the chunk indices from first to last inclusive; false when done
+  private static boolean increment(int[] counter, int[] first, int[] last) {
+    for (int i = counter.length - 1; i >= 0; i--) {
+      if (counter[i] < last[i]) {
+        counter[i]++;
+        return true;
+      }
+      counter[i] = first[i];
+    }
+    return false;
+  }
+
+  // odometer over all but the last dimension of a shape; false when done
+  private static boolean incrementRow(int[] row, int[] shape) {
+    for (int i = row.length - 2; i >= 0; i--) {
+      if (row[i] + 1 < shape[i]) {
+        row[i]++;
+        return true;
+      }
+      row[i] = 0;
+    }
+    return false;
+  }
+}
@@ -1,29 +1,79 @@
 package ucar.nc2.iosp.zarr;
 
+import ucar.ma2.InvalidRangeException;
 import ucar.ma2.Range;
 import ucar.ma2.Section;
 import ucar.nc2.Dimension;
 import ucar.nc2.Variable;
 import ucar.nc2.filter.Filter;
+import ucar.nc2.iosp.ChunkCache;
 import ucar.nc2.iosp.LayoutBB;
 import ucar.nc2.iosp.LayoutBBTiled;
+import ucar.nc2.util.Concurrency;
+import ucar.unidata.io.FileRange;
 import ucar.unidata.io.RandomAccessFile;
+import ucar.unidata.io.zarr.RandomAccessDirectory;
+import ucar.unidata.io.zarr.RandomAccessDirectoryItem;
 
 import java.io.IOException;
 import java.nio.*;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
 
 /**
- * A tiled layout for Zarr formats that accommodates uncompressing and filtering data before returning
+ * A tiled layout for Zarr formats that accommodates uncompressing and filtering data before returning.
+ * The chunks that intersect the wanted section are passed to {@link RandomAccessFile#prefetch(List)} in batches
+ * ahead of reading them, so that remote stores fetch them concurrently.
+ * <p>
+ * If the parallelism is greater than 1, up to that many chunks are fetched and decoded at once on a shared pool,
+ * and returned in the order they complete. When each chunk is its own file in a {@link RandomAccessDirectory},
+ * the worker reads the chunk file itself; otherwise raw chunks are read on the calling thread and only decoded on
+ * the pool. Decoded chunks are kept in the shared {@link ChunkCache}, unless the file holding them has no
+ * {@link RandomAccessFile#getContentVersion() content version}.
  */
 public class ZarrLayoutBB implements LayoutBB {
+  // bytes of chunks passed to one RandomAccessFile.prefetch() call
+  static final int PREFETCH_SIZE = 16 * 1024 * 1024;
+  // System property name for -D flag; number of chunks fetched and decoded concurrently for one read
+  static final String PARALLELISM = "unidata.zarr.read.parallelism";
+
+  private static volatile int defaultParallelism =
+      Concurrency.getIntProperty(PARALLELISM, Runtime.getRuntime().availableProcessors(), 1);
+
+  /**
+   * Set the number of chunks fetched and decoded concurrently, for reads that don't specify it.
+   * Default is the number of available processors.
+   *
+   * @param parallelism number of chunks read concurrently, must be > 0; 1 means read serially on the calling thread
+   */
+  public static void setDefaultParallelism(int parallelism) {
+    if (parallelism <= 0)
+      throw new IllegalArgumentException("parallelism must be > 0");
+    defaultParallelism = parallelism;
+  }
+
+  public static int getDefaultParallelism() {
+    return defaultParallelism;
+  }
+
+  // threads are mostly waiting on I/O for remote stores, so the pool is not bounded by the number of processors;
+  // each read bounds the number of its chunks in flight
+  private static ExecutorService getReadPool() {
+    return Concurrency.getSharedPool("ZarrLayoutBB-read");
+  }
 
   private LayoutBBTiled delegate;
 
   private RandomAccessFile raf;
+  private final String varName; // full name, part of the chunk cache keys
+  private RandomAccessDirectory directory; // raf, if each chunk may be its own file
+  private String contentVersion; // of raf, when it is not a directory; found on first use
+  private boolean contentVersionFound;
   private ByteOrder byteOrder;
   private final long varOffset; // start of variable data in raf
   private final Section want;
@@ -34,12 +84,37 @@ public class ZarrLayoutBB implements LayoutBB {
   private int totalNChunks; // total number of chunks
   private boolean F_order = false; // F order storage?
   private Map<Integer, Long> initializedChunks; // set of chunks that exist as files and their compressed size
+  private Map<Integer, Long> chunkOffsets; // start of each initialized chunk in raf
   private Filter compressor;
   private List<Filter> filters;
 
+  /**
+   * Constructor, using the default parallelism.
+   *
+   * @param v2 Variable to read
+   * @param wantSection the wanted section of data
+   * @param raf the RandomAccessFile of the store
+   */
   public ZarrLayoutBB(Variable v2, Section wantSection, RandomAccessFile raf) {
+    this(v2, wantSection, raf, defaultParallelism);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param v2 Variable to read
+   * @param wantSection the wanted section of data
+   * @param raf the RandomAccessFile of the store
+   * @param parallelism number of chunks fetched and decoded concurrently; 1 means read serially on the calling thread
+   */
+  public ZarrLayoutBB(Variable v2, Section wantSection, RandomAccessFile raf, int parallelism) {
+    if (parallelism <= 0)
+      throw new IllegalArgumentException("parallelism must be > 0");
     // var data info
     this.raf = raf;
+    this.varName = v2.getFullName();
+    if (raf instanceof RandomAccessDirectory)
+      this.directory = (RandomAccessDirectory) raf;
     ZarrHeader.VInfo vinfo = (ZarrHeader.VInfo) v2.getSPobject();
     this.byteOrder = vinfo.getByteOrder();
     this.varOffset = vinfo.getOffset();
@@ -51,12 +126,13 @@ public class ZarrLayoutBB implements LayoutBB {
     this.chunkSize = vinfo.getChunks();
     int ndims = this.chunkSize.length;
     this.initializedChunks = vinfo.getInitializedChunks();
+    this.chunkOffsets = vinfo.getChunkOffsets();
     this.nChunks = new int[ndims];
     this.totalNChunks = 1;
     for (int i = 0; i < ndims; i++) {
       Dimension dim = v2.getDimension(i);
       // round up nchunks if not evenly divisible by chunk size
-      this.nChunks[i] = (int) Math.ceil(dim.getLength() / this.chunkSize[i]);
+      this.nChunks[i] = (dim.getLength() + this.chunkSize[i] - 1) / this.chunkSize[i];
       this.totalNChunks *= nChunks[i];
     }
 
@@ -79,7 +155,11 @@ public class ZarrLayoutBB implements LayoutBB {
     this.elemSize = v2.getDataType().getSize();
 
     // create delegate and chunk iterator
-    ZarrLayoutBB.DataChunkIterator iter = new ZarrLayoutBB.DataChunkIterator();
+    LayoutBBTiled.DataChunkIterator iter;
+    if (parallelism > 1)
+      iter = new ParallelDataChunkIterator(parallelism);
+    else
+      iter = new PrefetchDataChunkIterator();
     delegate = new LayoutBBTiled(iter, chunkSize, elemSize, this.want);
   }
 
@@ -107,26 +187,28 @@ public class ZarrLayoutBB implements LayoutBB {
 
     private int[] currChunk; // current chunk in subscript coords
     private int chunkNum; // current chunk as flat index
-    private long currOffset; // byte position of current chunk
-
 
     DataChunkIterator() {
       this.currChunk = new int[chunkSize.length];
       this.chunkNum = 0;
-      this.currOffset = varOffset; // start at start of variable data
     }
 
     public boolean hasNext() {
       return this.chunkNum < totalNChunks;
     }
 
-    public LayoutBBTiled.DataChunk next() {
-      DataChunk chunk = new ZarrLayoutBB.DataChunk(this.currChunk, this.chunkNum, this.currOffset);
+    public DataChunk next() {
+      DataChunk chunk = new ZarrLayoutBB.DataChunk(this.currChunk, this.chunkNum,
+          chunkOffsets.getOrDefault(this.chunkNum, varOffset));
       incrementChunk();
       return chunk;
     }
 
     private void incrementChunk() {
+      if (this.currChunk.length == 0) { // scalar, only one chunk
+        this.chunkNum++;
+        return;
+      }
       // increment index from inner dimension outward
       int i = this.currChunk.length - 1;
       while (this.currChunk[i] + 1 >= nChunks[i] && i > 0) {
@@ -134,18 +216,120 @@ public class ZarrLayoutBB implements LayoutBB {
         i--;
       }
       this.currChunk[i]++;
-      this.currOffset += initializedChunks.getOrDefault(this.chunkNum, (long) 0);
       this.chunkNum = ZarrUtils.subscriptsToIndex(this.currChunk, nChunks);
     }
   }
 
+  // initialized chunks that intersect the wanted section, in store order
+  private List<DataChunk> findWantedChunks() throws IOException {
+    List<DataChunk> result = new ArrayList<>();
+    DataChunkIterator iter = new DataChunkIterator();
+    try {
+      while (iter.hasNext()) {
+        DataChunk chunk = iter.next();
+        if (chunk.length() > 0 && new Section(chunk.getOffset(), chunkSize).intersects(want))
+          result.add(chunk);
+      }
+    } catch (InvalidRangeException e) {
+      throw new IOException(e);
+    }
+    return result;
+  }
+
+  // pass the chunks starting at from, up to PREFETCH_SIZE bytes, to raf.prefetch(); return the index after the last
+  private int prefetch(List<DataChunk> chunks, int from) throws IOException {
+    List<FileRange> ranges = new ArrayList<>();
+    long bytes = 0;
+    int i = from;
+    for (; i < chunks.size() && (ranges.isEmpty() || bytes + chunks.get(i).length() <= PREFETCH_SIZE); i++) {
+      DataChunk chunk = chunks.get(i);
+      ranges.add(new FileRange(chunk.rafOffset, (int) chunk.length()));
+      bytes += chunk.length();
+    }
+    raf.prefetch(ranges);
+    return i;
+  }
+
+  /** Prefetches the wanted chunks, in batches, as the iteration reaches them. */
+  private class PrefetchDataChunkIterator implements LayoutBBTiled.DataChunkIterator {
+    private final DataChunkIterator delegate = new DataChunkIterator();
+    private List<DataChunk> wanted; // found on first next()
+    private int nextWanted; // index in wanted of the next wanted chunk to be returned
+    private int prefetched; // number of wanted chunks passed to raf.prefetch()
+
+    public boolean hasNext() {
+      return delegate.hasNext();
+    }
+
+    public LayoutBBTiled.DataChunk next() throws IOException {
+      if (wanted == null)
+        wanted = findWantedChunks();
+      DataChunk chunk = delegate.next();
+      if (nextWanted < wanted.size() && wanted.get(nextWanted).chunkNum == chunk.chunkNum) {
+        if (nextWanted >= prefetched)
+          prefetched = prefetch(wanted, nextWanted);
+        nextWanted++;
+      }
+      return chunk;
+    }
+  }
+
+  /**
+   * Returns only the wanted chunks, in the order they are read; the others would be skipped, since the result is
+   * already filled with the fill value. At most parallelism chunks are in flight at any one time, which bounds the
+   * memory used.
+   */
+  private class ParallelDataChunkIterator implements LayoutBBTiled.DataChunkIterator {
+    private final CompletionService<DataChunk> completionService;
+    private final int parallelism;
+    private List<DataChunk> wanted; // found on first next()
+    private int nsubmitted; // number of chunks submitted
+    private int inFlight; // number of chunks submitted but not yet returned
+    private int prefetched; // number of chunks passed to raf.prefetch(), when read on the calling thread
+
+    ParallelDataChunkIterator(int parallelism) {
+      this.parallelism = parallelism;
+      this.completionService = new ExecutorCompletionService<>(getReadPool());
+    }
+
+    public boolean hasNext() {
+      return wanted == null || nsubmitted < wanted.size() || inFlight > 0;
+    }
+
+    public LayoutBBTiled.DataChunk next() throws IOException {
+      if (wanted == null)
+        wanted = findWantedChunks();
+      // keep the pool busy while we wait
+      while (inFlight < parallelism && nsubmitted < wanted.size()) {
+        if (directory == null && nsubmitted >= prefetched) // raw chunks are read on this thread
+          prefetched = prefetch(wanted, nsubmitted);
+        DataChunk dc = wanted.get(nsubmitted);
+        completionService.submit(dc.newReadTask());
+        nsubmitted++;
+        inFlight++;
+      }
+      if (inFlight == 0) // nothing wanted, the result is all fill values
+        return new DataChunk(new int[nChunks.length], 0, varOffset, true);
+
+      DataChunk result = Concurrency.takeResult(completionService);
+      inFlight--;
+      return result;
+    }
+  }
+
   private class DataChunk implements LayoutBBTiled.DataChunk {
 
     private int[] offset; // start indices of chunk in elements
     private long rafOffset; // start position of chunk in bytes
     private int chunkNum;
+    private boolean empty; // returns no data, regardless of chunkNum
+    private ByteBuffer decoded; // set when read by ParallelDataChunkIterator
 
     DataChunk(int[] index, int chunkNum, long rafOffset) {
+      this(index, chunkNum, rafOffset, false);
+    }
+
+    DataChunk(int[] index, int chunkNum, long rafOffset, boolean empty) {
       this.rafOffset = rafOffset;
       this.offset = new int[index.length];
       for (int i = 0; i < index.length; i++) {
@@ -153,39 +337,112 @@ public class ZarrLayoutBB implements LayoutBB {
         this.offset[i] = index[j] * chunkSize[i];
       }
       this.chunkNum = chunkNum;
+      this.empty = empty;
     }
 
     public int[] getOffset() {
       return this.offset;
     }
 
+    // compressed size in bytes, 0 if the chunk does not exist as a file
+    long length() {
+      return empty ? 0 : initializedChunks.getOrDefault(chunkNum, (long) 0);
+    }
+
     public ByteBuffer getByteBuffer() throws IOException {
-      // read the data
-      byte[] data;
+      if (decoded != null)
+        return decoded;
       // if chunk does not exist as file, return empty buffer
-      long dataLength = initializedChunks.getOrDefault(chunkNum, (long) 0);
+      long dataLength = length();
       if (dataLength == 0) {
         ByteBuffer result = ByteBuffer.wrap(new byte[0]);
         result.order(byteOrder);
         return result;
       }
 
-      data = new byte[(int) dataLength];
-      raf.seek(this.rafOffset);
-      // raf.read(data, 0, (int)dataLength);
-      raf.readFully(data);
+      RandomAccessDirectoryItem item = directory == null ? null : directory.getItem(rafOffset, dataLength);
+      ChunkCache.Key key = cacheKey(item);
+      byte[] data = key == null ? null : ChunkCache.get(key);
+      if (data == null) {
+        data = decode(readRaw(raf, rafOffset));
+        if (key != null)
+          ChunkCache.put(key, data);
+      }
+      return wrap(data);
+    }
+
+    /**
+     * Make the task that reads this chunk on the pool, and sets decoded. Called on the thread iterating.
+     * The file of a chunk that is its own file in a directory is opened here, and read by the task;
+     * other chunks are read here, and only decoded by the task.
+     */
+    Callable<DataChunk> newReadTask() throws IOException {
+      RandomAccessDirectoryItem item = directory == null ? null : directory.getItem(rafOffset, length());
+      ChunkCache.Key key = cacheKey(item);
+      byte[] cached = key == null ? null : ChunkCache.get(key);
+      if (cached != null) {
+        decoded = wrap(cached);
+        return () -> this;
+      }
+
+      byte[] raw = null;
+      RandomAccessFile source = null;
+      if (item != null) {
+        source = item.getOrOpenRaf();
+      } else {
+        raw = readRaw(raf, rafOffset);
+      }
+      RandomAccessFile itemRaf = source;
+      byte[] rawData = raw;
+      return () -> {
+        byte[] data = decode(itemRaf != null ? readRaw(itemRaf, 0) : rawData);
+        if (key != null)
+          ChunkCache.put(key, data);
+        decoded = wrap(data);
+        return this;
+      };
+    }
+
+    // null if the chunk can't be cached
+    private ChunkCache.Key cacheKey(RandomAccessDirectoryItem item) {
+      if (item != null) {
+        String version = RandomAccessFile.getContentVersion(item.getLastModified());
+        return version == null ? null : new ChunkCache.Key(item.getLocation(), version, varName, 0, item.length());
+      }
+      String version = getContentVersion();
+      return version == null ? null : new ChunkCache.Key(raf.getLocation(), version, varName, rafOffset, length());
+    }
+
+    private byte[] readRaw(RandomAccessFile source, long pos) throws IOException {
+      byte[] data = new byte[(int) length()];
+      source.seek(pos);
+      source.readFully(data);
+      return data;
+    }
 
+    private byte[] decode(byte[] data) throws IOException {
       // apply compressor
       data = compressor.decode(data);
       // apply filters in reverse order
       for (int i = filters.size() - 1; i >= 0; i--) {
         data = filters.get(i).decode(data);
       }
+      return data;
+    }
 
+    private ByteBuffer wrap(byte[] data) {
       ByteBuffer result = ByteBuffer.wrap(data);
       result.order(byteOrder);
       return result;
     }
   }
 
+  private synchronized String getContentVersion() {
+    if (!contentVersionFound) {
+      contentVersion = raf.getContentVersion();
+      contentVersionFound = true;
+    }
+    return contentVersion;
+  }
+
 }
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.iosp.zarr;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import javax.annotation.Nullable;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import ucar.unidata.io.s3.CdmS3Client;
+import ucar.unidata.io.s3.CdmS3Uri;
+
+/**
+ * A Zarr store in an S3 compatible object store, with one object per key, under the key of the cdms3 uri.
+ * Only loaded when writing to a cdms3 location, so the cdm-s3 module is an optional dependency.
+ */
+class ZarrS3Store implements ZarrStore {
+  private final S3Client client;
+  private final String bucket;
+  private final String prefix;
+
+  ZarrS3Store(String location) throws IOException {
+    CdmS3Uri uri;
+    try {
+      uri = new CdmS3Uri(location);
+    } catch (URISyntaxException e) {
+      throw new IOException("Error making a CdmS3Uri from:" + location, e);
+    }
+    this.client = CdmS3Client.acquire(uri);
+    this.bucket = uri.getBucket();
+    String key = uri.getKey().orElse("");
+    this.prefix = key.isEmpty() || key.endsWith("/") ? key : key + "/";
+  }
+
+  @Override
+  public void write(String key, byte[] data) throws IOException {
+    try {
+      client.putObject(PutObjectRequest.builder().bucket(bucket).key(prefix + key).build(),
+          RequestBody.fromBytes(data));
+    } catch (SdkException e) {
+      throw new IOException("Error writing " + prefix + key + " to bucket " + bucket, e);
+    }
+  }
+
+  @Nullable
+  @Override
+  public byte[] read(String key) throws IOException {
+    try {
+      return client.getObjectAsBytes(GetObjectRequest.builder().bucket(bucket).key(prefix + key).build())
+          .asByteArray();
+    } catch (NoSuchKeyException e) {
+      return null;
+    } catch (SdkException e) {
+      throw new IOException("Error reading " + prefix + key + " from bucket " + bucket, e);
+    }
+  }
+
+  @Override
+  public void close() {} // clients are cached and shared by CdmS3Client
+}
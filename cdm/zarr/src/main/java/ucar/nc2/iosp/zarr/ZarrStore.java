@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.iosp.zarr;
+
+import java.io.Closeable;
+import java.io.IOException;
+import javax.annotation.Nullable;
+
+/**
+ * A Zarr store being written: a map from keys, such as {@code group/var/.zarray} or {@code group/var/0.0},
+ * to the bytes stored under them. Implementations must be thread safe, since chunks are written concurrently.
+ */
+interface ZarrStore extends Closeable {
+
+  /** Store the bytes under key, replacing anything already there. */
+  void write(String key, byte[] data) throws IOException;
+
+  /** Get the bytes stored under key, or null if there are none. */
+  @Nullable
+  byte[] read(String key) throws IOException;
+
+  /**
+   * Create a new store for writing. A Zarr store already in a local directory is deleted first, and a directory
+   * holding anything else is refused.
+   *
+   * @param location a local directory, or a cdms3 uri; the cdm-s3 module must be on the classpath for the latter
+   */
+  static ZarrStore create(String location) throws IOException {
+    if (location.startsWith("cdms3:")) {
+      return new ZarrS3Store(location);
+    }
+    if (location.endsWith(".zip")) {
+      throw new IOException("Writing zip stores is not supported: " + location);
+    }
+    return new ZarrDirectoryStore(location);
+  }
+}
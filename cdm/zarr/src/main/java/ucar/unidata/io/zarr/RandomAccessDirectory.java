@@ -9,12 +9,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import thredds.inventory.*;
 import ucar.nc2.util.cache.FileCacheable;
+import ucar.unidata.io.FileRange;
 import ucar.unidata.io.RandomAccessFile;
+import ucar.unidata.io.VectoredReads;
 import ucar.unidata.io.spi.RandomAccessFileProvider;
 
 import java.io.*;
 import java.nio.channels.WritableByteChannel;
 import java.util.*;
+import java.util.concurrent.Callable;
 
 /**
  * This class allows a directory structure to be read in memory as a single file.
@@ -98,6 +101,31 @@ public class RandomAccessDirectory extends ucar.unidata.io.RandomAccessFile impl
     return null;
   }
 
+  /**
+   * Return the directory item holding exactly the bytes [pos, pos + length).
+   * Items are independent RandomAccessFiles, so different items may be read concurrently.
+   *
+   * @param pos start of the bytes, relative to the directory
+   * @param length number of bytes
+   * @return the item, or null if the bytes are not exactly one item
+   */
+  public RandomAccessDirectoryItem getItem(long pos, long length) {
+    int lo = 0;
+    int hi = this.children.size() - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      RandomAccessDirectoryItem item = this.children.get(mid);
+      if (item.startIndex() + item.length() <= pos) {
+        lo = mid + 1;
+      } else if (item.startIndex() > pos) {
+        hi = mid - 1;
+      } else {
+        return item.startIndex() == pos && item.length() == length ? item : null;
+      }
+    }
+    return null;
+  }
+
   /**
    * Find all files in the store that fall under the given path
    * 
@@ -142,6 +170,48 @@ public class RandomAccessDirectory extends ucar.unidata.io.RandomAccessFile impl
     this.currentFileStartPos = -1;
   }
 
+  /**
+   * Split the ranges by the files that contain them, and pass each file its ranges, relative to the start of the
+   * file. The files are opened on the calling thread, and prefetch concurrently, as configured by
+   * {@link VectoredReads}.
+   */
+  @Override
+  public void prefetch(List<FileRange> ranges) throws IOException {
+    List<FileRange> sorted = new ArrayList<>(ranges);
+    sorted.sort(Comparator.comparingLong(FileRange::getOffset));
+
+    Map<RandomAccessDirectoryItem, List<FileRange>> byItem = new LinkedHashMap<>();
+    int index = 0; // item containing the start of the current range
+    long itemStart = 0;
+    for (FileRange range : sorted) {
+      long pos = range.getOffset();
+      while (index < this.children.size() && itemStart + this.children.get(index).length() <= pos) {
+        itemStart += this.children.get(index).length();
+        index++;
+      }
+      long start = itemStart;
+      for (int i = index; i < this.children.size() && pos < range.getEnd(); i++) {
+        RandomAccessDirectoryItem item = this.children.get(i);
+        long end = Math.min(range.getEnd(), start + item.length());
+        if (end > pos) {
+          byItem.computeIfAbsent(item, k -> new ArrayList<>()).add(new FileRange(pos - start, (int) (end - pos)));
+          pos = end;
+        }
+        start += item.length();
+      }
+    }
+
+    List<Callable<Void>> requests = new ArrayList<>();
+    for (Map.Entry<RandomAccessDirectoryItem, List<FileRange>> entry : byItem.entrySet()) {
+      RandomAccessFile raf = entry.getKey().getOrOpenRaf();
+      requests.add(() -> {
+        raf.prefetch(entry.getValue());
+        return null;
+      });
+    }
+    VectoredReads.invokeAll(requests);
+  }
+
   @Override
   public synchronized void close() throws IOException {
     for (RandomAccessDirectoryItem item : this.children) {
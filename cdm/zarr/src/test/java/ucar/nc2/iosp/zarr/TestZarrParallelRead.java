@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.iosp.zarr;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ucar.ma2.Array;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Variable;
+import ucar.nc2.iosp.ChunkCache;
+
+/** Reads with several chunks in flight, and from the chunk cache, match serial reads. */
+public class TestZarrParallelRead {
+  private static final String[] STORES = {ZarrTestsCommon.LOCAL_TEST_DATA_PATH + "zarr_test_data.zarr/",
+      ZarrTestsCommon.LOCAL_TEST_DATA_PATH + "zarr_test_data.zip",
+      ZarrTestsCommon.LOCAL_TEST_DATA_PATH + "zarr_compressed_data.zarr"};
+
+  private static final long CACHE_SIZE = 32 * 1024 * 1024;
+  private long maxSize;
+
+  @Before
+  public void disableCache() {
+    maxSize = ChunkCache.getMaxSize();
+    ChunkCache.setMaxSize(0);
+  }
+
+  @After
+  public void reset() {
+    ZarrLayoutBB.setDefaultParallelism(Runtime.getRuntime().availableProcessors());
+    ChunkCache.setMaxSize(maxSize);
+  }
+
+  private static List<Object> readAll(String location) throws IOException {
+    List<Object> result = new ArrayList<>();
+    try (NetcdfFile ncfile = NetcdfFiles.open(location)) {
+      for (Variable v : ncfile.getVariables()) {
+        Array data = v.read();
+        result.add(data.copyTo1DJavaArray());
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void shouldReadSameDataInParallel() throws IOException {
+    for (String store : STORES) {
+      ZarrLayoutBB.setDefaultParallelism(1);
+      List<Object> serial = readAll(store);
+      ZarrLayoutBB.setDefaultParallelism(4);
+      List<Object> parallel = readAll(store);
+      assertThat(parallel).hasSize(serial.size());
+      for (int i = 0; i < serial.size(); i++) {
+        assertThat(parallel.get(i)).isEqualTo(serial.get(i));
+      }
+    }
+  }
+
+  @Test
+  public void shouldReadSameDataFromCache() throws IOException {
+    for (String store : STORES) {
+      List<Object> uncached = readAll(store);
+      ChunkCache.setMaxSize(CACHE_SIZE);
+      for (int parallelism : new int[] {1, 4}) {
+        ZarrLayoutBB.setDefaultParallelism(parallelism);
+        long hits = ChunkCache.getHitCount();
+        readAll(store); // fills the cache, if not already full
+        List<Object> cached = readAll(store);
+        assertThat(ChunkCache.getHitCount()).isGreaterThan(hits);
+        for (int i = 0; i < uncached.size(); i++) {
+          assertThat(cached.get(i)).isEqualTo(uncached.get(i));
+        }
+      }
+      ChunkCache.setMaxSize(0);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectBadParallelism() {
+    new ZarrIosp().setParallelism(0);
+  }
+}
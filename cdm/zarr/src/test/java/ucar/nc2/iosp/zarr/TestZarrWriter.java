@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.iosp.zarr;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ucar.ma2.Array;
+import ucar.ma2.ArrayFloat;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Attribute;
+import ucar.nc2.Group;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Variable;
+import ucar.nc2.write.Nc4Chunking;
+import ucar.nc2.write.NetcdfCopier;
+import ucar.nc2.write.NetcdfFileFormat;
+import ucar.nc2.write.NetcdfFormatWriter;
+
+/** Stores written with ZarrIospWriter read back with ZarrIosp. */
+public class TestZarrWriter {
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  // chunks of 2 along every dimension, so that there are partial edge chunks and more than 10 chunks per dimension
+  private static class SmallChunks implements Nc4Chunking {
+    private final int level;
+
+    SmallChunks(int level) {
+      this.level = level;
+    }
+
+    @Override
+    public boolean isChunked(Variable v) {
+      return true;
+    }
+
+    @Override
+    public long[] computeChunking(Variable v) {
+      long[] result = new long[v.getRank()];
+      Arrays.fill(result, 2);
+      return result;
+    }
+
+    @Override
+    public int getDeflateLevel(Variable v) {
+      return level;
+    }
+
+    @Override
+    public boolean isShuffle(Variable v) {
+      return true;
+    }
+  }
+
+  private static Array makeData(int nx, int ny) {
+    ArrayFloat.D2 data = new ArrayFloat.D2(nx, ny);
+    for (int i = 0; i < nx; i++) {
+      for (int j = 0; j < ny; j++) {
+        data.set(i, j, i * 100 + j);
+      }
+    }
+    return data;
+  }
+
+  @Test
+  public void shouldReadBackWrittenData() throws IOException, InvalidRangeException {
+    for (int level : new int[] {0, 5}) {
+      String location = tempFolder.newFolder().getAbsolutePath() + "/test.zarr";
+      NetcdfFormatWriter.Builder writerb = NetcdfFormatWriter.builder().setNewFile(true)
+          .setFormat(NetcdfFileFormat.ZARR).setLocation(location).setChunker(new SmallChunks(level));
+      writerb.addDimension("x", 25);
+      writerb.addDimension("y", 7);
+      writerb.addVariable("data", DataType.FLOAT, "x y").addAttribute(new Attribute("units", "K"));
+      writerb.addVariable("scalar", DataType.INT, "");
+      writerb.addAttribute(new Attribute("title", "zarr writer test"));
+
+      Array data = makeData(25, 7);
+      try (NetcdfFormatWriter writer = writerb.build()) {
+        // write in slabs that do not line up with the chunks
+        for (int start = 0; start < 25; start += 3) {
+          int n = Math.min(3, 25 - start);
+          writer.write(writer.findVariable("data"), new int[] {start, 0},
+              data.section(new int[] {start, 0}, new int[] {n, 7}));
+        }
+        writer.write("scalar", Array.factory(DataType.INT, new int[0], new int[] {42}));
+      }
+
+      try (NetcdfFile ncfile = NetcdfFiles.open(location)) {
+        assertThat(ncfile.getRootGroup().findAttributeString("title", null)).isEqualTo("zarr writer test");
+        Variable v = ncfile.findVariable("data");
+        assertThat(v).isNotNull();
+        assertThat(v.getShape()).isEqualTo(new int[] {25, 7});
+        assertThat(v.findAttributeString("units", null)).isEqualTo("K");
+        assertThat(v.read().copyTo1DJavaArray()).isEqualTo(data.copyTo1DJavaArray());
+        assertThat(v.read("11:14,5:6").copyTo1DJavaArray())
+            .isEqualTo(data.section(new int[] {11, 5}, new int[] {4, 2}).copyTo1DJavaArray());
+        Variable scalar = ncfile.findVariable("scalar");
+        assertThat(scalar).isNotNull();
+        assertThat(scalar.readScalarInt()).isEqualTo(42);
+      }
+    }
+  }
+
+  @Test
+  public void shouldFillUnwrittenValues() throws IOException, InvalidRangeException {
+    String location = tempFolder.newFolder().getAbsolutePath() + "/fill.zarr";
+    NetcdfFormatWriter.Builder writerb = NetcdfFormatWriter.builder().setNewFile(true)
+        .setFormat(NetcdfFileFormat.ZARR).setLocation(location).setChunker(new SmallChunks(1));
+    writerb.addDimension("x", 5);
+    writerb.addVariable("data", DataType.SHORT, "x").addAttribute(new Attribute("_FillValue", (short) -1));
+
+    try (NetcdfFormatWriter writer = writerb.build()) {
+      writer.write(writer.findVariable("data"), new int[] {1},
+          Array.factory(DataType.SHORT, new int[] {2}, new short[] {10, 11}));
+    }
+
+    try (NetcdfFile ncfile = NetcdfFiles.open(location)) {
+      Array result = ncfile.findVariable("data").read();
+      assertThat(result.get1DJavaArray(DataType.SHORT)).isEqualTo(new short[] {-1, 10, 11, -1, -1});
+    }
+  }
+
+  @Test
+  public void shouldNotFillWhenFillIsOff() throws IOException, InvalidRangeException {
+    String location = tempFolder.newFolder().getAbsolutePath() + "/nofill.zarr";
+    NetcdfFormatWriter.Builder writerb = NetcdfFormatWriter.builder().setNewFile(true).setFill(false)
+        .setFormat(NetcdfFileFormat.ZARR).setLocation(location).setChunker(new SmallChunks(1));
+    writerb.addDimension("x", 5);
+    writerb.addVariable("data", DataType.SHORT, "x").addAttribute(new Attribute("_FillValue", (short) -1));
+
+    try (NetcdfFormatWriter writer = writerb.build()) {
+      writer.write(writer.findVariable("data"), new int[] {1},
+          Array.factory(DataType.SHORT, new int[] {2}, new short[] {10, 11}));
+    }
+
+    // unwritten values of stored chunks are not filled; the chunk never written still reads as the fill value
+    try (NetcdfFile ncfile = NetcdfFiles.open(location)) {
+      Array result = ncfile.findVariable("data").read();
+      assertThat(result.get1DJavaArray(DataType.SHORT)).isEqualTo(new short[] {0, 10, 11, 0, -1});
+    }
+  }
+
+  @Test
+  public void shouldBufferRecordsUntilChunkIsFull() throws IOException, InvalidRangeException {
+    String location = tempFolder.newFolder().getAbsolutePath() + "/records.zarr";
+    NetcdfFormatWriter.Builder writerb = NetcdfFormatWriter.builder().setNewFile(true)
+        .setFormat(NetcdfFileFormat.ZARR).setLocation(location).setChunker(new SmallChunks(5));
+    writerb.addUnlimitedDimension("time");
+    writerb.addDimension("x", 3);
+    writerb.addVariable("data", DataType.FLOAT, "time x");
+
+    Array data = makeData(5, 3);
+    try (NetcdfFormatWriter writer = writerb.build()) {
+      Variable v = writer.findVariable("data");
+      for (int record = 0; record < 3; record++)
+        writer.write(v, new int[] {record, 0}, data.section(new int[] {record, 0}, new int[] {1, 3}));
+      // the third record only fills half of its chunks
+      assertThat(new File(location, "data/1.0").exists()).isFalse();
+      writer.flush();
+      assertThat(new File(location, "data/1.0").exists()).isTrue();
+      for (int record = 3; record < 5; record++)
+        writer.write(v, new int[] {record, 0}, data.section(new int[] {record, 0}, new int[] {1, 3}));
+    }
+
+    try (NetcdfFile ncfile = NetcdfFiles.open(location)) {
+      Variable v = ncfile.findVariable("data");
+      assertThat(v.getShape()).isEqualTo(new int[] {5, 3});
+      assertThat(v.read().copyTo1DJavaArray()).isEqualTo(data.copyTo1DJavaArray());
+    }
+  }
+
+  @Test
+  public void shouldReplaceExistingStore() throws IOException, InvalidRangeException {
+    String location = tempFolder.newFolder().getAbsolutePath() + "/replace.zarr";
+    for (String name : new String[] {"old", "data"}) {
+      NetcdfFormatWriter.Builder writerb = NetcdfFormatWriter.builder().setNewFile(true)
+          .setFormat(NetcdfFileFormat.ZARR).setLocation(location).setChunker(new SmallChunks(1));
+      writerb.addDimension("x", 4);
+      writerb.addVariable(name, DataType.INT, "x");
+      try (NetcdfFormatWriter writer = writerb.build()) {
+        writer.write(name, Array.factory(DataType.INT, new int[] {4}, new int[] {1, 2, 3, 4}));
+      }
+    }
+
+    assertThat(new File(location, "old").exists()).isFalse();
+    try (NetcdfFile ncfile = NetcdfFiles.open(location)) {
+      assertThat(ncfile.findVariable("old")).isNull();
+      assertThat(ncfile.findVariable("data")).isNotNull();
+    }
+  }
+
+  @Test
+  public void shouldRefuseNonEmptyDirectory() throws IOException {
+    File dir = tempFolder.newFolder();
+    File other = new File(dir, "notes.txt");
+    assertThat(other.createNewFile()).isTrue();
+    NetcdfFormatWriter.Builder writerb = NetcdfFormatWriter.builder().setNewFile(true)
+        .setFormat(NetcdfFileFormat.ZARR).setLocation(dir.getAbsolutePath());
+    writerb.addDimension("x", 4);
+    writerb.addVariable("data", DataType.INT, "x");
+
+    assertThrows(IOException.class, writerb::build);
+    assertThat(other.exists()).isTrue();
+  }
+
+  @Test
+  public void shouldCopyNestedGroups() throws IOException, InvalidRangeException {
+    String input = tempFolder.newFolder().getAbsolutePath() + "/groups.zarr";
+    NetcdfFormatWriter.Builder writerb = NetcdfFormatWriter.builder().setNewFile(true)
+        .setFormat(NetcdfFileFormat.ZARR).setLocation(input).setChunker(new SmallChunks(1));
+    writerb.addDimension("y", 7);
+    Group.Builder sub = Group.builder().setName("sub");
+    writerb.getRootGroup().addGroup(sub);
+    sub.addVariable(Variable.builder().setName("flags").setDataType(DataType.UBYTE).setParentGroupBuilder(sub)
+        .setDimensionsByName("y"));
+    Array flags = Array.factory(DataType.UBYTE, new int[] {7}, new byte[] {1, 2, 3, 4, 5, 6, (byte) 255});
+    try (NetcdfFormatWriter writer = writerb.build()) {
+      writer.write(writer.findVariable("sub/flags"), flags);
+    }
+
+    String location = tempFolder.newFolder().getAbsolutePath() + "/copy.zarr";
+    try (NetcdfFile in = NetcdfFiles.open(input)) {
+      NetcdfFormatWriter.Builder zarrb = NetcdfFormatWriter.builder().setNewFile(true)
+          .setFormat(NetcdfFileFormat.ZARR).setLocation(location).setChunker(new SmallChunks(5));
+      NetcdfCopier.create(in, zarrb).write(null);
+    }
+
+    try (NetcdfFile ncfile = NetcdfFiles.open(location)) {
+      Variable v = ncfile.findVariable("sub/flags");
+      assertThat(v).isNotNull();
+      assertThat(v.read().copyTo1DJavaArray()).isEqualTo(flags.copyTo1DJavaArray());
+    }
+  }
+
+  @Test
+  public void shouldCopyNetcdf3ToZarr() throws IOException, InvalidRangeException {
+    String nc3 = tempFolder.newFile().getAbsolutePath();
+    NetcdfFormatWriter.Builder nc3b = NetcdfFormatWriter.createNewNetcdf3(nc3);
+    nc3b.addDimension("x", 12);
+    nc3b.addDimension("y", 13);
+    nc3b.addVariable("data", DataType.FLOAT, "x y");
+    Array data = makeData(12, 13);
+    try (NetcdfFormatWriter writer = nc3b.build()) {
+      writer.write("data", data);
+    }
+
+    String location = tempFolder.newFolder().getAbsolutePath() + "/copy.zarr";
+    try (NetcdfFile in = NetcdfFiles.open(nc3)) {
+      NetcdfFormatWriter.Builder zarrb = NetcdfFormatWriter.builder().setNewFile(true)
+          .setFormat(NetcdfFileFormat.ZARR).setLocation(location).setChunker(new SmallChunks(5));
+      NetcdfCopier.create(in, zarrb).write(null);
+    }
+
+    try (NetcdfFile ncfile = NetcdfFiles.open(location)) {
+      assertThat(ncfile.findVariable("data").read().copyTo1DJavaArray()).isEqualTo(data.copyTo1DJavaArray());
+    }
+  }
+}
@@ -8,10 +8,8 @@ package ucar.nc2.grib.collection;
 import javax.annotation.Nonnull;
 import thredds.featurecollection.FeatureCollectionConfig;
 import thredds.featurecollection.FeatureCollectionConfig.GribConfig;
-import thredds.inventory.CollectionUpdateType;
 import thredds.inventory.MCollection;
 import thredds.inventory.MFile;
-import ucar.nc2.grib.GribIndex;
 import ucar.nc2.grib.GribIndexCache;
 import ucar.nc2.grib.coord.Coordinate;
 import ucar.nc2.grib.coord.CoordinateEns;
@@ -27,9 +25,9 @@ import ucar.nc2.grib.grib2.Grib2Utils;
 import ucar.nc2.time.CalendarDate;
 import ucar.nc2.time.CalendarDateRange;
 import ucar.nc2.time.CalendarPeriod;
-import ucar.nc2.util.CloseableIterator;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.*;
 
 /**
@@ -68,7 +66,7 @@ public class Grib1CollectionBuilder extends GribCollectionBuilder {
     logger.debug(" dcm={}", dcm);
 
     // place each record into its group
-    try (CloseableIterator<MFile> iter = dcm.getFileIterator()) { // not sorted
+    try (FileIndexIterator iter = makeFileIndexIterator()) { // not sorted
       if (iter == null)
         return new ArrayList<>(); // empty
 
@@ -76,17 +74,14 @@ public class Grib1CollectionBuilder extends GribCollectionBuilder {
         MFile mfile = iter.next();
         Grib1Index index;
         try {
-          if (Grib.debugGbxIndexOnly) {
-            index = (Grib1Index) GribIndex.open(true, mfile);
-            if (index == null)
-              continue;
-          } else {
-            // here is where gbx9 files get recreated
-            index =
-                (Grib1Index) GribIndex.readOrCreateIndexFromSingleFile(true, mfile, CollectionUpdateType.test, logger);
-          }
+          // here is where gbx9 files get recreated, possibly ahead of time on other threads
+          index = (Grib1Index) iter.getIndex();
+          if (index == null && Grib.debugGbxIndexOnly)
+            continue;
           allFiles.add(mfile); // add on success
 
+        } catch (InterruptedIOException ie) {
+          throw ie;
         } catch (IOException ioe) {
           logger.error("Grib1CollectionBuilder " + name + " : reading/Creating gbx9 index for file " + mfile.getPath()
               + " failed", ioe);
@@ -23,6 +23,7 @@ import ucar.nc2.grib.grib1.Grib1RecordScanner;
 import ucar.nc2.grib.grib2.Grib2RecordScanner;
 import ucar.nc2.stream.NcStream;
 import ucar.nc2.util.CancelTask;
+import ucar.nc2.util.Concurrency;
 import ucar.nc2.util.cache.FileCacheIF;
 import ucar.nc2.util.cache.FileCacheable;
 import ucar.nc2.util.cache.FileFactory;
@@ -31,12 +32,21 @@ import ucar.unidata.util.StringUtil2;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Formatter;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -54,6 +64,62 @@ public class GribCdmIndex implements IndexReader {
 
   private static final Logger classLogger = LoggerFactory.getLogger(GribCdmIndex.class);
 
+  static final String INDEXPARALLELISM = "unidata.grib.index.parallelism";
+
+  private static volatile int defaultIndexParallelism = Concurrency.getIntProperty(INDEXPARALLELISM, 1, 1);
+  private static ThreadPoolExecutor indexPool; // reads or creates gbx9 indexes, grows to the largest parallelism used
+  // true on a partition pool thread while it updates a child, whose own children are then updated serially
+  private static final ThreadLocal<Boolean> inChildUpdate = ThreadLocal.withInitial(() -> false);
+  private static final GribIndexingMetrics indexingMetrics = new GribIndexingMetrics();
+
+  /**
+   * Set the number of threads used to index a collection, for collections whose GribConfig doesn't specify
+   * indexParallelism. This many data files have their gbx9 index read or created at the same time, and this many
+   * child collections of a partition are updated at the same time. Default is 1 (serial).
+   * The ncx4 indexes written are the same whatever the parallelism.
+   *
+   * @param parallelism number of threads, must be > 0
+   */
+  public static void setDefaultIndexParallelism(int parallelism) {
+    if (parallelism <= 0)
+      throw new IllegalArgumentException("parallelism must be > 0");
+    defaultIndexParallelism = parallelism;
+  }
+
+  public static int getDefaultIndexParallelism() {
+    return defaultIndexParallelism;
+  }
+
+  /** Progress and throughput of collection indexing in this JVM. */
+  public static GribIndexingMetrics getIndexingMetrics() {
+    return indexingMetrics;
+  }
+
+  static int getIndexParallelism(@Nullable FeatureCollectionConfig config) {
+    if (config != null && config.gribConfig.indexParallelism > 0)
+      return config.gribConfig.indexParallelism;
+    return defaultIndexParallelism;
+  }
+
+  static synchronized ExecutorService getIndexPool(int parallelism) {
+    if (indexPool == null) {
+      indexPool = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+          Concurrency.daemonThreadFactory("GribCdmIndex-index"));
+      indexPool.allowCoreThreadTimeOut(true);
+    } else if (parallelism > indexPool.getMaximumPoolSize()) {
+      indexPool.setMaximumPoolSize(parallelism);
+      indexPool.setCorePoolSize(parallelism);
+    }
+    return indexPool;
+  }
+
+  // Updates the child collections of a partition.
+  // The number of children updated at once is limited by updateChildren, and the file indexing by the index pool.
+  // Only the children of the top partition are updated on it, so it doesn't grow as parallelism^depth.
+  private static ExecutorService getPartitionPool() {
+    return Concurrency.getSharedPool("GribCdmIndex-partition");
+  }
+
 
   // object cache for ncx files - these are opened only as GribCollection
   public static FileCacheIF gribCollectionCache;
@@ -342,6 +408,7 @@ public class GribCdmIndex implements IndexReader {
 
     long took = System.currentTimeMillis() - start;
     logger.info("updateGribCollection {} changed {} took {} msecs", config.collectionName, changed, took);
+    logger.debug("updateGribCollection indexing since reset: {}", indexingMetrics);
     return changed;
   }
 
@@ -362,6 +429,8 @@ public class GribCdmIndex implements IndexReader {
       Grib2CollectionBuilder builder = new Grib2CollectionBuilder(dcm.getCollectionName(), dcm, logger);
       changed = builder.updateNeeded(updateType) && builder.createIndex(ptype, errlog);
     }
+    if (changed)
+      indexingMetrics.collectionWritten();
     return changed;
   }
 
@@ -379,6 +448,8 @@ public class GribCdmIndex implements IndexReader {
           new Grib2PartitionBuilder(dcm.getCollectionName(), new File(dcm.getRoot()), dcm, logger);
       changed = builder.updateNeeded(updateType) && builder.createPartitionedIndex(updateType, errlog);
     }
+    if (changed)
+      indexingMetrics.partitionWritten();
     return changed;
   }
 
@@ -394,16 +465,16 @@ public class GribCdmIndex implements IndexReader {
     long start = System.currentTimeMillis();
     Formatter errlog = new Formatter();
 
-    for (MCollection part : tp.makePartitions(updateType)) {
-      try {
-        updateGribCollection(isGrib1, part, updateType, FeatureCollectionConfig.PartitionType.timePeriod, logger,
-            errlog);
-
-      } catch (Throwable t) {
-        logger.warn("Error making partition " + part.getRoot(), t);
-        tp.removePartition(part); // keep on truckin; can happen if directory is empty
-      }
-    } // loop over component grib collections
+    updateChildren(tp.makePartitions(updateType),
+        getIndexParallelism((FeatureCollectionConfig) tp.getAuxInfo(FeatureCollectionConfig.AUX_CONFIG)), errlog,
+        (part, childErrlog) -> updateGribCollection(isGrib1, part, updateType,
+            FeatureCollectionConfig.PartitionType.timePeriod, logger, childErrlog),
+        (part, changed, t) -> {
+          if (t != null) {
+            logger.warn("Error making partition " + part.getRoot(), t);
+            tp.removePartition(part); // keep on truckin; can happen if directory is empty
+          }
+        }); // loop over component grib collections
 
 
     try {
@@ -424,6 +495,100 @@ public class GribCdmIndex implements IndexReader {
     }
   }
 
+  private interface ChildUpdater<T> {
+    boolean update(T child, Formatter errlog) throws IOException;
+  }
+
+  private interface ChildResult<T> {
+    void accept(T child, boolean changed, @Nullable Throwable failure);
+  }
+
+  private static class ChildOutcome {
+    final boolean changed;
+    final Throwable failure;
+    final Formatter errlog;
+
+    ChildOutcome(boolean changed, Throwable failure, Formatter errlog) {
+      this.changed = changed;
+      this.failure = failure;
+      this.errlog = errlog;
+    }
+  }
+
+  /**
+   * Update each child collection of a partition, and pass the outcome to result, which runs on the calling thread,
+   * one child at a time, in the order of children. With parallelism > 1, up to that many children are updated at
+   * the same time on the partition pool, each with its own errlog that is appended to errlog when its result is
+   * taken. So the partition sees the same children in the same order as when they are updated serially.
+   * Children of a child, when it is itself a partition, are updated serially on its thread, so that no more than
+   * parallelism children are updated at once in all.
+   *
+   * @param children the child collections
+   * @param parallelism number of children to update at the same time
+   * @param errlog passed to the updater when serial, else gets a copy of each child's errlog; may be null
+   * @param updater updates one child, returns true if it changed
+   * @param result called with the outcome of each child, with a non-null failure if the updater threw
+   */
+  private static <T> void updateChildren(Iterable<T> children, int parallelism, @Nullable Formatter errlog,
+      ChildUpdater<T> updater, ChildResult<T> result) throws IOException {
+    if (parallelism <= 1 || inChildUpdate.get()) {
+      for (T child : children) {
+        boolean changed = false;
+        Throwable failure = null;
+        try {
+          changed = updater.update(child, errlog);
+        } catch (Throwable t) {
+          failure = t;
+        }
+        result.accept(child, changed, failure);
+      }
+      return;
+    }
+
+    ExecutorService pool = getPartitionPool();
+    ArrayDeque<T> pendingChildren = new ArrayDeque<>();
+    ArrayDeque<Future<ChildOutcome>> pendingOutcomes = new ArrayDeque<>();
+    try {
+      for (T child : children) {
+        if (pendingChildren.size() >= parallelism)
+          takeChildResult(pendingChildren.remove(), pendingOutcomes.remove(), errlog, result);
+        pendingChildren.add(child);
+        pendingOutcomes.add(pool.submit(() -> {
+          Formatter childErrlog = new Formatter();
+          inChildUpdate.set(true);
+          try {
+            return new ChildOutcome(updater.update(child, childErrlog), null, childErrlog);
+          } catch (Throwable t) {
+            return new ChildOutcome(false, t, childErrlog);
+          } finally {
+            inChildUpdate.remove();
+          }
+        }));
+      }
+      while (!pendingChildren.isEmpty())
+        takeChildResult(pendingChildren.remove(), pendingOutcomes.remove(), errlog, result);
+
+    } finally {
+      Concurrency.cancelAll(pendingOutcomes); // only if we are bailing out
+    }
+  }
+
+  private static <T> void takeChildResult(T child, Future<ChildOutcome> future, @Nullable Formatter errlog,
+      ChildResult<T> result) throws IOException {
+    ChildOutcome outcome;
+    try {
+      outcome = future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("GribCdmIndex interrupted");
+    } catch (ExecutionException e) { // the task catches everything, so shouldnt happen
+      outcome = new ChildOutcome(false, e.getCause(), new Formatter());
+    }
+    if (errlog != null)
+      errlog.format("%s", outcome.errlog);
+    result.accept(child, outcome.changed, outcome.failure);
+  }
+
   private static boolean isUpdateNeeded(String idxFilenameOrg, CollectionUpdateType updateType,
       GribCollectionType wantType, Logger logger) {
     if (updateType == CollectionUpdateType.never)
@@ -467,25 +632,25 @@ public class GribCdmIndex implements IndexReader {
 
     // check the children partitions first
     if (updateType != CollectionUpdateType.testIndexOnly) { // skip children on testIndexOnly
-      for (MCollection part : dpart.makePartitions(updateType)) {
+      updateChildren(dpart.makePartitions(updateType), getIndexParallelism(config), null, (part, childErrlog) -> {
         part.putAuxInfo(FeatureCollectionConfig.AUX_CONFIG, config);
-        try {
-          if (part instanceof DirectoryPartition) { // LOOK if child partition fails, the parent partition doesnt know
-                                                    // that - suckage
-            updateDirectoryCollectionRecurse(isGrib1, (DirectoryPartition) part, config, updateType, logger);
-          } else {
-            Path partPath = Paths.get(part.getRoot());
-            updateLeafCollection(isGrib1, config, updateType, false, logger, partPath); // LOOK why not using part ??
-          }
-        } catch (IllegalStateException t) {
+        if (part instanceof DirectoryPartition) { // LOOK if child partition fails, the parent partition doesnt know
+                                                  // that - suckage
+          return updateDirectoryCollectionRecurse(isGrib1, (DirectoryPartition) part, config, updateType, logger);
+        } else {
+          Path partPath = Paths.get(part.getRoot());
+          return updateLeafCollection(isGrib1, config, updateType, false, logger, partPath); // LOOK why not using part
+        }
+      }, (part, changed, t) -> {
+        if (t instanceof IllegalStateException) {
           logger.warn("Error making partition {} '{}'", part.getRoot(), t.getMessage());
           dpart.removePartition(part); // keep on truckin; can happen if directory is empty
 
-        } catch (Throwable t) {
+        } else if (t != null) {
           logger.error("Error making partition " + part.getRoot(), t);
           dpart.removePartition(part);
         }
-      } // loop over partitions
+      }); // loop over partitions
     }
 
     try {
@@ -571,25 +736,29 @@ public class GribCdmIndex implements IndexReader {
 
       // redo the children here
       if (updateType != CollectionUpdateType.testIndexOnly) { // skip children on testIndexOnly
+        List<MCollection> parts = new ArrayList<>();
         partition.iterateOverMFileCollection(mfile -> {
           MCollection part = new CollectionSingleFile(mfile, logger);
           part.putAuxInfo(FeatureCollectionConfig.AUX_CONFIG, config);
-
-          try {
-            boolean changed = updateGribCollection(isGrib1, part, updateType,
-                FeatureCollectionConfig.PartitionType.file, logger, errlog);
-            if (changed)
-              anyChange.set(true);
-
-          } catch (IllegalStateException t) {
-            logger.warn("Error making partition {} '{}'", part.getRoot(), t.getMessage());
-            partition.removePartition(part); // keep on truckin; can happen if directory is empty
-
-          } catch (Throwable t) {
-            logger.error("Error making partition " + part.getRoot(), t);
-            partition.removePartition(part);
-          }
+          parts.add(part);
         });
+
+        updateChildren(parts, getIndexParallelism(config), errlog,
+            (part, childErrlog) -> updateGribCollection(isGrib1, part, updateType,
+                FeatureCollectionConfig.PartitionType.file, logger, childErrlog),
+            (part, changed, t) -> {
+              if (changed)
+                anyChange.set(true);
+
+              if (t instanceof IllegalStateException) {
+                logger.warn("Error making partition {} '{}'", part.getRoot(), t.getMessage());
+                partition.removePartition(part); // keep on truckin; can happen if directory is empty
+
+              } else if (t != null) {
+                logger.error("Error making partition " + part.getRoot(), t);
+                partition.removePartition(part);
+              }
+            });
       }
 
       // LOOK what if theres only one file?
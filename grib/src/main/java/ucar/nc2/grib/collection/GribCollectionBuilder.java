@@ -5,6 +5,7 @@
 
 package ucar.nc2.grib.collection;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import thredds.featurecollection.FeatureCollectionConfig;
 import thredds.inventory.CollectionManager;
@@ -22,10 +23,14 @@ import ucar.nc2.grib.GribIndexCache;
 import ucar.nc2.time.CalendarDate;
 import ucar.nc2.time.CalendarDateRange;
 import ucar.nc2.util.CloseableIterator;
+import ucar.nc2.util.Concurrency;
 import ucar.unidata.util.StringUtil2;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.*;
+import java.util.concurrent.Future;
 
 /**
  * Superclass to build indexes for collections of Grib files.
@@ -252,6 +257,103 @@ abstract class GribCollectionBuilder {
     return ok;
   }
 
+  // iterate over the collection files and their gbx9 indexes; null if the collection is empty
+  @Nullable
+  protected FileIndexIterator makeFileIndexIterator() throws IOException {
+    CloseableIterator<MFile> files = dcm.getFileIterator();
+    return files == null ? null : new FileIndexIterator(files);
+  }
+
+  /**
+   * Iterate over the files of the collection, in the order of dcm.getFileIterator(), reading or creating the gbx9
+   * index of each. When the collection's index parallelism is more than 1, the indexes of the next files are read or
+   * created on the GribCdmIndex index pool while the caller works on the current one. The caller still sees the
+   * files one at a time and in order, so the collection index does not depend on the parallelism.
+   */
+  protected class FileIndexIterator implements Closeable {
+    private final CloseableIterator<MFile> files;
+    private final int parallelism;
+    private final ArrayDeque<MFile> pendingFiles = new ArrayDeque<>();
+    private final ArrayDeque<Future<GribIndex>> pendingIndexes = new ArrayDeque<>();
+    private MFile current;
+    private Future<GribIndex> currentIndex;
+
+    FileIndexIterator(CloseableIterator<MFile> files) {
+      this.files = files;
+      this.parallelism = GribCdmIndex
+          .getIndexParallelism((FeatureCollectionConfig) dcm.getAuxInfo(FeatureCollectionConfig.AUX_CONFIG));
+    }
+
+    public boolean hasNext() {
+      return !pendingFiles.isEmpty() || files.hasNext();
+    }
+
+    public MFile next() {
+      if (parallelism > 1) {
+        fill();
+        current = pendingFiles.remove();
+        currentIndex = pendingIndexes.remove();
+        fill();
+      } else {
+        current = files.next();
+        GribCdmIndex.getIndexingMetrics().fileQueued();
+      }
+      return current;
+    }
+
+    /**
+     * The gbx9 index of the file last returned by next(), waiting for it if needed.
+     *
+     * @return the index, or null if it could not be read
+     * @throws IOException if reading or creating the index failed
+     * @throws InterruptedIOException if interrupted while waiting; the caller should stop iterating
+     */
+    public GribIndex getIndex() throws IOException {
+      if (parallelism <= 1)
+        return readOrCreateIndex(current);
+
+      return Concurrency.getResult(currentIndex);
+    }
+
+    // keep the next parallelism files working
+    private void fill() {
+      while (pendingFiles.size() < parallelism && files.hasNext()) {
+        MFile mfile = files.next();
+        GribCdmIndex.getIndexingMetrics().fileQueued();
+        pendingFiles.add(mfile);
+        pendingIndexes.add(GribCdmIndex.getIndexPool(parallelism).submit(() -> readOrCreateIndex(mfile)));
+      }
+    }
+
+    private GribIndex readOrCreateIndex(MFile mfile) throws IOException {
+      long start = System.nanoTime();
+      GribIndex index = null;
+      try {
+        if (Grib.debugGbxIndexOnly) {
+          index = GribIndex.open(isGrib1, mfile);
+        } else {
+          // this is where gbx9 files get recreated
+          index = GribIndex.readOrCreateIndexFromSingleFile(isGrib1, mfile, CollectionUpdateType.test, logger);
+        }
+        return index;
+      } finally {
+        long took = System.nanoTime() - start;
+        if (index != null)
+          GribCdmIndex.getIndexingMetrics().fileIndexed(mfile.getLength(), index.getNRecords(), took);
+        else
+          GribCdmIndex.getIndexingMetrics().fileFailed(took);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      Concurrency.cancelAll(pendingIndexes); // let running tasks finish writing their gbx9
+      pendingFiles.clear();
+      pendingIndexes.clear();
+      files.close();
+    }
+  }
+
   public interface Group {
     CalendarDate getRuntime();
 
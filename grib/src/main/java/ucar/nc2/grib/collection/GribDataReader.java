@@ -23,10 +23,17 @@ import ucar.nc2.grib.grib1.tables.Grib1Customizer;
 import ucar.nc2.grib.grib2.Grib2Record;
 import ucar.nc2.grib.grib2.Grib2RecordScanner;
 import ucar.nc2.grib.grib2.table.Grib2Tables;
+import ucar.nc2.util.Concurrency;
 import ucar.unidata.io.RandomAccessFile;
 import javax.annotation.concurrent.Immutable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Grib Data Reader.
@@ -39,13 +46,51 @@ import java.util.*;
 public abstract class GribDataReader {
   private static final Logger logger = LoggerFactory.getLogger(GribDataReader.class);
 
+  // System property name for -D flag; number of files (or runs of records in one file) read concurrently
+  static final String READPARALLELISM = "unidata.grib.read.parallelism";
+
+  private static volatile int defaultParallelism = Concurrency.getIntProperty(READPARALLELISM, 1, 1);
+
+  /**
+   * Set the number of threads used to read and decode the records of one request, for readers that don't specify
+   * it. Default is 1 (serial).
+   *
+   * @param parallelism number of threads, must be > 0
+   */
+  public static void setDefaultParallelism(int parallelism) {
+    if (parallelism <= 0)
+      throw new IllegalArgumentException("parallelism must be > 0");
+    defaultParallelism = parallelism;
+  }
+
+  public static int getDefaultParallelism() {
+    return defaultParallelism;
+  }
+
+  private static ExecutorService getReadPool() {
+    return Concurrency.getSharedPool("GribDataReader-read", Runtime.getRuntime().availableProcessors());
+  }
 
   public static GribDataReader factory(GribCollectionImmutable gribCollection,
       GribCollectionImmutable.VariableIndex vindex) {
+    return factory(gribCollection, vindex, defaultParallelism);
+  }
+
+  /**
+   * Create a reader for one variable.
+   *
+   * @param gribCollection the collection
+   * @param vindex the variable
+   * @param parallelism number of threads used to read and decode the records of one request; 1 reads serially.
+   */
+  public static GribDataReader factory(GribCollectionImmutable gribCollection,
+      GribCollectionImmutable.VariableIndex vindex, int parallelism) {
+    if (parallelism <= 0)
+      throw new IllegalArgumentException("parallelism must be > 0");
     if (gribCollection.isGrib1)
-      return new Grib1DataReader(gribCollection, vindex);
+      return new Grib1DataReader(gribCollection, vindex, parallelism);
     else
-      return new Grib2DataReader(gribCollection, vindex);
+      return new Grib2DataReader(gribCollection, vindex, parallelism);
   }
 
   protected abstract float[] readData(RandomAccessFile rafData, DataRecord dr) throws IOException;
@@ -61,10 +106,13 @@ public abstract class GribDataReader {
   protected final GribCollectionImmutable gribCollection;
   private final GribCollectionImmutable.VariableIndex vindex;
   private final List<DataRecord> records = new ArrayList<>();
+  private final int parallelism;
 
-  protected GribDataReader(GribCollectionImmutable gribCollection, GribCollectionImmutable.VariableIndex vindex) {
+  protected GribDataReader(GribCollectionImmutable gribCollection, GribCollectionImmutable.VariableIndex vindex,
+      int parallelism) {
     this.gribCollection = gribCollection;
     this.vindex = vindex;
+    this.parallelism = parallelism;
   }
 
   /**
@@ -235,6 +283,10 @@ public abstract class GribDataReader {
    */
   private void read(DataReceiverIF dataReceiver) throws IOException {
     Collections.sort(records);
+    if (useParallelRead()) {
+      readParallel(dataReceiver, false);
+      return;
+    }
 
     int currFile = -1;
     RandomAccessFile rafData = null;
@@ -288,6 +340,10 @@ public abstract class GribDataReader {
 
   private void readPartitioned(DataReceiverIF dataReceiver) throws IOException {
     Collections.sort(records);
+    if (useParallelRead()) {
+      readParallel(dataReceiver, true);
+      return;
+    }
 
     PartitionCollectionImmutable.DataRecord lastRecord = null;
     RandomAccessFile rafData = null;
@@ -332,6 +388,130 @@ public abstract class GribDataReader {
     }
   }
 
+  // the debugging and validation modes are only done serially
+  private boolean useParallelRead() {
+    return parallelism > 1 && records.size() > 1 && !Grib.debugIndexOnly && !Grib.debugGbxIndexOnly
+        && GribDataReader.validator == null && !show;
+  }
+
+  /*
+   * The sorted records are grouped by file; if there are fewer files than threads, each file is also split into
+   * contiguous runs. Each run is read in file order with its own RandomAccessFile, and the runs are read concurrently.
+   * Every record goes to its own resultIndex, so the result does not depend on the order the runs finish.
+   */
+  private void readParallel(DataReceiverIF dataReceiver, boolean partitioned) throws IOException {
+    List<List<DataRecord>> runs = makeRuns(partitioned);
+    if (runs.isEmpty())
+      return;
+
+    int nworkers = Math.min(parallelism, runs.size());
+    AtomicInteger next = new AtomicInteger();
+    AtomicBoolean failed = new AtomicBoolean();
+    ExecutorService pool = getReadPool();
+    List<Future<Void>> futures = new ArrayList<>(nworkers);
+    for (int i = 0; i < nworkers; i++) {
+      futures.add(pool.submit(() -> {
+        int runIndex;
+        while (!failed.get() && (runIndex = next.getAndIncrement()) < runs.size()) {
+          try {
+            readRun(runs.get(runIndex), dataReceiver, partitioned);
+          } catch (IOException | RuntimeException e) {
+            failed.set(true);
+            throw e;
+          }
+        }
+        return null;
+      }));
+    }
+
+    // wait for all workers, so nothing is added to the receiver after we return
+    Throwable failure = null;
+    boolean interrupted = false;
+    for (Future<Void> future : futures) {
+      while (true) {
+        try {
+          future.get();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+          failed.set(true);
+        } catch (ExecutionException e) {
+          if (failure == null)
+            failure = e.getCause();
+          break;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("GribDataReader interrupted");
+    }
+    if (failure instanceof IOException)
+      throw (IOException) failure;
+    if (failure instanceof RuntimeException)
+      throw (RuntimeException) failure;
+    if (failure instanceof Error)
+      throw (Error) failure;
+    if (failure != null)
+      throw new IOException(failure);
+  }
+
+  private List<List<DataRecord>> makeRuns(boolean partitioned) {
+    List<List<DataRecord>> files = new ArrayList<>();
+    List<DataRecord> current = null;
+    DataRecord last = null;
+    for (DataRecord dr : records) {
+      if (dr.record.pos == GribCollectionMutable.MISSING_RECORD)
+        continue;
+      if (current == null || !sameFile(last, dr, partitioned)) {
+        current = new ArrayList<>();
+        files.add(current);
+      }
+      current.add(dr);
+      last = dr;
+    }
+
+    int splits = files.isEmpty() ? 1 : (parallelism + files.size() - 1) / files.size();
+    if (splits <= 1)
+      return files;
+    List<List<DataRecord>> runs = new ArrayList<>();
+    for (List<DataRecord> file : files) {
+      int runLength = (file.size() + splits - 1) / splits;
+      for (int start = 0; start < file.size(); start += runLength) {
+        runs.add(file.subList(start, Math.min(start + runLength, file.size())));
+      }
+    }
+    return runs;
+  }
+
+  private static boolean sameFile(DataRecord a, DataRecord b, boolean partitioned) {
+    if (partitioned)
+      return ((PartitionCollectionImmutable.DataRecord) b).usesSameFile((PartitionCollectionImmutable.DataRecord) a);
+    return a.record.fileno == b.record.fileno;
+  }
+
+  private void readRun(List<DataRecord> run, DataReceiverIF dataReceiver, boolean partitioned) throws IOException {
+    DataRecord first = run.get(0);
+    RandomAccessFile rafData;
+    if (partitioned) {
+      PartitionCollectionImmutable.DataRecord drp = (PartitionCollectionImmutable.DataRecord) first;
+      rafData = drp.usePartition.getRaf(drp.partno, first.record.fileno);
+    } else {
+      rafData = gribCollection.getDataRaf(first.record.fileno);
+    }
+
+    try {
+      for (DataRecord dr : run) {
+        float[] data = readData(rafData, dr);
+        synchronized (dataReceiver) {
+          dataReceiver.addData(data, dr.resultIndex, dr.hcs.nx);
+        }
+      }
+    } finally {
+      rafData.close();
+    }
+  }
+
   public static class DataRecord implements Comparable<DataRecord> {
     int resultIndex; // index into the result array
     final GribCollectionImmutable.Record record;
@@ -369,6 +549,7 @@ public abstract class GribDataReader {
 
   public static class DataReceiver implements DataReceiverIF {
     private Array dataArray;
+    private final float[] storage; // of dataArray
     private final RangeIterator yRange;
     private final RangeIterator xRange;
     private final int horizSize;
@@ -384,14 +565,22 @@ public abstract class GribDataReader {
             Throwables.getStackTraceAsString(new Throwable()));
         throw new IllegalArgumentException("RequestTooLarge: Len greater that 100M ");
       }
-      float[] data = new float[(int) len];
-      Arrays.fill(data, Float.NaN); // prefill primitive array
-      dataArray = Array.factory(DataType.FLOAT, shape, data);
+      storage = new float[(int) len];
+      Arrays.fill(storage, Float.NaN); // prefill primitive array
+      dataArray = Array.factory(DataType.FLOAT, shape, storage);
     }
 
     @Override
     public void addData(float[] data, int resultIndex, int nx) {
       int start = resultIndex * horizSize;
+      if (yRange instanceof Range && xRange instanceof Range) {
+        Range y = (Range) yRange;
+        Range x = (Range) xRange;
+        StridedCopy.copy(data, y.first() * nx + x.first(), new int[] {y.stride() * nx, x.stride()}, storage, start,
+            new int[] {x.length(), 1}, new int[] {y.length(), x.length()});
+        return;
+      }
+
       int count = 0;
       for (int y : yRange) {
         for (int x : xRange) {
@@ -405,8 +594,7 @@ public abstract class GribDataReader {
     // optimization
     @Override
     public void setDataToZero() {
-      float[] data = (float[]) dataArray.get1DJavaArray(dataArray.getDataType());
-      Arrays.fill(data, 0.0f);
+      Arrays.fill(storage, 0.0f);
     }
 
     @Override
@@ -460,8 +648,9 @@ public abstract class GribDataReader {
   private static class Grib2DataReader extends GribDataReader {
     private final Grib2Tables cust;
 
-    Grib2DataReader(GribCollectionImmutable gribCollection, GribCollectionImmutable.VariableIndex vindex) {
-      super(gribCollection, vindex);
+    Grib2DataReader(GribCollectionImmutable gribCollection, GribCollectionImmutable.VariableIndex vindex,
+        int parallelism) {
+      super(gribCollection, vindex, parallelism);
       this.cust = (Grib2Tables) gribCollection.cust;
     }
 
@@ -496,8 +685,9 @@ public abstract class GribDataReader {
   private static class Grib1DataReader extends GribDataReader {
     private final Grib1Customizer cust;
 
-    Grib1DataReader(GribCollectionImmutable gribCollection, GribCollectionImmutable.VariableIndex vindex) {
-      super(gribCollection, vindex);
+    Grib1DataReader(GribCollectionImmutable gribCollection, GribCollectionImmutable.VariableIndex vindex,
+        int parallelism) {
+      super(gribCollection, vindex, parallelism);
       this.cust = (Grib1Customizer) gribCollection.cust;
     }
 
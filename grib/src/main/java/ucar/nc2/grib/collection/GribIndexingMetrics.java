@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.grib.collection;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Progress and throughput of GRIB collection indexing, summed over all collections indexed in this JVM since the
+ * last {@link #reset}. Updated concurrently by the indexing threads; each getter is a snapshot.
+ *
+ * @see GribCdmIndex#getIndexingMetrics()
+ */
+@ThreadSafe
+public class GribIndexingMetrics {
+  private final LongAdder filesQueued = new LongAdder();
+  private final LongAdder filesIndexed = new LongAdder();
+  private final LongAdder filesFailed = new LongAdder();
+  private final LongAdder records = new LongAdder();
+  private final LongAdder bytes = new LongAdder();
+  private final LongAdder indexNanos = new LongAdder();
+  private final LongAdder collections = new LongAdder();
+  private final LongAdder partitions = new LongAdder();
+  private volatile long startNanos = System.nanoTime();
+
+  GribIndexingMetrics() {}
+
+  void fileQueued() {
+    filesQueued.increment();
+  }
+
+  void fileIndexed(long length, int nrecords, long nanos) {
+    filesIndexed.increment();
+    bytes.add(length);
+    records.add(nrecords);
+    indexNanos.add(nanos);
+  }
+
+  void fileFailed(long nanos) {
+    filesFailed.increment();
+    indexNanos.add(nanos);
+  }
+
+  void collectionWritten() {
+    collections.increment();
+  }
+
+  void partitionWritten() {
+    partitions.increment();
+  }
+
+  /** Number of data files whose gbx9 index has been asked for. */
+  public long getFilesQueued() {
+    return filesQueued.sum();
+  }
+
+  /** Number of data files whose gbx9 index has been read or created. */
+  public long getFilesIndexed() {
+    return filesIndexed.sum();
+  }
+
+  /** Number of data files whose gbx9 index could not be read or created. */
+  public long getFilesFailed() {
+    return filesFailed.sum();
+  }
+
+  /** Number of data files queued but not yet indexed or failed. */
+  public long getFilesPending() {
+    return Math.max(0, getFilesQueued() - getFilesIndexed() - getFilesFailed());
+  }
+
+  /** Number of GRIB records in the indexed files. */
+  public long getRecords() {
+    return records.sum();
+  }
+
+  /** Total length in bytes of the indexed data files. */
+  public long getBytes() {
+    return bytes.sum();
+  }
+
+  /** Number of ncx4 collection indexes written, not counting partitions. */
+  public long getCollectionsWritten() {
+    return collections.sum();
+  }
+
+  /** Number of ncx4 partition indexes written. */
+  public long getPartitionsWritten() {
+    return partitions.sum();
+  }
+
+  /** Wall clock time since these metrics were created or reset. */
+  public long getElapsed(TimeUnit unit) {
+    return unit.convert(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Time spent reading or creating gbx9 indexes, summed over all indexing threads. Divided by the elapsed time, this
+   * is the average number of threads that were busy indexing.
+   */
+  public long getIndexTime(TimeUnit unit) {
+    return unit.convert(indexNanos.sum(), TimeUnit.NANOSECONDS);
+  }
+
+  /** Data files indexed per second of wall clock time. */
+  public double getFilesPerSecond() {
+    return perSecond(getFilesIndexed());
+  }
+
+  /** Megabytes of data files indexed per second of wall clock time. */
+  public double getMegabytesPerSecond() {
+    return perSecond(getBytes()) / (1024 * 1024);
+  }
+
+  private double perSecond(long count) {
+    long nanos = System.nanoTime() - startNanos;
+    return nanos <= 0 ? 0.0 : count * 1.0e9 / nanos;
+  }
+
+  /** Set all counts to zero, and restart the elapsed time. */
+  public void reset() {
+    filesQueued.reset();
+    filesIndexed.reset();
+    filesFailed.reset();
+    records.reset();
+    bytes.reset();
+    indexNanos.reset();
+    collections.reset();
+    partitions.reset();
+    startNanos = System.nanoTime();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "files indexed=%d failed=%d pending=%d records=%d MB=%.1f collections=%d partitions=%d"
+            + " elapsed=%d msecs (%.1f files/sec, %.1f MB/sec)",
+        getFilesIndexed(), getFilesFailed(), getFilesPending(), getRecords(), getBytes() / (1024.0 * 1024),
+        getCollectionsWritten(), getPartitionsWritten(), getElapsed(TimeUnit.MILLISECONDS), getFilesPerSecond(),
+        getMegabytesPerSecond());
+  }
+}
@@ -8,6 +8,7 @@ package ucar.nc2.grib.grib2;
 import javax.annotation.Nullable;
 import ucar.nc2.grib.GribNumbers;
 import ucar.unidata.io.KMPMatch;
+import ucar.unidata.io.MessageFinder;
 import ucar.unidata.io.RandomAccessFile;
 import ucar.unidata.util.StringUtil2;
 import java.io.IOException;
@@ -22,7 +23,9 @@ import java.util.Map;
  */
 public class Grib2RecordScanner {
   private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(Grib2RecordScanner.class);
-  private static final KMPMatch matcher = new KMPMatch(new byte[] {'G', 'R', 'I', 'B'});
+  private static final byte[] magic = {'G', 'R', 'I', 'B'};
+  private static final byte[] ending = {'7', '7', '7', '7'};
+  private static final KMPMatch matcher = new KMPMatch(magic);
   private static final boolean debug = false;
   private static final boolean debugRepeat = false;
   private static final boolean debugEnding = false;
@@ -82,6 +85,7 @@ public class Grib2RecordScanner {
 
   private final Map<Long, Grib2SectionGridDefinition> gdsMap = new HashMap<>();
   private final ucar.unidata.io.RandomAccessFile raf;
+  private final Finder finder;
 
   private byte[] header;
   private int badEndings;
@@ -94,6 +98,7 @@ public class Grib2RecordScanner {
 
   public Grib2RecordScanner(RandomAccessFile raf) throws IOException {
     this.raf = raf;
+    this.finder = new Finder(raf);
     raf.seek(0);
     raf.order(RandomAccessFile.BIG_ENDIAN);
     lastPos = 0;
@@ -104,6 +109,7 @@ public class Grib2RecordScanner {
 
   private Grib2RecordScanner(RandomAccessFile raf, long startFrom) throws IOException {
     this.raf = raf;
+    this.finder = new Finder(raf);
     raf.seek(startFrom);
     raf.order(RandomAccessFile.BIG_ENDIAN);
     lastPos = startFrom;
@@ -121,26 +127,11 @@ public class Grib2RecordScanner {
       // fall through to new record
     }
 
-    boolean more;
-    long gribStart = 0;
-
-    while (true) { // scan until we get a GRIB-2 or more == false
-      raf.seek(lastPos);
-      more = raf.searchForward(matcher, -1); // will scan to end for a 'GRIB' string
-      if (!more)
-        break;
-
-      gribStart = raf.getFilePointer(); // this is where the next 'GRIB' starts
-      // see if its GRIB-2
-      raf.skipBytes(7);
-      int edition = raf.read();
-      if (edition == 2)
-        break;
-      lastPos = raf.getFilePointer(); // not edition 2 ! just skip it !! start scanning from there
-      logger.warn("GRIB message at pos=" + gribStart + " not GRIB2; skip");
-    }
-
+    // scan to end for a 'GRIB' string, skipping any that are not edition 2
+    boolean more = finder.find(lastPos);
     if (more) {
+      long gribStart = finder.getStart(); // this is where the next 'GRIB' starts
+      lastPos = Math.max(lastPos, finder.skipped); // dont include a skipped message in the header
       int sizeHeader = (int) (gribStart - lastPos); // wmo headers are embedded between records in some idd streams
       if (debugEnding)
         logger.debug("bytes between last and next={}", sizeHeader);
@@ -148,8 +139,7 @@ public class Grib2RecordScanner {
         sizeHeader = 100; // maximum 100 bytes; more is likely to be garbage
       long goBack = gribStart - sizeHeader;
       header = new byte[sizeHeader];
-      raf.seek(goBack);
-      raf.readFully(header);
+      finder.copy(goBack, header, 0, sizeHeader);
       raf.seek(gribStart);
       this.lastPos = gribStart; // ok start from here next time
     }
@@ -207,27 +197,22 @@ public class Grib2RecordScanner {
             StringUtil2.cleanup(header));
 
       // check that end section is correct
-      boolean foundEnding = true;
-      raf.seek(ending - 4);
-      for (int i = 0; i < 4; i++) {
-        if (raf.read() != 55) {
-          foundEnding = false;
-          badEndings++;
-          // String clean = StringUtil2.cleanup(header);
-          // if (clean.length() > 40) clean = clean.substring(0,40) + "...";
-          if (debug)
-            logger.debug(" **missing End of GRIB message at pos={} start= {}", ending, is.getStartPos());
-          logger.warn("Missing End of GRIB message {} starting at pos={} is.ending={} data.ending={} file={}",
-              badEndings, is.getStartPos(), ending, dataSection.getEndingPosition(), raf.getLocation());
-          break;
-        }
+      boolean foundEnding = finder.matches(ending - 4, Grib2RecordScanner.ending);
+      if (!foundEnding) {
+        badEndings++;
+        // String clean = StringUtil2.cleanup(header);
+        // if (clean.length() > 40) clean = clean.substring(0,40) + "...";
+        if (debug)
+          logger.debug(" **missing End of GRIB message at pos={} start= {}", ending, is.getStartPos());
+        logger.warn("Missing End of GRIB message {} starting at pos={} is.ending={} data.ending={} file={}",
+            badEndings, is.getStartPos(), ending, dataSection.getEndingPosition(), raf.getLocation());
       }
       if (debug)
         logger.debug(" read until {} grib ending at {} header ='{}' foundEnding={}", raf.getFilePointer(), ending,
             StringUtil2.cleanup(header), foundEnding);
 
       if (foundEnding || debugEnding) {
-        lastPos = raf.getFilePointer();
+        lastPos = ending;
         return new Grib2Record(header, is, ids, lus, gds, pds, drs, bms, dataSection, false,
             Grib2Index.ScanModeMissing);
 
@@ -354,4 +339,28 @@ public class Grib2RecordScanner {
     repeatPos = -1; // no more repeats in this record
     return true;
   }
+
+  // finds the start of each GRIB-2 message, parsing the indicator section in the raf buffer
+  private static class Finder extends MessageFinder {
+    private long skipped; // end of the indicator of the last message that was not edition 2
+
+    Finder(RandomAccessFile raf) {
+      super(raf, magic, 16, DEFAULT_BLOCK_SIZE);
+    }
+
+    @Override
+    protected long parseIndicator(byte[] buffer, int offset) {
+      int edition = buffer[offset + 7];
+      if (edition != 2) { // not edition 2 ! just skip it !!
+        skipped = positionOf(offset) + 8;
+        logger.warn("GRIB message at pos=" + positionOf(offset) + " not GRIB2; skip");
+        return -1;
+      }
+      long length = buffer[offset + 8] & 0x7f; // the sign bit of a negative length is ignored
+      for (int i = 9; i < 16; i++)
+        length = (length << 8) | (buffer[offset + i] & 0xff);
+      return length;
+    }
+  }
+
 }
@@ -51,8 +51,9 @@ public class Grib2Tables implements ucar.nc2.grib.GribTables, TimeUnitConverter
         ids.getLocal_table_version(), pds.getGenProcessId());
   }
 
-  // Lazy instantiation.
-  public static Grib2Tables factory(int center, int subCenter, int masterVersion, int localVersion, int genProcessId) {
+  // Lazy instantiation. Synchronized since collections may be indexed on several threads.
+  public static synchronized Grib2Tables factory(int center, int subCenter, int masterVersion, int localVersion,
+      int genProcessId) {
     Grib2TablesId id = new Grib2TablesId(center, subCenter, masterVersion, localVersion, genProcessId);
     Grib2Tables cust = tables.get(id);
     if (cust != null) {
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+package ucar.nc2.grib;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Variable;
+import ucar.unidata.io.MMapRandomAccessFile;
+
+/** Open GRIB files through MMapRandomAccessFile, whose isValidFile searches the mapping, not a buffer. */
+@RunWith(Parameterized.class)
+public class TestGribMMapOpen {
+
+  @Parameters(name = "{0}")
+  public static List<Object[]> getTestParameters() {
+    List<Object[]> result = new ArrayList<>();
+    result.add(new Object[] {"../grib/src/test/data/GFS_Global_onedeg_20220627_0000.TotalPrecip.Out48hrs.grib2"});
+    result.add(new Object[] {"../grib/src/test/data/HPPI89_KWBC.grib1"});
+    result.add(new Object[] {"../grib/src/test/data/single_point_gds.grib1"});
+    return result;
+  }
+
+  private final String filename;
+
+  public TestGribMMapOpen(String filename) {
+    this.filename = filename;
+  }
+
+  @Test
+  public void shouldReadLikeRandomAccessFile() throws IOException {
+    try (NetcdfFile buffered = NetcdfFiles.open(filename);
+        NetcdfFile mmap = NetcdfFiles.open(MMapRandomAccessFile.PREFIX + filename)) {
+      assertThat(mmap.getIosp().getClass()).isEqualTo(buffered.getIosp().getClass());
+      for (Variable v : buffered.getVariables()) {
+        Variable mv = mmap.findVariable(v.getFullNameEscaped());
+        assertThat(mv).isNotNull();
+        assertThat(mv.read().copyTo1DJavaArray()).isEqualTo(v.read().copyTo1DJavaArray());
+      }
+    }
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 1998-2021 University Corporation for Atmospheric Research/Unidata
+ * See LICENSE for license information.
+ */
+
+package ucar.nc2.grib.collection;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import thredds.featurecollection.FeatureCollectionConfig;
+import thredds.featurecollection.FeatureCollectionType;
+import thredds.inventory.CollectionUpdateType;
+
+/** Compare GRIB collection indexes written serially and in parallel. */
+public class TestGribCollectionIndexing {
+  private static final Logger logger = LoggerFactory.getLogger(TestGribCollectionIndexing.class);
+
+  private static final String[] dataFiles = {"ds.sky.grib2", "ds.snow.grib2", "sref.pds2.grib2", "sref_eta.grib2"};
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @After
+  public void resetParallelism() {
+    GribCdmIndex.setDefaultIndexParallelism(1);
+  }
+
+  @Test
+  public void shouldWriteSameDirectoryCollection() throws IOException {
+    File dir = copyDataFiles();
+    Map<String, byte[]> serial = makeIndexes(dir, "directory", 1);
+    Map<String, byte[]> parallel = makeIndexes(dir, "directory", 4);
+
+    assertThat(serial).isNotEmpty();
+    assertThat(parallel.keySet()).isEqualTo(serial.keySet());
+    for (String name : serial.keySet()) {
+      assertThat(Arrays.equals(parallel.get(name), serial.get(name))).isTrue();
+    }
+  }
+
+  @Test
+  public void shouldWriteSameFilePartition() throws IOException {
+    File dir = copyDataFiles();
+    Map<String, byte[]> serial = makeIndexes(dir, "file", 1);
+    Map<String, byte[]> parallel = makeIndexes(dir, "file", 4);
+
+    assertThat(parallel.keySet()).isEqualTo(serial.keySet());
+    for (String dataFile : dataFiles) { // one index for each file
+      String name = dataFile + GribCdmIndex.NCX_SUFFIX;
+      assertThat(serial).containsKey(name);
+      assertThat(Arrays.equals(parallel.get(name), serial.get(name))).isTrue();
+    }
+    // the partition index records when its children were written, so is not compared byte for byte
+  }
+
+  @Test
+  public void shouldCountIndexedFiles() throws IOException {
+    File dir = copyDataFiles();
+    GribIndexingMetrics metrics = GribCdmIndex.getIndexingMetrics();
+    long indexed = metrics.getFilesIndexed();
+    long collections = metrics.getCollectionsWritten();
+
+    makeIndexes(dir, "directory", 3);
+    assertThat(metrics.getFilesIndexed() - indexed).isEqualTo(dataFiles.length);
+    assertThat(metrics.getCollectionsWritten() - collections).isEqualTo(1);
+    assertThat(metrics.getFilesPending()).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldConfigureParallelism() {
+    FeatureCollectionConfig config = new FeatureCollectionConfig();
+    assertThat(GribCdmIndex.getIndexParallelism(config)).isEqualTo(1);
+    GribCdmIndex.setDefaultIndexParallelism(2);
+    assertThat(GribCdmIndex.getIndexParallelism(config)).isEqualTo(2);
+
+    assertThat(config.gribConfig.setOption("indexParallelism", "6")).isTrue();
+    assertThat(GribCdmIndex.getIndexParallelism(config)).isEqualTo(6);
+    assertThat(config.gribConfig.setOption("indexParallelism", "many")).isFalse();
+    assertThat(config.gribConfig.indexParallelism).isEqualTo(6);
+
+    assertThrows(IllegalArgumentException.class, () -> GribCdmIndex.setDefaultIndexParallelism(0));
+  }
+
+  private File copyDataFiles() throws IOException {
+    File dir = tempFolder.newFolder("data");
+    for (String dataFile : dataFiles) {
+      Files.copy(new File("../grib/src/test/data/" + dataFile).toPath(), new File(dir, dataFile).toPath(),
+          StandardCopyOption.COPY_ATTRIBUTES);
+    }
+    return dir;
+  }
+
+  // remove the gbx9 and ncx4 indexes, so that all are rewritten, then return the new ncx4 indexes
+  private Map<String, byte[]> makeIndexes(File dir, String partitionType, int parallelism) throws IOException {
+    for (File f : dir.listFiles()) {
+      if (f.getName().endsWith(".gbx9") || f.getName().endsWith(GribCdmIndex.NCX_SUFFIX))
+        assertThat(f.delete()).isTrue();
+    }
+
+    FeatureCollectionConfig config = new FeatureCollectionConfig("TestGribCollectionIndexing", "test/indexing",
+        FeatureCollectionType.GRIB2, dir.getPath() + "/.*grib2$", null, null, null, partitionType, null);
+    config.gribConfig.setOption("indexParallelism", Integer.toString(parallelism));
+    GribCdmIndex.updateGribCollection(config, CollectionUpdateType.always, logger);
+
+    Map<String, byte[]> result = new TreeMap<>();
+    for (File f : dir.listFiles()) {
+      if (f.getName().endsWith(GribCdmIndex.NCX_SUFFIX))
+        result.put(f.getName(), Files.readAllBytes(f.toPath()));
+    }
+    return result;
+  }
+}
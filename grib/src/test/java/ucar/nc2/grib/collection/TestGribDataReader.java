@@ -0,0 +1,75 @@
+package ucar.nc2.grib.collection;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFiles;
+import ucar.nc2.Variable;
+
+/** Compare serial and parallel reads of GRIB records. */
+@RunWith(Parameterized.class)
+public class TestGribDataReader {
+
+  @Parameters(name = "{0}")
+  public static List<Object[]> getTestParameters() {
+    List<Object[]> result = new ArrayList<>();
+    result.add(new Object[] {"../grib/src/test/data/berkes.grib2"});
+    result.add(new Object[] {"../grib/src/test/data/GFS_Global_onedeg_20220627_0000.TotalPrecip.Out48hrs.grib2"});
+    result.add(new Object[] {"../grib/src/test/data/single_point_gds.grib1"});
+    return result;
+  }
+
+  private final String filename;
+
+  public TestGribDataReader(String filename) {
+    this.filename = filename;
+  }
+
+  @After
+  public void resetParallelism() {
+    GribDataReader.setDefaultParallelism(1);
+  }
+
+  @Test
+  public void shouldReadSameInParallel() throws IOException {
+    List<float[]> serial = readDataVariables(1);
+    List<float[]> parallel = readDataVariables(4);
+    assertThat(serial).isNotEmpty();
+    assertThat(parallel.size()).isEqualTo(serial.size());
+    for (int i = 0; i < serial.size(); i++) {
+      // bit for bit, including the NaNs of missing records
+      assertThat(Arrays.equals(parallel.get(i), serial.get(i))).isTrue();
+    }
+  }
+
+  @Test
+  public void shouldRejectBadParallelism() {
+    assertThrows(IllegalArgumentException.class, () -> GribDataReader.setDefaultParallelism(0));
+  }
+
+  private List<float[]> readDataVariables(int parallelism) throws IOException {
+    GribDataReader.setDefaultParallelism(parallelism);
+    List<float[]> result = new ArrayList<>();
+    try (NetcdfFile ncfile = NetcdfFiles.open(filename)) {
+      for (Variable v : ncfile.getVariables()) {
+        if (v.getDataType() != DataType.FLOAT || v.getRank() < 3)
+          continue;
+        Array data = v.read();
+        result.add((float[]) data.get1DJavaArray(DataType.FLOAT));
+      }
+    }
+    return result;
+  }
+}
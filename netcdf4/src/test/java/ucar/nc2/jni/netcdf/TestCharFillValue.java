@@ -59,7 +59,8 @@ public class TestCharFillValue extends UnitTestCommon {
     logger.info("*** Test Non-Null Character Fill Value");
 
     String filename = tempFolder.newFile().getAbsolutePath();
-    NetcdfFormatWriter.Builder writerb = NetcdfFormatWriter.createNewNetcdf4(NetcdfFileFormat.NETCDF4, filename, null);
+    NetcdfFormatWriter.Builder writerb =
+        NetcdfFormatWriter.createNewNetcdf4(NetcdfFileFormat.NETCDF4, filename, null).setUseJna(true);
     Dimension charDim = writerb.addDimension("charDim", 3);
     Variable.Builder charVar = writerb.addVariable(charVarName, DataType.CHAR, charDim.getName());
     // this works
@@ -103,7 +104,8 @@ public class TestCharFillValue extends UnitTestCommon {
     logger.info("\n*** Test Null Character Fill Value");
 
     String filename = tempFolder.newFile().getAbsolutePath();
-    NetcdfFormatWriter.Builder writerb = NetcdfFormatWriter.createNewNetcdf4(NetcdfFileFormat.NETCDF4, filename, null);
+    NetcdfFormatWriter.Builder writerb =
+        NetcdfFormatWriter.createNewNetcdf4(NetcdfFileFormat.NETCDF4, filename, null).setUseJna(true);
 
     Dimension charDim = writerb.addDimension("charDim", 3);
     Variable.Builder charVar = writerb.addVariable(charVarName, DataType.CHAR, charDim.getName());
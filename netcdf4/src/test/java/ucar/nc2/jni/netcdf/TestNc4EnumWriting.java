@@ -60,7 +60,8 @@ public class TestNc4EnumWriting {
     // File outFile = File.createTempFile("writeEnumType", ".nc");
     String filenameOut = "C:/temp/writeEnumType.nc4";
     NetcdfFormatWriter.Builder writerb =
-        NetcdfFormatWriter.createNewNetcdf4(NetcdfFileFormat.NETCDF4, filenameOut, new Nc4ChunkingStrategyNone());
+        NetcdfFormatWriter.createNewNetcdf4(NetcdfFileFormat.NETCDF4, filenameOut, new Nc4ChunkingStrategyNone())
+            .setUseJna(true);
 
     // Create shared, unlimited Dimension
     Dimension timeDim = new Dimension("time", 3, true, true, false);
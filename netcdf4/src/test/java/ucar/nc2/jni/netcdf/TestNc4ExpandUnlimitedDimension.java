@@ -47,7 +47,7 @@ public class TestNc4ExpandUnlimitedDimension {
   public void expandUnlimitedDimensions() throws IOException, InvalidRangeException {
     File outFile = tempFolder.newFile();
     NetcdfFormatWriter.Builder writerb = NetcdfFormatWriter.createNewNetcdf4(NetcdfFileFormat.NETCDF4,
-        outFile.getAbsolutePath(), new Nc4ChunkingStrategyNone());
+        outFile.getAbsolutePath(), new Nc4ChunkingStrategyNone()).setUseJna(true);
 
     writerb.addDimension(Dimension.builder().setName("row").setIsUnlimited(true).build());
     writerb.addDimension(Dimension.builder().setName("col").setIsUnlimited(true).build());
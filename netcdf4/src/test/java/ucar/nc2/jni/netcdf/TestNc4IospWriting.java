@@ -209,7 +209,7 @@ public class TestNc4IospWriting {
     String filename = tempFolder.newFile().getAbsolutePath();
 
     NetcdfFormatWriter.Builder writerb =
-        NetcdfFormatWriter.createNewNetcdf4(NetcdfFileFormat.NETCDF4, filename, null).setFill(false);
+        NetcdfFormatWriter.createNewNetcdf4(NetcdfFileFormat.NETCDF4, filename, null).setFill(false).setUseJna(true);
     writerb.addUnlimitedDimension("time");
     writerb.addVariable("time", DataType.INT, "time");
 